@@ -0,0 +1,58 @@
+package com.xceptance.xlt.visualassertion;
+
+import java.util.Random;
+
+import org.openqa.selenium.Capabilities;
+import org.openqa.selenium.OutputType;
+import org.openqa.selenium.Platform;
+import org.openqa.selenium.remote.DesiredCapabilities;
+import org.openqa.selenium.remote.RemoteWebDriver;
+
+/**
+ * A web driver without a browser, which serves canned PNG screenshots. With the given change rate it serves the
+ * changed screenshot instead of the unchanged one, so a part of the assertions fails as if the page changed. Only the
+ * capabilities and the screenshots are implemented, which is all the visual assertion asks for.
+ */
+public class StubWebDriver extends RemoteWebDriver
+{
+    private static final Capabilities CAPABILITIES = new DesiredCapabilities("stub", "1.0", Platform.ANY);
+
+    private final byte[] screenshot;
+
+    private final byte[] changedScreenshot;
+
+    private final double changeRate;
+
+    private final Random random;
+
+    /**
+     * Creates a web driver that serves the given screenshots
+     * @param screenshot The PNG bytes of the unchanged screenshot
+     * @param changedScreenshot The PNG bytes of the changed screenshot
+     * @param changeRate The fraction of screenshots that are changed [0-1]
+     * @param seed The seed of the random changes
+     */
+    public StubWebDriver(final byte[] screenshot, final byte[] changedScreenshot, final double changeRate,
+                         final long seed)
+    {
+        this.screenshot = screenshot;
+        this.changedScreenshot = changedScreenshot;
+        this.changeRate = changeRate;
+        this.random = new Random(seed);
+    }
+
+    @Override
+    public Capabilities getCapabilities()
+    {
+        return CAPABILITIES;
+    }
+
+    @Override
+    public <X> X getScreenshotAs(final OutputType<X> outputType)
+    {
+        final byte[] bytes = random.nextDouble() < changeRate ? changedScreenshot : screenshot;
+
+        // every call gets its own copy, as from a real browser
+        return outputType.convertFromPngBytes(bytes.clone());
+    }
+}
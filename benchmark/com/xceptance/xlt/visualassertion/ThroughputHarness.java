@@ -0,0 +1,362 @@
+package com.xceptance.xlt.visualassertion;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.imageio.ImageIO;
+
+import com.xceptance.xlt.api.engine.Session;
+import com.xceptance.xlt.api.util.XltProperties;
+import com.xceptance.xlt.visualassertion.util.BenchmarkImages;
+import com.xceptance.xlt.visualassertion.util.BenchmarkImages.Density;
+import com.xceptance.xlt.visualassertion.util.BenchmarkImages.Size;
+
+/**
+ * Runs simulated virtual users through {@link VisualAssertion#execute(org.openqa.selenium.WebDriver, String...)} in
+ * parallel to find out how many assertions an agent can take. Every user gets a {@link StubWebDriver} that serves
+ * canned screenshots, everything else is real: the properties, the directories, reading the reference images and
+ * masks and writing the results into a temporary result directory. Every iteration of a user runs in a new thread
+ * group, so it gets a new session and starts with the first screenshot again, as in a load test.
+ * <p>
+ * Before the measurement one iteration creates the reference images. Afterwards the harness reports the assertions
+ * per second, the latency percentiles of a single assertion, the allocation rate and the bytes written. The waiting
+ * time before the screenshot is 0 by default, so the harness measures the assertion itself.
+ * <p>
+ * Usage: ThroughputHarness [-users n] [-iterations n] [-actions n] [-changeRate 0-1] [-size viewport|full_page|uhd]
+ * [-wait ms] [-screenshot png -changedScreenshot png]
+ */
+public class ThroughputHarness
+{
+    private final static String PREFIX = "com.xceptance.xlt.visualassertion.";
+
+    private int users = 10;
+
+    private int iterations = 20;
+
+    private int actions = 5;
+
+    private double changeRate = 0.1;
+
+    private Size size = Size.VIEWPORT;
+
+    private int waitingTime = 0;
+
+    private File screenshotFile;
+
+    private File changedScreenshotFile;
+
+    // the assertions that failed because the screenshot was changed
+    private final AtomicInteger failures = new AtomicInteger();
+
+    // the bytes allocated by the threads of the iterations
+    private final AtomicLong allocatedBytes = new AtomicLong();
+
+    /**
+     * Runs the harness and prints the results
+     * @param args The options, see the class comment
+     */
+    public static void main(final String[] args)
+    {
+        final ThroughputHarness harness = new ThroughputHarness();
+        try
+        {
+            harness.parse(args);
+        }
+        catch (final IllegalArgumentException e)
+        {
+            System.err.println(e.getMessage());
+            System.err.println("Usage: ThroughputHarness [-users n] [-iterations n] [-actions n] [-changeRate 0-1] "
+                               + "[-size viewport|full_page|uhd] [-wait ms] [-screenshot png -changedScreenshot png]");
+            System.exit(1);
+        }
+
+        try
+        {
+            harness.run();
+        }
+        catch (final IOException | InterruptedException e)
+        {
+            System.err.println("The harness failed: " + e);
+            System.exit(1);
+        }
+    }
+
+    private void parse(final String[] args)
+    {
+        final Map<String, String> options = new HashMap<>();
+        for (int i = 0; i < args.length; i += 2)
+        {
+            if (!args[i].startsWith("-") || i + 1 == args.length)
+            {
+                throw new IllegalArgumentException("Invalid option: " + args[i]);
+            }
+            options.put(args[i].substring(1), args[i + 1]);
+        }
+
+        try
+        {
+            for (final Map.Entry<String, String> option : options.entrySet())
+            {
+                final String value = option.getValue();
+                switch (option.getKey())
+                {
+                case "users":
+                    users = Integer.parseInt(value);
+                    break;
+                case "iterations":
+                    iterations = Integer.parseInt(value);
+                    break;
+                case "actions":
+                    actions = Integer.parseInt(value);
+                    break;
+                case "changeRate":
+                    changeRate = Double.parseDouble(value);
+                    break;
+                case "size":
+                    size = Size.valueOf(value.trim().toUpperCase());
+                    break;
+                case "wait":
+                    waitingTime = Integer.parseInt(value);
+                    break;
+                case "screenshot":
+                    screenshotFile = new File(value);
+                    break;
+                case "changedScreenshot":
+                    changedScreenshotFile = new File(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: -" + option.getKey());
+                }
+            }
+        }
+        catch (final NumberFormatException e)
+        {
+            throw new IllegalArgumentException("Invalid number: " + e.getMessage());
+        }
+
+        if ((screenshotFile == null) != (changedScreenshotFile == null))
+        {
+            throw new IllegalArgumentException("-screenshot and -changedScreenshot must be given together");
+        }
+    }
+
+    private void run() throws IOException, InterruptedException
+    {
+        // the screenshots the browsers return
+        final byte[] screenshot;
+        final byte[] changedScreenshot;
+        if (screenshotFile != null)
+        {
+            screenshot = Files.readAllBytes(screenshotFile.toPath());
+            changedScreenshot = Files.readAllBytes(changedScreenshotFile.toPath());
+        }
+        else
+        {
+            final BufferedImage page = BenchmarkImages.createPage(size);
+            screenshot = encode(page);
+            changedScreenshot = encode(BenchmarkImages.change(page, Density.SPARSE));
+        }
+
+        final Path resultDirectory = Files.createTempDirectory("visualassertion-throughput");
+        final XltProperties props = XltProperties.getInstance();
+        props.setProperty(PREFIX + "resultDirectory", resultDirectory.toString());
+        props.setProperty(PREFIX + "waitingTime", String.valueOf(waitingTime));
+
+        System.out.println("Results: " + resultDirectory);
+        System.out.println("Users: " + users + ", iterations: " + iterations + ", actions: " + actions
+                           + ", change rate: " + changeRate + ", screenshot: " + screenshot.length + " bytes");
+
+        // create the reference images, which are shared by all users
+        runIteration(new StubWebDriver(screenshot, changedScreenshot, 0, 0), "Warmup", new long[actions], 0);
+        final long baselineBytes = sizeOf(resultDirectory);
+        failures.set(0);
+        allocatedBytes.set(0);
+
+        // the threads that run along, such as the parallel comparison and the background writers, threads that start
+        // later count from 0
+        final Map<Long, Long> otherThreads = allocatedBytesOfLiveThreads();
+
+        final long[][] latencies = new long[users][iterations * actions];
+        final Thread[] userThreads = new Thread[users];
+        final long start = System.nanoTime();
+        for (int u = 0; u < users; u++)
+        {
+            final int user = u;
+            userThreads[u] = new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    final StubWebDriver driver = new StubWebDriver(screenshot, changedScreenshot, changeRate, user);
+                    for (int i = 0; i < iterations; i++)
+                    {
+                        try
+                        {
+                            runIteration(driver, "User-" + user + "-" + i, latencies[user], i * actions);
+                        }
+                        catch (final InterruptedException e)
+                        {
+                            Thread.currentThread().interrupt();
+                            return;
+                        }
+                    }
+                }
+            }, "User-" + u);
+            userThreads[u].start();
+        }
+        for (final Thread userThread : userThreads)
+        {
+            userThread.join();
+        }
+        final long duration = System.nanoTime() - start;
+
+        for (final Map.Entry<Long, Long> thread : allocatedBytesOfLiveThreads().entrySet())
+        {
+            final Long before = otherThreads.get(thread.getKey());
+            allocatedBytes.addAndGet(thread.getValue() - (before == null ? 0 : before));
+        }
+
+        report(latencies, duration, sizeOf(resultDirectory) - baselineBytes);
+    }
+
+    /**
+     * Runs one iteration of a user in a new thread group, i.e. with a new session. At the end the iteration waits for
+     * the result images written in the background, as the session would when it ends.
+     */
+    private void runIteration(final StubWebDriver driver, final String name, final long[] latencies, final int offset)
+        throws InterruptedException
+    {
+        final Thread thread = new Thread(new ThreadGroup(name), new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                final long allocated = allocatedBytes(Thread.currentThread().getId());
+
+                final Session session = Session.getCurrent();
+                final VisualAssertion assertion = new VisualAssertion();
+                for (int a = 0; a < actions; a++)
+                {
+                    session.startAction("Action" + (a + 1));
+                    final long start = System.nanoTime();
+                    try
+                    {
+                        assertion.execute(driver);
+                    }
+                    catch (final AssertionError e)
+                    {
+                        failures.incrementAndGet();
+                    }
+                    latencies[offset + a] = System.nanoTime() - start;
+                    session.stopAction();
+                }
+
+                try
+                {
+                    VisualAssertion.flushArtifacts();
+                }
+                catch (final IOException e)
+                {
+                    System.err.println("Failed to write the result images: " + e.getMessage());
+                }
+
+                allocatedBytes.addAndGet(allocatedBytes(Thread.currentThread().getId()) - allocated);
+            }
+        }, name);
+        thread.start();
+        thread.join();
+    }
+
+    private void report(final long[][] latencies, final long duration, final long bytesWritten)
+    {
+        final int count = users * iterations * actions;
+        final long[] all = new long[count];
+        for (int u = 0; u < users; u++)
+        {
+            System.arraycopy(latencies[u], 0, all, u * iterations * actions, iterations * actions);
+        }
+        Arrays.sort(all);
+
+        final double seconds = duration / 1e9;
+        System.out.println();
+        System.out.println(String.format("Assertions:      %d in %.1f s, %d failed", count, seconds, failures.get()));
+        System.out.println(String.format("Throughput:      %.1f assertions/s", count / seconds));
+        System.out.println(String.format("Latency:         p50 %.1f ms, p90 %.1f ms, p99 %.1f ms, max %.1f ms",
+                                         percentile(all, 0.5), percentile(all, 0.9), percentile(all, 0.99),
+                                         all[count - 1] / 1e6));
+        System.out.println(String.format("Allocation rate: %.1f MB/s, %.1f MB per assertion",
+                                         allocatedBytes.get() / seconds / 1e6, allocatedBytes.get() / 1e6 / count));
+        System.out.println(String.format("Bytes written:   %.1f MB, %.1f MB/s, %.1f KB per assertion",
+                                         bytesWritten / 1e6, bytesWritten / seconds / 1e6,
+                                         bytesWritten / 1e3 / count));
+    }
+
+    private static double percentile(final long[] sorted, final double percentile)
+    {
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(percentile * sorted.length) - 1)] / 1e6;
+    }
+
+    private static byte[] encode(final BufferedImage image) throws IOException
+    {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "PNG", out);
+        return out.toByteArray();
+    }
+
+    /**
+     * Returns the total size of the files below the given directory
+     */
+    private static long sizeOf(final Path directory) throws IOException
+    {
+        final AtomicLong size = new AtomicLong();
+        Files.walkFileTree(directory, new SimpleFileVisitor<Path>()
+        {
+            @Override
+            public FileVisitResult visitFile(final Path file, final BasicFileAttributes attributes)
+            {
+                size.addAndGet(attributes.size());
+                return FileVisitResult.CONTINUE;
+            }
+        });
+
+        return size.get();
+    }
+
+    /**
+     * Returns the bytes allocated by the given thread so far, 0 if the JVM does not measure them
+     */
+    private static long allocatedBytes(final long threadId)
+    {
+        final java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean)
+        {
+            return Math.max(0, ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(threadId));
+        }
+
+        return 0;
+    }
+
+    private static Map<Long, Long> allocatedBytesOfLiveThreads()
+    {
+        final Map<Long, Long> allocated = new HashMap<>();
+        for (final Thread thread : Thread.getAllStackTraces().keySet())
+        {
+            allocated.put(thread.getId(), allocatedBytes(thread.getId()));
+        }
+
+        return allocated;
+    }
+}
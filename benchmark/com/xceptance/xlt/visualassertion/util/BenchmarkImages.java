@@ -0,0 +1,187 @@
+package com.xceptance.xlt.visualassertion.util;
+
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+/**
+ * Creates the synthetic images the benchmarks run on. The page looks roughly like a screenshot of a web page: a
+ * header, lines of text and pictures on a white background. The images are of the type ImageIO decodes a PNG
+ * screenshot to, so the benchmarks include reading the pixels the way the visual assertion does. All images are
+ * created from a fixed seed, so every run compares the same pixels.
+ */
+public class BenchmarkImages
+{
+    /**
+     * The sizes of the screenshots
+     */
+    public enum Size
+    {
+        /** The visible part of the page in a common desktop browser window */
+        VIEWPORT(1366, 768),
+
+        /** A full page screenshot of a long page */
+        FULL_PAGE(1366, 6000),
+
+        /** The visible part of the page on a 4K display */
+        UHD(3840, 2160);
+
+        private final int width;
+
+        private final int height;
+
+        private Size(final int width, final int height)
+        {
+            this.width = width;
+            this.height = height;
+        }
+
+        public int getWidth()
+        {
+            return width;
+        }
+
+        public int getHeight()
+        {
+            return height;
+        }
+    }
+
+    /**
+     * The amount of differences between the reference image and the screenshot
+     */
+    public enum Density
+    {
+        /** The images are equal */
+        NONE,
+
+        /** Some words of the text changed, e.g. prices or dates */
+        SPARSE,
+
+        /** A quarter of all pixels changed, e.g. the page is rendered completely differently */
+        DENSE
+    }
+
+    private static final long SEED = 4711;
+
+    /**
+     * Creates the reference image
+     * @param size The size of the image
+     * @return the image
+     */
+    public static BufferedImage createPage(final Size size)
+    {
+        final int width = size.getWidth();
+        final int height = size.getHeight();
+        final Random random = new Random(SEED);
+
+        final BufferedImage page = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+        final Graphics2D g = page.createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, width, height);
+
+        // header
+        g.setColor(new Color(0x2B4C7E));
+        g.fillRect(0, 0, width, 80);
+
+        // text lines with words of random length and pictures in between
+        final int margin = width / 10;
+        int y = 120;
+        while (y < height - 40)
+        {
+            if (random.nextInt(8) == 0)
+            {
+                final int pictureHeight = Math.min(200 + random.nextInt(200), height - 40 - y);
+                g.setPaint(new GradientPaint(margin, y, new Color(random.nextInt()), width - margin, y + pictureHeight,
+                                             new Color(random.nextInt())));
+                g.fillRect(margin, y, width - 2 * margin, pictureHeight);
+                y += pictureHeight + 20;
+                continue;
+            }
+
+            g.setColor(new Color(0x333333));
+            int x = margin;
+            while (x < width - margin)
+            {
+                final int word = Math.min(10 + random.nextInt(60), width - margin - x);
+                g.fillRect(x, y, word, 14);
+                x += word + 8;
+            }
+            y += 24;
+        }
+        g.dispose();
+
+        return page;
+    }
+
+    /**
+     * Creates a screenshot that differs from the reference image
+     * @param page The reference image
+     * @param density The amount of differences
+     * @return a copy of the reference image with the differences
+     */
+    public static BufferedImage change(final BufferedImage page, final Density density)
+    {
+        final BufferedImage changed = ImageHelper.copyImage(page);
+        final Random random = new Random(SEED + 1);
+        final int width = page.getWidth();
+        final int height = page.getHeight();
+
+        switch (density)
+        {
+        case SPARSE:
+            final Graphics2D g = changed.createGraphics();
+            g.setColor(new Color(0xC0392B));
+            for (int i = 0; i < 20; i++)
+            {
+                g.fillRect(random.nextInt(width - 60), 120 + random.nextInt(height - 160), 60, 14);
+            }
+            g.dispose();
+            break;
+        case DENSE:
+            for (int y = 0; y < height; y++)
+            {
+                for (int x = 0; x < width; x++)
+                {
+                    if (random.nextInt(4) == 0)
+                    {
+                        changed.setRGB(x, y, page.getRGB(x, y) ^ 0x808080);
+                    }
+                }
+            }
+            break;
+        default:
+            break;
+        }
+
+        return changed;
+    }
+
+    /**
+     * Creates a mask image in which the differences between the two images are masked, as the training of the
+     * visual assertion does
+     * @param page The reference image
+     * @param changed The screenshot
+     * @return the mask image, black where the images differ and transparent white elsewhere
+     */
+    public static BufferedImage createMask(final BufferedImage page, final BufferedImage changed)
+    {
+        final int black = ImageHelper.BLACK.getRGB();
+        final int transparent = ImageHelper.WHITE_TRANSPARENT.getRGB();
+        final int width = page.getWidth();
+        final int height = page.getHeight();
+
+        final BufferedImage mask = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        for (int y = 0; y < height; y++)
+        {
+            for (int x = 0; x < width; x++)
+            {
+                mask.setRGB(x, y, page.getRGB(x, y) == changed.getRGB(x, y) ? transparent : black);
+            }
+        }
+
+        return mask;
+    }
+}
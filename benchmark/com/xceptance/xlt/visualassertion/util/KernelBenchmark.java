@@ -0,0 +1,97 @@
+package com.xceptance.xlt.visualassertion.util;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.xceptance.xlt.visualassertion.algorithm.ColorFuzzy;
+import com.xceptance.xlt.visualassertion.algorithm.PixelFuzzy;
+import com.xceptance.xlt.visualassertion.algorithm.SlidingFuzzy;
+
+/**
+ * Measures the comparison kernels of {@link ImageHelper} with their default tolerances, the comparison with a
+ * {@link CompiledBaseline} that is compiled once as in a load test, with and without pre-screening, as well as a whole
+ * comparison through {@link ImageComparison}, which compiles the reference image on every call and creates the result.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class KernelBenchmark
+{
+    private static final ColorFuzzy COLOR_FUZZY = new ColorFuzzy();
+
+    private static final PixelFuzzy PIXEL_FUZZY = new PixelFuzzy();
+
+    private static final SlidingFuzzy SLIDING_FUZZY = new SlidingFuzzy();
+
+    @Benchmark
+    public DifferenceMap exactMatch(final Screenshots images)
+    {
+        return ImageHelper.compareImages(images.reference, images.screenshot);
+    }
+
+    @Benchmark
+    public DifferenceMap colorFuzzy(final Screenshots images)
+    {
+        return ImageHelper.colorFuzzyCompare(images.reference, images.screenshot, COLOR_FUZZY.getColorTolerance());
+    }
+
+    @Benchmark
+    public DifferenceMap pixelFuzzy(final Screenshots images)
+    {
+        return ImageHelper.fuzzyCompare(images.reference, images.screenshot, PIXEL_FUZZY.getColorTolerance(),
+                                        PIXEL_FUZZY.getPixelTolerance(), PIXEL_FUZZY.getFuzzyBlockSize());
+    }
+
+    @Benchmark
+    public DifferenceMap slidingFuzzy(final Screenshots images)
+    {
+        return ImageHelper.slidingFuzzyCompare(images.reference, images.screenshot, SLIDING_FUZZY.getColorTolerance(),
+                                               SLIDING_FUZZY.getPixelTolerance(), SLIDING_FUZZY.getFuzzyBlockSize());
+    }
+
+    @Benchmark
+    public ComparisonResult compiledBaseline(final Screenshots images, final Baseline baseline)
+    {
+        return baseline.baseline.compare(images.screenshot);
+    }
+
+    @Benchmark
+    public boolean imageComparison(final Screenshots images)
+    {
+        return new ImageComparison(images.reference).isEqual(images.screenshot, (BufferedImage) null, PIXEL_FUZZY);
+    }
+
+    /**
+     * The reference image compiled once per size and density, so only the comparison itself is measured
+     */
+    @State(Scope.Benchmark)
+    public static class Baseline
+    {
+        @Param({ "false", "true" })
+        public boolean prescreen;
+
+        /** The compiled reference image */
+        public CompiledBaseline baseline;
+
+        @Setup(Level.Trial)
+        public void setup(final Screenshots images)
+        {
+            baseline = new CompiledBaseline(images.reference, null, PIXEL_FUZZY, prescreen);
+        }
+    }
+}
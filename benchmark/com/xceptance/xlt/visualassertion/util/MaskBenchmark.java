@@ -0,0 +1,47 @@
+package com.xceptance.xlt.visualassertion.util;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the mask operations of {@link ImageHelper} on a mask that covers the differences of the screenshot, as
+ * the training creates it. Closing runs with the default structure element of 5x5 and scaled down as by default as
+ * well as in full resolution.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MaskBenchmark
+{
+    private static final int BLACK = ImageHelper.BLACK.getRGB();
+
+    private static final int TRANSPARENT = ImageHelper.WHITE_TRANSPARENT.getRGB();
+
+    @Benchmark
+    public BufferedImage overlay(final Screenshots images)
+    {
+        return ImageHelper.overlayMaskImage(images.screenshot, images.mask, BLACK);
+    }
+
+    @Benchmark
+    public BufferedImage close(final Screenshots images)
+    {
+        return ImageHelper.closeImage(images.mask, 5, 5, ImageHelper.SCALING_FACTOR, BLACK, TRANSPARENT);
+    }
+
+    @Benchmark
+    public BufferedImage closeFullResolution(final Screenshots images)
+    {
+        return ImageHelper.closeImage(images.mask, 5, 5, 1, BLACK, TRANSPARENT);
+    }
+}
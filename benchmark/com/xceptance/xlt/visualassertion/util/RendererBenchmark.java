@@ -0,0 +1,43 @@
+package com.xceptance.xlt.visualassertion.util;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the images that are written when an assertion fails: the screenshot marked with a marker or with boxes
+ * in the default block size of 10x10 and the difference image.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RendererBenchmark
+{
+    @Benchmark
+    public BufferedImage marker(final Screenshots images)
+    {
+        return ImageHelper.markDifferencesWithAMarker(images.screenshot, images.differences, 10, 10);
+    }
+
+    @Benchmark
+    public BufferedImage boxes(final Screenshots images)
+    {
+        return ImageHelper.markDifferencesWithBoxes(images.screenshot, images.differences, 10, 10);
+    }
+
+    @Benchmark
+    public BufferedImage differenceImage(final Screenshots images)
+    {
+        return new ComparisonResult(images.screenshot, new ImagePair(images.reference, images.screenshot, null),
+                                    images.differences, images.reference.getType(), false, true).getDifferenceImage();
+    }
+}
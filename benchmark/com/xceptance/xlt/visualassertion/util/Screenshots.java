@@ -0,0 +1,46 @@
+package com.xceptance.xlt.visualassertion.util;
+
+import java.awt.image.BufferedImage;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.xceptance.xlt.visualassertion.util.BenchmarkImages.Density;
+import com.xceptance.xlt.visualassertion.util.BenchmarkImages.Size;
+
+/**
+ * The images the benchmarks run on, created once per size and density
+ */
+@State(Scope.Benchmark)
+public class Screenshots
+{
+    @Param({ "VIEWPORT", "FULL_PAGE", "UHD" })
+    public Size size;
+
+    @Param({ "NONE", "SPARSE", "DENSE" })
+    public Density density;
+
+    /** The reference image */
+    public BufferedImage reference;
+
+    /** The screenshot, which differs from the reference image according to the density */
+    public BufferedImage screenshot;
+
+    /** The mask image that masks all differences */
+    public BufferedImage mask;
+
+    /** The differences between the reference image and the screenshot */
+    public DifferenceMap differences;
+
+    @Setup(Level.Trial)
+    public void setup()
+    {
+        reference = BenchmarkImages.createPage(size);
+        screenshot = BenchmarkImages.change(reference, density);
+        mask = BenchmarkImages.createMask(reference, screenshot);
+        differences = ImageHelper.compareImages(reference, screenshot);
+    }
+}
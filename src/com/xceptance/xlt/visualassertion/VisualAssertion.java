@@ -4,7 +4,9 @@ import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.text.MessageFormat;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 
 import javax.imageio.ImageIO;
@@ -17,15 +19,37 @@ import org.openqa.selenium.WebDriver;
 import org.openqa.selenium.remote.RemoteWebDriver;
 
 import com.xceptance.xlt.api.engine.Session;
+import com.xceptance.xlt.api.engine.SessionShutdownListener;
 import com.xceptance.xlt.api.engine.scripting.WebDriverCustomModule;
 import com.xceptance.xlt.api.util.XltProperties;
 import com.xceptance.xlt.visualassertion.algorithm.ColorFuzzy;
 import com.xceptance.xlt.visualassertion.algorithm.ComparisonAlgorithm;
 import com.xceptance.xlt.visualassertion.algorithm.ExactMatch;
 import com.xceptance.xlt.visualassertion.algorithm.PixelFuzzy;
-import com.xceptance.xlt.visualassertion.util.ImageComparison;
+import com.xceptance.xlt.visualassertion.algorithm.SlidingFuzzy;
+import com.xceptance.xlt.visualassertion.jfr.CaptureEvent;
+import com.xceptance.xlt.visualassertion.jfr.DecodeEvent;
+import com.xceptance.xlt.visualassertion.jfr.Events;
+import com.xceptance.xlt.visualassertion.jfr.MaskEvent;
+import com.xceptance.xlt.visualassertion.util.ArtifactWriter;
+import com.xceptance.xlt.visualassertion.util.BaselineFormat;
+import com.xceptance.xlt.visualassertion.util.BinaryMask;
+import com.xceptance.xlt.visualassertion.util.ComparisonResult;
+import com.xceptance.xlt.visualassertion.util.CompiledBaseline;
+import com.xceptance.xlt.visualassertion.util.ContentHash;
+import com.xceptance.xlt.visualassertion.util.DifferenceMap;
+import com.xceptance.xlt.visualassertion.util.ImageCache;
+import com.xceptance.xlt.visualassertion.util.Mask;
 import com.xceptance.xlt.visualassertion.util.MaskImage;
+import com.xceptance.xlt.visualassertion.util.ParallelComparison;
+import com.xceptance.xlt.visualassertion.util.PhaseTimer;
+import com.xceptance.xlt.visualassertion.util.PngRowReader;
+import com.xceptance.xlt.visualassertion.util.PngRowWriter;
+import com.xceptance.xlt.visualassertion.util.RectangleListMask;
 import com.xceptance.xlt.visualassertion.util.RectangleMask;
+import com.xceptance.xlt.visualassertion.util.Retention;
+import com.xceptance.xlt.visualassertion.util.ScreenshotStabilizer;
+import com.xceptance.xlt.visualassertion.util.StreamingComparison;
 
 /**
  * Module for the visual assertion of changes in a browser page. The module is called in an
@@ -46,9 +70,25 @@ public class VisualAssertion implements WebDriverCustomModule
      */
     private static ThreadLocal<Integer> indexCounter = new ThreadLocal<>();
 
+    /**
+     * Writer for the result images of the current session
+     */
+    private static ThreadLocal<ArtifactWriter> artifactWriter = new ThreadLocal<>();
+
+    /**
+     * The session the artifact writer belongs to
+     */
+    private static ThreadLocal<Session> artifactWriterSession = new ThreadLocal<>();
+
     // the property defaults
     private final int WAITINGTIME = 300;
 
+    private final boolean STABILIZATION = false;
+
+    private final int STABILIZATION_INTERVAL = 100;
+
+    private final int STABILIZATION_MAX_WAIT = 3000;
+
     private final String ALL = "all";
 
     private final int MARK_BLOCKSIZE_X = 10;
@@ -67,12 +107,51 @@ public class VisualAssertion implements WebDriverCustomModule
 
     private final int MASK_CLOSE_GAP_HEIGHT = 5;
 
+    private final int MASK_CLOSE_SCALE = 10;
+
+    private final String MASK_FORMAT = "binary";
+
     private final String ALGORITHM = "FUZZY";
 
     private final boolean CREATE_DIFFERENCE_IMAGE = true;
 
     private final boolean TRAININGSMODE = false;
 
+    private final int PARALLEL_THREADS = 1;
+
+    private final boolean FAIL_FAST = false;
+
+    private final String MAX_DIFFERENCES = "0";
+
+    private final int CACHE_SIZE = 100;
+
+    private final boolean PRESCREEN = false;
+
+    private final boolean STREAMING = false;
+
+    private final int STREAMING_BAND_HEIGHT = 512;
+
+    private final int ARTIFACTS_QUEUE_SIZE = 0;
+
+    private final int ARTIFACTS_THREADS = 1;
+
+    private final String ARTIFACTS_POLICY = "block";
+
+    private final String ARTIFACTS_RETENTION = "always";
+
+    private final String ARTIFACTS_SAMPLE_RATE = "0.1";
+
+    private final int PNG_COMPRESSION_LEVEL = 1;
+
+    private final String PNG_FILTER = "sub";
+
+    private final String BASELINE_FORMAT = "png";
+
+    private final boolean TIMERS = true;
+
+    // the prefix of the custom timers and values
+    private final String TIMER_PREFIX = "VisualAssertion.";
+
     private final String RESULT_DIRECTORY = "results" + File.separator + "visualassertion";
 
     // subdirectories
@@ -89,6 +168,10 @@ public class VisualAssertion implements WebDriverCustomModule
 
     public final String PROPERTY_WAITING_TIME = PREFIX + "waitingTime";
 
+    public final String PROPERTY_STABILIZATION = PREFIX + "stabilization";
+    public final String PROPERTY_STABILIZATION_INTERVAL = PREFIX + "stabilization.interval";
+    public final String PROPERTY_STABILIZATION_MAX_WAIT = PREFIX + "stabilization.maxWait";
+
     public final String PROPERTY_MARK_BLOCKSIZE_X = PREFIX + "mark.blocksize.x";
     public final String PROPERTY_MARK_BLOCKSIZE_Y = PREFIX + "mark.blocksize.y";
     public final String PROPERTY_MARK_TYPE = PREFIX + "mark.type";
@@ -100,11 +183,14 @@ public class VisualAssertion implements WebDriverCustomModule
     public final String PROPERTY_ALGORITHM_FUZZY = "FUZZY";
     public final String PROPERTY_ALGORITHM_COLORFUZZY = "COLORFUZZY";
     public final String PROPERTY_ALGORITHM_EXACTMATCH = "EXACT";
+    public final String PROPERTY_ALGORITHM_SLIDINGFUZZY = "SLIDINGFUZZY";
 
     public final String PROPERTY_COLOR_TOLERANCE = PREFIX + "tolerance.colors";
 
     public final String PROPERTY_PIXEL_TOLERANCE = PREFIX + "tolerance.pixels";
 
+    public final String PROPERTY_MAX_DIFFERENCES = PREFIX + "tolerance.differences";
+
     public final String PROPERTY_FUZZY_BLOCKSIZE_XY = PREFIX + "fuzzy.blocksize.xy";
 
     public final String PROPERTY_CREATE_DIFFERENCEIMAGE = PREFIX + "onFailure.createDifferenceImage";
@@ -117,6 +203,42 @@ public class VisualAssertion implements WebDriverCustomModule
 
     public final String PROPERTY_MASK_CLOSE_GAP_HEIGHT = PREFIX + "mask.close.height";
 
+    public final String PROPERTY_MASK_CLOSE_SCALE = PREFIX + "mask.close.scale";
+
+    public final String PROPERTY_MASK_FORMAT = PREFIX + "mask.format";
+    public final String PROPERTY_MASK_FORMAT_BINARY = "binary";
+    public final String PROPERTY_MASK_FORMAT_RECTANGLES = "rectangles";
+
+    public final String PROPERTY_PARALLEL_THREADS = PREFIX + "parallel.threads";
+
+    public final String PROPERTY_FAIL_FAST = PREFIX + "failFast";
+
+    public final String PROPERTY_CACHE_SIZE = PREFIX + "cache.size";
+
+    public final String PROPERTY_PRESCREEN = PREFIX + "prescreen";
+
+    public final String PROPERTY_STREAMING = PREFIX + "streaming";
+
+    public final String PROPERTY_STREAMING_BAND_HEIGHT = PREFIX + "streaming.bandHeight";
+
+    public final String PROPERTY_ARTIFACTS_QUEUE_SIZE = PREFIX + "artifacts.queueSize";
+
+    public final String PROPERTY_ARTIFACTS_THREADS = PREFIX + "artifacts.threads";
+
+    public final String PROPERTY_ARTIFACTS_POLICY = PREFIX + "artifacts.policy";
+
+    public final String PROPERTY_ARTIFACTS_RETENTION = PREFIX + "artifacts.retention";
+
+    public final String PROPERTY_ARTIFACTS_SAMPLE_RATE = PREFIX + "artifacts.sampleRate";
+
+    public final String PROPERTY_PNG_COMPRESSION_LEVEL = PREFIX + "png.compressionLevel";
+
+    public final String PROPERTY_PNG_FILTER = PREFIX + "png.filter";
+
+    public final String PROPERTY_BASELINE_FORMAT = PREFIX + "baseline.format";
+
+    public final String PROPERTY_TIMERS = PREFIX + "timers";
+
     @Override
     public void execute(final WebDriver webdriver, final String... arguments)
     {
@@ -140,6 +262,12 @@ public class VisualAssertion implements WebDriverCustomModule
         // Wait time for the page to load completely
         final int waitTime = props.getProperty(PROPERTY_WAITING_TIME, WAITINGTIME);
 
+        // Flag whether to wait until consecutive screenshots are the same instead of the fixed time, the time between
+        // the screenshots and the maximum time to wait
+        final boolean stabilization = props.getProperty(PROPERTY_STABILIZATION, STABILIZATION);
+        final int stabilizationInterval = props.getProperty(PROPERTY_STABILIZATION_INTERVAL, STABILIZATION_INTERVAL);
+        final int stabilizationMaxWait = props.getProperty(PROPERTY_STABILIZATION_MAX_WAIT, STABILIZATION_MAX_WAIT);
+
         // Block size for the visual marking of differences in the snapshot
         final int markBlockSizeX = props.getProperty(PROPERTY_MARK_BLOCKSIZE_X, MARK_BLOCKSIZE_X);
         final int markBlockSizeY = props.getProperty(PROPERTY_MARK_BLOCKSIZE_Y, MARK_BLOCKSIZE_Y);
@@ -157,6 +285,47 @@ public class VisualAssertion implements WebDriverCustomModule
         final String pixelToleranceValue = props.getProperty(PROPERTY_PIXEL_TOLERANCE, PIXEL_TOLERANCE);
         final double pixelTolerance = Double.parseDouble(pixelToleranceValue);
 
+        // Number of differing pixels that are tolerated in the whole image, either absolute or in percent
+        final String maxDifferencesValue = props.getProperty(PROPERTY_MAX_DIFFERENCES, MAX_DIFFERENCES).trim();
+
+        // Either an absolute number, or a percentage that is applied to the number of compared pixels
+        int maxDifferences = 0;
+        double maxDifferencesPercentage = -1;
+        boolean validMaxDifferences;
+        try
+        {
+            if (maxDifferencesValue.endsWith("%"))
+            {
+                final String percentage = maxDifferencesValue.substring(0, maxDifferencesValue.length() - 1);
+                maxDifferencesPercentage = Double.parseDouble(percentage.trim());
+                validMaxDifferences = maxDifferencesPercentage >= 0 && maxDifferencesPercentage <= 100;
+            }
+            else
+            {
+                maxDifferences = Integer.parseInt(maxDifferencesValue);
+                validMaxDifferences = maxDifferences >= 0;
+            }
+        }
+        catch (final NumberFormatException e)
+        {
+            validMaxDifferences = false;
+        }
+        if (!validMaxDifferences)
+        {
+            Assert.fail(MessageFormat.format("Invalid value ''{0}'' of {1}: use a whole number of pixels (e.g. 500) or a percentage from 0 to 100 (e.g. 0.5%)",
+                                             maxDifferencesValue, PROPERTY_MAX_DIFFERENCES));
+        }
+
+        // Flag whether the comparison stops as soon as the result is known
+        final boolean failFast = props.getProperty(PROPERTY_FAIL_FAST, FAIL_FAST);
+
+        // Flag whether the tiles of the images are pre-screened by their signatures
+        final boolean prescreen = props.getProperty(PROPERTY_PRESCREEN, PRESCREEN);
+
+        // Flag whether the images are decoded and compared band by band, and the number of rows per band
+        final boolean streaming = props.getProperty(PROPERTY_STREAMING, STREAMING);
+        final int streamingBandHeight = props.getProperty(PROPERTY_STREAMING_BAND_HEIGHT, STREAMING_BAND_HEIGHT);
+
         // Flag whether the training mode is enabled
         final boolean trainingsModeEnabled = props.getProperty(PROPERTY_TRAININGSMODE, TRAININGSMODE);
 
@@ -169,6 +338,13 @@ public class VisualAssertion implements WebDriverCustomModule
         // Height of the mask close
         final int closeMaskHeight = props.getProperty(PROPERTY_MASK_CLOSE_GAP_HEIGHT, MASK_CLOSE_GAP_HEIGHT);
 
+        // Scale at which the mask is closed, 1 for full resolution
+        final int closeMaskScale = props.getProperty(PROPERTY_MASK_CLOSE_SCALE, MASK_CLOSE_SCALE);
+
+        // Flag whether masks are kept as lists of rectangles instead of binary masks
+        final boolean rectangleMasks = props.getProperty(PROPERTY_MASK_FORMAT, MASK_FORMAT).trim()
+                                            .equalsIgnoreCase(PROPERTY_MASK_FORMAT_RECTANGLES);
+
         // Flag whether a pixel difference image should be created
         final boolean createDifferenceImage = props.getProperty(PROPERTY_CREATE_DIFFERENCEIMAGE, CREATE_DIFFERENCE_IMAGE);
 
@@ -178,6 +354,63 @@ public class VisualAssertion implements WebDriverCustomModule
         // Identification of the current environment for this test
         final String id = props.getProperty(PROPERTY_ID, ALL);
 
+        // Maximum number of threads a single comparison may use. The pool is shared by the whole agent, so the last
+        // value wins, and it is only replaced when the value changes.
+        final int parallelThreads = props.getProperty(PROPERTY_PARALLEL_THREADS, PARALLEL_THREADS);
+        ParallelComparison.setParallelism(parallelThreads);
+
+        // Memory the decoded reference images and masks may take in the cache, in megabytes
+        final int cacheSize = props.getProperty(PROPERTY_CACHE_SIZE, CACHE_SIZE);
+        ImageCache.setMaxSize(cacheSize * 1024L * 1024L);
+
+        // Number of result images that may wait to be written in the background, the threads that write them and
+        // what happens when the queue is full. Like the parallel comparison, these settings apply to the whole agent.
+        final int artifactsQueueSize = props.getProperty(PROPERTY_ARTIFACTS_QUEUE_SIZE, ARTIFACTS_QUEUE_SIZE);
+        final int artifactsThreads = props.getProperty(PROPERTY_ARTIFACTS_THREADS, ARTIFACTS_THREADS);
+        final String artifactsPolicyValue = props.getProperty(PROPERTY_ARTIFACTS_POLICY, ARTIFACTS_POLICY).trim().toUpperCase();
+        final ArtifactWriter.Policy artifactsPolicy = valueOf(ArtifactWriter.Policy.class, artifactsPolicyValue,
+                                                              PROPERTY_ARTIFACTS_POLICY);
+        ArtifactWriter.configure(artifactsQueueSize, artifactsThreads, artifactsPolicy);
+
+        // Compression level and scanline filter of the written images
+        final int pngCompressionLevel = props.getProperty(PROPERTY_PNG_COMPRESSION_LEVEL, PNG_COMPRESSION_LEVEL);
+        if (pngCompressionLevel < 0 || pngCompressionLevel > 9)
+        {
+            Assert.fail(MessageFormat.format("Invalid value ''{0}'' of {1}: use a compression level from 0 to 9",
+                                             String.valueOf(pngCompressionLevel), PROPERTY_PNG_COMPRESSION_LEVEL));
+        }
+        final String pngFilterValue = props.getProperty(PROPERTY_PNG_FILTER, PNG_FILTER).trim().toUpperCase();
+        final PngRowWriter.Filter pngFilter = valueOf(PngRowWriter.Filter.class, pngFilterValue, PROPERTY_PNG_FILTER);
+        PngRowWriter.configure(pngCompressionLevel, pngFilter);
+
+        // Format new reference images are stored in: png, qoi or raw
+        final String baselineFormatValue = props.getProperty(PROPERTY_BASELINE_FORMAT, BASELINE_FORMAT).trim().toUpperCase();
+        final BaselineFormat baselineFormat = valueOf(BaselineFormat.class, baselineFormatValue, PROPERTY_BASELINE_FORMAT);
+
+        // Report the time of every phase of the assertion and the compared and different pixels to the load test report
+        final boolean timers = props.getProperty(PROPERTY_TIMERS, TIMERS);
+
+        // Which screenshots of passed assertions are kept: all, none or a sampled fraction of them. The screenshots
+        // of failed assertions are always kept.
+        final String retentionValue = props.getProperty(PROPERTY_ARTIFACTS_RETENTION, ARTIFACTS_RETENTION).trim().toUpperCase();
+        final Retention retention = valueOf(Retention.class, retentionValue, PROPERTY_ARTIFACTS_RETENTION);
+        final String sampleRateValue = props.getProperty(PROPERTY_ARTIFACTS_SAMPLE_RATE, ARTIFACTS_SAMPLE_RATE).trim();
+        double sampleRate = -1;
+        try
+        {
+            sampleRate = Double.parseDouble(sampleRateValue);
+        }
+        catch (final NumberFormatException e)
+        {
+            // reported below
+        }
+        if (!(sampleRate >= 0 && sampleRate <= 1))
+        {
+            Assert.fail(MessageFormat.format("Invalid value ''{0}'' of {1}: use a fraction from 0.0 to 1.0 (e.g. 0.1)",
+                                             sampleRateValue, PROPERTY_ARTIFACTS_SAMPLE_RATE));
+        }
+        final boolean keepPassedScreenshot = retention.keep(true, sampleRate, ThreadLocalRandom.current());
+
 
         //--------------------------------------------------------------------------------
         // Get the current environment
@@ -224,8 +457,9 @@ public class VisualAssertion implements WebDriverCustomModule
         // Directory for the reference images
         final File baselineDirectory = new File(targetDirectory, RESULT_DIRECTORY_BASELINE);
         baselineDirectory.mkdirs();
-        // Path of the reference image for this assertion
-        final File referenceImageFile = new File(baselineDirectory, screenshotName + ".png");
+        // Path of the reference image for this assertion, an existing reference image in another format is used until
+        // it is converted, a new reference image is stored in the configured format
+        final File referenceImageFile = BaselineFormat.findReference(baselineDirectory, screenshotName, baselineFormat);
 
 
         // Directory for the results of the current test run
@@ -245,20 +479,50 @@ public class VisualAssertion implements WebDriverCustomModule
         maskDirectoryPath.mkdirs();
         // Path of the mask image file
         final File maskImageFile = new File(maskDirectoryPath, screenshotName + ".png");
+        // Path of the binary or rectangle mask file, which is read much faster than the mask image
+        final File maskFile = new File(maskDirectoryPath, screenshotName + (rectangleMasks ? ".rects" : ".mask"));
 
 
         //--------------------------------------------------------------------------------
         // Wait for the page to fully load, so that a correct screenshot can be taken
         //--------------------------------------------------------------------------------
 
+        // Measures the phases of the assertion from here on, each phase is reported as custom timer
+        final PhaseTimer timer = new PhaseTimer(TIMER_PREFIX, timers ? Session.getCurrent().getDataManager() : null);
+
+        // With stabilization the screenshots are taken until the page does not change anymore, the last of them is the
+        // screenshot of the assertion and the waiting time includes taking them
+        final ScreenshotStabilizer stabilizer = stabilization && webdriver instanceof TakesScreenshot
+                                                ? new ScreenshotStabilizer(stabilizationInterval, stabilizationMaxWait)
+                                                : null;
+        byte[] stableScreenshotBytes = null;
         try
         {
-            TimeUnit.MILLISECONDS.sleep(waitTime);
+            if (stabilizer != null)
+            {
+                stableScreenshotBytes = stabilizer.takeScreenshot((TakesScreenshot) webdriver);
+            }
+            else
+            {
+                TimeUnit.MILLISECONDS.sleep(waitTime);
+            }
         }
         catch (final InterruptedException e)
         {
             Thread.currentThread().interrupt();
         }
+        timer.record("Wait");
+        if (stabilizer != null)
+        {
+            // Reported even without timers, a page that never settles makes every assertion wait the maximum time
+            final PhaseTimer stabilizationValues = new PhaseTimer(TIMER_PREFIX, Session.getCurrent().getDataManager());
+            stabilizationValues.value("Stable", stabilizer.isStable() ? 1 : 0);
+            stabilizationValues.value("StabilizationTime", stabilizer.getWaitingTime());
+            stabilizationValues.value("Screenshots", stabilizer.getScreenshots());
+        }
+
+        // The flight recorder events of this thread belong to this assertion until it is done
+        Events.setContext(currentTestCaseName, currentActionName, referenceImageFile.getPath());
 
 
         //--------------------------------------------------------------------------------
@@ -267,40 +531,53 @@ public class VisualAssertion implements WebDriverCustomModule
 
         try
         {
-            final BufferedImage screenshot = takeScreenshot(webdriver);
-            if (screenshot == null)
+            final CaptureEvent captureEvent = Events.capture();
+            final byte[] screenshotBytes = stableScreenshotBytes != null ? stableScreenshotBytes : takeScreenshot(webdriver);
+            if (captureEvent != null)
+            {
+                captureEvent.complete(screenshotBytes);
+            }
+            timer.record("Screenshot");
+            if (screenshotBytes == null)
             {
                 // TODO Has this to be handled in a different way?
                 // webdriver cannot take the screenshot -> RETURN
                 return;
             }
-            // Save the screenshot
-            writeImage(screenshot, currentScreenShotFile);
-
             // If there's no reference screenshot yet -> save screenshot as reference image in baseline
             if (!referenceImageFile.isFile())
             {
-                writeImage(screenshot, referenceImageFile);
+                writeFile(screenshotBytes, referenceImageFile, baselineFormat);
+                if (baselineFormat == BaselineFormat.PNG)
+                {
+                    // The bytes are written once, the screenshot in the results is a link to the new reference image
+                    if (keepPassedScreenshot)
+                    {
+                        linkFile(referenceImageFile, currentScreenShotFile);
+                    }
+                }
+                else
+                {
+                    retainScreenshot(screenshotBytes, currentScreenShotFile, true, keepPassedScreenshot, timer);
+                }
+                timer.record("Write");
                 // There is no reference for the comparison -> RETURN
                 return;
             }
 
-            // Load the reference image
-            final BufferedImage reference = ImageIO.read(referenceImageFile);
-
-            // Mask for the image comparison
-            MaskImage mask;
-            // If a mask already exists load it, else create a new one
-            if (maskImageFile.exists())
-            {
-                mask = new MaskImage(reference, ImageIO.read(maskImageFile));
-            }
-            else
+            // If the screenshot is byte by byte the reference image, the images are equal for every algorithm and
+            // every mask -> RETURN without decoding or comparing them. Reference images in other formats never match.
+            if (!trainingsModeEnabled && BaselineFormat.forFile(referenceImageFile) == BaselineFormat.PNG
+                && ContentHash.matches(screenshotBytes, referenceImageFile))
             {
-                mask = new MaskImage(reference);
-                writeImage(mask.getMask(), maskImageFile);
-            }
+                timer.record("Compare");
+                timer.value("Pixels", PngRowReader.getPixelCount(screenshotBytes));
+                timer.value("Differences", 0);
 
+                retainScreenshot(screenshotBytes, currentScreenShotFile, true, keepPassedScreenshot, timer);
+                timer.record("Write");
+                return;
+            }
 
             //--------------------------------------------------------------------------------
             // Initialize the configured algorithm
@@ -318,6 +595,117 @@ public class VisualAssertion implements WebDriverCustomModule
             case PROPERTY_ALGORITHM_FUZZY:
                 algorithm = new PixelFuzzy(pixelTolerance, colorTolerance, fuzzyBlockLength);
                 break;
+            case PROPERTY_ALGORITHM_SLIDINGFUZZY:
+                algorithm = new SlidingFuzzy(pixelTolerance, colorTolerance, fuzzyBlockLength);
+                break;
+            }
+
+
+            //--------------------------------------------------------------------------------
+            // Load the mask, which is only held in its compact model. The mask file is used as long
+            // as the mask image was not changed after it, e.g. edited by hand, else the mask image is
+            // converted again row by row.
+            //--------------------------------------------------------------------------------
+
+            final MaskEvent maskEvent = Events.mask();
+            final Mask mask;
+            if (maskImageFile.exists() && maskFile.isFile() && maskFile.lastModified() >= maskImageFile.lastModified())
+            {
+                mask = ImageCache.readMask(maskFile);
+            }
+            else
+            {
+                final Mask binaryMask;
+                if (maskImageFile.exists())
+                {
+                    binaryMask = StreamingComparison.readMask(maskImageFile);
+                }
+                else
+                {
+                    // an empty mask of the size of the reference image, only the header of the image is read
+                    try (final PngRowReader header = new PngRowReader(referenceImageFile))
+                    {
+                        binaryMask = new BinaryMask(header.getWidth(), header.getHeight());
+                    }
+                }
+                mask = rectangleMasks ? RectangleListMask.fromMask(binaryMask) : binaryMask;
+
+                if (!maskImageFile.exists())
+                {
+                    StreamingComparison.writeMask(mask, maskImageFile);
+                    ImageCache.invalidate(maskImageFile);
+                }
+                writeMask(mask, maskFile);
+            }
+            if (maskEvent != null)
+            {
+                maskEvent.complete("load", mask.getClass().getSimpleName(), mask.getWidth(), mask.getHeight());
+            }
+            timer.record("Mask");
+
+
+            //--------------------------------------------------------------------------------
+            // Compare very tall screenshots band by band, the images are never decoded as a whole
+            //--------------------------------------------------------------------------------
+
+            if (streaming && !trainingsModeEnabled)
+            {
+                // Initialize the comparator, only the header of the reference image is read
+                final StreamingComparison comparator = new StreamingComparison(referenceImageFile);
+                comparator.setBandHeight(streamingBandHeight);
+                comparator.setFailFast(failFast);
+                comparator.setMaxDifferences(maxDifferences);
+                comparator.setMaxDifferencesPercentage(maxDifferencesPercentage);
+
+                // Result of the comparison whether the images are similar
+                final boolean result = comparator.isEqual(screenshotBytes, mask, algorithm);
+                timer.record("Compare");
+                final DifferenceMap differences = comparator.getDifferences();
+                timer.value("Pixels", (double) differences.getWidth() * differences.getHeight());
+                timer.value("Differences", differences.size());
+
+                retainScreenshot(screenshotBytes, currentScreenShotFile, result, keepPassedScreenshot, timer);
+
+                // In fail fast mode only a part of the differences is known, so no images are created
+                if (!result && !failFast)
+                {
+                    if (createDifferenceImage)
+                    {
+                        comparator.writeDifferenceImage(differenceImageFile);
+                    }
+
+                    switch (markType) {
+                    case MARK_WITH_A_MARKER:
+                        comparator.writeMarkedImageWithAMarker(markedImageFile, markBlockSizeX, markBlockSizeY);
+                        break;
+                    case MARK_WITH_BOXES:
+                        comparator.writeMarkedImageWithBoxes(markedImageFile, markBlockSizeX, markBlockSizeY);
+                        break;
+                    default:
+                        Assert.fail(MessageFormat.format("Mark type '{0}' is not supported.", markType));
+                        break;
+                    }
+                }
+
+                timer.record("Write");
+
+                // Assert the result of the comparison
+                Assert.assertTrue(MessageFormat.format("Website does not match the reference screenshot: {0} ", currentActionName), result);
+                return;
+            }
+
+            final DecodeEvent decodeEvent = Events.decode();
+            final BufferedImage screenshot = ImageIO.read(new ByteArrayInputStream(screenshotBytes));
+            if (decodeEvent != null)
+            {
+                decodeEvent.complete("screenshot", "png", screenshot);
+            }
+            timer.record("Decode");
+            if (screenshot == null)
+            {
+                // the screenshot cannot be decoded, it is kept like the one of a failed assertion -> RETURN
+                retainScreenshot(screenshotBytes, currentScreenShotFile, false, keepPassedScreenshot, timer);
+                return;
             }
 
 
@@ -328,44 +716,60 @@ public class VisualAssertion implements WebDriverCustomModule
 
             if (trainingsModeEnabled)
             {
+                // The cached mask is shared, training works on a copy of it
+                final MaskImage maskImage = new MaskImage(ImageCache.read(referenceImageFile), mask);
+
                 // Train the mask to take the current difference between the reference image and screenshot into account
-                mask.train(screenshot, algorithm, new RectangleMask(markBlockSizeX, markBlockSizeY));
+                maskImage.train(screenshot, algorithm, new RectangleMask(markBlockSizeX, markBlockSizeY));
 
                 // Close the mask to cover a bigger area
                 if (closeMask)
                 {
-                    mask.closeMask(closeMaskWidth, closeMaskHeight);
+                    maskImage.closeMask(closeMaskWidth, closeMaskHeight, closeMaskScale);
                 }
+                timer.record("Train");
 
                 // Save the trained mask
-                writeImage(mask.getMask(), maskImageFile);
+                writeImage(maskImage.getMask(), maskImageFile);
+                writeMask(maskImage, maskFile);
+
+                retainScreenshot(screenshotBytes, currentScreenShotFile, true, keepPassedScreenshot, timer);
+                timer.record("Write");
             }
             else
             {
-                // Initialize the comparator
-                final ImageComparison comparator = new ImageComparison(reference);
+                // The reference image compiled with its mask for the algorithm, shared by all threads
+                final CompiledBaseline baseline = ImageCache.readBaseline(referenceImageFile, maskFile, algorithm, prescreen);
+                timer.record("Baseline");
 
                 // Result of the comparison whether the images are similar
-                final boolean result = comparator.isEqual(screenshot, mask, algorithm);
+                final ComparisonResult result = baseline.compare(screenshot, maxDifferences, maxDifferencesPercentage,
+                                                                 failFast);
+                timer.record("Compare");
+                timer.value("Pixels", result.getPixelCount());
+                timer.value("Differences", result.getDifferences().size());
+
+                retainScreenshot(screenshotBytes, currentScreenShotFile, result.isEqual(), keepPassedScreenshot, timer);
 
-                // If the two images don't match..
-                if (!result)
+                // If the two images don't match.. In fail fast mode only a part of the differences is known,
+                // so no images are created
+                if (!result.isEqual() && !failFast)
                 {
                     if (createDifferenceImage)
                     {
                         // Create a image of the pixel differences and save it
-                        writeImage(comparator.getDifferenceImage(), differenceImageFile);
+                        writeArtifact(result.getDifferenceImage(), differenceImageFile);
                     }
 
                     BufferedImage markedImage = null;
                     switch (markType) {
                     case MARK_WITH_A_MARKER:
                         // Highlight the differences in the image with red and yellow
-                        markedImage = comparator.getMarkedImageWithAMarker(markBlockSizeX, markBlockSizeY);
+                        markedImage = result.getMarkedImageWithAMarker(markBlockSizeX, markBlockSizeY);
                         break;
                     case MARK_WITH_BOXES:
                         // Surround the differences with red boxes
-                        markedImage = comparator.getMarkedImageWithBoxes(markBlockSizeX, markBlockSizeY);
+                        markedImage = result.getMarkedImageWithBoxes(markBlockSizeX, markBlockSizeY);
                         break;
                     default:
                         // break
@@ -374,17 +778,54 @@ public class VisualAssertion implements WebDriverCustomModule
                     }
 
                     // Save the marked image
-                    writeImage(markedImage, markedImageFile);
+                    writeArtifact(markedImage, markedImageFile);
                 }
+                timer.record("Write");
 
                 // Assert the result of the comparison
-                Assert.assertTrue(MessageFormat.format("Website does not match the reference screenshot: {0} ", currentActionName), result);
+                Assert.assertTrue(MessageFormat.format("Website does not match the reference screenshot: {0} ", currentActionName), result.isEqual());
             }
         }
         catch (final IOException e)
         {
             Assert.fail(MessageFormat.format("Failure during visual image assertion: {0}", e.getMessage()));
         }
+        finally
+        {
+            Events.clearContext();
+        }
+    }
+
+    /**
+     * Returns the enum constant of the given name, fails the assertion with a message naming the property if there is
+     * no such constant
+     * 
+     * @param type
+     *            the enum type
+     * @param value
+     *            the name of the constant in upper case
+     * @param property
+     *            the property the value was read from
+     * @return the enum constant
+     */
+    private static <E extends Enum<E>> E valueOf(final Class<E> type, final String value, final String property)
+    {
+        for (final E constant : type.getEnumConstants())
+        {
+            if (constant.name().equals(value))
+            {
+                return constant;
+            }
+        }
+
+        final StringBuilder names = new StringBuilder();
+        for (final E constant : type.getEnumConstants())
+        {
+            names.append(names.length() > 0 ? ", " : "").append(constant.name().toLowerCase());
+        }
+        Assert.fail(MessageFormat.format("Invalid value ''{0}'' of {1}: use one of {2}", value.toLowerCase(), property,
+                                         names));
+        return null;
     }
 
     /**
@@ -393,23 +834,13 @@ public class VisualAssertion implements WebDriverCustomModule
      * 
      * @param webDriver
      *            the web driver to use
-     * @return {@link BufferedImage} if the webdriver supports taking screenshots, null otherwise
-     * @throws RuntimeException
-     *             In case the files cannot be written
+     * @return the PNG encoded screenshot if the webdriver supports taking screenshots, null otherwise
      */
-    private BufferedImage takeScreenshot(final WebDriver webDriver)
+    private byte[] takeScreenshot(final WebDriver webDriver)
     {
         if (webDriver instanceof TakesScreenshot)
         {
-            final byte[] bytes = ((TakesScreenshot) webDriver).getScreenshotAs(OutputType.BYTES);
-            try
-            {
-                return ImageIO.read(new ByteArrayInputStream(bytes));
-            }
-            catch (final IOException e)
-            {
-                throw new RuntimeException(e);
-            }
+            return ((TakesScreenshot) webDriver).getScreenshotAs(OutputType.BYTES);
         }
         else
         {
@@ -456,7 +887,202 @@ public class VisualAssertion implements WebDriverCustomModule
     {
         try
         {
-            ImageIO.write(image, "PNG", file);
+            PngRowWriter.write(image, file);
+
+            // cached versions of the file are outdated now
+            ImageCache.invalidate(file);
+            ContentHash.invalidate(file);
+        }
+        catch (final IOException e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Write the mask in the format of its model into the filepath given by file
+     * @param mask the mask that should be saved
+     * @param file path where the mask shall be saved
+     */
+    private void writeMask(final MaskImage mask, final File file)
+    {
+        try
+        {
+            mask.write(file);
+
+            // the cached version of the file is outdated now
+            ImageCache.invalidate(file);
+        }
+        catch (final IOException e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Write the mask in its format into the filepath given by file
+     * @param mask the mask that should be saved
+     * @param file path where the mask shall be saved
+     */
+    private void writeMask(final Mask mask, final File file)
+    {
+        try
+        {
+            mask.write(file);
+
+            // the cached version of the file is outdated now
+            ImageCache.invalidate(file);
+        }
+        catch (final IOException e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Saves the screenshot as it was encoded by the webdriver into the results, if the retention policy keeps it. The
+     * screenshots of failed assertions are always kept. The screenshot of a passed assertion might be dropped if the
+     * queue of the background writer is full, which is reported as value "Dropped".
+     * @param data the encoded screenshot
+     * @param file path where the screenshot shall be saved
+     * @param passed whether the assertion passed
+     * @param keepPassed whether the screenshot of a passed assertion is kept
+     * @param timer the timer of the assertion
+     */
+    private void retainScreenshot(final byte[] data, final File file, final boolean passed, final boolean keepPassed,
+                                  final PhaseTimer timer)
+    {
+        if (!passed || keepPassed)
+        {
+            try
+            {
+                if (!getArtifactWriter().write(data, file, passed))
+                {
+                    timer.value("Dropped", 1);
+                }
+            }
+            catch (final IOException e)
+            {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    /**
+     * Write the result image into the filepath given by file, in the background if enabled. Nothing reads the result
+     * images again, so the assertion does not wait for them.
+     * @param image that should be saved
+     * @param file path where the image shall be saved
+     */
+    private void writeArtifact(final BufferedImage image, final File file)
+    {
+        try
+        {
+            getArtifactWriter().write(image, file);
+        }
+        catch (final IOException e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Waits until the result images of the current thread are written, as when its session ends, e.g. for tools that
+     * run the assertion without a real session
+     * @throws IOException if an image could not be written
+     */
+    static void flushArtifacts() throws IOException
+    {
+        final ArtifactWriter writer = artifactWriter.get();
+        if (writer != null)
+        {
+            writer.flush();
+        }
+    }
+
+    /**
+     * Returns the artifact writer of the current session. A new session gets a new writer, which is flushed when the
+     * session ends, so all result images of the session are written when it is over.
+     * @return the artifact writer
+     */
+    private ArtifactWriter getArtifactWriter()
+    {
+        final Session session = Session.getCurrent();
+        ArtifactWriter writer = artifactWriter.get();
+        if (writer == null || artifactWriterSession.get() != session)
+        {
+            final ArtifactWriter newWriter = new ArtifactWriter();
+            session.addShutdownListener(new SessionShutdownListener()
+            {
+                @Override
+                public void shutdown()
+                {
+                    try
+                    {
+                        newWriter.flush();
+                    }
+                    catch (final IOException e)
+                    {
+                        throw new RuntimeException(e);
+                    }
+                }
+            });
+
+            writer = newWriter;
+            artifactWriter.set(writer);
+            artifactWriterSession.set(session);
+        }
+
+        return writer;
+    }
+
+    /**
+     * Write the already encoded image into the filepath given by file
+     * @param data the encoded image
+     * @param file path where the image shall be saved
+     * @param format the format of the file, the image is converted if it is not PNG
+     */
+    private void writeFile(final byte[] data, final File file, final BaselineFormat format)
+    {
+        try
+        {
+            // a new file, so that files linked to the old one keep their content
+            Files.deleteIfExists(file.toPath());
+            format.write(data, file);
+
+            // cached versions of the file are outdated now
+            ImageCache.invalidate(file);
+            ContentHash.invalidate(file);
+        }
+        catch (final IOException e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Makes the content of one file available under another path without writing it again. The target is a hard
+     * link to the source if the file system supports it, else a copy of it.
+     * @param source the existing file
+     * @param target path where the file shall be available
+     */
+    private void linkFile(final File source, final File target)
+    {
+        try
+        {
+            Files.deleteIfExists(target.toPath());
+            try
+            {
+                Files.createLink(target.toPath(), source.toPath());
+            }
+            catch (final IOException | UnsupportedOperationException e)
+            {
+                Files.copy(source.toPath(), target.toPath());
+            }
+
+            // cached versions of the file are outdated now
+            ImageCache.invalidate(target);
+            ContentHash.invalidate(target);
         }
         catch (final IOException e)
         {
@@ -1,8 +1,9 @@
-package com.xceptance.xlt.visualassertion.algorithm;
-
-public enum ComparisonType
-{
- EXACTMATCH,
- COLORFUZZY,
- PIXELFUZZY
-}
+package com.xceptance.xlt.visualassertion.algorithm;
+
+public enum ComparisonType
+{
+ EXACTMATCH,
+ COLORFUZZY,
+ PIXELFUZZY,
+ SLIDINGFUZZY
+}
@@ -0,0 +1,14 @@
+package com.xceptance.xlt.visualassertion.algorithm;
+
+public class SlidingFuzzy extends ComparisonAlgorithm
+{
+    public SlidingFuzzy(double pixelTolerance, double colorTolerance, int windowSize)
+    {
+        super(ComparisonType.SLIDINGFUZZY, pixelTolerance, colorTolerance, windowSize);
+    }
+
+    public SlidingFuzzy()
+    {
+        super(ComparisonType.SLIDINGFUZZY, 0.1, 0.1, 11);
+    }
+}
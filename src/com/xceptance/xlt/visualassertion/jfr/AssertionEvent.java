@@ -0,0 +1,44 @@
+package com.xceptance.xlt.visualassertion.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.StackTrace;
+
+/**
+ * The base of all flight recorder events of the visual assertion. Every event carries the test case, the action and
+ * the reference image of the assertion that is running in the thread, see {@link Events#setContext(String, String,
+ * String)}, so the recordings can be grouped by them.
+ */
+@Category({ "XLT", "Visual Assertion" })
+@StackTrace(false)
+abstract class AssertionEvent extends Event
+{
+    @Label("Test Case")
+    String testCase;
+
+    @Label("Action")
+    String action;
+
+    @Label("Baseline")
+    String baseline;
+
+    /**
+     * Ends the event and writes it to the recording, together with the context of the current thread
+     */
+    void commitWithContext()
+    {
+        end();
+        if (shouldCommit())
+        {
+            final String[] context = Events.getContext();
+            if (context != null)
+            {
+                testCase = context[0];
+                action = context[1];
+                baseline = context[2];
+            }
+            commit();
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.xceptance.xlt.visualassertion.jfr;
+
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * The web driver takes the screenshot
+ */
+@Name("com.xceptance.xlt.visualassertion.Capture")
+@Label("Screenshot Capture")
+@Description("The web driver takes and encodes the screenshot")
+public class CaptureEvent extends AssertionEvent
+{
+    @Label("Size")
+    @DataAmount
+    long size;
+
+    /**
+     * Ends the event
+     * @param data The encoded screenshot, null if the web driver cannot take screenshots
+     */
+    public void complete(final byte[] data)
+    {
+        size = data == null ? 0 : data.length;
+        commitWithContext();
+    }
+}
@@ -0,0 +1,46 @@
+package com.xceptance.xlt.visualassertion.jfr;
+
+import java.awt.image.BufferedImage;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A screenshot or reference image is decoded as a whole
+ */
+@Name("com.xceptance.xlt.visualassertion.Decode")
+@Label("Image Decode")
+@Description("A screenshot or reference image is decoded")
+public class DecodeEvent extends AssertionEvent
+{
+    @Label("Image")
+    String image;
+
+    @Label("Format")
+    String format;
+
+    @Label("Width")
+    int width;
+
+    @Label("Height")
+    int height;
+
+    /**
+     * Ends the event
+     * @param image What was decoded, e.g. "screenshot" or the name of the file
+     * @param format The format of the encoded image
+     * @param decoded The decoded image, null if it could not be decoded
+     */
+    public void complete(final String image, final String format, final BufferedImage decoded)
+    {
+        this.image = image;
+        this.format = format;
+        if (decoded != null)
+        {
+            width = decoded.getWidth();
+            height = decoded.getHeight();
+        }
+        commitWithContext();
+    }
+}
@@ -0,0 +1,43 @@
+package com.xceptance.xlt.visualassertion.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * An image is encoded, e.g. a mask, a marked or difference image or a reference image
+ */
+@Name("com.xceptance.xlt.visualassertion.Encode")
+@Label("Image Encode")
+@Description("An image is encoded and written")
+public class EncodeEvent extends AssertionEvent
+{
+    @Label("Format")
+    String format;
+
+    @Label("Width")
+    int width;
+
+    @Label("Height")
+    int height;
+
+    @Label("Palette")
+    @Description("The image was written with a color palette")
+    boolean palette;
+
+    /**
+     * Ends the event
+     * @param format The format of the encoded image
+     * @param width The width of the image
+     * @param height The height of the image
+     * @param palette true if the image was written with a color palette
+     */
+    public void complete(final String format, final int width, final int height, final boolean palette)
+    {
+        this.format = format;
+        this.width = width;
+        this.height = height;
+        this.palette = palette;
+        commitWithContext();
+    }
+}
@@ -0,0 +1,224 @@
+package com.xceptance.xlt.visualassertion.jfr;
+
+/**
+ * Creates the flight recorder events of the visual assertion. An event is only created if the JVM has a flight
+ * recorder, a recording is running and the event is enabled in it, else null is returned. Whether a recording runs is
+ * kept in a flag that a {@link RecordingListener} updates, so without a recording the instrumentation costs one read
+ * of that flag per phase and allocates nothing:
+ *
+ * <pre>
+ * final KernelEvent event = Events.kernel();
+ * ...
+ * if (event != null)
+ * {
+ *     event.complete(...);
+ * }
+ * </pre>
+ *
+ * The event classes are only loaded through the methods of this class, so the assertion runs on JVMs without the
+ * jdk.jfr module as well.
+ */
+public final class Events
+{
+    private static final boolean AVAILABLE = isAvailable();
+
+    // whether any recording is running, only the event types are checked while it is set
+    private static volatile boolean recording;
+
+    // test case, action and baseline of the assertion that runs in the thread
+    private static final ThreadLocal<String[]> context = new ThreadLocal<>();
+
+    static
+    {
+        if (AVAILABLE)
+        {
+            RecordingListener.register();
+        }
+    }
+
+    private Events()
+    {
+    }
+
+    private static boolean isAvailable()
+    {
+        try
+        {
+            Class.forName("jdk.jfr.Event", false, Events.class.getClassLoader());
+            return true;
+        }
+        catch (final ClassNotFoundException | LinkageError e)
+        {
+            return false;
+        }
+    }
+
+    static void setRecording(final boolean running)
+    {
+        recording = running;
+    }
+
+    /**
+     * Sets the context that is added to all events of the current thread until it is cleared
+     * @param testCase The name of the test case
+     * @param action The name of the action
+     * @param baseline The path of the reference image
+     */
+    public static void setContext(final String testCase, final String action, final String baseline)
+    {
+        context.set(new String[] { testCase, action, baseline });
+    }
+
+    /**
+     * Removes the context of the current thread
+     */
+    public static void clearContext()
+    {
+        context.remove();
+    }
+
+    static String[] getContext()
+    {
+        return context.get();
+    }
+
+    /**
+     * Begins a screenshot capture event
+     * @return the event or null if it is not recorded
+     */
+    public static CaptureEvent capture()
+    {
+        if (!recording)
+        {
+            return null;
+        }
+
+        final CaptureEvent event = new CaptureEvent();
+        if (!event.isEnabled())
+        {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Begins an image decode event
+     * @return the event or null if it is not recorded
+     */
+    public static DecodeEvent decode()
+    {
+        if (!recording)
+        {
+            return null;
+        }
+
+        final DecodeEvent event = new DecodeEvent();
+        if (!event.isEnabled())
+        {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Begins a mask event
+     * @return the event or null if it is not recorded
+     */
+    public static MaskEvent mask()
+    {
+        if (!recording)
+        {
+            return null;
+        }
+
+        final MaskEvent event = new MaskEvent();
+        if (!event.isEnabled())
+        {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Begins a comparison kernel event
+     * @return the event or null if it is not recorded
+     */
+    public static KernelEvent kernel()
+    {
+        if (!recording)
+        {
+            return null;
+        }
+
+        final KernelEvent event = new KernelEvent();
+        if (!event.isEnabled())
+        {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Begins a mask training event
+     * @return the event or null if it is not recorded
+     */
+    public static TrainEvent train()
+    {
+        if (!recording)
+        {
+            return null;
+        }
+
+        final TrainEvent event = new TrainEvent();
+        if (!event.isEnabled())
+        {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Begins a mask morphology event
+     * @return the event or null if it is not recorded
+     */
+    public static MorphologyEvent morphology()
+    {
+        if (!recording)
+        {
+            return null;
+        }
+
+        final MorphologyEvent event = new MorphologyEvent();
+        if (!event.isEnabled())
+        {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Begins an image encode event
+     * @return the event or null if it is not recorded
+     */
+    public static EncodeEvent encode()
+    {
+        if (!recording)
+        {
+            return null;
+        }
+
+        final EncodeEvent event = new EncodeEvent();
+        if (!event.isEnabled())
+        {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+}
@@ -0,0 +1,65 @@
+package com.xceptance.xlt.visualassertion.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A comparison kernel compares two images or a band of them
+ */
+@Name("com.xceptance.xlt.visualassertion.Kernel")
+@Label("Comparison Kernel")
+@Description("A comparison kernel compares two images or a band of them pixel by pixel")
+public class KernelEvent extends AssertionEvent
+{
+    @Label("Kernel")
+    String kernel;
+
+    @Label("Width")
+    int width;
+
+    @Label("Height")
+    int height;
+
+    @Label("Color Tolerance")
+    double colorTolerance;
+
+    @Label("Pixel Tolerance")
+    double pixelTolerance;
+
+    @Label("Block Size")
+    int blockSize;
+
+    @Label("Differences")
+    int differences;
+
+    @Label("Limit Exceeded")
+    @Description("The kernel stopped early since more differences were found than tolerated")
+    boolean limitExceeded;
+
+    /**
+     * Ends the event
+     * @param kernel The name of the kernel, e.g. the type of the algorithm
+     * @param width The width of the compared area
+     * @param height The height of the compared area
+     * @param colorTolerance The color tolerance, 0 if the kernel does not use it
+     * @param pixelTolerance The pixel tolerance, 0 if the kernel does not use it
+     * @param blockSize The size of the blocks or windows, 0 if the kernel does not use them
+     * @param differences The number of differences that were found
+     * @param limitExceeded true if the kernel stopped early
+     */
+    public void complete(final String kernel, final int width, final int height, final double colorTolerance,
+                         final double pixelTolerance, final int blockSize, final int differences,
+                         final boolean limitExceeded)
+    {
+        this.kernel = kernel;
+        this.width = width;
+        this.height = height;
+        this.colorTolerance = colorTolerance;
+        this.pixelTolerance = pixelTolerance;
+        this.blockSize = blockSize;
+        this.differences = differences;
+        this.limitExceeded = limitExceeded;
+        commitWithContext();
+    }
+}
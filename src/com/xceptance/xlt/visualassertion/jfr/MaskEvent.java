@@ -0,0 +1,42 @@
+package com.xceptance.xlt.visualassertion.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A mask is loaded or applied to an image
+ */
+@Name("com.xceptance.xlt.visualassertion.Mask")
+@Label("Mask")
+@Description("A mask is loaded, converted or laid over an image")
+public class MaskEvent extends AssertionEvent
+{
+    @Label("Operation")
+    String operation;
+
+    @Label("Mask Type")
+    String maskType;
+
+    @Label("Width")
+    int width;
+
+    @Label("Height")
+    int height;
+
+    /**
+     * Ends the event
+     * @param operation What was done with the mask, e.g. "load" or "overlay"
+     * @param maskType The model of the mask, e.g. the simple name of its class
+     * @param width The width of the mask
+     * @param height The height of the mask
+     */
+    public void complete(final String operation, final String maskType, final int width, final int height)
+    {
+        this.operation = operation;
+        this.maskType = maskType;
+        this.width = width;
+        this.height = height;
+        commitWithContext();
+    }
+}
@@ -0,0 +1,53 @@
+package com.xceptance.xlt.visualassertion.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A mask is closed by dilation and erosion
+ */
+@Name("com.xceptance.xlt.visualassertion.Morphology")
+@Label("Mask Morphology")
+@Description("A mask is closed by dilation and erosion")
+public class MorphologyEvent extends AssertionEvent
+{
+    @Label("Operation")
+    String operation;
+
+    @Label("Width")
+    int width;
+
+    @Label("Height")
+    int height;
+
+    @Label("Structure Element Width")
+    int structureElementWidth;
+
+    @Label("Structure Element Height")
+    int structureElementHeight;
+
+    @Label("Scale")
+    int scale;
+
+    /**
+     * Ends the event
+     * @param operation The morphological operation, e.g. "close"
+     * @param width The width of the mask
+     * @param height The height of the mask
+     * @param structureElementWidth The width of the structuring element
+     * @param structureElementHeight The height of the structuring element
+     * @param scale The side length of the blocks the operation runs in
+     */
+    public void complete(final String operation, final int width, final int height, final int structureElementWidth,
+                         final int structureElementHeight, final int scale)
+    {
+        this.operation = operation;
+        this.width = width;
+        this.height = height;
+        this.structureElementWidth = structureElementWidth;
+        this.structureElementHeight = structureElementHeight;
+        this.scale = scale;
+        commitWithContext();
+    }
+}
@@ -0,0 +1,51 @@
+package com.xceptance.xlt.visualassertion.jfr;
+
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.FlightRecorderListener;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+
+/**
+ * Tells {@link Events} whether a recording is running, so no event is allocated while nothing is recorded. The flight
+ * recorder calls the listener whenever a recording changes its state and once it is initialized.
+ */
+class RecordingListener implements FlightRecorderListener
+{
+    /**
+     * Registers the listener, the flight recorder itself is not initialized by that
+     */
+    static void register()
+    {
+        try
+        {
+            FlightRecorder.addListener(new RecordingListener());
+        }
+        catch (final SecurityException e)
+        {
+            // not allowed to listen, so the events are checked one by one
+            Events.setRecording(true);
+        }
+    }
+
+    @Override
+    public void recorderInitialized(final FlightRecorder recorder)
+    {
+        update(recorder);
+    }
+
+    @Override
+    public void recordingStateChanged(final Recording recording)
+    {
+        update(FlightRecorder.getFlightRecorder());
+    }
+
+    private static synchronized void update(final FlightRecorder recorder)
+    {
+        boolean running = false;
+        for (final Recording recording : recorder.getRecordings())
+        {
+            running |= recording.getState() == RecordingState.RUNNING;
+        }
+        Events.setRecording(running);
+    }
+}
@@ -0,0 +1,42 @@
+package com.xceptance.xlt.visualassertion.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * The mask is trained with the differences of a screenshot
+ */
+@Name("com.xceptance.xlt.visualassertion.Train")
+@Label("Mask Training")
+@Description("The differences of a screenshot are added to the mask")
+public class TrainEvent extends AssertionEvent
+{
+    @Label("Algorithm")
+    String algorithm;
+
+    @Label("Width")
+    int width;
+
+    @Label("Height")
+    int height;
+
+    @Label("Differences")
+    int differences;
+
+    /**
+     * Ends the event
+     * @param algorithm The type of the algorithm that found the differences
+     * @param width The width of the reference image
+     * @param height The height of the reference image
+     * @param differences The number of differences that were masked
+     */
+    public void complete(final String algorithm, final int width, final int height, final int differences)
+    {
+        this.algorithm = algorithm;
+        this.width = width;
+        this.height = height;
+        this.differences = differences;
+        commitWithContext();
+    }
+}
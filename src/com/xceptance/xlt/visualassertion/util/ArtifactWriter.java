@@ -0,0 +1,528 @@
+package com.xceptance.xlt.visualassertion.util;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes result images in the background, so that the PNG encoding and the disk I/O do not add to the time of the
+ * calling thread. All writers of the process share a small pool of daemon threads with a bounded queue. What happens
+ * when the queue is full is set by the {@link Policy}. By default the queue size is 0 and all images are written in
+ * the calling thread. The pool and the policy are global for the process, the last configuration wins.
+ * <p>
+ * Every session uses its own writer, so {@link #flush()} waits only for the images of that session.
+ */
+public class ArtifactWriter
+{
+    /**
+     * What happens to an image that is written while the queue is full
+     */
+    public enum Policy
+    {
+        /**
+         * The calling thread waits until there is room in the queue
+         */
+        BLOCK,
+
+        /**
+         * The image is not written at all if it may be dropped, e.g. the screenshot of a passed assertion, else the
+         * calling thread waits as with {@link #BLOCK}
+         */
+        DROP,
+
+        /**
+         * The pixels of the image are written uncompressed to a temporary file in the calling thread, the file is
+         * encoded later by a separate thread. Encoded images are written to their file right away.
+         */
+        SPILL
+    }
+
+    private static int queueSize = 0;
+
+    private static int threads = 1;
+
+    private static Policy policy = Policy.BLOCK;
+
+    private static ThreadPoolExecutor executor;
+
+    private static ExecutorService spillExecutor;
+
+    // the images of this writer that are queued or being written
+    private int pending;
+
+    private IOException error;
+
+    /**
+     * Sets the number of images that may wait in the queue and the number of threads that write them. The settings
+     * apply to all writers of the process, the pool is only replaced if they change. Images that are already queued
+     * are still written.
+     * @param queueSize The maximum number of queued images, 0 or less to write all images in the calling thread
+     * @param threads The number of threads that write the images
+     * @param policy What happens when the queue is full
+     */
+    public static synchronized void configure(final int queueSize, final int threads, final Policy policy)
+    {
+        final int newQueueSize = Math.max(0, queueSize);
+        final int newThreads = Math.max(1, threads);
+        if (newQueueSize == ArtifactWriter.queueSize && newThreads == ArtifactWriter.threads && policy == ArtifactWriter.policy)
+        {
+            return;
+        }
+
+        // queued images are written by the old threads
+        if (executor != null)
+        {
+            executor.shutdown();
+            executor = null;
+        }
+
+        ArtifactWriter.queueSize = newQueueSize;
+        ArtifactWriter.threads = newThreads;
+        ArtifactWriter.policy = policy;
+        if (newQueueSize > 0)
+        {
+            executor = new ThreadPoolExecutor(newThreads, newThreads, 0, TimeUnit.MILLISECONDS,
+                                              new ArrayBlockingQueue<Runnable>(newQueueSize), new WriterThreadFactory(),
+                                              new OverflowHandler(policy));
+        }
+    }
+
+    private static synchronized ThreadPoolExecutor getExecutor()
+    {
+        return executor;
+    }
+
+    private static synchronized ExecutorService getSpillExecutor()
+    {
+        if (spillExecutor == null)
+        {
+            spillExecutor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+                                                   new WriterThreadFactory());
+        }
+
+        return spillExecutor;
+    }
+
+    /**
+     * Writes the given image as PNG to the given file, in the background if the queue is enabled. The image must not
+     * be modified afterwards. The image is not dropped by {@link Policy#DROP}.
+     * @param image The image to write
+     * @param file The file the image is written to
+     * @throws IOException if the image is written in the calling thread and could not be written
+     */
+    public void write(final BufferedImage image, final File file) throws IOException
+    {
+        write(image, file, false);
+    }
+
+    /**
+     * Writes the given image as PNG to the given file, in the background if the queue is enabled. The image must not
+     * be modified afterwards.
+     * @param image The image to write
+     * @param file The file the image is written to
+     * @param droppable Whether the image is not written if the queue is full and the policy is {@link Policy#DROP}
+     * @return false if the image was dropped, true if it is written
+     * @throws IOException if the image is written in the calling thread and could not be written
+     */
+    public boolean write(final BufferedImage image, final File file, final boolean droppable) throws IOException
+    {
+        return submit(new Artifact(file, droppable)
+        {
+            @Override
+            protected void write() throws IOException
+            {
+                PngRowWriter.write(image, file);
+            }
+
+            @Override
+            protected Artifact spill() throws IOException
+            {
+                return new SpilledImage(file, image);
+            }
+        });
+    }
+
+    /**
+     * Writes the given already encoded image to the given file, in the background if the queue is enabled. The data
+     * must not be modified afterwards. The image is not dropped by {@link Policy#DROP}.
+     * @param data The encoded image
+     * @param file The file the image is written to
+     * @throws IOException if the image is written in the calling thread and could not be written
+     */
+    public void write(final byte[] data, final File file) throws IOException
+    {
+        write(data, file, false);
+    }
+
+    /**
+     * Writes the given already encoded image to the given file, in the background if the queue is enabled. The data
+     * must not be modified afterwards.
+     * @param data The encoded image
+     * @param file The file the image is written to
+     * @param droppable Whether the image is not written if the queue is full and the policy is {@link Policy#DROP}
+     * @return false if the image was dropped, true if it is written
+     * @throws IOException if the image is written in the calling thread and could not be written
+     */
+    public boolean write(final byte[] data, final File file, final boolean droppable) throws IOException
+    {
+        return submit(new Artifact(file, droppable)
+        {
+            @Override
+            protected void write() throws IOException
+            {
+                Files.write(file.toPath(), data);
+            }
+
+            @Override
+            protected Artifact spill() throws IOException
+            {
+                // there is nothing to encode, writing the file is as cheap as spilling it
+                write();
+                done();
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Waits until all images of this writer are written
+     * @throws IOException if an image of this writer could not be written since the last flush
+     */
+    public synchronized void flush() throws IOException
+    {
+        boolean interrupted = false;
+        while (pending > 0)
+        {
+            try
+            {
+                wait();
+            }
+            catch (final InterruptedException e)
+            {
+                interrupted = true;
+            }
+        }
+
+        if (interrupted)
+        {
+            Thread.currentThread().interrupt();
+        }
+
+        if (error != null)
+        {
+            final IOException e = error;
+            error = null;
+            throw e;
+        }
+    }
+
+    /**
+     * Writes the image in the calling thread or queues it
+     * @return false if the image was dropped
+     */
+    private boolean submit(final Artifact artifact) throws IOException
+    {
+        final ThreadPoolExecutor currentExecutor = getExecutor();
+        if (currentExecutor == null)
+        {
+            artifact.write();
+            artifact.done();
+            return true;
+        }
+
+        synchronized (this)
+        {
+            pending++;
+        }
+
+        try
+        {
+            currentExecutor.execute(artifact);
+        }
+        catch (final RejectedExecutionException e)
+        {
+            // the pool was replaced in the meantime
+            completed(null);
+            artifact.write();
+            artifact.done();
+        }
+
+        // the overflow handler runs in the calling thread, so the image is dropped already
+        return !artifact.dropped;
+    }
+
+    private synchronized void completed(final IOException e)
+    {
+        if (e != null)
+        {
+            if (error == null)
+            {
+                error = e;
+            }
+            else
+            {
+                error.addSuppressed(e);
+            }
+        }
+
+        pending--;
+        notifyAll();
+    }
+
+    /**
+     * An image that is written to a file
+     */
+    private abstract class Artifact implements Runnable
+    {
+        protected final File file;
+
+        // whether the image may be dropped when the queue is full
+        private final boolean droppable;
+
+        private boolean dropped;
+
+        Artifact(final File file, final boolean droppable)
+        {
+            this.file = file;
+            this.droppable = droppable;
+        }
+
+        /**
+         * Writes the image to its file
+         */
+        protected abstract void write() throws IOException;
+
+        /**
+         * Frees the memory of the image, e.g. by writing its pixels to a temporary file
+         * @return the artifact that writes the spilled image to its file later, null if it is written already
+         */
+        protected abstract Artifact spill() throws IOException;
+
+        /**
+         * Marks the cached versions of the file as outdated
+         */
+        protected void done()
+        {
+            ImageCache.invalidate(file);
+            ContentHash.invalidate(file);
+        }
+
+        @Override
+        public void run()
+        {
+            try
+            {
+                write();
+                done();
+                completed(null);
+            }
+            catch (final IOException e)
+            {
+                completed(e);
+            }
+            catch (final RuntimeException e)
+            {
+                completed(new IOException(e));
+            }
+        }
+
+        /**
+         * Drops the image, it is not written at all
+         */
+        void drop()
+        {
+            dropped = true;
+            completed(null);
+        }
+
+        /**
+         * Spills the image and queues the spilled image to be written later
+         */
+        void spillAndQueue()
+        {
+            try
+            {
+                final Artifact spilled = spill();
+                if (spilled == null)
+                {
+                    completed(null);
+                }
+                else
+                {
+                    getSpillExecutor().execute(spilled);
+                }
+            }
+            catch (final IOException e)
+            {
+                completed(e);
+            }
+        }
+    }
+
+    /**
+     * An image whose pixels were written uncompressed to a temporary file, it is encoded from there row by row
+     */
+    private class SpilledImage extends Artifact
+    {
+        private final File spillFile;
+
+        private final int width;
+
+        private final int height;
+
+        private final boolean alpha;
+
+        SpilledImage(final File file, final BufferedImage image) throws IOException
+        {
+            super(file, false);
+            this.width = image.getWidth();
+            this.height = image.getHeight();
+            this.alpha = image.getColorModel().hasAlpha();
+            this.spillFile = File.createTempFile("visualassertion", ".spill");
+
+            final int[] row = new int[width];
+            try (final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(spillFile))))
+            {
+                for (int y = 0; y < height; y++)
+                {
+                    image.getRGB(0, y, width, 1, row, 0, width);
+                    for (int x = 0; x < width; x++)
+                    {
+                        out.writeInt(row[x]);
+                    }
+                }
+            }
+            catch (final IOException e)
+            {
+                spillFile.delete();
+                throw e;
+            }
+        }
+
+        @Override
+        protected void write() throws IOException
+        {
+            final int[] row = new int[width];
+            try (final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(spillFile)));
+                 final PngRowWriter writer = new PngRowWriter(file, width, height, alpha))
+            {
+                for (int y = 0; y < height; y++)
+                {
+                    for (int x = 0; x < width; x++)
+                    {
+                        row[x] = in.readInt();
+                    }
+                    writer.writeRows(row, 0, width, 1);
+                }
+            }
+            finally
+            {
+                spillFile.delete();
+            }
+        }
+
+        @Override
+        protected Artifact spill()
+        {
+            return this;
+        }
+    }
+
+    /**
+     * Handles the images that do not fit into the queue
+     */
+    private static class OverflowHandler implements RejectedExecutionHandler
+    {
+        private final Policy policy;
+
+        OverflowHandler(final Policy policy)
+        {
+            this.policy = policy;
+        }
+
+        @Override
+        public void rejectedExecution(final Runnable task, final ThreadPoolExecutor executor)
+        {
+            if (executor.isShutdown())
+            {
+                throw new RejectedExecutionException();
+            }
+
+            final Artifact artifact = (Artifact) task;
+            switch (policy)
+            {
+            case DROP:
+                if (artifact.droppable)
+                {
+                    artifact.drop();
+                }
+                else
+                {
+                    // the images of failed assertions are always written
+                    block(artifact, executor);
+                }
+                break;
+
+            case SPILL:
+                artifact.spillAndQueue();
+                break;
+
+            default:
+                block(artifact, executor);
+                break;
+            }
+        }
+
+        /**
+         * Waits until there is room in the queue for the image
+         */
+        private void block(final Artifact artifact, final ThreadPoolExecutor executor)
+        {
+            try
+            {
+                executor.getQueue().put(artifact);
+
+                // the threads might have finished already if the pool was replaced in the meantime
+                if (executor.isShutdown() && executor.getQueue().remove(artifact))
+                {
+                    throw new RejectedExecutionException();
+                }
+            }
+            catch (final InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                artifact.drop();
+            }
+        }
+    }
+
+    /**
+     * Creates daemon threads, so that pending images do not keep the process alive
+     */
+    private static class WriterThreadFactory implements ThreadFactory
+    {
+        @Override
+        public Thread newThread(final Runnable runnable)
+        {
+            final Thread thread = new Thread(runnable, "VisualAssertion-ArtifactWriter");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package com.xceptance.xlt.visualassertion.util;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Converts the reference images of a result directory into another {@link BaselineFormat}, e.g. the PNG images into
+ * QOI images before a load test and back into PNG images to view or edit them. Only the images in the baseline
+ * directories are converted, the masks and the results are left as they are. The original images are deleted unless
+ * -keep is given.
+ * <p>
+ * Usage: BaselineConverter &lt;result directory&gt; &lt;png|qoi|raw&gt; [-keep]
+ */
+public class BaselineConverter
+{
+    private final static String BASELINE_DIRECTORY = "baseline";
+
+    private final static String USAGE = "Usage: BaselineConverter <result directory> <png|qoi|raw> [-keep]";
+
+    /**
+     * Converts the reference images below the given directory
+     * @param args The directory, the target format and optionally -keep
+     */
+    public static void main(final String[] args)
+    {
+        if (args.length < 2 || (args.length > 2 && !"-keep".equals(args[2])))
+        {
+            System.err.println(USAGE);
+            System.exit(1);
+        }
+
+        final File directory = new File(args[0]);
+        BaselineFormat format = null;
+        try
+        {
+            format = BaselineFormat.valueOf(args[1].trim().toUpperCase());
+        }
+        catch (final IllegalArgumentException e)
+        {
+            System.err.println("Unknown format: " + args[1]);
+            System.err.println(USAGE);
+            System.exit(1);
+        }
+        final boolean keep = args.length > 2;
+
+        try
+        {
+            final List<File> converted = convert(directory, format, keep);
+            System.out.println("Converted " + converted.size() + " reference images to " + format.getExtension());
+        }
+        catch (final IOException e)
+        {
+            System.err.println("Failed to convert the reference images: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Converts all reference images below the given directory that are not in the given format yet
+     * @param directory The result directory of the visual assertion
+     * @param format The target format
+     * @param keep true to keep the original images, false to delete them
+     * @return the converted images
+     * @throws IOException if an image could not be read or written
+     */
+    public static List<File> convert(final File directory, final BaselineFormat format, final boolean keep)
+        throws IOException
+    {
+        final List<File> images = new ArrayList<>();
+        Files.walkFileTree(directory.toPath(), new SimpleFileVisitor<Path>()
+        {
+            @Override
+            public FileVisitResult visitFile(final Path path, final BasicFileAttributes attributes)
+            {
+                final File file = path.toFile();
+                final BaselineFormat fileFormat = BaselineFormat.forFile(file);
+                if (fileFormat != null && fileFormat != format
+                    && BASELINE_DIRECTORY.equals(file.getParentFile().getName()))
+                {
+                    images.add(file);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+
+        final List<File> converted = new ArrayList<>();
+        for (final File image : images)
+        {
+            converted.add(convertImage(image, format, keep));
+        }
+
+        return converted;
+    }
+
+    /**
+     * Converts a single image into the given format, the new image is written next to it
+     * @param file The image file
+     * @param format The target format
+     * @param keep true to keep the original image, false to delete it
+     * @return the converted image
+     * @throws IOException if the image could not be read or written
+     */
+    public static File convertImage(final File file, final BaselineFormat format, final boolean keep)
+        throws IOException
+    {
+        final BufferedImage image = BaselineFormat.read(file);
+        if (image == null)
+        {
+            throw new IOException("The image " + file + " could not be decoded");
+        }
+
+        final String name = file.getName();
+        final File target = new File(file.getParentFile(), name.substring(0, name.lastIndexOf('.') + 1)
+                                                           + format.getExtension());
+        format.write(image, target);
+
+        // cached versions of the files are outdated now
+        ImageCache.invalidate(target);
+        ContentHash.invalidate(target);
+
+        if (!keep)
+        {
+            Files.delete(file.toPath());
+            ImageCache.invalidate(file);
+            ContentHash.invalidate(file);
+        }
+
+        return target;
+    }
+}
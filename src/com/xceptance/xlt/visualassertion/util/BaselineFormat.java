@@ -0,0 +1,184 @@
+package com.xceptance.xlt.visualassertion.util;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+
+import javax.imageio.ImageIO;
+
+import com.xceptance.xlt.visualassertion.jfr.DecodeEvent;
+import com.xceptance.xlt.visualassertion.jfr.EncodeEvent;
+import com.xceptance.xlt.visualassertion.jfr.Events;
+
+/**
+ * The file formats the reference images can be stored in. PNG is the most compact one and can be viewed with every
+ * tool, QOI is decoded several times faster and raw images are only mapped into memory and copied, at about four bytes
+ * per pixel. Reference images in QOI and raw format are read as TYPE_INT_ARGB or TYPE_INT_RGB images that share their
+ * pixels with the packed image of the comparison, so nothing is converted after reading.
+ */
+public enum BaselineFormat
+{
+    PNG("png"),
+    QOI("qoi"),
+    RAW("raw");
+
+    private final String extension;
+
+    private BaselineFormat(final String extension)
+    {
+        this.extension = extension;
+    }
+
+    /**
+     * Returns the extension of the files in this format
+     * @return the extension without the dot
+     */
+    public String getExtension()
+    {
+        return extension;
+    }
+
+    /**
+     * Returns the format of the given file by its extension
+     * @param file The image file
+     * @return the format or null if the extension is not known
+     */
+    public static BaselineFormat forFile(final File file)
+    {
+        final String name = file.getName();
+        final String extension = name.substring(name.lastIndexOf('.') + 1);
+        for (final BaselineFormat format : values())
+        {
+            if (format.extension.equalsIgnoreCase(extension))
+            {
+                return format;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns the reference image with the given name in the given directory. The image in the configured format is
+     * preferred, but a reference image in any other format is used as well, e.g. because the reference images were
+     * converted and the configuration was not changed, or the other way round.
+     * @param directory The baseline directory
+     * @param name The name of the reference image without extension
+     * @param configured The configured format
+     * @return the existing reference image, or the file in the configured format if there is no reference image yet
+     */
+    public static File findReference(final File directory, final String name, final BaselineFormat configured)
+    {
+        final File configuredFile = new File(directory, name + "." + configured.extension);
+        if (configuredFile.isFile())
+        {
+            return configuredFile;
+        }
+
+        for (final BaselineFormat format : values())
+        {
+            final File file = new File(directory, name + "." + format.extension);
+            if (format != configured && file.isFile())
+            {
+                return file;
+            }
+        }
+
+        return configuredFile;
+    }
+
+    /**
+     * Decodes the given image file, files with an unknown extension are read as PNG
+     * @param file The image file
+     * @return the decoded image or null if the file could not be decoded
+     * @throws IOException if the file could not be read
+     */
+    public static BufferedImage read(final File file) throws IOException
+    {
+        final DecodeEvent event = Events.decode();
+        final BaselineFormat format = forFile(file);
+
+        final BufferedImage image;
+        if (format == QOI)
+        {
+            try (final InputStream in = new FileInputStream(file))
+            {
+                image = QoiCodec.read(in);
+            }
+        }
+        else if (format == RAW)
+        {
+            image = RawCodec.read(file);
+        }
+        else
+        {
+            image = ImageIO.read(file);
+        }
+
+        if (event != null)
+        {
+            event.complete(file.getName(), format == null ? PNG.extension : format.extension, image);
+        }
+        return image;
+    }
+
+    /**
+     * Writes the given image in this format
+     * @param image The image to write
+     * @param file The file the image is written to
+     * @throws IOException if the file could not be written
+     */
+    public void write(final BufferedImage image, final File file) throws IOException
+    {
+        if (this == PNG)
+        {
+            PngRowWriter.write(image, file);
+            return;
+        }
+
+        final EncodeEvent event = Events.encode();
+        final PackedImage packed = new PackedImage(image);
+        final boolean alpha = image.getColorModel().hasAlpha();
+        if (this == QOI)
+        {
+            QoiCodec.write(packed.getPixels(), packed.getWidth(), packed.getHeight(), alpha, new FileOutputStream(file));
+        }
+        else
+        {
+            RawCodec.write(packed.getPixels(), packed.getWidth(), packed.getHeight(), alpha, new FileOutputStream(file));
+        }
+
+        if (event != null)
+        {
+            event.complete(extension, packed.getWidth(), packed.getHeight(), false);
+        }
+    }
+
+    /**
+     * Writes the given encoded image in this format, PNG data is written as it is, everything else is converted
+     * @param data The encoded image, e.g. a screenshot as returned by the web driver
+     * @param file The file the image is written to
+     * @throws IOException if the data could not be decoded or the file could not be written
+     */
+    public void write(final byte[] data, final File file) throws IOException
+    {
+        if (this == PNG)
+        {
+            Files.write(file.toPath(), data);
+            return;
+        }
+
+        final BufferedImage image = ImageIO.read(new BufferedInputStream(new ByteArrayInputStream(data)));
+        if (image == null)
+        {
+            throw new IOException("The image could not be decoded");
+        }
+        write(image, file);
+    }
+}
@@ -0,0 +1,619 @@
+package com.xceptance.xlt.visualassertion.util;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import com.xceptance.xlt.visualassertion.jfr.Events;
+import com.xceptance.xlt.visualassertion.jfr.MorphologyEvent;
+
+/**
+ * Binary image with one bit per pixel, packed into 64 pixels per long, row after row. Each row starts at a new long,
+ * the bits behind the last pixel of a row are always zero.
+ * <p>
+ * The morphological operations work with rectangular structuring elements and take linear time in the number of
+ * pixels, whatever the size of the structuring element. The rectangle is separated into a row and a column: rows are
+ * dilated run by run of set bits, columns are dilated 64 at a time with the van Herk/Gil-Werman algorithm. Erosion is
+ * the dilation of the complement. Pixels outside of the mask are ignored, just as in
+ * {@link ImageHelper#erodeImage(BufferedImage, int, int, int, int)} and
+ * {@link ImageHelper#dilateImage(BufferedImage, int, int, int, int)}.
+ * <p>
+ * Masks are stored in a binary file that holds the bits exactly as they are kept in memory: a header of 16 bytes (the
+ * magic number "XLTM", the format version, the width and the height, each a little endian int) followed by the longs
+ * of all rows in little endian byte order. The longs are aligned to 8 bytes, so the file can be memory-mapped as it is.
+ */
+public class BinaryMask implements Mask
+{
+    // "XLTM" in little endian byte order
+    private final static int MAGIC = 0x4D544C58;
+
+    private final static int VERSION = 1;
+
+    private final static int HEADER_SIZE = 16;
+
+    private final int width;
+
+    private final int height;
+
+    // longs per row
+    private final int words;
+
+    private final long[] bits;
+
+    /**
+     * Creates a mask of the given size without any set pixel
+     * @param width The width of the mask
+     * @param height The height of the mask
+     */
+    public BinaryMask(final int width, final int height)
+    {
+        this.width = width;
+        this.height = height;
+        this.words = (width + 63) >>> 6;
+        this.bits = new long[words * height];
+    }
+
+    /**
+     * Creates a mask from an image, the pixels of the given foreground color are set
+     * @param image The image
+     * @param rgbForegroundColor The ARGB value of the set pixels
+     * @return the mask
+     */
+    public static BinaryMask fromImage(final BufferedImage image, final int rgbForegroundColor)
+    {
+        final PackedImage packed = new PackedImage(image);
+        final int[] pixels = packed.getPixels();
+        final BinaryMask mask = new BinaryMask(image.getWidth(), image.getHeight());
+
+        for (int y = 0; y < mask.height; y++)
+        {
+            final int rowStart = y * mask.width;
+            final int wordStart = y * mask.words;
+            for (int x = 0; x < mask.width; x++)
+            {
+                if (pixels[rowStart + x] == rgbForegroundColor)
+                {
+                    mask.bits[wordStart + (x >>> 6)] |= 1L << x;
+                }
+            }
+        }
+
+        return mask;
+    }
+
+    /**
+     * Creates a binary mask that masks the same pixels as the given mask
+     * @param mask The mask
+     * @return the binary mask
+     */
+    public static BinaryMask fromMask(final Mask mask)
+    {
+        if (mask instanceof BinaryMask)
+        {
+            return ((BinaryMask) mask).copy();
+        }
+
+        final BinaryMask binary = new BinaryMask(mask.getWidth(), mask.getHeight());
+        for (int y = 0; y < binary.height; y++)
+        {
+            int from = mask.nextSet(0, y);
+            while (from < binary.width)
+            {
+                final int to = mask.nextClear(from, y);
+                binary.set(from, to, y);
+                from = mask.nextSet(to, y);
+            }
+        }
+
+        return binary;
+    }
+
+    /**
+     * Creates an ARGB image of the mask
+     * @param rgbForegroundColor The color of the set pixels
+     * @param rgbBackgroundColor The color of all other pixels
+     * @return the image
+     */
+    public BufferedImage toImage(final int rgbForegroundColor, final int rgbBackgroundColor)
+    {
+        final int[] pixels = new int[width * height];
+        Arrays.fill(pixels, rgbBackgroundColor);
+
+        for (int y = 0; y < height; y++)
+        {
+            int from = nextSet(0, y);
+            while (from < width)
+            {
+                final int to = nextClear(from, y);
+                Arrays.fill(pixels, y * width + from, y * width + to, rgbForegroundColor);
+                from = nextSet(to, y);
+            }
+        }
+
+        final BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        image.setRGB(0, 0, width, height, pixels, 0, width);
+        return image;
+    }
+
+    /**
+     * Returns the width of the mask
+     * @return width in pixels
+     */
+    @Override
+    public int getWidth()
+    {
+        return width;
+    }
+
+    /**
+     * Returns the height of the mask
+     * @return height in pixels
+     */
+    @Override
+    public int getHeight()
+    {
+        return height;
+    }
+
+    /**
+     * Returns the number of bytes the bits of the mask take
+     * @return the size of the mask in bytes
+     */
+    protected long getSize()
+    {
+        return bits.length * 8L;
+    }
+
+    /**
+     * Checks whether a pixel is set
+     * @param x The x coordinate of the pixel
+     * @param y The y coordinate of the pixel
+     * @return true if the pixel is set
+     */
+    @Override
+    public boolean get(final int x, final int y)
+    {
+        return (bits[y * words + (x >>> 6)] & (1L << x)) != 0;
+    }
+
+    /**
+     * Sets a single pixel
+     * @param x The x coordinate of the pixel
+     * @param y The y coordinate of the pixel
+     */
+    public void set(final int x, final int y)
+    {
+        bits[y * words + (x >>> 6)] |= 1L << x;
+    }
+
+    /**
+     * Sets the pixels of a row in the given range, the range is clipped to the mask
+     * @param fromX The first pixel to set (inclusive)
+     * @param toX The end of the range (exclusive)
+     * @param y The row
+     */
+    public void set(final int fromX, final int toX, final int y)
+    {
+        setRange(bits, y * words, Math.max(0, fromX), Math.min(width, toX));
+    }
+
+    /**
+     * Sets all pixels of a rectangle, the rectangle is clipped to the mask
+     * @param x The x coordinate of the upper left corner
+     * @param y The y coordinate of the upper left corner
+     * @param rectWidth The width of the rectangle
+     * @param rectHeight The height of the rectangle
+     */
+    @Override
+    public void fill(final int x, final int y, final int rectWidth, final int rectHeight)
+    {
+        final int toY = Math.min(height, y + rectHeight);
+        for (int row = Math.max(0, y); row < toY; row++)
+        {
+            set(x, x + rectWidth, row);
+        }
+    }
+
+    /**
+     * Creates a copy of the mask
+     * @return the copy
+     */
+    @Override
+    public BinaryMask copy()
+    {
+        final BinaryMask copy = new BinaryMask(width, height);
+        System.arraycopy(bits, 0, copy.bits, 0, bits.length);
+        return copy;
+    }
+
+    /**
+     * Returns the x coordinate of the next set pixel in the given row, starting at fromX
+     * @param fromX The x coordinate to start the search at (inclusive)
+     * @param y The row to search in
+     * @return the x coordinate of the next set pixel or the width of the mask if there is none
+     */
+    @Override
+    public int nextSet(final int fromX, final int y)
+    {
+        if (fromX >= width)
+        {
+            return width;
+        }
+
+        final int rowStart = y * words;
+        int word = fromX >>> 6;
+        long value = bits[rowStart + word] & (-1L << fromX);
+        while (value == 0)
+        {
+            if (++word == words)
+            {
+                return width;
+            }
+            value = bits[rowStart + word];
+        }
+
+        return (word << 6) + Long.numberOfTrailingZeros(value);
+    }
+
+    /**
+     * Returns the x coordinate of the next pixel in the given row, starting at fromX, that is not set
+     * @param fromX The x coordinate to start the search at (inclusive)
+     * @param y The row to search in
+     * @return the x coordinate of the next pixel that is not set or the width of the mask if there is none
+     */
+    @Override
+    public int nextClear(final int fromX, final int y)
+    {
+        if (fromX >= width)
+        {
+            return width;
+        }
+
+        final int rowStart = y * words;
+        int word = fromX >>> 6;
+        long value = ~bits[rowStart + word] & (-1L << fromX);
+        while (value == 0)
+        {
+            if (++word == words)
+            {
+                return width;
+            }
+            value = ~bits[rowStart + word];
+        }
+
+        return Math.min(width, (word << 6) + Long.numberOfTrailingZeros(value));
+    }
+
+    /**
+     * Dilates the mask with a rectangular structuring element of ones, which has its origin in the middle. Even
+     * sizes are incremented to make sure there is a middle pixel.
+     *
+     * @param structElementWidth The width of the structuring element
+     * @param structElementHeight The height of the structuring element
+     * @return the dilated mask
+     */
+    public BinaryMask dilate(final int structElementWidth, final int structElementHeight)
+    {
+        final BinaryMask dilated = new BinaryMask(width, height);
+        dilateRows(dilated.bits, structElementWidth / 2);
+        dilateColumns(dilated.bits, structElementHeight / 2);
+        return dilated;
+    }
+
+    /**
+     * Erodes the mask with a rectangular structuring element of ones, which has its origin in the middle. Even sizes
+     * are incremented to make sure there is a middle pixel. Pixels outside of the mask do not count as background, a
+     * pixel at the border stays set if all pixels of the element inside of the mask are set.
+     *
+     * @param structElementWidth The width of the structuring element
+     * @param structElementHeight The height of the structuring element
+     * @return the eroded mask
+     */
+    public BinaryMask erode(final int structElementWidth, final int structElementHeight)
+    {
+        return invert().dilate(structElementWidth, structElementHeight).invert();
+    }
+
+    /**
+     * Closes the mask, a dilation followed by an erosion with the same structuring element. Gaps and holes smaller than
+     * the structuring element are filled.
+     *
+     * @param structElementWidth The width of the structuring element
+     * @param structElementHeight The height of the structuring element
+     * @return the closed mask
+     */
+    public BinaryMask close(final int structElementWidth, final int structElementHeight)
+    {
+        return dilate(structElementWidth, structElementHeight).erode(structElementWidth, structElementHeight);
+    }
+
+    /**
+     * Closes the mask in blocks of the given scale. The mask is shrunk, so that a block becomes one pixel that is set
+     * if any pixel of the block is set, closed and scaled back up. The structuring element then covers scale times its
+     * size in the original mask.
+     *
+     * @param structElementWidth The width of the structuring element
+     * @param structElementHeight The height of the structuring element
+     * @param scale The side length of the blocks, 1 to close the mask in full resolution
+     * @return the closed mask
+     */
+    public BinaryMask close(final int structElementWidth, final int structElementHeight, final int scale)
+    {
+        final MorphologyEvent event = Events.morphology();
+
+        final BinaryMask closed = scale <= 1 ? close(structElementWidth, structElementHeight)
+                                             : scaleDown(scale).close(structElementWidth, structElementHeight)
+                                                               .scaleUp(scale, width, height);
+
+        if (event != null)
+        {
+            event.complete("close", width, height, structElementWidth, structElementHeight, Math.max(1, scale));
+        }
+        return closed;
+    }
+
+    /**
+     * Shrinks the mask by the given factor. A pixel of the shrunk mask is set if any pixel of its block is set, blocks
+     * at the right and bottom border might be smaller.
+     *
+     * @param factor The side length of the blocks that become one pixel
+     * @return the shrunk mask
+     */
+    public BinaryMask scaleDown(final int factor)
+    {
+        final BinaryMask scaled = new BinaryMask((width + factor - 1) / factor, (height + factor - 1) / factor);
+
+        for (int y = 0; y < height; y++)
+        {
+            final int scaledY = y / factor;
+            int from = nextSet(0, y);
+            while (from < width)
+            {
+                final int to = nextClear(from, y);
+                scaled.set(from / factor, (to - 1) / factor + 1, scaledY);
+                from = nextSet(to, y);
+            }
+        }
+
+        return scaled;
+    }
+
+    /**
+     * Enlarges the mask by the given factor, every pixel becomes a block of pixels. The result is cut to the given
+     * size, which is usually the size of the mask before it was shrunk.
+     *
+     * @param factor The side length of the block each pixel becomes
+     * @param scaledWidth The width of the enlarged mask
+     * @param scaledHeight The height of the enlarged mask
+     * @return the enlarged mask
+     */
+    public BinaryMask scaleUp(final int factor, final int scaledWidth, final int scaledHeight)
+    {
+        final BinaryMask scaled = new BinaryMask(scaledWidth, scaledHeight);
+
+        for (int y = 0; y < scaledHeight; y++)
+        {
+            final int sourceY = y / factor;
+            if (sourceY >= height)
+            {
+                break;
+            }
+
+            if (y % factor != 0)
+            {
+                // all rows of a block are the same
+                System.arraycopy(scaled.bits, (y - 1) * scaled.words, scaled.bits, y * scaled.words, scaled.words);
+                continue;
+            }
+
+            int from = nextSet(0, sourceY);
+            while (from < width)
+            {
+                final int to = nextClear(from, sourceY);
+                scaled.set(from * factor, to * factor, y);
+                from = nextSet(to, sourceY);
+            }
+        }
+
+        return scaled;
+    }
+
+    /**
+     * Reads a mask from a file in the binary mask format. The file is read with a single bulk read. It is not mapped,
+     * because a mapped file can't be written again on some platforms until the mapping is garbage collected, which
+     * would break the training of the mask.
+     *
+     * @param file The mask file
+     * @return the mask
+     * @throws IOException if the file could not be read or is not a mask file
+     */
+    public static BinaryMask read(final File file) throws IOException
+    {
+        try (final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+        {
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(channel, header);
+            header.flip();
+
+            if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC || header.getInt() != VERSION)
+            {
+                throw new IOException("Not a mask file: " + file);
+            }
+
+            final int width = header.getInt();
+            final int height = header.getInt();
+            if (width < 0 || height < 0 || channel.size() != HEADER_SIZE + 8L * ((width + 63) >>> 6) * height)
+            {
+                throw new IOException("Corrupt mask file: " + file);
+            }
+
+            final BinaryMask mask = new BinaryMask(width, height);
+            final ByteBuffer data = ByteBuffer.allocate(mask.bits.length * 8).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(channel, data);
+            data.flip();
+            data.asLongBuffer().get(mask.bits);
+
+            return mask;
+        }
+    }
+
+    /**
+     * Writes the mask to a file in the binary mask format
+     * @param file The mask file
+     * @throws IOException if the file could not be written
+     */
+    @Override
+    public void write(final File file) throws IOException
+    {
+        final ByteBuffer data = ByteBuffer.allocate(HEADER_SIZE + bits.length * 8).order(ByteOrder.LITTLE_ENDIAN);
+        data.putInt(MAGIC).putInt(VERSION).putInt(width).putInt(height);
+        data.asLongBuffer().put(bits);
+
+        Files.write(file.toPath(), data.array());
+    }
+
+    /**
+     * Reads from the channel until the buffer is full or the end of the file is reached
+     */
+    private static void readFully(final FileChannel channel, final ByteBuffer buffer) throws IOException
+    {
+        while (buffer.hasRemaining())
+        {
+            if (channel.read(buffer) < 0)
+            {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Returns the complement of the mask
+     */
+    private BinaryMask invert()
+    {
+        final BinaryMask inverted = new BinaryMask(width, height);
+
+        // the unused bits of the last word of a row stay zero
+        final long lastWord = (width & 63) == 0 ? -1L : (1L << width) - 1;
+        for (int i = 0; i < bits.length; i++)
+        {
+            inverted.bits[i] = ~bits[i];
+            if (i % words == words - 1)
+            {
+                inverted.bits[i] &= lastWord;
+            }
+        }
+
+        return inverted;
+    }
+
+    /**
+     * Dilates every row of this mask by the given radius into the given bits: each run of set pixels is set again,
+     * grown by the radius on both sides
+     */
+    private void dilateRows(final long[] target, final int radius)
+    {
+        for (int y = 0; y < height; y++)
+        {
+            int from = nextSet(0, y);
+            while (from < width)
+            {
+                final int to = nextClear(from, y);
+                setRange(target, y * words, Math.max(0, from - radius), (int) Math.min(width, (long) to + radius));
+                from = nextSet(to, y);
+            }
+        }
+    }
+
+    /**
+     * Dilates every column of the given bits in place by the given radius. The van Herk/Gil-Werman algorithm splits the
+     * column into blocks of the size of the window and calculates the OR of the prefixes and the suffixes of every
+     * block. Any window is then covered by the suffix of one block and the prefix of the next one, so it takes three
+     * ORs per pixel, whatever the radius. Each long holds 64 columns, which are processed at once.
+     */
+    private void dilateColumns(final long[] target, final int radius)
+    {
+        if (radius == 0 || height == 0)
+        {
+            return;
+        }
+
+        final int window = (int) Math.min(height, 2L * radius + 1);
+        final long[] prefix = new long[height];
+        final long[] suffix = new long[height];
+
+        for (int word = 0; word < words; word++)
+        {
+            for (int y = 0; y < height; y++)
+            {
+                final long value = target[y * words + word];
+                prefix[y] = y % window == 0 ? value : prefix[y - 1] | value;
+            }
+            for (int y = height - 1; y >= 0; y--)
+            {
+                final long value = target[y * words + word];
+                suffix[y] = y % window == window - 1 || y == height - 1 ? value : suffix[y + 1] | value;
+            }
+
+            for (int y = 0; y < height; y++)
+            {
+                // the window [lo, hi] is clipped at the top and the bottom border
+                final int lo = Math.max(0, y - radius);
+                final int hi = (int) Math.min(height - 1, (long) y + radius);
+
+                final long value;
+                if (lo / window != hi / window)
+                {
+                    value = suffix[lo] | prefix[hi];
+                }
+                else if (lo % window == 0)
+                {
+                    // the window starts at the beginning of the block
+                    value = prefix[hi];
+                }
+                else
+                {
+                    // the window ends at the end of the block or of the column
+                    value = suffix[lo];
+                }
+
+                target[y * words + word] = value;
+            }
+        }
+    }
+
+    /**
+     * Sets the bits [fromX, toX) of the row that starts at the given word
+     */
+    private static void setRange(final long[] bits, final int rowStart, final int fromX, final int toX)
+    {
+        if (fromX >= toX)
+        {
+            return;
+        }
+
+        final int first = fromX >>> 6;
+        final int last = (toX - 1) >>> 6;
+        final long firstMask = -1L << fromX;
+        final long lastMask = -1L >>> -toX;
+
+        if (first == last)
+        {
+            bits[rowStart + first] |= firstMask & lastMask;
+            return;
+        }
+
+        bits[rowStart + first] |= firstMask;
+        for (int word = first + 1; word < last; word++)
+        {
+            bits[rowStart + word] = -1L;
+        }
+        bits[rowStart + last] |= lastMask;
+    }
+}
@@ -0,0 +1,161 @@
+package com.xceptance.xlt.visualassertion.util;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+
+/**
+ * Result of the comparison of one image with a {@link CompiledBaseline}. Every comparison gets its own result, so
+ * results of comparisons that ran in parallel do not interfere. The marked and difference images are only created
+ * when they are asked for.
+ */
+public class ComparisonResult
+{
+    private final BufferedImage compareImage;
+
+    private final ImagePair images;
+
+    private final DifferenceMap differences;
+
+    private final int referenceType;
+
+    private final boolean equal;
+
+    private final boolean complete;
+
+    /**
+     * Creates the result of a comparison
+     * @param compareImage The compared image
+     * @param images The view on both images the comparison ran on
+     * @param differences The differences that were found
+     * @param referenceType The type of the reference image, which is used for the difference image
+     * @param equal Whether the images are considered equal
+     * @param complete Whether all differences were searched, false if the comparison stopped early
+     */
+    protected ComparisonResult(final BufferedImage compareImage, final ImagePair images, final DifferenceMap differences,
+                               final int referenceType, final boolean equal, final boolean complete)
+    {
+        this.compareImage = compareImage;
+        this.images = images;
+        this.differences = differences;
+        this.referenceType = referenceType;
+        this.equal = equal;
+        this.complete = complete;
+    }
+
+    /**
+     * Returns whether the two images are considered equal
+     * @return true if the images are equal as determined by the algorithm and the tolerated number of differences
+     */
+    public boolean isEqual()
+    {
+        return equal;
+    }
+
+    /**
+     * Returns whether all differences are known. In fail fast mode the comparison stops as soon as the result is
+     * known, the marked and difference images only show the differences found until then.
+     * @return true if the whole images were compared
+     */
+    public boolean isComplete()
+    {
+        return complete;
+    }
+
+    /**
+     * Returns whether the two images differed in size
+     * @return true if the images have different dimensions
+     */
+    public boolean isResized()
+    {
+        return images.isResized();
+    }
+
+    /**
+     * Returns the number of pixels that were compared, i.e. the larger width times the larger height of both images
+     * @return the number of pixels
+     */
+    public long getPixelCount()
+    {
+        return (long) images.getWidth() * images.getHeight();
+    }
+
+    /**
+     * Returns the differences that were found
+     * @return the differences, which must not be modified
+     */
+    public DifferenceMap getDifferences()
+    {
+        return differences;
+    }
+
+    /**
+     * Creates a copy of the compared image in which the found differences are highlighted in a different color scheme
+     * @param markingSizeX The size of the marking on the x axis
+     * @param markingSizeY The size of the marking of the y axis
+     * @return BufferedImage with the originally found differences highlighted
+     */
+    public BufferedImage getMarkedImageWithAMarker(final int markingSizeX, final int markingSizeY)
+    {
+        return ImageHelper.markDifferencesWithAMarker(getPaddedCompareImage(), differences, markingSizeX, markingSizeY);
+    }
+
+    /**
+     * Creates a copy of the compared image in which the found differences are marked with red boxes.
+     * @param markingSizeX The size of the marking on the x axis
+     * @param markingSizeY The size of the marking of the y axis
+     * @return BufferedImage with the originally found differences marked with boxes
+     */
+    public BufferedImage getMarkedImageWithBoxes(final int markingSizeX, final int markingSizeY)
+    {
+        return ImageHelper.markDifferencesWithBoxes(getPaddedCompareImage(), differences, markingSizeX, markingSizeY);
+    }
+
+    /**
+     * Creates a new image in which only the found differences are displayed on a black background.
+     * The differences are drawn in the exact locations where they were found in the original image
+     * @return BufferedImage with differences in grey on a black background, null if there are no differences
+     */
+    public BufferedImage getDifferenceImage()
+    {
+        if (differences.isEmpty())
+            return null;
+
+        // create a difference picture of the type of the padded reference and paint it black
+        final boolean padded = images.getReference().getWidth() != images.getWidth()
+                               || images.getReference().getHeight() != images.getHeight();
+        final int type = padded || referenceType == 0 ? BufferedImage.TYPE_INT_ARGB : referenceType;
+        BufferedImage difference = new BufferedImage(images.getWidth(), images.getHeight(), type);
+        final Graphics2D g = difference.createGraphics();
+        g.setColor(Color.BLACK);
+        g.fillRect(0, 0, difference.getWidth(), difference.getHeight());
+        g.dispose();
+
+        // mark differences in greyscale
+        int x, y, diffColor;
+        for (y = 0; y < differences.getHeight(); y++)
+        {
+            for (x = differences.nextDifference(0, y); x >= 0; x = differences.nextDifference(x + 1, y))
+            {
+                diffColor = ImageHelper.calculateGreyLevel(ImageHelper.calculatePixelRGBDistance(images.getReferenceRGB(x, y),
+                                                                                                  images.getCompareRGB(x, y)));
+                difference.setRGB(x, y, 0xFF000000 | diffColor << 16 | diffColor << 8 | diffColor);
+            }
+        }
+
+        // draw borders on the differences if compared images differed in size
+        if (isResized())
+            difference = ImageHelper.markImageBorders(difference, 0, 0);
+
+        return difference;
+    }
+
+    /**
+     * Returns the compared image, padded to the size of the comparison if the images differed in size
+     * @return the compared image in the size of the found differences
+     */
+    private BufferedImage getPaddedCompareImage()
+    {
+        return ImageHelper.adaptImageSize(compareImage, images.getWidth(), images.getHeight());
+    }
+}
@@ -0,0 +1,137 @@
+package com.xceptance.xlt.visualassertion.util;
+
+import java.awt.image.BufferedImage;
+
+import com.xceptance.xlt.visualassertion.algorithm.ComparisonAlgorithm;
+import com.xceptance.xlt.visualassertion.algorithm.ComparisonType;
+
+/**
+ * A reference image prepared for the comparison with one algorithm: the packed pixels, a snapshot of the mask and, if
+ * pre-screening is enabled, the tile signatures of the reference. The baseline is immutable, so it can be compiled
+ * once and shared by all threads. Every comparison gets its own {@link ComparisonResult}.
+ */
+public class CompiledBaseline
+{
+    private final PackedImage reference;
+
+    private final int referenceType;
+
+    private final Mask mask;
+
+    private final ComparisonAlgorithm algorithm;
+
+    private final TileSignatures signatures;
+
+    /**
+     * Compiles the given reference image
+     * @param reference The reference image
+     * @param mask The mask that sets the dynamic content areas, which are ignored in the comparison, might be null. The
+     *            mask is copied, so later changes do not affect the baseline
+     * @param algorithm The algorithm with which the images are compared
+     * @param prescreen true to skip the tiles whose signatures are similar, false to compare all pixels
+     */
+    public CompiledBaseline(final BufferedImage reference, final Mask mask, final ComparisonAlgorithm algorithm,
+                            final boolean prescreen)
+    {
+        this.reference = new PackedImage(reference);
+        this.referenceType = reference.getType();
+        this.mask = mask == null ? null : mask.copy();
+        this.algorithm = algorithm;
+
+        if (prescreen)
+        {
+            final int tileSize = TileSignatures.calcTileSize(algorithm.getType() == ComparisonType.PIXELFUZZY
+                                                             ? algorithm.getFuzzyBlockSize() : 1);
+            this.signatures = TileSignatures.get(reference, this.reference, tileSize);
+        }
+        else
+        {
+            this.signatures = null;
+        }
+    }
+
+    /**
+     * Returns the algorithm the baseline was compiled for
+     * @return the algorithm
+     */
+    public ComparisonAlgorithm getAlgorithm()
+    {
+        return algorithm;
+    }
+
+    /**
+     * Compares the given image to the baseline, any difference makes the images unequal
+     * @param compareImage The image that is compared to the reference image
+     * @return the result of the comparison
+     */
+    public ComparisonResult compare(final BufferedImage compareImage)
+    {
+        return compare(compareImage, 0, -1, false);
+    }
+
+    /**
+     * Compares the given image to the baseline
+     * @param compareImage The image that is compared to the reference image
+     * @param maxDifferences The number of different pixels that are tolerated
+     * @param maxDifferencesPercentage The percentage of different pixels that is tolerated [0-100], negative to use
+     *            the absolute number
+     * @param failFast true to stop as soon as more differences than allowed were found
+     * @return the result of the comparison
+     */
+    public ComparisonResult compare(final BufferedImage compareImage, final int maxDifferences,
+                                    final double maxDifferencesPercentage, final boolean failFast)
+    {
+        // the algorithms read the images and the mask through the view, nothing is copied or padded
+        final ImagePair images = new ImagePair(reference, new PackedImage(compareImage), mask);
+
+        // skip the tiles that the signatures find similar
+        if (signatures != null && !images.isResized())
+        {
+            final TileSignatures compareSignatures = new TileSignatures(images.getCompareImage(), signatures.getTileSize());
+            images.skipTiles(signatures.findSimilarTiles(compareSignatures, algorithm), signatures.getTileSize(),
+                             signatures.getTilesX());
+        }
+
+        // the number of differences that are tolerated, in fail fast mode the comparison stops right after it
+        final int pixelCount = images.getWidth() * images.getHeight();
+        final int allowedDifferences = maxDifferencesPercentage >= 0
+                                       ? (int) Math.floor(pixelCount * maxDifferencesPercentage / 100)
+                                       : maxDifferences;
+        final int limit = failFast ? allowedDifferences : Integer.MAX_VALUE;
+
+        final DifferenceMap differences;
+        switch (algorithm.getType())
+        {
+        case COLORFUZZY:
+            differences = ImageHelper.colorFuzzyCompare(images, algorithm.getColorTolerance(), limit);
+            break;
+
+        case PIXELFUZZY:
+            differences = ImageHelper.fuzzyCompare(images, algorithm.getColorTolerance(),
+                    algorithm.getPixelTolerance(), algorithm.getFuzzyBlockSize(), limit);
+            break;
+
+        case SLIDINGFUZZY:
+            differences = ImageHelper.slidingFuzzyCompare(images, algorithm.getColorTolerance(),
+                    algorithm.getPixelTolerance(), algorithm.getFuzzyBlockSize(), limit);
+            break;
+
+        default:
+            differences = ImageHelper.compareImages(images, limit);
+            break;
+        }
+
+        final boolean equal = differences.size() <= allowedDifferences;
+        return new ComparisonResult(compareImage, images, differences, referenceType, equal,
+                                    !failFast || !differences.isLimitExceeded());
+    }
+
+    /**
+     * Returns the approximate number of bytes the baseline occupies, for the cache
+     * @return the size in bytes
+     */
+    protected long getSize()
+    {
+        return 4L * reference.getWidth() * reference.getHeight();
+    }
+}
@@ -0,0 +1,107 @@
+package com.xceptance.xlt.visualassertion.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * SHA-256 hashes of image files, used to detect a screenshot that is byte by byte the same as its reference image
+ * without decoding either of them. The hashes of the files are kept for the whole process and are calculated again
+ * as soon as the last modification time or the length of a file changed.
+ */
+public class ContentHash
+{
+    private static final ConcurrentHashMap<String, Entry> hashes = new ConcurrentHashMap<>();
+
+    /**
+     * Checks whether the given data is exactly the content of the given file
+     * @param data The data, e.g. the encoded screenshot
+     * @param file The file, e.g. the reference image
+     * @return true if the file holds exactly the given data
+     * @throws IOException if the file could not be read
+     */
+    public static boolean matches(final byte[] data, final File file) throws IOException
+    {
+        // data of another length can't be the same, no need to hash it
+        if (data.length != file.length())
+        {
+            return false;
+        }
+
+        return Arrays.equals(hash(data), hash(file));
+    }
+
+    /**
+     * Calculates the hash of the given data
+     * @param data The data to hash
+     * @return the SHA-256 hash
+     */
+    public static byte[] hash(final byte[] data)
+    {
+        try
+        {
+            return MessageDigest.getInstance("SHA-256").digest(data);
+        }
+        catch (final NoSuchAlgorithmException e)
+        {
+            // every Java platform has to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Returns the hash of the content of the given file, the file is only read if it changed since the last call
+     * @param file The file to hash
+     * @return the SHA-256 hash
+     * @throws IOException if the file could not be read
+     */
+    public static byte[] hash(final File file) throws IOException
+    {
+        final String key = file.getAbsolutePath();
+        final long lastModified = file.lastModified();
+        final long length = file.length();
+
+        final Entry entry = hashes.get(key);
+        if (entry != null && entry.lastModified == lastModified && entry.length == length)
+        {
+            return entry.hash;
+        }
+
+        final byte[] hash = hash(Files.readAllBytes(file.toPath()));
+        hashes.put(key, new Entry(hash, lastModified, length));
+
+        return hash;
+    }
+
+    /**
+     * Removes the hash of the given file, e.g. because the file was just written
+     * @param file The file
+     */
+    public static void invalidate(final File file)
+    {
+        hashes.remove(file.getAbsolutePath());
+    }
+
+    /**
+     * The hash of a file together with the state of the file at the time it was hashed
+     */
+    private static class Entry
+    {
+        private final byte[] hash;
+
+        private final long lastModified;
+
+        private final long length;
+
+        Entry(final byte[] hash, final long lastModified, final long length)
+        {
+            this.hash = hash;
+            this.lastModified = lastModified;
+            this.length = length;
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package com.xceptance.xlt.visualassertion.util;
+
+import java.util.BitSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compact set of the pixel positions that were found as different by a comparison. Every row of the image that
+ * contains at least one difference is held as a bit set, rows without differences do not take any memory at all.
+ * The number of differences is tracked while adding them.
+ * <p>
+ * A map can be created with a limit for the number of differences. The comparison algorithms check the limit
+ * regularly and stop as soon as it is exceeded, because the result of the comparison is known by then. The map does
+ * not hold all differences of the images in this case.
+ * <p>
+ * The differences are iterated row by row:
+ *
+ * <pre>
+ * for (int y = 0; y &lt; differences.getHeight(); y++)
+ *     for (int x = differences.nextDifference(0, y); x &gt;= 0; x = differences.nextDifference(x + 1, y))
+ *         ...
+ * </pre>
+ */
+public class DifferenceMap
+{
+    private final int width;
+
+    private final int height;
+
+    private final int firstRow;
+
+    private final BitSet[] rows;
+
+    private int count;
+
+    private final int limit;
+
+    // the number of differences of this map and all of its bands, only tracked if there is a limit
+    private final AtomicInteger totalCount;
+
+    /**
+     * Creates an empty difference map for an image of the given size
+     * @param width Width of the compared images
+     * @param height Height of the compared images
+     */
+    public DifferenceMap(final int width, final int height)
+    {
+        this(width, height, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Creates an empty difference map for an image of the given size, which is considered full as soon as it holds
+     * more than the given number of differences.
+     * @param width Width of the compared images
+     * @param height Height of the compared images
+     * @param limit The number of differences that may be found before the comparison can stop,
+     *            Integer.MAX_VALUE for no limit
+     */
+    public DifferenceMap(final int width, final int height, final int limit)
+    {
+        this.width = width;
+        this.height = height;
+        this.firstRow = 0;
+        this.rows = new BitSet[height];
+        this.limit = limit;
+        this.totalCount = limit == Integer.MAX_VALUE ? null : new AtomicInteger();
+    }
+
+    /**
+     * Creates an empty difference map that only covers a band of rows of the given map. Such bands are used to
+     * compare parts of an image independently, they are merged into the map of the full image afterwards. The band
+     * shares the limit with the map of the full image.
+     * @param parent The map of the full image
+     * @param fromY First row of the band (inclusive)
+     * @param toY Last row of the band (exclusive)
+     */
+    protected DifferenceMap(final DifferenceMap parent, final int fromY, final int toY)
+    {
+        this.width = parent.width;
+        this.height = parent.height;
+        this.firstRow = fromY;
+        this.rows = new BitSet[toY - fromY];
+        this.limit = parent.limit;
+        this.totalCount = parent.totalCount;
+    }
+
+    /**
+     * Returns the width of the compared images
+     * @return width in pixels
+     */
+    public int getWidth()
+    {
+        return width;
+    }
+
+    /**
+     * Returns the height of the compared images
+     * @return height in pixels
+     */
+    public int getHeight()
+    {
+        return height;
+    }
+
+    /**
+     * Marks the pixel at the given position as different
+     * @param x The x coordinate of the pixel
+     * @param y The y coordinate of the pixel
+     */
+    public void add(final int x, final int y)
+    {
+        BitSet row = rows[y - firstRow];
+        if (row == null)
+        {
+            row = new BitSet(width);
+            rows[y - firstRow] = row;
+        }
+
+        if (!row.get(x))
+        {
+            row.set(x);
+            count++;
+
+            if (totalCount != null)
+            {
+                totalCount.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Checks whether the pixel at the given position was found as different
+     * @param x The x coordinate of the pixel
+     * @param y The y coordinate of the pixel
+     * @return true if the pixel is different
+     */
+    public boolean contains(final int x, final int y)
+    {
+        final BitSet row = getRow(y);
+        return row != null && row.get(x);
+    }
+
+    /**
+     * Returns the x coordinate of the next difference in the given row, starting at fromX
+     * @param fromX The x coordinate to start the search at (inclusive)
+     * @param y The row to search in
+     * @return the x coordinate of the next difference or -1 if there is none
+     */
+    public int nextDifference(final int fromX, final int y)
+    {
+        final BitSet row = getRow(y);
+        return row == null ? -1 : row.nextSetBit(fromX);
+    }
+
+    /**
+     * Returns the x coordinate of the next pixel in the given row, starting at fromX, that is not different. Together
+     * with nextDifference this allows to walk along whole runs of differences.
+     * @param fromX The x coordinate to start the search at (inclusive)
+     * @param y The row to search in
+     * @return the x coordinate of the next pixel that is not different, might be the width of the image
+     */
+    public int nextNonDifference(final int fromX, final int y)
+    {
+        final BitSet row = getRow(y);
+        return row == null ? fromX : row.nextClearBit(fromX);
+    }
+
+    /**
+     * Returns the number of differences
+     * @return number of different pixels
+     */
+    public int size()
+    {
+        return count;
+    }
+
+    /**
+     * Checks whether there are no differences at all
+     * @return true if no pixel was found as different
+     */
+    public boolean isEmpty()
+    {
+        return count == 0;
+    }
+
+    /**
+     * Checks whether more differences than the limit of this map have been found, counting the differences of all
+     * bands of the map
+     * @return true if the limit is exceeded and the comparison can stop
+     */
+    public boolean isLimitExceeded()
+    {
+        return totalCount != null && totalCount.get() > limit;
+    }
+
+    /**
+     * Adds all differences of the given map to this one. The rows of the other map are taken over, so it must not be
+     * used anymore afterwards.
+     * @param other The map to merge into this one, e.g. the differences of a band of rows
+     */
+    protected void addAll(final DifferenceMap other)
+    {
+        for (int i = 0; i < other.rows.length; i++)
+        {
+            final BitSet otherRow = other.rows[i];
+            if (otherRow == null)
+            {
+                continue;
+            }
+
+            final int index = other.firstRow + i - firstRow;
+            final BitSet row = rows[index];
+            if (row == null)
+            {
+                rows[index] = otherRow;
+                count += otherRow.cardinality();
+            }
+            else
+            {
+                count -= row.cardinality();
+                row.or(otherRow);
+                count += row.cardinality();
+            }
+        }
+    }
+
+    /**
+     * Returns the bit set of the given row
+     * @param y The row
+     * @return the bit set or null if the row has no differences or is not covered by this map
+     */
+    private BitSet getRow(final int y)
+    {
+        final int index = y - firstRow;
+        return index < 0 || index >= rows.length ? null : rows[index];
+    }
+}
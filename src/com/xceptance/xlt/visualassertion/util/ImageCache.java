@@ -0,0 +1,301 @@
+package com.xceptance.xlt.visualassertion.util;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.xceptance.xlt.visualassertion.algorithm.ComparisonAlgorithm;
+
+/**
+ * Process-wide cache of decoded reference images, masks and compiled baselines, so that every image is decoded once per
+ * agent instead of once per assertion. Masks are cached as they are read from their mask files. The cache is keyed by
+ * the path of the file and holds images and masks up to a configured number of bytes, the least recently used ones are
+ * evicted first. An entry is read again from disk as soon as the last modification time or the length of one of its
+ * files changed, e.g. after a training run wrote a new mask. Images are read in the format of their file extension, see
+ * {@link BaselineFormat}.
+ * <p>
+ * The cached images and masks are shared by all threads and must not be modified.
+ */
+public class ImageCache
+{
+    private static long maxSize = 0;
+
+    private static long size = 0;
+
+    // access ordered, the eldest entry is the least recently used one
+    private static final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * Sets the maximum number of bytes the cached images may take. Images are evicted right away if the cache holds
+     * more than that, a size of 0 or less disables the cache.
+     * @param bytes The maximum size of the cache in bytes
+     */
+    public static synchronized void setMaxSize(final long bytes)
+    {
+        maxSize = Math.max(0, bytes);
+        evict();
+    }
+
+    /**
+     * Returns the maximum number of bytes the cached images may take
+     * @return the maximum size in bytes, 0 if the cache is disabled
+     */
+    public static synchronized long getMaxSize()
+    {
+        return maxSize;
+    }
+
+    /**
+     * Returns the number of bytes the cached images take at the moment
+     * @return the size of all cached images in bytes
+     */
+    public static synchronized long getSize()
+    {
+        return size;
+    }
+
+    /**
+     * Removes all images from the cache
+     */
+    public static synchronized void clear()
+    {
+        entries.clear();
+        size = 0;
+    }
+
+    /**
+     * Removes the image of the given file from the cache, e.g. because the file was just written. Files that change
+     * within the resolution of the modification time and keep their length are not detected otherwise.
+     * @param file The image file
+     */
+    public static synchronized void invalidate(final File file)
+    {
+        final String path = file.getAbsolutePath();
+        final Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext())
+        {
+            final Entry entry = iterator.next();
+            if (entry.uses(path))
+            {
+                size -= entry.size;
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Returns the decoded image of the given file. The image is taken from the cache if the file did not change since
+     * it was cached, else it is read from disk and put into the cache.
+     *
+     * @param file The image file to read
+     * @return the decoded image, which must not be modified, or null if the file could not be decoded
+     * @throws IOException if the file could not be read
+     */
+    public static BufferedImage read(final File file) throws IOException
+    {
+        final String key = file.getAbsolutePath();
+        final long[] state = getState(file);
+
+        final Object cached = get(key, state);
+        if (cached instanceof BufferedImage)
+        {
+            return (BufferedImage) cached;
+        }
+
+        // decode outside of the lock, an image that is read by several threads at once is cached by the last one
+        final BufferedImage image = BaselineFormat.read(file);
+        if (image == null)
+        {
+            return null;
+        }
+
+        put(key, new Entry(image, new String[] { key }, state, getImageSize(image)));
+
+        return image;
+    }
+
+    /**
+     * Returns the mask of the given mask file, a binary mask or a list of rectangles. The mask is taken from the cache
+     * if the file did not change since it was cached, else it is read from disk and put into the cache.
+     *
+     * @param file The mask file to read
+     * @return the mask, which must not be modified
+     * @throws IOException if the file could not be read or is not a mask file
+     */
+    public static Mask readMask(final File file) throws IOException
+    {
+        final String key = file.getAbsolutePath();
+        final long[] state = getState(file);
+
+        final Object cached = get(key, state);
+        if (cached instanceof Mask)
+        {
+            return (Mask) cached;
+        }
+
+        final Mask mask = Mask.read(file);
+
+        // rectangle lists take about as much memory as their text
+        put(key, new Entry(mask, new String[] { key }, state,
+                           mask instanceof BinaryMask ? ((BinaryMask) mask).getSize() : file.length()));
+
+        return mask;
+    }
+
+    /**
+     * Returns the reference image of the given file compiled for the given mask and algorithm. The baseline is taken
+     * from the cache if neither the image nor the mask file changed since it was compiled, else it is compiled anew
+     * and put into the cache. Only the compiled baseline is cached, not the decoded image it was compiled from.
+     *
+     * @param file The reference image file
+     * @param maskFile The mask file, null to compare all pixels
+     * @param algorithm The algorithm with which the images are compared
+     * @param prescreen true to skip the tiles whose signatures are similar, false to compare all pixels
+     * @return the compiled baseline or null if the image file could not be decoded
+     * @throws IOException if a file could not be read
+     */
+    public static CompiledBaseline readBaseline(final File file, final File maskFile, final ComparisonAlgorithm algorithm,
+                                                final boolean prescreen) throws IOException
+    {
+        final String path = file.getAbsolutePath();
+        final String maskPath = maskFile == null ? "" : maskFile.getAbsolutePath();
+        final String key = path + "|" + maskPath + "|" + algorithm.getType() + "|" + algorithm.getColorTolerance() + "|"
+                           + algorithm.getPixelTolerance() + "|" + algorithm.getFuzzyBlockSize() + "|" + prescreen;
+
+        final long[] imageState = getState(file);
+        final long[] maskState = maskFile == null ? new long[0] : getState(maskFile);
+        final long[] state = new long[imageState.length + maskState.length];
+        System.arraycopy(imageState, 0, state, 0, imageState.length);
+        System.arraycopy(maskState, 0, state, imageState.length, maskState.length);
+
+        final Object cached = get(key, state);
+        if (cached instanceof CompiledBaseline)
+        {
+            return (CompiledBaseline) cached;
+        }
+
+        final BufferedImage image = BaselineFormat.read(file);
+        if (image == null)
+        {
+            return null;
+        }
+
+        final Mask mask = maskFile == null ? null : readMask(maskFile);
+        final CompiledBaseline baseline = new CompiledBaseline(image, mask, algorithm, prescreen);
+
+        put(key, new Entry(baseline, maskFile == null ? new String[] { path } : new String[] { path, maskPath }, state,
+                           baseline.getSize()));
+
+        return baseline;
+    }
+
+    /**
+     * Returns the state of a file that tells whether it changed, its last modification time and its length
+     */
+    private static long[] getState(final File file)
+    {
+        return new long[] { file.lastModified(), file.length() };
+    }
+
+    /**
+     * Estimates the number of bytes the pixel data of an image takes
+     * @param image The image
+     * @return the size of the data buffer of the image in bytes
+     */
+    protected static long getImageSize(final BufferedImage image)
+    {
+        final DataBuffer buffer = image.getRaster().getDataBuffer();
+        return (long) buffer.getSize() * buffer.getNumBanks() * DataBuffer.getDataTypeSize(buffer.getDataType()) / 8;
+    }
+
+    /**
+     * Returns the cached value of the given key or null if it is not cached or its files changed since
+     */
+    private static synchronized Object get(final String key, final long[] state)
+    {
+        final Entry entry = entries.get(key);
+        if (entry != null)
+        {
+            if (Arrays.equals(entry.state, state))
+            {
+                return entry.value;
+            }
+
+            // a file changed
+            remove(key);
+        }
+
+        return null;
+    }
+
+    /**
+     * Caches the given entry if it fits into the cache at all
+     */
+    private static synchronized void put(final String key, final Entry entry)
+    {
+        if (entry.size <= maxSize)
+        {
+            remove(key);
+            entries.put(key, entry);
+            size += entry.size;
+            evict();
+        }
+    }
+
+    private static void remove(final String key)
+    {
+        final Entry entry = entries.remove(key);
+        if (entry != null)
+        {
+            size -= entry.size;
+        }
+    }
+
+    /**
+     * Removes the least recently used images until the cache fits into its maximum size
+     */
+    private static void evict()
+    {
+        final Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while (size > maxSize && iterator.hasNext())
+        {
+            size -= iterator.next().getValue().size;
+            iterator.remove();
+        }
+    }
+
+    /**
+     * A cached image, mask or baseline together with the state of its files at the time they were read
+     */
+    private static class Entry
+    {
+        private final Object value;
+
+        private final String[] files;
+
+        private final long[] state;
+
+        private final long size;
+
+        Entry(final Object value, final String[] files, final long[] state, final long size)
+        {
+            this.value = value;
+            this.files = files;
+            this.state = state;
+            this.size = size;
+        }
+
+        /**
+         * Checks whether the value was read from the given file
+         */
+        boolean uses(final String path)
+        {
+            return Arrays.asList(files).contains(path);
+        }
+    }
+}
@@ -1,22 +1,27 @@
 package com.xceptance.xlt.visualassertion.util;
 
-import java.awt.Color;
-import java.awt.Point;
 import java.awt.image.BufferedImage;
 
-import org.junit.Assert;
-
 import com.xceptance.xlt.visualassertion.algorithm.ComparisonAlgorithm;
 
+/**
+ * Compares images to one reference image. Every call of isEqual compiles the reference anew and keeps the result for
+ * the getters, so an instance must not be shared between threads. Use a {@link CompiledBaseline} to compare many
+ * images to the same reference concurrently.
+ */
 public class ImageComparison
 {
-    private Point[] lastDifferences = null;
+    private final BufferedImage reference;
+
+    private ComparisonResult lastResult;
 
-    private BufferedImage reference;
+    private boolean failFast = false;
 
-    private BufferedImage lastCompareImage;
+    private int maxDifferences = 0;
 
-    private boolean resized = false;
+    private double maxDifferencesPercentage = -1;
+
+    private boolean prescreen = false;
 
 
     /**
@@ -28,61 +33,74 @@ public class ImageComparison
         this.reference = reference;
     }
 
+    /**
+     * Sets whether the comparison stops as soon as the result is known, i.e. as soon as more differences than
+     * allowed were found. The marked and difference images only show the differences found until then.
+     * @param failFast true to stop at the first disqualifying difference, false to find all differences
+     */
+    public void setFailFast(final boolean failFast)
+    {
+        this.failFast = failFast;
+    }
+
+    /**
+     * Sets the number of differences that are allowed in the whole image, after the algorithm has been applied.
+     * The default is 0, so any difference makes the images unequal.
+     * @param maxDifferences The number of different pixels that are tolerated
+     */
+    public void setMaxDifferences(final int maxDifferences)
+    {
+        this.maxDifferences = maxDifferences;
+        this.maxDifferencesPercentage = -1;
+    }
+
+    /**
+     * Sets the number of differences that are allowed in the whole image as percentage of the compared pixels.
+     * @param percentage The percentage of different pixels that is tolerated [0-100]
+     */
+    public void setMaxDifferencesPercentage(final double percentage)
+    {
+        this.maxDifferencesPercentage = percentage;
+    }
+
+    /**
+     * Sets whether the tiles of both images are compared by their signatures first, so that only the tiles that
+     * differ are compared in full. Identical tiles are never different. For the fuzzy algorithms tiles with a similar
+     * structure and color histogram are skipped as well, which might miss small changes.
+     * @param prescreen true to pre-screen the tiles, false to compare all pixels
+     */
+    public void setPrescreen(final boolean prescreen)
+    {
+        this.prescreen = prescreen;
+    }
+
     /**
      * Checks whether two images can be considered equal as determined by the given algorithm
      * @param compareImage The image that is compared to the reference image
-     * @param mask The mask that sets the dynamic content areas, which are ignored in the comparison
+     * @param mask The mask image that sets the dynamic content areas, which are ignored in the comparison, black
+     *             pixels are masked
      * @param algorithm The algorithm with which the assertion is calculated
      * @return true if the two images are calculated as equal, false if not
      */
     public boolean isEqual(final BufferedImage compareImage, final BufferedImage mask, final ComparisonAlgorithm algorithm)
     {
-        resized = false;
-
-        lastCompareImage = ImageHelper.copyImage(compareImage);
-        BufferedImage maskCopy = ImageHelper.copyImage(mask);
-
-        final int maxWidth = Math.max(reference.getWidth(), lastCompareImage.getWidth());
-        final int maxHeight = Math.max(reference.getHeight(), lastCompareImage.getHeight());
-
-        final int minWidth = Math.min(reference.getWidth(), lastCompareImage.getWidth());
-        final int minHeight = Math.min(reference.getHeight(), lastCompareImage.getHeight());
-
-        if (maxWidth != minWidth || maxHeight != minHeight)
-        {
-            resized = true;
-            reference = ImageHelper.adaptImageSize(reference, maxWidth, maxHeight);
-            lastCompareImage = ImageHelper.adaptImageSize(lastCompareImage, maxWidth, maxHeight);
-            maskCopy = ImageHelper.adaptImageSize(maskCopy, maxWidth, maxHeight);
-
-        }
-
-        final BufferedImage maskedReference = ImageHelper.overlayMaskImage(reference, maskCopy, ImageHelper.BLACK.getRGB());
-        final BufferedImage maskedCompareImage = ImageHelper.overlayMaskImage(lastCompareImage, maskCopy, ImageHelper.BLACK.getRGB());
-
-        switch (algorithm.getType())
-        {
-        case EXACTMATCH:
-            lastDifferences = ImageHelper.compareImages(maskedReference, maskedCompareImage);
-            break;
-
-        case COLORFUZZY:
-            lastDifferences = ImageHelper.colorFuzzyCompare(maskedReference, maskedCompareImage, algorithm.getColorTolerance());
-            break;
-
-        case PIXELFUZZY:
-            lastDifferences = ImageHelper.fuzzyCompare(maskedReference, maskedCompareImage, algorithm.getColorTolerance(),
-                    algorithm.getPixelTolerance(), algorithm.getFuzzyBlockSize());
-            break;
-        }
-
-        if(lastDifferences == null)
-        {
-            Assert.fail("The dimensions of the two images don't match!");
-        }
-
-        return lastDifferences.length == 0;
+        return isEqual(compareImage, mask == null ? null : BinaryMask.fromImage(mask, ImageHelper.BLACK.getRGB()),
+                       algorithm);
+    }
 
+    /**
+     * Checks whether two images can be considered equal as determined by the given algorithm
+     * @param compareImage The image that is compared to the reference image
+     * @param mask The mask that sets the dynamic content areas, which are ignored in the comparison
+     * @param algorithm The algorithm with which the assertion is calculated
+     * @return true if the two images are calculated as equal, false if not
+     */
+    public boolean isEqual(final BufferedImage compareImage, final Mask mask, final ComparisonAlgorithm algorithm)
+    {
+        lastResult = new CompiledBaseline(reference, mask, algorithm, prescreen).compare(compareImage, maxDifferences,
+                                                                                         maxDifferencesPercentage,
+                                                                                         failFast);
+        return lastResult.isEqual();
     }
 
     /**
@@ -95,7 +113,16 @@ public class ImageComparison
      */
     public boolean isEqual(final BufferedImage compareImage, final MaskImage mask, final ComparisonAlgorithm algorithm)
     {
-        return isEqual(compareImage, mask.getMask(), algorithm);
+        return isEqual(compareImage, mask.getMaskModel(), algorithm);
+    }
+
+    /**
+     * Returns the result of the last comparison
+     * @return the result, null if no images were compared yet
+     */
+    public ComparisonResult getLastResult()
+    {
+        return lastResult;
     }
 
     /**
@@ -107,7 +134,7 @@ public class ImageComparison
      */
     public BufferedImage getMarkedImageWithAMarker(final int markingSizeX, final int markingSizeY)
     {
-        return ImageHelper.markDifferencesWithAMarker(lastCompareImage, lastDifferences, markingSizeX, markingSizeY);
+        return lastResult.getMarkedImageWithAMarker(markingSizeX, markingSizeY);
     }
 
     /**
@@ -119,7 +146,7 @@ public class ImageComparison
      */
     public BufferedImage getMarkedImageWithBoxes(final int markingSizeX, final int markingSizeY)
     {
-        return ImageHelper.markDifferencesWithBoxes(lastCompareImage, lastDifferences, markingSizeX, markingSizeY);
+        return lastResult.getMarkedImageWithBoxes(markingSizeX, markingSizeY);
     }
 
     /**
@@ -129,31 +156,6 @@ public class ImageComparison
      */
     public BufferedImage getDifferenceImage()
     {
-        if (lastDifferences.length == 0)
-            return null;
-
-        // create a difference picture based on reference and paint it black
-        BufferedImage difference = ImageHelper.createPlainImage(reference, Color.BLACK);
-
-        // mark differences in greyscale
-        Color greyscale;
-        int x, y, diffColor;
-        double pixelColorDiff;
-        for (final Point point : lastDifferences)
-        {
-            x = point.x;
-            y = point.y;
-            pixelColorDiff = ImageHelper.calculatePixelRGBDiff(reference.getRGB(x, y), lastCompareImage.getRGB(x, y));
-
-            diffColor = (int) Math.round(255 * pixelColorDiff);
-            greyscale = new Color(diffColor, diffColor, diffColor, 255);
-            difference.setRGB(x, y, greyscale.getRGB());
-        }
-
-        // draw borders on the differences if compared images differed in size
-        if (resized)
-            difference = ImageHelper.markImageBorders(difference, 0, 0);
-
-        return difference;
+        return lastResult.getDifferenceImage();
     }
 }
@@ -4,9 +4,12 @@ import java.awt.AlphaComposite;
 import java.awt.Color;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
-import java.awt.Point;
 import java.awt.image.BufferedImage;
-import java.util.ArrayList;
+import java.util.Arrays;
+
+import com.xceptance.xlt.visualassertion.jfr.Events;
+import com.xceptance.xlt.visualassertion.jfr.KernelEvent;
+import com.xceptance.xlt.visualassertion.jfr.MaskEvent;
 
 /**
  * Util class which provides the necessary function to manipulate and create images for the comparison
@@ -20,8 +23,18 @@ public class ImageHelper
     // black
     protected final static Color BLACK = new Color(0, 0, 0);
 
+    // the default scale at which masks are closed
     protected final static int SCALING_FACTOR = 10;
 
+    // the maximum squared weighted distance of two colors, 2 * 255^2 + 4 * 255^2 + 2 * 255^2
+    protected final static int MAX_COLOR_DISTANCE = 520200;
+
+    // the maximum weighted distance of two colors, the square root of MAX_COLOR_DISTANCE
+    private final static double MAX_COLOR_DIFFERENCE = 721.2489168102785;
+
+    // the smallest color distance of each grey level of the difference image
+    private final static int[] GREY_LEVEL_BOUNDS = calculateGreyLevelBounds();
+
     /**
      * Creates another image, which is a copy of the source image
      * 
@@ -81,8 +94,22 @@ public class ImageHelper
      */
     protected static double calculatePixelRGBDiff(final int rgb1, final int rgb2)
     {
-        final double MAX = 721.2489168102785;
+        return toColorDifference(calculatePixelRGBDistance(rgb1, rgb2));
+    }
 
+    /**
+     * Calculates the squared weighted distance of two colors, see calculatePixelRGBDiff. The distance is calculated in
+     * int arithmetic only and is meant to be compared with a threshold from calculateColorThreshold, which avoids the
+     * square root and the floating point math for every single pixel.
+     * 
+     * @param rgb1
+     *            color number 1
+     * @param rgb2
+     *            color number 2
+     * @return the squared weighted distance between the colors from 0 to MAX_COLOR_DISTANCE
+     */
+    protected static int calculatePixelRGBDistance(final int rgb1, final int rgb2)
+    {
         // Initialize the red, green, blue values
         final int r1 = (rgb1 >> 16) & 0xFF;
         final int g1 = (rgb1 >> 8) & 0xFF;
@@ -96,16 +123,111 @@ public class ImageHelper
 
         // Initialize the weight parameters
         final int rLevel = (r1 + r2) / 2;
-        final double rWeight = 2 + rLevel / 256;
-        final double gWeight = 4.0;
-        final double bWeight = 2 + ((255 - rLevel) / 256);
+        final int rWeight = 2 + rLevel / 256;
+        final int gWeight = 4;
+        final int bWeight = 2 + ((255 - rLevel) / 256);
 
-        final double cDiff = Math.sqrt(rWeight * rDiff * rDiff + gWeight * gDiff * gDiff + bWeight * bDiff * bDiff);
+        return rWeight * rDiff * rDiff + gWeight * gDiff * gDiff + bWeight * bDiff * bDiff;
+    }
 
-        return cDiff / MAX;
+    /**
+     * Converts a squared weighted distance of two colors into the difference as percent.
+     * 
+     * @param distance The squared weighted distance as returned by calculatePixelRGBDistance
+     * @return the difference between the colors as percent from 0.0 to 1.0
+     */
+    private static double toColorDifference(final int distance)
+    {
+        return Math.sqrt(distance) / MAX_COLOR_DIFFERENCE;
     }
 
+    /**
+     * Converts a color tolerance into a threshold for the squared weighted color distance. Two pixels are different
+     * exactly if calculatePixelRGBDistance(rgb1, rgb2) &gt;= threshold, which gives the same result as
+     * calculatePixelRGBDiff(rgb1, rgb2) &gt; colorTolerance for every pair of colors.
+     * 
+     * @param colorTolerance A threshold value that calculates the allowed difference in color between two pixels [0-1[
+     * @return the smallest squared distance that is above the tolerance, MAX_COLOR_DISTANCE + 1 if no distance is
+     */
+    protected static int calculateColorThreshold(final double colorTolerance)
+    {
+        // binary search over all possible distances, the difference grows with the distance
+        int low = 0;
+        int high = MAX_COLOR_DISTANCE + 1;
+        while (low < high)
+        {
+            final int middle = (low + high) >>> 1;
+            if (toColorDifference(middle) > colorTolerance)
+            {
+                high = middle;
+            }
+            else
+            {
+                low = middle + 1;
+            }
+        }
 
+        return low;
+    }
+
+    /**
+     * Returns the grey level that represents the given color distance in the difference image, which is the
+     * difference in percent scaled to 0-255.
+     * 
+     * @param distance The squared weighted distance as returned by calculatePixelRGBDistance
+     * @return the grey level from 0 to 255
+     */
+    protected static int calculateGreyLevel(final int distance)
+    {
+        // binary search for the number of grey level bounds that are reached
+        int low = 0;
+        int high = GREY_LEVEL_BOUNDS.length;
+        while (low < high)
+        {
+            final int middle = (low + high) >>> 1;
+            if (GREY_LEVEL_BOUNDS[middle] <= distance)
+            {
+                low = middle + 1;
+            }
+            else
+            {
+                high = middle;
+            }
+        }
+
+        return low;
+    }
+
+    /**
+     * Calculates the smallest distance for each grey level from 1 to 255, so that the grey level of a distance is the
+     * same as Math.round(255 * calculatePixelRGBDiff(rgb1, rgb2)).
+     * 
+     * @return the smallest distances for the grey levels 1 to 255
+     */
+    private static int[] calculateGreyLevelBounds()
+    {
+        final int[] bounds = new int[255];
+        for (int level = 1; level <= 255; level++)
+        {
+            int low = 0;
+            int high = MAX_COLOR_DISTANCE + 1;
+            while (low < high)
+            {
+                final int middle = (low + high) >>> 1;
+                if (Math.round(255 * toColorDifference(middle)) >= level)
+                {
+                    high = middle;
+                }
+                else
+                {
+                    low = middle + 1;
+                }
+            }
+            bounds[level - 1] = low;
+        }
+
+        return bounds;
+    }
 
     /**
      * Calculates whether the current block exceeds either the x or y coordinates of the image.
@@ -130,33 +252,120 @@ public class ImageHelper
     }
 
     /**
-     * Exact pixel by pixel compare. Images must have the same size
+     * Exact pixel by pixel compare. Images must have the same size. Both images are read once into packed ARGB
+     * scanlines, which are then compared row by row.
      * 
      * @param img1 First image for the comparison
      * @param img2 Second image for the comparison
-     * @return Point[] array that contains the coordinates of pixels that are different
+     * @return DifferenceMap that contains the coordinates of pixels that are different
      */
-    protected static Point[] compareImages(final BufferedImage img1, final BufferedImage img2)
+    protected static DifferenceMap compareImages(final BufferedImage img1, final BufferedImage img2)
+    {
+        return compareImages(img1, img2, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Exact pixel by pixel compare, which stops as soon as more than the given number of differences was found.
+     * 
+     * @param img1 First image for the comparison
+     * @param img2 Second image for the comparison
+     * @param maxDifferences The number of differences after which the comparison stops, Integer.MAX_VALUE to find all
+     * @return DifferenceMap that contains the coordinates of pixels that are different
+     */
+    protected static DifferenceMap compareImages(final BufferedImage img1, final BufferedImage img2, final int maxDifferences)
     {
         if(img1.getWidth() != img2.getWidth() || img1.getHeight() != img2.getHeight()){
             return null;
         }
 
-        final ArrayList<Point> pixels = new ArrayList<>();
+        return compareImages(new ImagePair(img1, img2, null), maxDifferences);
+    }
+
+    /**
+     * Exact pixel by pixel compare of the unmasked pixels of an image pair, which stops as soon as more than the given
+     * number of differences was found.
+     * 
+     * @param images The images and the mask to compare
+     * @param maxDifferences The number of differences after which the comparison stops, Integer.MAX_VALUE to find all
+     * @return DifferenceMap that contains the coordinates of pixels that are different
+     */
+    protected static DifferenceMap compareImages(final ImagePair images, final int maxDifferences)
+    {
+        final KernelEvent event = Events.kernel();
 
-        for (int x = 0; x < img1.getWidth(); x++)
+        final DifferenceMap result = ParallelComparison.execute(new ParallelComparison.RowComparison()
         {
-            for (int y = 0; y < img1.getHeight(); y++)
+            @Override
+            public void compareRows(final int fromY, final int toY, final DifferenceMap differences)
             {
-                // if the RGB values of 2 pixels differ
-                if (img1.getRGB(x, y) != img2.getRGB(x, y))
+                compareImages(images, fromY, toY, differences);
+            }
+        }, images.getWidth(), images.getHeight(), 1, maxDifferences);
+
+        completeKernelEvent(event, "EXACTMATCH", images, 0, 0, 0, result);
+        return result;
+    }
+
+    /**
+     * Exact pixel by pixel compare of a band of rows of an image pair. Only the unmasked spans of each row are
+     * compared.
+     * 
+     * @param images The images and the mask to compare
+     * @param fromY First row of the band (inclusive)
+     * @param toY Last row of the band (exclusive)
+     * @param differences The difference map the differing pixels are added to
+     */
+    protected static void compareImages(final ImagePair images, final int fromY, final int toY,
+            final DifferenceMap differences)
+    {
+        final int width = images.getWidth();
+        for (int y = fromY; y < toY; y++)
+        {
+            int from = images.nextUnmasked(0, y);
+            while (from < width)
+            {
+                final int to = images.nextMasked(from, y);
+
+                // jump from difference to difference within the span
+                for (int x = images.mismatch(from, to, y); x >= 0; x = images.mismatch(x + 1, to, y))
                 {
-                    pixels.add(new Point(x,y));
+                    differences.add(x, y);
                 }
+
+                from = images.nextUnmasked(to, y);
+            }
+
+            if (differences.isLimitExceeded())
+            {
+                return;
             }
         }
+    }
 
-        return pixels.toArray(new Point[pixels.size()]);
+    /**
+     * Finds the first position in the given range at which the two arrays hold different values. The range is
+     * relative to the given offset of each array, so that rows of images with different widths can be compared.
+     * 
+     * @param a First array
+     * @param aOffset The index of the first array the range is relative to
+     * @param b Second array
+     * @param bOffset The index of the second array the range is relative to
+     * @param from Start of the range (inclusive)
+     * @param to End of the range (exclusive)
+     * @return the position of the first mismatch within the range or -1 if the range is equal in both arrays
+     */
+    protected static int mismatch(final int[] a, final int aOffset, final int[] b, final int bOffset, final int from,
+            final int to)
+    {
+        for (int i = from; i < to; i++)
+        {
+            if (a[aOffset + i] != b[bOffset + i])
+            {
+                return i;
+            }
+        }
+
+        return -1;
     }
 
     /**
@@ -168,39 +377,107 @@ public class ImageHelper
      * @param img2
      *            The second image for the comparison
      * @param colorTolerance A threshold value that calculates the allowed difference in color between two pixels [0-1[
-     * @return Point[] array that contains the coordinates of pixels that are different
+     * @return DifferenceMap that contains the coordinates of pixels that are different
      */
-    protected static Point[] colorFuzzyCompare(final BufferedImage img1, final BufferedImage img2, final double colorTolerance)
+    protected static DifferenceMap colorFuzzyCompare(final BufferedImage img1, final BufferedImage img2, final double colorTolerance)
+    {
+        return colorFuzzyCompare(img1, img2, colorTolerance, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Color based comparison of pixels, which stops as soon as more than the given number of differences was found.
+     * 
+     * @param img1
+     *            The first image for the comparison
+     * @param img2
+     *            The second image for the comparison
+     * @param colorTolerance A threshold value that calculates the allowed difference in color between two pixels [0-1[
+     * @param maxDifferences The number of differences after which the comparison stops, Integer.MAX_VALUE to find all
+     * @return DifferenceMap that contains the coordinates of pixels that are different
+     */
+    protected static DifferenceMap colorFuzzyCompare(final BufferedImage img1, final BufferedImage img2, final double colorTolerance,
+            final int maxDifferences)
     {
         if(img1.getWidth() != img2.getWidth() || img1.getHeight() != img2.getHeight()){
             return null;
         }
 
-        final ArrayList<Point> pixels = new ArrayList<>();
+        return colorFuzzyCompare(new ImagePair(img1, img2, null), colorTolerance, maxDifferences);
+    }
+
+    /**
+     * Color based comparison of the unmasked pixels of an image pair, which stops as soon as more than the given
+     * number of differences was found.
+     * 
+     * @param images The images and the mask to compare
+     * @param colorTolerance A threshold value that calculates the allowed difference in color between two pixels [0-1[
+     * @param maxDifferences The number of differences after which the comparison stops, Integer.MAX_VALUE to find all
+     * @return DifferenceMap that contains the coordinates of pixels that are different
+     */
+    protected static DifferenceMap colorFuzzyCompare(final ImagePair images, final double colorTolerance,
+            final int maxDifferences)
+    {
+        final KernelEvent event = Events.kernel();
+        final int colorThreshold = calculateColorThreshold(colorTolerance);
+
+        final DifferenceMap result = ParallelComparison.execute(new ParallelComparison.RowComparison()
+        {
+            @Override
+            public void compareRows(final int fromY, final int toY, final DifferenceMap differences)
+            {
+                colorFuzzyCompare(images, colorThreshold, fromY, toY, differences);
+            }
+        }, images.getWidth(), images.getHeight(), 1, maxDifferences);
+
+        completeKernelEvent(event, "COLORFUZZY", images, colorTolerance, 0, 0, result);
+        return result;
+    }
 
-        for (int x = 0; x < img1.getWidth(); x++)
+    /**
+     * Color based comparison of a band of rows of an image pair. Only the unmasked spans of each row are compared.
+     * 
+     * @param images The images and the mask to compare
+     * @param colorThreshold The smallest color distance that makes two pixels different, see calculateColorThreshold
+     * @param fromY First row of the band (inclusive)
+     * @param toY Last row of the band (exclusive)
+     * @param differences The difference map the differing pixels are added to
+     */
+    protected static void colorFuzzyCompare(final ImagePair images, final int colorThreshold, final int fromY,
+            final int toY, final DifferenceMap differences)
+    {
+        final int width = images.getWidth();
+        for (int y = fromY; y < toY; y++)
         {
-            for (int y = 0; y < img2.getHeight(); y++)
+            int from = images.nextUnmasked(0, y);
+            while (from < width)
             {
-                // calculates difference and adds the coordinates to
-                // the relevant ArrayList if the difference is above the
-                // colTolerance
-                final double difference = calculatePixelRGBDiff(img1.getRGB(x, y), img2.getRGB(x, y));
-                if (difference > colorTolerance)
+                final int to = images.nextMasked(from, y);
+                for (int x = from; x < to; x++)
                 {
-                    pixels.add(new Point(x,y));
+                    // calculates difference and adds the coordinates to
+                    // the difference map if the difference is above the
+                    // colTolerance
+                    if (calculatePixelRGBDistance(images.getReferenceRGB(x, y), images.getCompareRGB(x, y)) >= colorThreshold)
+                    {
+                        differences.add(x, y);
+                    }
                 }
+
+                from = images.nextUnmasked(to, y);
             }
-        }
 
-        return pixels.toArray(new Point[pixels.size()]);
+            if (differences.isLimitExceeded())
+            {
+                return;
+            }
+        }
     }
 
     /**
      * Compares two images by partitioning them into blocks and checking the number of different pixels
      * in each block. Therefore the difference in color with the given color threshold is calculated.
      * If the number of pixels that are found as different in one block exceeds a number threshold the images
-     * are treated as differently and the pixel coordinates are saved as Point objects.
+     * are treated as differently and the pixel coordinates are saved in the difference map.
      * 
      * @param img1
      *            The first image for the comparison
@@ -209,66 +486,338 @@ public class ImageHelper
      * @param colorTolerance A threshold value that calculates the allowed difference in color between two pixels [0-1[
      * @param pixelTolerance A threshold value that calculates the allowed number of different pixels per block [0-1[
      * @param fuzzyBlockDimension The x and y dimension d of one block of pixels(d*d), which are validated together
-     * @return Point[] array that contains the coordinates of pixels that are different
+     * @return DifferenceMap that contains the coordinates of pixels that are different
      */
-    protected static Point[] fuzzyCompare(final BufferedImage img1, final BufferedImage img2, final double colorTolerance,
+    protected static DifferenceMap fuzzyCompare(final BufferedImage img1, final BufferedImage img2, final double colorTolerance,
             final double pixelTolerance, final int fuzzyBlockDimension)
     {
-        final ArrayList<Point> pixels = new ArrayList<>();
+        return fuzzyCompare(img1, img2, colorTolerance, pixelTolerance, fuzzyBlockDimension, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Block based comparison of two images, which stops as soon as more than the given number of differences was
+     * found in blocks that exceed the pixel tolerance.
+     * 
+     * @param img1
+     *            The first image for the comparison
+     * @param img2
+     *            The second image for the comparison
+     * @param colorTolerance A threshold value that calculates the allowed difference in color between two pixels [0-1[
+     * @param pixelTolerance A threshold value that calculates the allowed number of different pixels per block [0-1[
+     * @param fuzzyBlockDimension The x and y dimension d of one block of pixels(d*d), which are validated together
+     * @param maxDifferences The number of differences after which the comparison stops, Integer.MAX_VALUE to find all
+     * @return DifferenceMap that contains the coordinates of pixels that are different
+     */
+    protected static DifferenceMap fuzzyCompare(final BufferedImage img1, final BufferedImage img2, final double colorTolerance,
+            final double pixelTolerance, final int fuzzyBlockDimension, final int maxDifferences)
+    {
+        if(img1.getWidth() != img2.getWidth() || img1.getHeight() != img2.getHeight()){
+            return null;
+        }
+
+        return fuzzyCompare(new ImagePair(img1, img2, null), colorTolerance, pixelTolerance, fuzzyBlockDimension,
+                            maxDifferences);
+    }
+
+    /**
+     * Block based comparison of an image pair, which stops as soon as more than the given number of differences was
+     * found in blocks that exceed the pixel tolerance. Masked pixels are never different, but still count to the size
+     * of their block.
+     * 
+     * @param images The images and the mask to compare
+     * @param colorTolerance A threshold value that calculates the allowed difference in color between two pixels [0-1[
+     * @param pixelTolerance A threshold value that calculates the allowed number of different pixels per block [0-1[
+     * @param fuzzyBlockDimension The x and y dimension d of one block of pixels(d*d), which are validated together
+     * @param maxDifferences The number of differences after which the comparison stops, Integer.MAX_VALUE to find all
+     * @return DifferenceMap that contains the coordinates of pixels that are different
+     */
+    protected static DifferenceMap fuzzyCompare(final ImagePair images, final double colorTolerance,
+            final double pixelTolerance, final int fuzzyBlockDimension, final int maxDifferences)
+    {
+        final KernelEvent event = Events.kernel();
+        final int colorThreshold = calculateColorThreshold(colorTolerance);
+
+        // bands must not cut through a block
+        final DifferenceMap result = ParallelComparison.execute(new ParallelComparison.RowComparison()
+        {
+            @Override
+            public void compareRows(final int fromY, final int toY, final DifferenceMap differences)
+            {
+                fuzzyCompare(images, colorThreshold, pixelTolerance, fuzzyBlockDimension, fromY, toY, differences);
+            }
+        }, images.getWidth(), images.getHeight(), fuzzyBlockDimension, maxDifferences);
+
+        completeKernelEvent(event, "PIXELFUZZY", images, colorTolerance, pixelTolerance, fuzzyBlockDimension, result);
+        return result;
+    }
+
+    /**
+     * Block based comparison of a band of rows of an image pair. The band has to start at the top of a block row.
+     * The blocks cover the whole image, the blocks at the right and bottom border are smaller if the image size is not
+     * a multiple of the block size. For each row of blocks the pixels that differ in color are counted per column and
+     * summed up along the row, so that the number of differences of each block is a single lookup.
+     * 
+     * @param images The images and the mask to compare
+     * @param colorThreshold The smallest color distance that makes two pixels different, see calculateColorThreshold
+     * @param pixelTolerance A threshold value that calculates the allowed number of different pixels per block [0-1[
+     * @param fuzzyBlockDimension The x and y dimension d of one block of pixels(d*d), which are validated together
+     * @param fromY First row of the band (inclusive)
+     * @param toY Last row of the band (exclusive)
+     * @param differences The difference map the differing pixels are added to
+     */
+    protected static void fuzzyCompare(final ImagePair images, final int colorThreshold, final double pixelTolerance,
+            final int fuzzyBlockDimension, final int fromY, final int toY, final DifferenceMap differences)
+    {
+        final int width = images.getWidth();
+        final int height = images.getHeight();
 
-        // Calculate the number of blocks for each axis
-        final int horizontalBlockCount = img1.getWidth() / fuzzyBlockDimension;
-        final int verticalBlockCount = img1.getHeight() / fuzzyBlockDimension;
+        // Calculate the number of blocks for each axis, including the smaller blocks at the borders
+        final int horizontalBlockCount = (width + fuzzyBlockDimension - 1) / fuzzyBlockDimension;
+        final int verticalBlockCount = (height + fuzzyBlockDimension - 1) / fuzzyBlockDimension;
 
-        // For each block
-        for (int x = 0; x < horizontalBlockCount; x++)
+        // the color differences of the current row of blocks and the running sum of their counts per column
+        final boolean[] colorDifferences = new boolean[fuzzyBlockDimension * width];
+        final int[] columnSums = new int[width + 1];
+
+        // For each row of blocks of the band
+        for (int y = fromY / fuzzyBlockDimension; y < verticalBlockCount && y * fuzzyBlockDimension < toY; y++)
         {
-            for (int y = 0; y < verticalBlockCount; y++)
+            final int verticalBlockHeight = Math.min(fuzzyBlockDimension, height - y * fuzzyBlockDimension);
+
+            Arrays.fill(columnSums, 0);
+            for (int h = 0; h < verticalBlockHeight; h++)
+            {
+                findColorDifferences(images, colorThreshold, y * fuzzyBlockDimension + h, colorDifferences, h * width);
+                for (int x = 0; x < width; x++)
+                {
+                    if (colorDifferences[h * width + x])
+                    {
+                        columnSums[x + 1]++;
+                    }
+                }
+            }
+            for (int x = 0; x < width; x++)
+            {
+                columnSums[x + 1] += columnSums[x];
+            }
+
+            for (int x = 0; x < horizontalBlockCount; x++)
             {
-                final ArrayList<Point> tempCoordinates = new ArrayList<>();
-                final int horizontalBlockWidth = calcBlockLength(fuzzyBlockDimension, x, img1.getWidth());
-                final int verticalBlockHeight = calcBlockLength(fuzzyBlockDimension, y, img1.getHeight());
+                final int blockX = x * fuzzyBlockDimension;
+                final int horizontalBlockWidth = Math.min(fuzzyBlockDimension, width - blockX);
                 final int differencesAllowed = (int) Math.floor(horizontalBlockWidth * verticalBlockHeight * pixelTolerance);
-                int differencesPerBlock = 0;
+                final int differencesPerBlock = columnSums[blockX + horizontalBlockWidth] - columnSums[blockX];
 
-                // For each pixel in this block, check for differences
-                for (int w = 0; w < horizontalBlockWidth; w++)
+                // If the number of differences exceeds the threshold, save the coordinates of the pixels
+                // that are different
+                if (differencesPerBlock > differencesAllowed)
                 {
                     for (int h = 0; h < verticalBlockHeight; h++)
                     {
-                        final int xCoord = x * fuzzyBlockDimension + w;
-                        final int yCoord = y * fuzzyBlockDimension + h;
+                        for (int w = 0; w < horizontalBlockWidth; w++)
+                        {
+                            if (colorDifferences[h * width + blockX + w])
+                            {
+                                differences.add(blockX + w, y * fuzzyBlockDimension + h);
+                            }
+                        }
+                    }
 
-                        // calculate the difference and draw the differenceImage
-                        // if needed
-                        final double difference = calculatePixelRGBDiff(img1.getRGB(xCoord, yCoord), img2.getRGB(xCoord, yCoord));
+                    if (differences.isLimitExceeded())
+                    {
+                        return;
+                    }
+                }
+            }
+        }
+    }
 
-                        // If there is a notable difference
-                        if (difference > colorTolerance)
-                        {
+    /**
+     * Compares two images with a sliding window instead of a fixed grid of blocks. A pixel is different if its color
+     * differs and more pixels than tolerated differ in the window around it. The window is centered on the pixel and
+     * clipped at the borders of the image.
+     * 
+     * @param img1
+     *            The first image for the comparison
+     * @param img2
+     *            The second image for the comparison
+     * @param colorTolerance A threshold value that calculates the allowed difference in color between two pixels [0-1[
+     * @param pixelTolerance A threshold value that calculates the allowed number of different pixels per window [0-1[
+     * @param windowDimension The x and y dimension of the window, even values are incremented to center the window
+     * @return DifferenceMap that contains the coordinates of pixels that are different
+     */
+    protected static DifferenceMap slidingFuzzyCompare(final BufferedImage img1, final BufferedImage img2,
+            final double colorTolerance, final double pixelTolerance, final int windowDimension)
+    {
+        if(img1.getWidth() != img2.getWidth() || img1.getHeight() != img2.getHeight()){
+            return null;
+        }
 
-                            // Increment differencesPerBlock and add the
-                            // coordinates to the
-                            // temporary arraylists
-                            differencesPerBlock++;
-                            tempCoordinates.add(new Point(xCoord,yCoord));
-                        }
+        return slidingFuzzyCompare(new ImagePair(img1, img2, null), colorTolerance, pixelTolerance, windowDimension,
+                                   Integer.MAX_VALUE);
+    }
+
+    /**
+     * Sliding window comparison of an image pair, which stops as soon as more than the given number of differences was
+     * found. Masked pixels are never different, but still count to the size of the windows.
+     * 
+     * @param images The images and the mask to compare
+     * @param colorTolerance A threshold value that calculates the allowed difference in color between two pixels [0-1[
+     * @param pixelTolerance A threshold value that calculates the allowed number of different pixels per window [0-1[
+     * @param windowDimension The x and y dimension of the window, even values are incremented to center the window
+     * @param maxDifferences The number of differences after which the comparison stops, Integer.MAX_VALUE to find all
+     * @return DifferenceMap that contains the coordinates of pixels that are different
+     */
+    protected static DifferenceMap slidingFuzzyCompare(final ImagePair images, final double colorTolerance,
+            final double pixelTolerance, final int windowDimension, final int maxDifferences)
+    {
+        final KernelEvent event = Events.kernel();
+        final int colorThreshold = calculateColorThreshold(colorTolerance);
+
+        final DifferenceMap result = ParallelComparison.execute(new ParallelComparison.RowComparison()
+        {
+            @Override
+            public void compareRows(final int fromY, final int toY, final DifferenceMap differences)
+            {
+                slidingFuzzyCompare(images, colorThreshold, pixelTolerance, windowDimension, fromY, toY, differences);
+            }
+        }, images.getWidth(), images.getHeight(), 1, maxDifferences);
+
+        completeKernelEvent(event, "SLIDINGFUZZY", images, colorTolerance, pixelTolerance, windowDimension, result);
+        return result;
+    }
+
+    /**
+     * Ends the flight recorder event of a comparison kernel
+     * @param event The event, null if it is not recorded
+     */
+    private static void completeKernelEvent(final KernelEvent event, final String kernel, final ImagePair images,
+            final double colorTolerance, final double pixelTolerance, final int blockSize,
+            final DifferenceMap differences)
+    {
+        if (event != null)
+        {
+            event.complete(kernel, images.getWidth(), images.getHeight(), colorTolerance, pixelTolerance, blockSize,
+                           differences.size(), differences.isLimitExceeded());
+        }
+    }
+
+    /**
+     * Sliding window comparison of a band of rows of an image pair. The color differences of the rows the windows
+     * of the current row cover are kept in a ring buffer and counted per column. The counts are updated by one row
+     * when the window moves down and summed up along the row, so every window is a single lookup and the whole
+     * comparison takes linear time, no matter the size of the window.
+     * 
+     * @param images The images and the mask to compare
+     * @param colorThreshold The smallest color distance that makes two pixels different, see calculateColorThreshold
+     * @param pixelTolerance A threshold value that calculates the allowed number of different pixels per window [0-1[
+     * @param windowDimension The x and y dimension of the window, even values are incremented to center the window
+     * @param fromY First row of the band (inclusive)
+     * @param toY Last row of the band (exclusive)
+     * @param differences The difference map the differing pixels are added to
+     */
+    protected static void slidingFuzzyCompare(final ImagePair images, final int colorThreshold,
+            final double pixelTolerance, final int windowDimension, final int fromY, final int toY,
+            final DifferenceMap differences)
+    {
+        final int width = images.getWidth();
+        final int height = images.getHeight();
+        final int radius = windowDimension / 2;
+        final int windowRows = 2 * radius + 1;
+
+        // the color differences of the rows in the window, row y is kept at y % windowRows
+        final boolean[] colorDifferences = new boolean[windowRows * width];
+        final int[] columnCounts = new int[width];
+        final int[] columnSums = new int[width + 1];
+
+        final int firstRow = Math.max(0, fromY - radius);
+        int nextRow = firstRow;
+
+        for (int y = fromY; y < toY; y++)
+        {
+            // the row above the window leaves it, its slot is taken by the row that enters below
+            final int leavingRow = y - radius - 1;
+            if (leavingRow >= firstRow)
+            {
+                final int offset = (leavingRow % windowRows) * width;
+                for (int x = 0; x < width; x++)
+                {
+                    if (colorDifferences[offset + x])
+                    {
+                        columnCounts[x]--;
                     }
                 }
+            }
 
-                // If the number of differences exceeds the threshold, save the coordinates of the pixels
-                // that are different
-                if (differencesPerBlock > differencesAllowed)
+            for (final int lastRow = Math.min(height - 1, y + radius); nextRow <= lastRow; nextRow++)
+            {
+                final int offset = (nextRow % windowRows) * width;
+                findColorDifferences(images, colorThreshold, nextRow, colorDifferences, offset);
+                for (int x = 0; x < width; x++)
+                {
+                    if (colorDifferences[offset + x])
+                    {
+                        columnCounts[x]++;
+                    }
+                }
+            }
+
+            for (int x = 0; x < width; x++)
+            {
+                columnSums[x + 1] = columnSums[x] + columnCounts[x];
+            }
+
+            final int rows = Math.min(height - 1, y + radius) - Math.max(0, y - radius) + 1;
+            final int offset = (y % windowRows) * width;
+            for (int x = 0; x < width; x++)
+            {
+                if (colorDifferences[offset + x])
                 {
-                    pixels.addAll(tempCoordinates);
+                    final int left = Math.max(0, x - radius);
+                    final int right = Math.min(width - 1, x + radius);
+                    final int differencesAllowed = (int) Math.floor((right - left + 1) * rows * pixelTolerance);
+
+                    if (columnSums[right + 1] - columnSums[left] > differencesAllowed)
+                    {
+                        differences.add(x, y);
+                    }
                 }
+            }
 
-                // clear the temporary coordinates
-                tempCoordinates.clear();
+            if (differences.isLimitExceeded())
+            {
+                return;
             }
         }
+    }
 
-        return pixels.toArray(new Point[pixels.size()]);
+    /**
+     * Finds the pixels of a row whose colors differ in both images. Masked pixels never differ.
+     * 
+     * @param images The images and the mask to compare
+     * @param colorThreshold The smallest color distance that makes two pixels different, see calculateColorThreshold
+     * @param y The row to compare
+     * @param colorDifferences The array the result is written to, true for every pixel that differs
+     * @param offset The index in the array of the first pixel of the row
+     */
+    private static void findColorDifferences(final ImagePair images, final int colorThreshold, final int y,
+            final boolean[] colorDifferences, final int offset)
+    {
+        final int width = images.getWidth();
+        Arrays.fill(colorDifferences, offset, offset + width, false);
+
+        int from = images.nextUnmasked(0, y);
+        while (from < width)
+        {
+            final int to = images.nextMasked(from, y);
+            for (int x = from; x < to; x++)
+            {
+                colorDifferences[offset + x] = calculatePixelRGBDistance(images.getReferenceRGB(x, y),
+                                                                         images.getCompareRGB(x, y)) >= colorThreshold;
+            }
+
+            from = images.nextUnmasked(to, y);
+        }
     }
 
     /**
@@ -424,6 +973,7 @@ public class ImageHelper
     protected static BufferedImage overlayMaskImage(final BufferedImage image, final BufferedImage overlay,
             final int rgbForegroundColor)
     {
+        final MaskEvent event = Events.mask();
         final BufferedImage copy = copyImage(image);
 
         // Go through every pixel of the image
@@ -438,6 +988,11 @@ public class ImageHelper
             }
         }
 
+        if (event != null)
+        {
+            event.complete("overlay", "image", copy.getWidth(), copy.getHeight());
+        }
+
         return copy;
     }
 
@@ -446,7 +1001,8 @@ public class ImageHelper
      * <p>
      * Assumes the structuring element is filled with ones and thereby only needs it's width and height. The origin is
      * placed in the middle of the structuring element. If width and/ or height are even, they are incremented to make
-     * sure there is a middle pixel.
+     * sure there is a middle pixel. Pixels over the border are ignored. The erosion runs on a {@link BinaryMask}, so it
+     * takes linear time whatever the size of the structuring element.
      * 
      * @param img
      *            the image to erode
@@ -456,70 +1012,11 @@ public class ImageHelper
      * @param rgbBackgroundColor Background color
      * @return The eroded image as BufferedImage
      */
-    protected static BufferedImage erodeImage(final BufferedImage img, int structElementWidth, int structElementHeight,
+    protected static BufferedImage erodeImage(final BufferedImage img, final int structElementWidth, final int structElementHeight,
             final int rgbForegroundColor, final int rgbBackgroundColor)
     {
-
-        final BufferedImage erosionedImage = new BufferedImage(img.getWidth(), img.getHeight(), BufferedImage.TYPE_INT_ARGB);
-
-        boolean fits;
-
-        // The origin of the structuring element will be it's middle pixel
-        // Therefore make sure there is a middle pixel, ie make width and height
-        // uneven.
-        if ((structElementWidth % 2) == 0)
-        {
-            structElementWidth++;
-        }
-        if ((structElementHeight % 2) == 0)
-        {
-            structElementHeight++;
-        }
-
-        // Metaphorically places the structure element
-        // In every possible position
-        for (int w = 0; w < img.getWidth(); w++)
-        {
-            for (int h = 0; h < img.getHeight(); h++)
-            {
-
-                fits = true;
-
-                // The origin of the structuring element is it's middle pixel
-                for (int x = w - (structElementWidth / 2); x <= w + (structElementWidth / 2); x++)
-                {
-                    for (int y = h - (structElementHeight / 2); y <= h + (structElementHeight / 2); y++)
-                    {
-
-                        // As long as the pixels not over the border
-                        if (x >= 0 && x < img.getWidth() && y >= 0 && y < img.getHeight())
-                        {
-
-                            // Assumes all the pixels in the structureImage are
-                            // 1. If the pixel does not have the right color
-                            // black, set fits false, set the pixel in the
-                            // erosionImage to the foreground color and break
-                            // the loop
-                            if (img.getRGB(x, y) != rgbForegroundColor)
-                            {
-                                fits = false;
-                                erosionedImage.setRGB(w, h, rgbBackgroundColor);
-                                break;
-                            }
-                        }
-                    }
-                }
-
-                // After every pixel was checked and if fits is true
-                // Set the pixel in the erosionImage black
-                // Some room for performance increase with a better break?
-                if (fits)
-                {
-                    erosionedImage.setRGB(w, h, rgbForegroundColor);
-                }
-            }
-        }
-        return erosionedImage;
+        return BinaryMask.fromImage(img, rgbForegroundColor).erode(structElementWidth, structElementHeight)
+                         .toImage(rgbForegroundColor, rgbBackgroundColor);
     }
 
     /**
@@ -527,10 +1024,8 @@ public class ImageHelper
      * <p>
      * Assumes the structuring element is filled with ones and thereby only needs it's width and height. The origin is
      * placed in the middle of the structuring element. If width and/ or height are even, they are incremented to make
-     * sure there is a middle pixel.
-     * <p>
-     * Uses the rgbForegroundColor and rgbBackgroundColor instance variables to determine the background and the
-     * foreground color.
+     * sure there is a middle pixel. Pixels over the border are ignored. The dilation runs on a {@link BinaryMask}, so
+     * it takes linear time whatever the size of the structuring element.
      * 
      * @param img
      *            the image to dilate
@@ -540,76 +1035,16 @@ public class ImageHelper
      * @param rgbBackgroundColor the background color
      * @return the dilated image as BufferedImage
      */
-    protected static BufferedImage dilateImage(final BufferedImage img, int structElementWidth, int structElementHeight,
+    protected static BufferedImage dilateImage(final BufferedImage img, final int structElementWidth, final int structElementHeight,
             final int rgbForegroundColor, final int rgbBackgroundColor)
     {
-
-        final BufferedImage dilationImage = new BufferedImage(img.getWidth(), img.getHeight(), BufferedImage.TYPE_INT_ARGB);
-        boolean hits;
-
-        // The origin of the structuring element will be it's middle pixel
-        // Therefore make sure there is a middle pixel, ie make width and height
-        // uneven.
-        if ((structElementWidth % 2) == 0)
-        {
-            structElementWidth++;
-        }
-        if ((structElementHeight % 2) == 0)
-        {
-            structElementHeight++;
-        }
-
-        // Metaphorically places the structure element
-        // In every possible position
-        for (int w = 0; w < img.getWidth(); w++)
-        {
-            for (int h = 0; h < img.getHeight(); h++)
-            {
-
-                hits = false;
-
-                // Check every pixel of the structured element
-                // against the pixel it metaphorically overlaps
-                // There might be some room for performance increase here
-                // The origin of the structuring element is it's middle pixel
-                for (int x = w - (structElementWidth / 2); x <= w + (structElementWidth / 2); x++)
-                {
-                    for (int y = h - (structElementHeight / 2); y <= h + (structElementHeight / 2); y++)
-                    {
-
-                        // As long as the pixels don't go over the border
-                        if (x >= 0 && x < img.getWidth() && y >= 0 && y < img.getHeight())
-                        {
-
-                            // Assumes all the pixels in the structureImage are
-                            // 1. If the pixel is black, set hits true, set the
-                            // pixel in the dilationImage to the foreground
-                            // color
-                            // and break the loop
-                            if (img.getRGB(x, y) == rgbForegroundColor)
-                            {
-                                hits = true;
-                                dilationImage.setRGB(w, h, rgbForegroundColor);
-                            }
-                        }
-                    }
-                }
-
-                // After every pixel was checked and if hits is false
-                // Set the pixel in the dilationImage to he background color
-                if (!hits)
-                {
-                    dilationImage.setRGB(w, h, rgbBackgroundColor);
-                }
-            }
-        }
-        return dilationImage;
+        return BinaryMask.fromImage(img, rgbForegroundColor).dilate(structElementWidth, structElementHeight)
+                         .toImage(rgbForegroundColor, rgbBackgroundColor);
     }
 
     /**
-     * Shrinks an image using the shrinkImage method, closes it and scales it back up again for performance reasons.
-     * Depending on the images size and the compressionfactor, it may still be very performance heavy. Closes an image
-     * using the dilation and erosion methods.
+     * Closes an image using the dilation and erosion methods. The image is shrunk by {@link #SCALING_FACTOR} before
+     * and scaled up again afterwards, so the structuring element is applied in blocks of that size.
      * 
      * @param img
      *            the image to close
@@ -621,25 +1056,37 @@ public class ImageHelper
      * @param rgbBackgroundColor The background color for the marking
      * @return the closed image
      */
-    protected static BufferedImage closeImage(BufferedImage img, final int structElementWidth, final int structElementHeight,
+    protected static BufferedImage closeImage(final BufferedImage img, final int structElementWidth, final int structElementHeight,
             final int rgbForegroundColor, final int rgbBackgroundColor)
     {
-
-        final int scaledWidth = (int) Math.ceil(img.getWidth() / SCALING_FACTOR);
-        final int scaledHeight = (int) Math.ceil(img.getHeight() / SCALING_FACTOR);
-
-        // Scale the image for performance reasons.
-        BufferedImage shrunkImg = scaleDownMaskImage(img, scaledWidth, scaledHeight, SCALING_FACTOR, rgbForegroundColor);
-
-        // Close it
-        shrunkImg = dilateImage(shrunkImg, structElementWidth, structElementHeight, rgbForegroundColor, rgbBackgroundColor);
-        shrunkImg = erodeImage(shrunkImg, structElementWidth, structElementHeight, rgbForegroundColor, rgbBackgroundColor);
-        // Scale the image back
-        img = scaleUpMaskImage(shrunkImg, img.getWidth(), img.getHeight(), SCALING_FACTOR, rgbForegroundColor);
-        return img;
+        return closeImage(img, structElementWidth, structElementHeight, SCALING_FACTOR, rgbForegroundColor, rgbBackgroundColor);
     }
 
-
+    /**
+     * Closes an image using the dilation and erosion methods. The image can be shrunk before and scaled up again
+     * afterwards, a pixel of the shrunk image is foreground if any pixel of its block is. The structuring element is
+     * then applied to the shrunk image, i.e. it covers scale times its size in the original image. The close runs on
+     * a {@link BinaryMask} and takes linear time whatever the size of the structuring element, so a scale of 1, the
+     * full resolution, is affordable as well.
+     * 
+     * @param img
+     *            the image to close
+     * @param structElementWidth
+     *            the width of the structure element for dilation and erosion
+     * @param structElementHeight
+     *            the height of the structure element for dilation and erosion
+     * @param scale
+     *            the side length of the blocks that are shrunk to one pixel, 1 to close the image in full resolution
+     * @param rgbForegroundColor The foreground color for the marking
+     * @param rgbBackgroundColor The background color for the marking
+     * @return the closed image
+     */
+    protected static BufferedImage closeImage(final BufferedImage img, final int structElementWidth, final int structElementHeight,
+            final int scale, final int rgbForegroundColor, final int rgbBackgroundColor)
+    {
+        return BinaryMask.fromImage(img, rgbForegroundColor).close(structElementWidth, structElementHeight, scale)
+                         .toImage(rgbForegroundColor, rgbBackgroundColor);
+    }
 
     /**
      * Method to mark areas around the detected differences. Goes through every pixel that was different and marks the
@@ -648,12 +1095,12 @@ public class ImageHelper
      *
      * @param image the original image for which the differences were found
      * @param pixels
-     *            the array with the differences.
+     *            the map with the differences.
      * @param markingSizeX Length of the marker on the x axis
      * @param markingSizeY Length of the marker on the y axis
      * @return Copy of the original image with marked pixels
      */
-    protected static BufferedImage markDifferencesWithBoxes(final BufferedImage image, final Point[] pixels,
+    protected static BufferedImage markDifferencesWithBoxes(final BufferedImage image, final DifferenceMap pixels,
             final int markingSizeX, final int markingSizeY)
     {
         if (pixels == null)
@@ -668,9 +1115,12 @@ public class ImageHelper
         // don't bother with rectangles
         if (markingSizeX == 1 || markingSizeY == 1)
         {
-            for (final Point pixel : pixels)
+            for (int y = 0; y < pixels.getHeight(); y++)
             {
-                colorPixel(copy, pixel.x, pixel.y, null);
+                for (int x = pixels.nextDifference(0, y); x >= 0; x = pixels.nextDifference(x + 1, y))
+                {
+                    colorPixel(copy, x, y, null);
+                }
             }
 
             return copy;
@@ -687,18 +1137,21 @@ public class ImageHelper
 
         int xBlock, yBlock, subImageWidth, subImageHeight;
 
-        for (final Point pixel : pixels)
+        for (int y = 0; y < pixels.getHeight(); y++)
         {
-            xBlock = pixel.x / markingSizeX;
-            yBlock = pixel.y / markingSizeY;
+            for (int x = pixels.nextDifference(0, y); x >= 0; x = pixels.nextDifference(x + 1, y))
+            {
+                xBlock = x / markingSizeX;
+                yBlock = y / markingSizeY;
 
-            subImageWidth = calcBlockLength(markingSizeX, xBlock, imageWidth);
-            subImageHeight = calcBlockLength(markingSizeY, yBlock, imageHeight);
+                subImageWidth = calcBlockLength(markingSizeX, xBlock, imageWidth);
+                subImageHeight = calcBlockLength(markingSizeY, yBlock, imageHeight);
 
-            if (!markedBlocks[xBlock][yBlock])
-            {
-                drawBorders(copy, xBlock, yBlock, markingSizeX, markingSizeY, subImageWidth, subImageHeight, null);
-                markedBlocks[xBlock][yBlock] = true;
+                if (!markedBlocks[xBlock][yBlock])
+                {
+                    drawBorders(copy, xBlock, yBlock, markingSizeX, markingSizeY, subImageWidth, subImageHeight, null);
+                    markedBlocks[xBlock][yBlock] = true;
+                }
             }
         }
 
@@ -713,12 +1166,12 @@ public class ImageHelper
      *
      * @param image the original image for which the differences were found
      * @param pixels
-     *            the array with the differences.
+     *            the map with the differences.
      * @param markingSizeX Length of the marker on the x axis
      * @param markingSizeY Length of the marker on the y axis
      * @return Copy of the original image with marked pixels
      */
-    protected static BufferedImage markDifferencesWithAMarker(final BufferedImage image, final Point[] pixels,
+    protected static BufferedImage markDifferencesWithAMarker(final BufferedImage image, final DifferenceMap pixels,
             final int markingSizeX, final int markingSizeY)
     {
         if (pixels == null)
@@ -734,25 +1187,32 @@ public class ImageHelper
         final Graphics2D g = imageCopy.createGraphics();
         g.setColor(highlighterColor);
 
-        for (final Point pixel : pixels)
+        for (int y = 0; y < pixels.getHeight(); y++)
         {
-            // the middle of the block should be our pixel to make it marker like
-            int x = pixel.x - (markingSizeX / 2);
-            int y = pixel.y - (markingSizeY / 2);
+            for (int x = pixels.nextDifference(0, y); x >= 0; x = pixels.nextDifference(x + 1, y))
+            {
+                // the middle of the block should be our pixel to make it marker like
+                int markX = x - (markingSizeX / 2);
+                int markY = y - (markingSizeY / 2);
 
-            // avoid negative values
-            x = x < 0 ? 0 : x;
-            y = y < 0 ? 0 : y;
+                // avoid negative values
+                markX = markX < 0 ? 0 : markX;
+                markY = markY < 0 ? 0 : markY;
 
-            g.fillRect(x, y, markingSizeX, markingSizeY);
+                g.fillRect(markX, markY, markingSizeX, markingSizeY);
+            }
         }
 
         g.dispose();
 
         // mark the pixels on the new background
-        for (final Point pixel : pixels)
+        final int emphasizeRGB = pixelEmphasizeColor.getRGB();
+        for (int y = 0; y < pixels.getHeight(); y++)
         {
-            imageCopy.setRGB(pixel.x, pixel.y, pixelEmphasizeColor.getRGB());
+            for (int x = pixels.nextDifference(0, y); x >= 0; x = pixels.nextDifference(x + 1, y))
+            {
+                imageCopy.setRGB(x, y, emphasizeRGB);
+            }
         }
 
         return imageCopy;
@@ -0,0 +1,309 @@
+package com.xceptance.xlt.visualassertion.util;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Read-only view on the two images of one comparison and the mask that is applied to them. The view covers the
+ * largest width and height of both images, the areas one of the images does not cover count as transparent black,
+ * just as if the smaller image had been padded. Pixels that are set in the mask are masked and must not be compared,
+ * areas outside of the mask are not masked.
+ * <p>
+ * Neither the images nor the mask are copied, the comparison algorithms read through the view directly. Square tiles
+ * that need no comparison, as found by the tile signatures, can be skipped and are then treated like masked pixels.
+ * The unmasked pixels of a row are walked span by span:
+ *
+ * <pre>
+ * int from = images.nextUnmasked(0, y);
+ * while (from &lt; images.getWidth())
+ * {
+ *     final int to = images.nextMasked(from, y);
+ *     ...
+ *     from = images.nextUnmasked(to, y);
+ * }
+ * </pre>
+ */
+public class ImagePair
+{
+    /**
+     * The value of a pixel outside of an image, transparent black
+     */
+    protected final static int PADDING = 0x00000000;
+
+    private final PackedImage reference;
+
+    private final PackedImage compareImage;
+
+    private final MaskView mask;
+
+    private final int width;
+
+    private final int height;
+
+    private boolean[] skippedTiles;
+
+    private int tileSize;
+
+    private int tilesX;
+
+    /**
+     * Creates a view on the given images and mask
+     * @param reference The reference image
+     * @param compareImage The image that is compared to the reference image
+     * @param mask The mask that sets the areas which are ignored in the comparison, null to compare all pixels
+     */
+    public ImagePair(final BufferedImage reference, final BufferedImage compareImage, final MaskView mask)
+    {
+        this.reference = new PackedImage(reference);
+        this.compareImage = new PackedImage(compareImage);
+        this.mask = mask;
+        this.width = Math.max(reference.getWidth(), compareImage.getWidth());
+        this.height = Math.max(reference.getHeight(), compareImage.getHeight());
+    }
+
+    /**
+     * Creates a view on the given packed images and mask
+     * @param reference The reference image
+     * @param compareImage The image that is compared to the reference image
+     * @param mask The mask that sets the areas which are ignored in the comparison, null to compare all pixels
+     */
+    protected ImagePair(final PackedImage reference, final PackedImage compareImage, final MaskView mask)
+    {
+        this.reference = reference;
+        this.compareImage = compareImage;
+        this.mask = mask;
+        this.width = Math.max(reference.getWidth(), compareImage.getWidth());
+        this.height = Math.max(reference.getHeight(), compareImage.getHeight());
+    }
+
+    /**
+     * Returns the width of the view, the larger width of both images
+     * @return width in pixels
+     */
+    public int getWidth()
+    {
+        return width;
+    }
+
+    /**
+     * Returns the height of the view, the larger height of both images
+     * @return height in pixels
+     */
+    public int getHeight()
+    {
+        return height;
+    }
+
+    /**
+     * Checks whether the two images differ in size, so that parts of the view are padding
+     * @return true if the images have different dimensions
+     */
+    public boolean isResized()
+    {
+        return reference.getWidth() != compareImage.getWidth() || reference.getHeight() != compareImage.getHeight();
+    }
+
+    /**
+     * Returns the ARGB value of a pixel of the reference image
+     * @param x The x coordinate of the pixel
+     * @param y The y coordinate of the pixel
+     * @return the pixel value or transparent black if the pixel is outside of the reference image
+     */
+    public int getReferenceRGB(final int x, final int y)
+    {
+        return getRGB(reference, x, y);
+    }
+
+    /**
+     * Returns the ARGB value of a pixel of the compared image
+     * @param x The x coordinate of the pixel
+     * @param y The y coordinate of the pixel
+     * @return the pixel value or transparent black if the pixel is outside of the compared image
+     */
+    public int getCompareRGB(final int x, final int y)
+    {
+        return getRGB(compareImage, x, y);
+    }
+
+    /**
+     * Returns the packed pixels of the reference image
+     * @return the reference image
+     */
+    protected PackedImage getReference()
+    {
+        return reference;
+    }
+
+    /**
+     * Returns the packed pixels of the compared image
+     * @return the compared image
+     */
+    protected PackedImage getCompareImage()
+    {
+        return compareImage;
+    }
+
+    /**
+     * Excludes the given tiles from the comparison, they are treated like masked pixels afterwards. Tiles that contain
+     * masked pixels are compared anyway, because their signatures do not take the mask into account.
+     * @param tiles One flag per tile, row by row, which is true if the tile can be skipped
+     * @param tileSize The side length of the tiles
+     * @param tilesX The number of tiles per row
+     */
+    protected void skipTiles(final boolean[] tiles, final int tileSize, final int tilesX)
+    {
+        for (int tile = 0; tile < tiles.length; tile++)
+        {
+            if (tiles[tile])
+            {
+                final int fromX = (tile % tilesX) * tileSize;
+                final int toX = Math.min(width, fromX + tileSize);
+                final int fromY = (tile / tilesX) * tileSize;
+                final int toY = Math.min(height, fromY + tileSize);
+
+                for (int y = fromY; y < toY && tiles[tile]; y++)
+                {
+                    tiles[tile] = nextMaskPixel(fromX, y) >= toX;
+                }
+            }
+        }
+
+        this.skippedTiles = tiles;
+        this.tileSize = tileSize;
+        this.tilesX = tilesX;
+    }
+
+    /**
+     * Checks whether the pixel at the given position is masked and has to be ignored
+     * @param x The x coordinate of the pixel
+     * @param y The y coordinate of the pixel
+     * @return true if the pixel is set in the mask or belongs to a skipped tile
+     */
+    public boolean isMasked(final int x, final int y)
+    {
+        if (skippedTiles != null && skippedTiles[(y / tileSize) * tilesX + x / tileSize])
+        {
+            return true;
+        }
+
+        return mask != null && x < mask.getWidth() && y < mask.getHeight() && mask.get(x, y);
+    }
+
+    /**
+     * Returns the x coordinate of the next masked pixel in the given row, starting at fromX
+     * @param fromX The x coordinate to start the search at (inclusive)
+     * @param y The row to search in
+     * @return the x coordinate of the next masked pixel or the width of the view if there is none
+     */
+    public int nextMasked(final int fromX, final int y)
+    {
+        final int x = nextMaskPixel(fromX, y);
+        if (skippedTiles == null)
+        {
+            return x;
+        }
+
+        // a skipped tile might start before the next masked pixel
+        final int rowOffset = (y / tileSize) * tilesX;
+        for (int tileX = fromX / tileSize; tileX * tileSize < x; tileX++)
+        {
+            if (skippedTiles[rowOffset + tileX])
+            {
+                return Math.max(fromX, tileX * tileSize);
+            }
+        }
+
+        return x;
+    }
+
+    /**
+     * Returns the x coordinate of the next pixel in the given row, starting at fromX, that is not masked
+     * @param fromX The x coordinate to start the search at (inclusive)
+     * @param y The row to search in
+     * @return the x coordinate of the next unmasked pixel, the width of the view if there is none
+     */
+    public int nextUnmasked(final int fromX, final int y)
+    {
+        int x = nextNonMaskPixel(fromX, y);
+        if (skippedTiles == null)
+        {
+            return x;
+        }
+
+        // jump over skipped tiles and the masked pixels behind them
+        final int rowOffset = (y / tileSize) * tilesX;
+        while (x < width && skippedTiles[rowOffset + x / tileSize])
+        {
+            x = nextNonMaskPixel((x / tileSize + 1) * tileSize, y);
+        }
+
+        return x;
+    }
+
+    /**
+     * Returns the x coordinate of the next pixel in the given row that is set in the mask
+     */
+    private int nextMaskPixel(final int fromX, final int y)
+    {
+        if (mask == null || y >= mask.getHeight())
+        {
+            return width;
+        }
+
+        final int x = mask.nextSet(fromX, y);
+        return x < Math.min(width, mask.getWidth()) ? x : width;
+    }
+
+    /**
+     * Returns the x coordinate of the next pixel in the given row that is not set in the mask
+     */
+    private int nextNonMaskPixel(final int fromX, final int y)
+    {
+        if (mask == null || y >= mask.getHeight() || fromX >= Math.min(width, mask.getWidth()))
+        {
+            return fromX;
+        }
+
+        return Math.min(width, mask.nextClear(fromX, y));
+    }
+
+    /**
+     * Finds the first pixel in the given range of a row at which the two images differ exactly. Where both images
+     * have pixels, their scanlines are compared directly.
+     *
+     * @param fromX Start of the range (inclusive)
+     * @param toX End of the range (exclusive)
+     * @param y The row to compare
+     * @return the x coordinate of the first difference or -1 if the range is equal in both images
+     */
+    public int mismatch(final int fromX, final int toX, final int y)
+    {
+        // the columns of this row that are covered by both images
+        final int overlap = y < reference.getHeight() && y < compareImage.getHeight()
+                            ? Math.min(toX, Math.min(reference.getWidth(), compareImage.getWidth())) : 0;
+
+        if (fromX < overlap)
+        {
+            final int x = ImageHelper.mismatch(reference.getPixels(), y * reference.getWidth(), compareImage.getPixels(),
+                                               y * compareImage.getWidth(), fromX, overlap);
+            if (x >= 0)
+            {
+                return x;
+            }
+        }
+
+        for (int x = Math.max(fromX, overlap); x < toX; x++)
+        {
+            if (getReferenceRGB(x, y) != getCompareRGB(x, y))
+            {
+                return x;
+            }
+        }
+
+        return -1;
+    }
+
+    private static int getRGB(final PackedImage image, final int x, final int y)
+    {
+        return x < image.getWidth() && y < image.getHeight() ? image.getRGB(x, y) : PADDING;
+    }
+}
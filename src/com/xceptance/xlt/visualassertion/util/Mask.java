@@ -0,0 +1,65 @@
+package com.xceptance.xlt.visualassertion.util;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/**
+ * Mask that sets the areas of an image which are ignored in the comparison. Besides reading the masked pixels as a
+ * {@link MaskView}, a mask can be changed, copied and written to a file.
+ *
+ * There are two implementations, a {@link BinaryMask} with one bit per pixel, and a {@link RectangleListMask}, which
+ * is made of rectangles and costs per rectangle instead of per pixel.
+ */
+public interface Mask extends MaskView
+{
+    /**
+     * Masks all pixels of a rectangle, the rectangle is clipped to the mask
+     * @param x The x coordinate of the upper left corner
+     * @param y The y coordinate of the upper left corner
+     * @param rectWidth The width of the rectangle
+     * @param rectHeight The height of the rectangle
+     */
+    void fill(int x, int y, int rectWidth, int rectHeight);
+
+    /**
+     * Creates a copy of the mask
+     * @return the copy
+     */
+    Mask copy();
+
+    /**
+     * Writes the mask to a file in its own format
+     * @param file The mask file
+     * @throws IOException if the file could not be written
+     */
+    void write(File file) throws IOException;
+
+    /**
+     * Reads a mask file of either format. Binary masks are told apart from rectangle lists by their magic number.
+     * @param file The mask file
+     * @return the mask
+     * @throws IOException if the file could not be read or is not a mask file
+     */
+    static Mask read(final File file) throws IOException
+    {
+        final byte[] magic = new byte[4];
+        try (final DataInputStream in = new DataInputStream(new FileInputStream(file)))
+        {
+            in.readFully(magic);
+        }
+        catch (final EOFException e)
+        {
+            // too short for a binary mask
+        }
+
+        if (magic[0] == 'X' && magic[1] == 'L' && magic[2] == 'T' && magic[3] == 'M')
+        {
+            return BinaryMask.read(file);
+        }
+
+        return RectangleListMask.read(file);
+    }
+}
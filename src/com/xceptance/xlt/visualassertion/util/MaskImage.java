@@ -1,10 +1,13 @@
 package com.xceptance.xlt.visualassertion.util;
 
-import java.awt.*;
 import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
 
 import com.sun.istack.internal.Nullable;
 import com.xceptance.xlt.visualassertion.algorithm.ComparisonAlgorithm;
+import com.xceptance.xlt.visualassertion.jfr.Events;
+import com.xceptance.xlt.visualassertion.jfr.TrainEvent;
 
 /**
  * Mask image that is used in the comparison of two pictures. The mask is trained with
@@ -14,28 +17,38 @@ import com.xceptance.xlt.visualassertion.algorithm.ComparisonAlgorithm;
 public class MaskImage
 {
     private final BufferedImage reference;
-    private BufferedImage mask;
+    private Mask mask;
 
     /**
      * Initializes a mask with the reference image, that is used to train it and the mask image itself.
      * @param referenceImage The reference image for the mask training
-     * @param maskImage The mask image, @Nullable -> Creates a blank mask image with the dimensions of the reference image
+     * @param maskImage The mask image, in which black pixels are masked, @Nullable -> Creates a blank mask with the
+     *                  dimensions of the reference image
      */
     public MaskImage(final BufferedImage referenceImage, @Nullable final BufferedImage maskImage)
+    {
+        this(referenceImage, maskImage == null ? null : BinaryMask.fromImage(maskImage, ImageHelper.BLACK.getRGB()));
+    }
+
+    /**
+     * Initializes a mask with the reference image, that is used to train it and the mask itself. The mask keeps its
+     * model, a binary mask or a list of rectangles, when it is trained or closed.
+     * @param referenceImage The reference image for the mask training
+     * @param mask The mask, which is copied, @Nullable -> Creates a blank binary mask with the dimensions of the
+     *             reference image
+     */
+    public MaskImage(final BufferedImage referenceImage, @Nullable final Mask mask)
     {
         this.reference = ImageHelper.copyImage(referenceImage);
 
-        if (maskImage == null)
+        if (mask == null)
         {
-            // create a new mask with same dimensions as reference image
-            this.mask = new BufferedImage(referenceImage.getWidth(),referenceImage.getHeight(), BufferedImage.TYPE_INT_ARGB);
-
-            // fill the mask with transparent white
-            this.mask = ImageHelper.createPlainImage(this.mask, ImageHelper.WHITE_TRANSPARENT);
+            // create a new mask with same dimensions as reference image, nothing is masked
+            this.mask = new BinaryMask(referenceImage.getWidth(), referenceImage.getHeight());
         }
         else
         {
-            this.mask = ImageHelper.copyImage(maskImage);
+            this.mask = mask.copy();
         }
     }
 
@@ -48,16 +61,35 @@ public class MaskImage
      */
     public MaskImage(final BufferedImage referenceImage)
     {
-        this(referenceImage, null);
+        this(referenceImage, (Mask) null);
     }
 
     /**
-     * Returns the mask image
+     * Returns the mask image, masked pixels are black, all other pixels are transparent white
      * @return mask image as BufferedImage
      */
     public BufferedImage getMask()
     {
-        return ImageHelper.copyImage(mask);
+        return BinaryMask.fromMask(mask).toImage(ImageHelper.BLACK.getRGB(), ImageHelper.WHITE_TRANSPARENT.getRGB());
+    }
+
+    /**
+     * Returns the mask itself without copying it, the mask must not be modified
+     * @return the mask
+     */
+    protected Mask getMaskModel()
+    {
+        return mask;
+    }
+
+    /**
+     * Writes the mask in the format of its model, which is read again much faster than a mask image
+     * @param file The file to write the mask to
+     * @throws IOException if the file could not be written
+     */
+    public void write(final File file) throws IOException
+    {
+        mask.write(file);
     }
 
     /**
@@ -69,7 +101,8 @@ public class MaskImage
      */
     public void train(final BufferedImage image, final ComparisonAlgorithm algorithm, final RectangleMask markerMask)
     {
-        Point[] differences = null;
+        final TrainEvent event = Events.train();
+        DifferenceMap differences = null;
 
         switch (algorithm.getType())
         {
@@ -78,6 +111,11 @@ public class MaskImage
                                                     algorithm.getPixelTolerance(), algorithm.getFuzzyBlockSize());
             break;
 
+        case SLIDINGFUZZY:
+            differences = ImageHelper.slidingFuzzyCompare(reference, image, algorithm.getColorTolerance(),
+                                                          algorithm.getPixelTolerance(), algorithm.getFuzzyBlockSize());
+            break;
+
         case COLORFUZZY:
             differences = ImageHelper.colorFuzzyCompare(reference, image, algorithm.getColorTolerance());
             break;
@@ -87,37 +125,44 @@ public class MaskImage
             break;
         }
 
-        mask = maskDifferences(mask, differences, markerMask, ImageHelper.BLACK);
+        maskDifferences(differences, markerMask);
+
+        if (event != null)
+        {
+            event.complete(algorithm.getType().name(), reference.getWidth(), reference.getHeight(),
+                           differences == null ? 0 : differences.size());
+        }
     }
 
     /**
      * Very close to markDifferences. Goes through every pixel that was different and masks the marking block it is in,
-     * unless it was marked already. Works directly on the mask image.
+     * unless it was marked already. Works directly on the mask. Runs of neighboring differences in a row are
+     * masked with one rectangle that covers the blocks of all pixels of the run.
      * 
      * @param pixels pixel positions of the pixels that where detected as different
-     * @return A BufferedImage in which the pixels at the given positions have been marked in BLACK
+     * @param markerMask The size of the area that will be masked around a difference
      */
-    private BufferedImage maskDifferences(final BufferedImage image, final Point[] pixels,
-                                          final RectangleMask markerMask, final Color maskingColor)
+    private void maskDifferences(final DifferenceMap pixels, final RectangleMask markerMask)
     {
-        final BufferedImage copy = ImageHelper.copyImage(image);
-
         if (pixels == null)
-            return copy;
+            return;
 
-        final Graphics2D g = copy.createGraphics();
-        g.setColor(maskingColor);
-
-        for (Point pixel : pixels)
+        for (int row = 0; row < pixels.getHeight(); row++)
         {
-            int x = Math.max(0, pixel.x - markerMask.getXDistance());
-            int y = Math.max(0, pixel.y - markerMask.getYDistance());
+            for (int start = pixels.nextDifference(0, row); start >= 0; start = pixels.nextDifference(start + 1, row))
+            {
+                // last pixel of the current run of differences
+                final int end = pixels.nextNonDifference(start, row) - 1;
 
-            g.fillRect(x, y, markerMask.getWidth(), markerMask.getHeight());
-        }
-        g.dispose();
+                final int x = Math.max(0, start - markerMask.getXDistance());
+                final int y = Math.max(0, row - markerMask.getYDistance());
+                final int endX = Math.max(0, end - markerMask.getXDistance()) + markerMask.getWidth();
 
-        return copy;
+                mask.fill(x, y, endX - x, markerMask.getHeight());
+
+                start = end;
+            }
+        }
     }
 
     /**
@@ -127,7 +172,21 @@ public class MaskImage
      */
     public void closeMask(final int structureElementWidth, final int structureElementHeight)
     {
-        mask = ImageHelper.closeImage(mask, structureElementWidth, structureElementHeight, ImageHelper.BLACK.getRGB(),
-                ImageHelper.WHITE_TRANSPARENT.getRGB());
+        closeMask(structureElementWidth, structureElementHeight, ImageHelper.SCALING_FACTOR);
+    }
+
+    /**
+     * Closes the mask to better cover an area that is allowed to be different. The mask is closed in blocks of the
+     * given scale, the structure element covers scale times its size in pixels.
+     * @param structureElementWidth Width of the structure element
+     * @param structureElementHeight Height of the structure element
+     * @param scale Side length of the blocks the mask is closed in, 1 to close it in full resolution
+     */
+    public void closeMask(final int structureElementWidth, final int structureElementHeight, final int scale)
+    {
+        final BinaryMask closed = BinaryMask.fromMask(mask).close(structureElementWidth, structureElementHeight, scale);
+
+        // keep the model of the mask
+        mask = mask instanceof RectangleListMask ? RectangleListMask.fromMask(closed) : closed;
     }
 }
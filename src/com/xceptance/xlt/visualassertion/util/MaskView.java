@@ -0,0 +1,54 @@
+package com.xceptance.xlt.visualassertion.util;
+
+/**
+ * Read-only view on the masked pixels of an image, all the comparison needs of a mask. The masked pixels of a row are
+ * found span by span, so that the comparison skips whole masked spans instead of testing every pixel:
+ *
+ * <pre>
+ * int from = mask.nextSet(0, y);
+ * while (from &lt; mask.getWidth())
+ * {
+ *     final int to = mask.nextClear(from, y);
+ *     ...
+ *     from = mask.nextSet(to, y);
+ * }
+ * </pre>
+ */
+public interface MaskView
+{
+    /**
+     * Returns the width of the mask
+     * @return width in pixels
+     */
+    int getWidth();
+
+    /**
+     * Returns the height of the mask
+     * @return height in pixels
+     */
+    int getHeight();
+
+    /**
+     * Checks whether a pixel is masked
+     * @param x The x coordinate of the pixel
+     * @param y The y coordinate of the pixel
+     * @return true if the pixel is masked
+     */
+    boolean get(int x, int y);
+
+    /**
+     * Returns the x coordinate of the next masked pixel in the given row, starting at fromX
+     * @param fromX The x coordinate to start the search at (inclusive)
+     * @param y The row to search in
+     * @return the x coordinate of the next masked pixel or the width of the mask if there is none
+     */
+    int nextSet(int fromX, int y);
+
+    /**
+     * Returns the x coordinate of the next pixel in the given row, starting at fromX, that is not masked
+     * @param fromX The x coordinate to start the search at (inclusive)
+     * @param y The row to search in
+     * @return the x coordinate of the next pixel that is not masked or the width of the mask if there is none
+     */
+    int nextClear(int fromX, int y);
+}
@@ -0,0 +1,273 @@
+package com.xceptance.xlt.visualassertion.util;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+
+/**
+ * Image whose pixels are held as packed ARGB ints in row-major order, one scanline after the other. The pixel values
+ * are the same as returned by {@link BufferedImage#getRGB(int, int)}, but they are read only once, so the comparison
+ * algorithms can work on plain int arrays instead of going through the color model for every single pixel.
+ */
+public class PackedImage
+{
+    private final int[] pixels;
+
+    private final int width;
+
+    private final int height;
+
+    /**
+     * Reads the pixels of the given image into a new packed image
+     * @param image The image to read
+     */
+    public PackedImage(final BufferedImage image)
+    {
+        this.width = image.getWidth();
+        this.height = image.getHeight();
+        this.pixels = readPixels(image);
+    }
+
+    /**
+     * Wraps already packed pixels, e.g. a band of rows of a larger image. The array is not copied.
+     * @param pixels The packed ARGB pixels, row after row
+     * @param width The width of the image
+     * @param height The height of the image
+     */
+    protected PackedImage(final int[] pixels, final int width, final int height)
+    {
+        this.width = width;
+        this.height = height;
+        this.pixels = pixels;
+    }
+
+    /**
+     * Returns the width of the image
+     * @return width in pixels
+     */
+    public int getWidth()
+    {
+        return width;
+    }
+
+    /**
+     * Returns the height of the image
+     * @return height in pixels
+     */
+    public int getHeight()
+    {
+        return height;
+    }
+
+    /**
+     * Returns the packed ARGB pixels, row after row. The array might be shared with the original image, so it must
+     * not be modified.
+     * @return the pixels as int[] of length width * height
+     */
+    public int[] getPixels()
+    {
+        return pixels;
+    }
+
+    /**
+     * Wraps the pixels into a TYPE_INT_ARGB or TYPE_INT_RGB image, the array is shared and not copied
+     * @param alpha true for an image with alpha channel, false for an opaque image
+     * @return the image
+     */
+    public BufferedImage toBufferedImage(final boolean alpha)
+    {
+        final DataBufferInt buffer = new DataBufferInt(pixels, pixels.length);
+        final int[] masks = alpha ? new int[] { 0x00FF0000, 0x0000FF00, 0x000000FF, 0xFF000000 }
+                                  : new int[] { 0x00FF0000, 0x0000FF00, 0x000000FF };
+        final WritableRaster raster = Raster.createPackedRaster(buffer, width, height, width, masks, null);
+        final ColorModel colorModel = alpha ? ColorModel.getRGBdefault()
+                                            : new DirectColorModel(24, 0x00FF0000, 0x0000FF00, 0x000000FF);
+
+        return new BufferedImage(colorModel, raster, false, null);
+    }
+
+    /**
+     * Returns the ARGB value of a single pixel
+     * @param x The x coordinate of the pixel
+     * @param y The y coordinate of the pixel
+     * @return the pixel value as returned by BufferedImage.getRGB(x, y)
+     */
+    public int getRGB(final int x, final int y)
+    {
+        return pixels[y * width + x];
+    }
+
+    /**
+     * Reads all pixels of an image as packed ARGB ints. The common layouts of decoded screenshots (int ARGB/RGB and
+     * interleaved 8 bit RGB/RGBA bytes) are read directly from the raster. Any other color model falls back to
+     * BufferedImage.getRGB, which converts every pixel through the color model.
+     *
+     * @param image The image to read
+     * @return the packed pixels, row after row
+     */
+    protected static int[] readPixels(final BufferedImage image)
+    {
+        final int width = image.getWidth();
+        final int height = image.getHeight();
+        final Raster raster = image.getRaster();
+
+        // sub images and rasters with an offset take the slow but safe path
+        if (raster.getSampleModelTranslateX() == 0 && raster.getSampleModelTranslateY() == 0
+            && raster.getDataBuffer().getNumBanks() == 1 && raster.getDataBuffer().getOffset() == 0)
+        {
+            switch (image.getType())
+            {
+            case BufferedImage.TYPE_INT_ARGB:
+            case BufferedImage.TYPE_INT_RGB:
+                final int[] packed = readIntPixels(image, width, height);
+                if (packed != null)
+                {
+                    return packed;
+                }
+                break;
+
+            default:
+                final int[] interleaved = readBytePixels(image, width, height);
+                if (interleaved != null)
+                {
+                    return interleaved;
+                }
+                break;
+            }
+        }
+
+        return image.getRGB(0, 0, width, height, null, 0, width);
+    }
+
+    /**
+     * Reads the pixels of TYPE_INT_ARGB and TYPE_INT_RGB images. ARGB data is used as it is, RGB data gets an opaque
+     * alpha channel like BufferedImage.getRGB would return.
+     *
+     * @return the packed pixels or null if the raster layout is not supported
+     */
+    private static int[] readIntPixels(final BufferedImage image, final int width, final int height)
+    {
+        final Raster raster = image.getRaster();
+        if (!(raster.getSampleModel() instanceof SinglePixelPackedSampleModel)
+            || ((SinglePixelPackedSampleModel) raster.getSampleModel()).getScanlineStride() != width)
+        {
+            return null;
+        }
+
+        final int[] data = ((DataBufferInt) raster.getDataBuffer()).getData();
+        if (data.length != width * height)
+        {
+            return null;
+        }
+
+        if (image.getType() == BufferedImage.TYPE_INT_ARGB)
+        {
+            return data;
+        }
+
+        // the alpha bits of RGB data are usually unset, images read from QOI or raw files have them set already
+        if (isOpaque(data))
+        {
+            return data;
+        }
+
+        final int[] pixels = new int[data.length];
+        for (int i = 0; i < data.length; i++)
+        {
+            pixels[i] = 0xFF000000 | data[i];
+        }
+        return pixels;
+    }
+
+    /**
+     * Checks whether all pixels have an opaque alpha value, stops at the first pixel that has not
+     */
+    private static boolean isOpaque(final int[] data)
+    {
+        for (int i = 0; i < data.length; i++)
+        {
+            if ((data[i] >>> 24) != 0xFF)
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Reads the pixels of images with interleaved 8 bit sRGB samples, such as TYPE_3BYTE_BGR, TYPE_4BYTE_ABGR and the
+     * RGB/RGBA layouts created by the PNG decoder.
+     *
+     * @return the packed pixels or null if the raster layout is not supported
+     */
+    private static int[] readBytePixels(final BufferedImage image, final int width, final int height)
+    {
+        final Raster raster = image.getRaster();
+        final ColorModel colorModel = image.getColorModel();
+
+        if (!(colorModel instanceof ComponentColorModel) || !(raster.getSampleModel() instanceof PixelInterleavedSampleModel)
+            || raster.getDataBuffer().getDataType() != DataBuffer.TYPE_BYTE || !colorModel.getColorSpace().isCS_sRGB()
+            || colorModel.isAlphaPremultiplied())
+        {
+            return null;
+        }
+
+        final int bands = raster.getNumBands();
+        if (bands != 3 && !(bands == 4 && colorModel.hasAlpha()))
+        {
+            return null;
+        }
+        for (int b = 0; b < bands; b++)
+        {
+            if (colorModel.getComponentSize(b) != 8)
+            {
+                return null;
+            }
+        }
+
+        final PixelInterleavedSampleModel sampleModel = (PixelInterleavedSampleModel) raster.getSampleModel();
+        final int[] offsets = sampleModel.getBandOffsets();
+        final int pixelStride = sampleModel.getPixelStride();
+        final int scanlineStride = sampleModel.getScanlineStride();
+        final byte[] data = ((DataBufferByte) raster.getDataBuffer()).getData();
+
+        final int rOffset = offsets[0];
+        final int gOffset = offsets[1];
+        final int bOffset = offsets[2];
+        final int[] pixels = new int[width * height];
+
+        int i = 0;
+        for (int y = 0; y < height; y++)
+        {
+            int p = y * scanlineStride;
+            if (bands == 4)
+            {
+                final int aOffset = offsets[3];
+                for (int x = 0; x < width; x++, p += pixelStride)
+                {
+                    pixels[i++] = (data[p + aOffset] & 0xFF) << 24 | (data[p + rOffset] & 0xFF) << 16
+                                  | (data[p + gOffset] & 0xFF) << 8 | (data[p + bOffset] & 0xFF);
+                }
+            }
+            else
+            {
+                for (int x = 0; x < width; x++, p += pixelStride)
+                {
+                    pixels[i++] = 0xFF000000 | (data[p + rOffset] & 0xFF) << 16 | (data[p + gOffset] & 0xFF) << 8
+                                  | (data[p + bOffset] & 0xFF);
+                }
+            }
+        }
+
+        return pixels;
+    }
+}
@@ -0,0 +1,215 @@
+package com.xceptance.xlt.visualassertion.util;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Runs the comparison algorithms on bands of rows in parallel. All comparisons of the process share one
+ * ForkJoinPool, whose size is bounded by the configured number of threads and the number of available processors,
+ * so that the comparison does not take away the CPU from the threads of the virtual users. By default the
+ * parallelism is 1 and all comparisons run in the calling thread.
+ */
+public class ParallelComparison
+{
+    /**
+     * The minimum number of rows of one band, smaller bands are not worth the overhead
+     */
+    protected final static int MIN_BAND_HEIGHT = 64;
+
+    /**
+     * The number of bands per thread, more bands than threads even out the different costs of the bands
+     */
+    protected final static int BANDS_PER_THREAD = 4;
+
+    private static int parallelism = 1;
+
+    private static ForkJoinPool pool;
+
+    /**
+     * A comparison that can be run independently on any band of rows of the compared images
+     */
+    protected interface RowComparison
+    {
+        /**
+         * Compares the rows of the given band and adds the found differences to the difference map
+         * @param fromY First row of the band (inclusive)
+         * @param toY Last row of the band (exclusive)
+         * @param differences The difference map of the band
+         */
+        void compareRows(int fromY, int toY, DifferenceMap differences);
+    }
+
+    /**
+     * Sets the maximum number of threads that are used for one comparison. The value is capped at the number of
+     * available processors, a value of 1 or less disables the parallel comparison.
+     * @param threads The maximum number of threads
+     */
+    public static void setParallelism(final int threads)
+    {
+        setPoolSize(Math.min(threads, Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * Sets the number of threads that are used for one comparison without capping it at the number of available
+     * processors, e.g. to run the comparison in bands on a single processor machine as well
+     * @param threads The number of threads, 1 or less to compare in the calling thread
+     */
+    protected static synchronized void setPoolSize(final int threads)
+    {
+        final int newParallelism = Math.max(1, threads);
+        if (newParallelism == parallelism)
+        {
+            return;
+        }
+
+        // running comparisons finish on the old pool
+        if (pool != null)
+        {
+            pool.shutdown();
+            pool = null;
+        }
+
+        parallelism = newParallelism;
+        if (parallelism > 1)
+        {
+            pool = new ForkJoinPool(parallelism);
+        }
+    }
+
+    /**
+     * Returns the number of threads that are used for one comparison
+     * @return the parallelism, 1 if the comparison runs in the calling thread
+     */
+    public static synchronized int getParallelism()
+    {
+        return parallelism;
+    }
+
+    /**
+     * Returns the pool the comparison bands are run in
+     * @return the pool or null if the comparisons run in the calling thread
+     */
+    private static synchronized ForkJoinPool getPool()
+    {
+        return pool;
+    }
+
+    /**
+     * Runs the given comparison on the whole image. If parallel comparison is enabled and the image is large enough,
+     * the image is split into bands of rows, the bands are compared in the shared pool and their differences are
+     * merged afterwards.
+     *
+     * @param comparison The comparison to run
+     * @param width The width of the compared images
+     * @param height The height of the compared images
+     * @param rowAlignment The number of rows the band borders have to be a multiple of, e.g. the block size of the
+     *            fuzzy comparison
+     * @param maxDifferences The number of differences after which the comparison may stop,
+     *            Integer.MAX_VALUE to find all differences
+     * @return the differences of the whole image
+     */
+    protected static DifferenceMap execute(final RowComparison comparison, final int width, final int height,
+                                           final int rowAlignment, final int maxDifferences)
+    {
+        final DifferenceMap differences = new DifferenceMap(width, height, maxDifferences);
+
+        final ForkJoinPool currentPool = getPool();
+        final int bandHeight = currentPool == null ? height : calcBandHeight(height, currentPool.getParallelism(), rowAlignment);
+
+        if (bandHeight < height)
+        {
+            final DifferenceMap[] bands = new DifferenceMap[(height + bandHeight - 1) / bandHeight];
+            try
+            {
+                currentPool.invoke(new BandTask(comparison, differences, bands, 0, bands.length, bandHeight));
+            }
+            catch (final RejectedExecutionException e)
+            {
+                // the pool was replaced in the meantime, compare in the calling thread instead
+                comparison.compareRows(0, height, differences);
+                return differences;
+            }
+
+            for (final DifferenceMap band : bands)
+            {
+                differences.addAll(band);
+            }
+
+            return differences;
+        }
+
+        comparison.compareRows(0, height, differences);
+        return differences;
+    }
+
+    /**
+     * Calculates the height of the bands for the given image height
+     * @param height The height of the image
+     * @param threads The number of threads to distribute the bands to
+     * @param rowAlignment The number of rows the band height has to be a multiple of
+     * @return the band height
+     */
+    protected static int calcBandHeight(final int height, final int threads, final int rowAlignment)
+    {
+        final int bands = threads * BANDS_PER_THREAD;
+        final int bandHeight = Math.max(MIN_BAND_HEIGHT, (height + bands - 1) / bands);
+        final int alignment = Math.max(1, rowAlignment);
+
+        return (bandHeight + alignment - 1) / alignment * alignment;
+    }
+
+    /**
+     * Compares a range of bands, splits it until only one band is left
+     */
+    private static class BandTask extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final RowComparison comparison;
+
+        private final DifferenceMap differences;
+
+        private final DifferenceMap[] bands;
+
+        private final int fromBand;
+
+        private final int toBand;
+
+        private final int bandHeight;
+
+        BandTask(final RowComparison comparison, final DifferenceMap differences, final DifferenceMap[] bands,
+                 final int fromBand, final int toBand, final int bandHeight)
+        {
+            this.comparison = comparison;
+            this.differences = differences;
+            this.bands = bands;
+            this.fromBand = fromBand;
+            this.toBand = toBand;
+            this.bandHeight = bandHeight;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if (toBand - fromBand > 1)
+            {
+                final int middle = (fromBand + toBand) >>> 1;
+                invokeAll(new BandTask(comparison, differences, bands, fromBand, middle, bandHeight),
+                          new BandTask(comparison, differences, bands, middle, toBand, bandHeight));
+                return;
+            }
+
+            final int fromY = fromBand * bandHeight;
+            final int toY = Math.min(differences.getHeight(), fromY + bandHeight);
+
+            final DifferenceMap band = new DifferenceMap(differences, fromY, toY);
+            // no need to compare the band if other bands already exceeded the limit
+            if (!differences.isLimitExceeded())
+            {
+                comparison.compareRows(fromY, toY, band);
+            }
+            bands[fromBand] = band;
+        }
+    }
+}
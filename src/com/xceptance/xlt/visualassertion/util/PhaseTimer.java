@@ -0,0 +1,112 @@
+package com.xceptance.xlt.visualassertion.util;
+
+import com.xceptance.xlt.api.engine.CustomData;
+import com.xceptance.xlt.api.engine.CustomValue;
+import com.xceptance.xlt.api.engine.Data;
+import com.xceptance.xlt.api.engine.DataManager;
+
+/**
+ * Measures the phases of a visual assertion one after the other and reports each of them as an XLT custom timer, so
+ * the time of the assertion shows up in the load test report separately from the page timings. Every call of
+ * {@link #record(String)} reports the time since the previous call or since {@link #restart()}. Without a data
+ * manager nothing is measured nor reported.
+ */
+public class PhaseTimer
+{
+    private final String prefix;
+
+    private final DataManager dataManager;
+
+    private final boolean enabled;
+
+    private long startTime;
+
+    private long startNanos;
+
+    /**
+     * Creates a timer that reports to the given data manager and starts measuring the first phase
+     * @param prefix The prefix of the names of the timers and values, e.g. "VisualAssertion."
+     * @param dataManager The data manager of the session, null to report nothing
+     */
+    public PhaseTimer(final String prefix, final DataManager dataManager)
+    {
+        this(prefix, dataManager, dataManager != null);
+    }
+
+    /**
+     * Creates a timer that reports through {@link #log(Data)} and starts measuring the first phase
+     * @param prefix The prefix of the names of the timers and values
+     */
+    protected PhaseTimer(final String prefix)
+    {
+        this(prefix, null, true);
+    }
+
+    private PhaseTimer(final String prefix, final DataManager dataManager, final boolean enabled)
+    {
+        this.prefix = prefix;
+        this.dataManager = dataManager;
+        this.enabled = enabled;
+        restart();
+    }
+
+    /**
+     * Starts measuring the next phase, the time since the previous phase is not reported
+     */
+    public void restart()
+    {
+        if (enabled)
+        {
+            startTime = System.currentTimeMillis();
+            startNanos = System.nanoTime();
+        }
+    }
+
+    /**
+     * Reports the time since the previous phase as custom timer and starts measuring the next phase
+     * @param phase The name of the phase that just ended
+     */
+    public void record(final String phase)
+    {
+        if (!enabled)
+        {
+            return;
+        }
+
+        final long nanos = System.nanoTime();
+
+        final CustomData timer = new CustomData(prefix + phase);
+        timer.setTime(startTime);
+        timer.setRunTime((nanos - startNanos) / 1000000);
+        log(timer);
+
+        startTime = System.currentTimeMillis();
+        startNanos = nanos;
+    }
+
+    /**
+     * Reports the given value as custom value, e.g. the number of compared pixels
+     * @param name The name of the value
+     * @param value The value
+     */
+    public void value(final String name, final double value)
+    {
+        if (!enabled)
+        {
+            return;
+        }
+
+        final CustomValue customValue = new CustomValue(prefix + name);
+        customValue.setValue(value);
+        log(customValue);
+    }
+
+    /**
+     * Reports the given timer or value
+     * @param data The timer or value
+     */
+    protected void log(final Data data)
+    {
+        dataManager.logDataRecord(data);
+    }
+}
@@ -0,0 +1,640 @@
+package com.xceptance.xlt.visualassertion.util;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Reads the rows of an image one after the other, without decoding the whole image at once. Only the current row and
+ * the previous one, which the PNG filters refer to, are held in memory.
+ * <p>
+ * Non-interlaced PNG images with 8 bit RGB, RGBA or 1 to 8 bit palette colors, which covers the screenshots of the
+ * browsers and the images written by {@link PngRowWriter}, are decoded directly from the compressed stream. All other
+ * images are read through an ImageIO reader, one source region per call. This keeps the memory bounded as well, but
+ * the reader might have to decode the image from the top for every region. The pixel values are the same as returned by {@link BufferedImage#getRGB(int, int)} of the image
+ * decoded by ImageIO.
+ * <p>
+ * Reference images in QOI or raw format, see {@link BaselineFormat}, are recognized by their magic bytes and read row
+ * by row as well.
+ */
+public class PngRowReader implements Closeable
+{
+    // the signature every PNG file starts with
+    private final static byte[] SIGNATURE = { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n' };
+
+    private final static int COLOR_TYPE_RGB = 2;
+
+    private final static int COLOR_TYPE_PALETTE = 3;
+
+    private final static int COLOR_TYPE_RGBA = 6;
+
+    private int width;
+
+    private int height;
+
+    private boolean alpha;
+
+    private int nextRow;
+
+    // the state of the PNG decoder, null if the image is read through ImageIO
+    private DataInputStream png;
+
+    private Inflater inflater;
+
+    private InputStream pixelData;
+
+    private int bytesPerPixel;
+
+    // the number of palette indices in one byte, 1 for 8 bit images
+    private int pixelsPerByte;
+
+    private int[] palette;
+
+    private byte[] currentLine;
+
+    private byte[] previousLine;
+
+    // the decoders of QOI and raw images, null for other images
+    private QoiCodec.Decoder qoi;
+
+    private RawCodec.Reader raw;
+
+    // the state of the ImageIO fallback
+    private ImageInputStream imageInput;
+
+    private ImageReader imageReader;
+
+    /**
+     * Opens the given image file and reads its header
+     * @param file The image file
+     * @throws IOException if the file could not be read or is not an image
+     */
+    public PngRowReader(final File file) throws IOException
+    {
+        open(new FileInputStream(file), file);
+    }
+
+    /**
+     * Reads the header of the given encoded image
+     * @param data The encoded image, e.g. a screenshot as returned by the web driver
+     * @throws IOException if the data is not an image
+     */
+    public PngRowReader(final byte[] data) throws IOException
+    {
+        open(new ByteArrayInputStream(data), data);
+    }
+
+    /**
+     * Returns the number of pixels of the given PNG image as stated in its header, nothing is decoded
+     * @param data The encoded image
+     * @return width times height, or -1 if the data does not start with a PNG header
+     */
+    public static long getPixelCount(final byte[] data)
+    {
+        // the signature, the length and type of the IHDR chunk, the width and the height
+        if (data.length < 24 || !Arrays.equals(Arrays.copyOf(data, SIGNATURE.length), SIGNATURE)
+            || readInt(data, 12) != chunkType("IHDR"))
+        {
+            return -1;
+        }
+
+        return (long) readInt(data, 16) * readInt(data, 20);
+    }
+
+    /**
+     * Returns the width of the image
+     * @return width in pixels
+     */
+    public int getWidth()
+    {
+        return width;
+    }
+
+    /**
+     * Returns the height of the image
+     * @return height in pixels
+     */
+    public int getHeight()
+    {
+        return height;
+    }
+
+    /**
+     * Checks whether the pixels of the image might be transparent
+     * @return true if the image has an alpha channel or transparent colors
+     */
+    public boolean hasAlpha()
+    {
+        return alpha;
+    }
+
+    /**
+     * Returns the index of the row that is read next
+     * @return the next row
+     */
+    public int getNextRow()
+    {
+        return nextRow;
+    }
+
+    /**
+     * Reads the next rows of the image as packed ARGB ints. Each row is written to the given array at the given offset
+     * plus the row index times the scanline, only the first width values of each row are set.
+     * @param target The array the pixels are written to
+     * @param offset The index of the first pixel of the first row
+     * @param scanline The distance of the rows in the array, at least the width of the image
+     * @param rows The number of rows to read, at most the number of rows that are left
+     * @throws IOException if the image could not be decoded
+     */
+    public void readRows(final int[] target, final int offset, final int scanline, final int rows) throws IOException
+    {
+        if (rows <= 0)
+        {
+            return;
+        }
+        if (nextRow + rows > height)
+        {
+            throw new IllegalArgumentException("Only " + (height - nextRow) + " rows are left");
+        }
+
+        if (qoi != null)
+        {
+            for (int row = 0; row < rows; row++)
+            {
+                qoi.decode(target, offset + row * scanline, width);
+            }
+        }
+        else if (raw != null)
+        {
+            for (int row = 0; row < rows; row++)
+            {
+                raw.decode(target, offset + row * scanline, width);
+            }
+        }
+        else if (png != null)
+        {
+            for (int row = 0; row < rows; row++)
+            {
+                decodeLine(target, offset + row * scanline);
+            }
+        }
+        else
+        {
+            final ImageReadParam param = imageReader.getDefaultReadParam();
+            param.setSourceRegion(new Rectangle(0, nextRow, width, rows));
+            final BufferedImage region = imageReader.read(0, param);
+            region.getRGB(0, 0, width, rows, target, offset, scanline);
+        }
+
+        nextRow += rows;
+    }
+
+    /**
+     * Skips the next rows of the image
+     * @param rows The number of rows to skip
+     * @throws IOException if the image could not be decoded
+     */
+    public void skipRows(final int rows) throws IOException
+    {
+        if (imageReader == null)
+        {
+            final int[] line = new int[width];
+            for (int row = 0; row < rows; row++)
+            {
+                readRows(line, 0, width, 1);
+            }
+        }
+        else
+        {
+            nextRow = Math.min(height, nextRow + rows);
+        }
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        if (png != null)
+        {
+            png.close();
+        }
+        if (inflater != null)
+        {
+            inflater.end();
+        }
+        if (imageReader != null)
+        {
+            imageReader.dispose();
+        }
+        if (imageInput != null)
+        {
+            imageInput.close();
+        }
+    }
+
+    /**
+     * Reads the header of the image and prepares the decoder. Images that are not supported by the PNG decoder are
+     * opened with ImageIO.
+     * @param in The stream of the encoded image
+     * @param source The source of the image for ImageIO, the file or the byte array
+     */
+    private void open(final InputStream in, final Object source) throws IOException
+    {
+        png = new DataInputStream(new BufferedInputStream(in));
+        try
+        {
+            png.mark(4);
+            final int magic = png.readInt();
+            png.reset();
+
+            if (magic == QoiCodec.MAGIC)
+            {
+                qoi = new QoiCodec.Decoder(png);
+                width = qoi.getWidth();
+                height = qoi.getHeight();
+                alpha = qoi.hasAlpha();
+                return;
+            }
+            if (Integer.reverseBytes(magic) == RawCodec.MAGIC)
+            {
+                png.close();
+                png = null;
+                raw = source instanceof File ? new RawCodec.Reader((File) source) : new RawCodec.Reader((byte[]) source);
+                width = raw.getWidth();
+                height = raw.getHeight();
+                alpha = raw.hasAlpha();
+                return;
+            }
+
+            if (readHeader())
+            {
+                return;
+            }
+        }
+        catch (final EOFException e)
+        {
+            // not a complete PNG image, let ImageIO decide
+        }
+
+        png.close();
+        png = null;
+        openImageReader(source);
+    }
+
+    /**
+     * Reads the chunks in front of the pixel data
+     * @return true if the image can be decoded row by row, false if it has to be read through ImageIO
+     */
+    private boolean readHeader() throws IOException
+    {
+        final byte[] signature = new byte[SIGNATURE.length];
+        png.readFully(signature);
+        if (!Arrays.equals(signature, SIGNATURE))
+        {
+            return false;
+        }
+
+        // IHDR is always the first chunk
+        png.readInt();
+        if (png.readInt() != chunkType("IHDR"))
+        {
+            return false;
+        }
+        width = png.readInt();
+        height = png.readInt();
+        final int bitDepth = png.readUnsignedByte();
+        final int colorType = png.readUnsignedByte();
+        png.readUnsignedByte(); // compression, always deflate
+        png.readUnsignedByte(); // filter method, always adaptive
+        final int interlace = png.readUnsignedByte();
+        png.readInt(); // CRC
+
+        // grey images are converted through a linear color space by ImageIO, so they are not decoded here either
+        if (interlace != 0 || (colorType != COLOR_TYPE_RGB && colorType != COLOR_TYPE_RGBA && colorType != COLOR_TYPE_PALETTE)
+            || (bitDepth != 8 && (colorType != COLOR_TYPE_PALETTE || (bitDepth != 1 && bitDepth != 2 && bitDepth != 4))))
+        {
+            return false;
+        }
+
+        bytesPerPixel = colorType == COLOR_TYPE_RGBA ? 4 : colorType == COLOR_TYPE_RGB ? 3 : 1;
+        pixelsPerByte = 8 / bitDepth;
+        alpha = colorType == COLOR_TYPE_RGBA;
+
+        while (true)
+        {
+            final int length = png.readInt();
+            final int type = png.readInt();
+
+            if (type == chunkType("IDAT"))
+            {
+                if (colorType == COLOR_TYPE_PALETTE && palette == null)
+                {
+                    return false;
+                }
+
+                inflater = new Inflater();
+                pixelData = new InflaterInputStream(new DataChunkStream(png, length), inflater, 8192);
+                final int lineLength = pixelsPerByte > 1 ? (width + pixelsPerByte - 1) / pixelsPerByte
+                                                         : width * bytesPerPixel;
+                currentLine = new byte[lineLength + 1];
+                previousLine = new byte[lineLength + 1];
+                return true;
+            }
+            else if (type == chunkType("PLTE"))
+            {
+                palette = new int[256];
+                Arrays.fill(palette, 0xFF000000);
+                for (int i = 0; i < length / 3; i++)
+                {
+                    palette[i] = 0xFF000000 | png.readUnsignedByte() << 16 | png.readUnsignedByte() << 8
+                                 | png.readUnsignedByte();
+                }
+                png.skipBytes(length - length / 3 * 3);
+            }
+            else if (type == chunkType("tRNS"))
+            {
+                // the transparent color of RGB images is left to ImageIO
+                if (colorType != COLOR_TYPE_PALETTE || palette == null)
+                {
+                    return false;
+                }
+
+                for (int i = 0; i < length; i++)
+                {
+                    palette[i] = (palette[i] & 0x00FFFFFF) | png.readUnsignedByte() << 24;
+                }
+                alpha = true;
+            }
+            else if (type == chunkType("IEND"))
+            {
+                return false;
+            }
+            else
+            {
+                skipFully(length);
+            }
+
+            png.readInt(); // CRC
+        }
+    }
+
+    /**
+     * Opens the image with the first ImageIO reader that supports it
+     * @param source The file or byte array of the image
+     */
+    private void openImageReader(final Object source) throws IOException
+    {
+        imageInput = ImageIO.createImageInputStream(source instanceof File ? source
+                                                                            : new ByteArrayInputStream((byte[]) source));
+        final Iterator<ImageReader> readers = ImageIO.getImageReaders(imageInput);
+        if (imageInput == null || !readers.hasNext())
+        {
+            close();
+            throw new IOException("Unsupported image format");
+        }
+
+        imageReader = readers.next();
+        imageReader.setInput(imageInput, false, true);
+        width = imageReader.getWidth(0);
+        height = imageReader.getHeight(0);
+        alpha = imageReader.getRawImageType(0) == null || imageReader.getRawImageType(0).getColorModel().hasAlpha();
+    }
+
+    /**
+     * Inflates and unfilters the next scanline and converts it into ARGB ints
+     * @param target The array the pixels are written to
+     * @param offset The index of the first pixel of the row
+     */
+    private void decodeLine(final int[] target, final int offset) throws IOException
+    {
+        final byte[] swap = previousLine;
+        previousLine = currentLine;
+        currentLine = swap;
+
+        int read = 0;
+        while (read < currentLine.length)
+        {
+            final int count = pixelData.read(currentLine, read, currentLine.length - read);
+            if (count < 0)
+            {
+                throw new EOFException("The image data ends in row " + nextRow);
+            }
+            read += count;
+        }
+
+        unfilter(currentLine, previousLine, bytesPerPixel);
+
+        final byte[] line = currentLine;
+        int p = 1;
+        switch (bytesPerPixel)
+        {
+        case 4:
+            for (int x = 0; x < width; x++, p += 4)
+            {
+                target[offset + x] = (line[p + 3] & 0xFF) << 24 | (line[p] & 0xFF) << 16 | (line[p + 1] & 0xFF) << 8
+                                     | (line[p + 2] & 0xFF);
+            }
+            break;
+
+        case 3:
+            for (int x = 0; x < width; x++, p += 3)
+            {
+                target[offset + x] = 0xFF000000 | (line[p] & 0xFF) << 16 | (line[p + 1] & 0xFF) << 8
+                                     | (line[p + 2] & 0xFF);
+            }
+            break;
+
+        default:
+            if (pixelsPerByte == 1)
+            {
+                for (int x = 0; x < width; x++, p++)
+                {
+                    target[offset + x] = palette[line[p] & 0xFF];
+                }
+            }
+            else
+            {
+                // packed indices, the leftmost pixel in the high bits
+                final int bitDepth = 8 / pixelsPerByte;
+                final int indexMask = (1 << bitDepth) - 1;
+                for (int x = 0; x < width; x++)
+                {
+                    final int shift = 8 - bitDepth * (x % pixelsPerByte + 1);
+                    target[offset + x] = palette[(line[p + x / pixelsPerByte] >> shift) & indexMask];
+                }
+            }
+            break;
+        }
+    }
+
+    /**
+     * Reverses the filter of a scanline in place. The first byte of the line is the filter type, the previous line is
+     * all zero for the first row of the image.
+     * @param line The filtered scanline
+     * @param previous The unfiltered previous scanline
+     * @param bpp The number of bytes per pixel, which the filters refer back to
+     */
+    protected static void unfilter(final byte[] line, final byte[] previous, final int bpp) throws IOException
+    {
+        final int length = line.length;
+        switch (line[0])
+        {
+        case 0: // none
+            break;
+
+        case 1: // sub
+            for (int i = 1 + bpp; i < length; i++)
+            {
+                line[i] += line[i - bpp];
+            }
+            break;
+
+        case 2: // up
+            for (int i = 1; i < length; i++)
+            {
+                line[i] += previous[i];
+            }
+            break;
+
+        case 3: // average
+            for (int i = 1; i < length; i++)
+            {
+                final int left = i > bpp ? line[i - bpp] & 0xFF : 0;
+                line[i] += (left + (previous[i] & 0xFF)) >>> 1;
+            }
+            break;
+
+        case 4: // paeth
+            for (int i = 1; i < length; i++)
+            {
+                final int left = i > bpp ? line[i - bpp] & 0xFF : 0;
+                final int above = previous[i] & 0xFF;
+                final int aboveLeft = i > bpp ? previous[i - bpp] & 0xFF : 0;
+                line[i] += paeth(left, above, aboveLeft);
+            }
+            break;
+
+        default:
+            throw new IOException("Unknown PNG filter type " + line[0]);
+        }
+    }
+
+    /**
+     * The Paeth predictor of the PNG specification
+     */
+    private static int paeth(final int left, final int above, final int aboveLeft)
+    {
+        final int estimate = left + above - aboveLeft;
+        final int leftDistance = Math.abs(estimate - left);
+        final int aboveDistance = Math.abs(estimate - above);
+        final int aboveLeftDistance = Math.abs(estimate - aboveLeft);
+
+        if (leftDistance <= aboveDistance && leftDistance <= aboveLeftDistance)
+        {
+            return left;
+        }
+
+        return aboveDistance <= aboveLeftDistance ? above : aboveLeft;
+    }
+
+    private void skipFully(final int bytes) throws IOException
+    {
+        for (int skipped = 0; skipped < bytes;)
+        {
+            final int count = png.skipBytes(bytes - skipped);
+            if (count <= 0)
+            {
+                throw new EOFException();
+            }
+            skipped += count;
+        }
+    }
+
+    /**
+     * Reads a big endian int from the given position
+     */
+    private static int readInt(final byte[] data, final int offset)
+    {
+        return (data[offset] & 0xFF) << 24 | (data[offset + 1] & 0xFF) << 16 | (data[offset + 2] & 0xFF) << 8
+               | (data[offset + 3] & 0xFF);
+    }
+
+    /**
+     * Returns the type of a chunk as int, as it is read from the stream
+     */
+    protected static int chunkType(final String type)
+    {
+        return type.charAt(0) << 24 | type.charAt(1) << 16 | type.charAt(2) << 8 | type.charAt(3);
+    }
+
+    /**
+     * The content of all consecutive IDAT chunks as one stream, which is inflated to the scanlines
+     */
+    private static class DataChunkStream extends InputStream
+    {
+        private final DataInputStream png;
+
+        private int remaining;
+
+        private boolean finished;
+
+        DataChunkStream(final DataInputStream png, final int length)
+        {
+            this.png = png;
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            final byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException
+        {
+            while (remaining == 0)
+            {
+                if (finished)
+                {
+                    return -1;
+                }
+
+                // continue with the next chunk, if it holds image data as well
+                png.readInt(); // CRC
+                remaining = png.readInt();
+                if (png.readInt() != chunkType("IDAT"))
+                {
+                    finished = true;
+                    remaining = 0;
+                    return -1;
+                }
+            }
+
+            final int count = png.read(b, off, Math.min(len, remaining));
+            if (count < 0)
+            {
+                throw new EOFException();
+            }
+            remaining -= count;
+            return count;
+        }
+    }
+}
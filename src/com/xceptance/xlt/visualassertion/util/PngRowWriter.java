@@ -0,0 +1,692 @@
+package com.xceptance.xlt.visualassertion.util;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import com.xceptance.xlt.visualassertion.jfr.EncodeEvent;
+import com.xceptance.xlt.visualassertion.jfr.Events;
+
+/**
+ * Writes a PNG image row by row, so that images can be encoded without holding all of their pixels in memory. The
+ * rows are written as 8 bit RGB or RGBA scanlines, or as indices into a palette of at most 256 colors, and compressed
+ * into IDAT chunks while they are written.
+ * <p>
+ * The compression level and the filter of the scanlines are set for all writers of the process. Palette images are
+ * never filtered, as the PNG specification recommends. {@link #write(BufferedImage, File)} picks the smallest format
+ * that keeps the pixels of an image, so difference images and masks, which have only a few colors, are written as 1 to
+ * 8 bit palette images. Grey scale images are not used, because ImageIO reads them back through a linear color space
+ * and the pixel values would change.
+ */
+public class PngRowWriter implements Closeable
+{
+    /**
+     * The filter that is applied to the scanlines of RGB and RGBA images before the compression
+     */
+    public enum Filter
+    {
+        NONE, SUB, UP, AVERAGE, PAETH,
+
+        /**
+         * Picks the filter per scanline, the one whose result has the smallest sum of absolute values
+         */
+        ADAPTIVE
+    }
+
+    // the size of the IDAT chunks
+    private final static int CHUNK_SIZE = 64 * 1024;
+
+    // the maximum number of colors of a palette image
+    private final static int MAX_PALETTE_SIZE = 256;
+
+    private static int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+
+    private static Filter filter = Filter.SUB;
+
+    private final DataOutputStream out;
+
+    private final DeflaterOutputStream pixelData;
+
+    private final Deflater deflater;
+
+    private final int width;
+
+    private final int height;
+
+    private final boolean alpha;
+
+    // the palette of palette images, null for RGB and RGBA images
+    private final ColorTable colors;
+
+    private final int bitDepth;
+
+    // the number of bytes the filters refer back to
+    private final int bpp;
+
+    private final Filter lineFilter;
+
+    private byte[] line;
+
+    private byte[] previousLine;
+
+    // the filtered scanline with the filter type in front, one per filter for the adaptive filter
+    private final byte[][] filtered;
+
+    private int nextRow;
+
+    /**
+     * Sets the compression level and the scanline filter of all images that are written from now on
+     * @param level The compression level of the deflater 0-9, -1 for the default level
+     * @param lineFilter The filter of the scanlines of RGB and RGBA images
+     */
+    public static synchronized void configure(final int level, final Filter lineFilter)
+    {
+        compressionLevel = Math.max(-1, Math.min(9, level));
+        filter = lineFilter;
+    }
+
+    /**
+     * Returns the compression level of the images
+     * @return the level 0-9, or -1 for the default level
+     */
+    public static synchronized int getCompressionLevel()
+    {
+        return compressionLevel;
+    }
+
+    /**
+     * Returns the filter of the scanlines of RGB and RGBA images
+     * @return the filter
+     */
+    public static synchronized Filter getFilter()
+    {
+        return filter;
+    }
+
+    /**
+     * Writes the given image to the given file in the smallest format that keeps its pixels, a palette image if it
+     * has at most 256 colors, else an RGB or RGBA image
+     * @param image The image
+     * @param file The PNG file
+     * @throws IOException if the file could not be written
+     */
+    public static void write(final BufferedImage image, final File file) throws IOException
+    {
+        write(image, new FileOutputStream(file));
+    }
+
+    /**
+     * Writes the given image to the given stream in the smallest format that keeps its pixels, a palette image if it
+     * has at most 256 colors, else an RGB or RGBA image. The stream is closed afterwards.
+     * @param image The image
+     * @param stream The stream the PNG image is written to
+     * @throws IOException if the stream could not be written
+     */
+    public static void write(final BufferedImage image, final OutputStream stream) throws IOException
+    {
+        final EncodeEvent event = Events.encode();
+
+        // the pixels are read once, images of the INT types are not even copied
+        final PackedImage pixels = new PackedImage(image);
+        final int[] data = pixels.getPixels();
+
+        // collect the colors until there are too many for a palette
+        ColorTable table = new ColorTable();
+        for (int i = 0; i < data.length; i++)
+        {
+            if (table.add(data[i]) < 0)
+            {
+                table = null;
+                break;
+            }
+        }
+
+        try (final PngRowWriter writer = table != null ? new PngRowWriter(stream, pixels.getWidth(), pixels.getHeight(),
+                                                                          false, table)
+                                                       : new PngRowWriter(stream, pixels.getWidth(), pixels.getHeight(),
+                                                                          image.getColorModel().hasAlpha(), null))
+        {
+            writer.writeRows(data, 0, pixels.getWidth(), pixels.getHeight());
+        }
+
+        if (event != null)
+        {
+            event.complete("png", pixels.getWidth(), pixels.getHeight(), table != null);
+        }
+    }
+
+    /**
+     * Creates the given file and writes the header of the image
+     * @param file The image file
+     * @param width The width of the image
+     * @param height The height of the image
+     * @param alpha true to write the alpha channel as well, false for opaque images
+     * @throws IOException if the file could not be written
+     */
+    public PngRowWriter(final File file, final int width, final int height, final boolean alpha) throws IOException
+    {
+        this(new FileOutputStream(file), width, height, alpha);
+    }
+
+    /**
+     * Writes the header of the image to the given stream, the stream is closed together with the writer
+     * @param stream The stream the image is written to
+     * @param width The width of the image
+     * @param height The height of the image
+     * @param alpha true to write the alpha channel as well, false for opaque images
+     * @throws IOException if the stream could not be written
+     */
+    public PngRowWriter(final OutputStream stream, final int width, final int height, final boolean alpha)
+        throws IOException
+    {
+        this(stream, width, height, alpha, null);
+    }
+
+    /**
+     * Creates the given file and writes the header of a palette image. All pixels that are written must be in the
+     * palette.
+     * @param file The image file
+     * @param width The width of the image
+     * @param height The height of the image
+     * @param palette The ARGB colors of the image, at most 256
+     * @throws IOException if the file could not be written
+     */
+    public PngRowWriter(final File file, final int width, final int height, final int[] palette) throws IOException
+    {
+        this(new FileOutputStream(file), width, height, palette);
+    }
+
+    /**
+     * Writes the header of a palette image to the given stream, the stream is closed together with the writer. All
+     * pixels that are written must be in the palette.
+     * @param stream The stream the image is written to
+     * @param width The width of the image
+     * @param height The height of the image
+     * @param palette The ARGB colors of the image, at most 256
+     * @throws IOException if the stream could not be written
+     */
+    public PngRowWriter(final OutputStream stream, final int width, final int height, final int[] palette)
+        throws IOException
+    {
+        this(stream, width, height, false, ColorTable.of(palette));
+    }
+
+    private PngRowWriter(final OutputStream stream, final int width, final int height, final boolean alpha,
+                         final ColorTable colors) throws IOException
+    {
+        this.out = new DataOutputStream(new BufferedOutputStream(stream));
+        this.width = width;
+        this.height = height;
+        this.alpha = alpha;
+        this.colors = colors;
+
+        final int lineLength;
+        if (colors != null)
+        {
+            final int size = colors.size();
+            bitDepth = size <= 2 ? 1 : size <= 4 ? 2 : size <= 16 ? 4 : 8;
+            lineLength = (width * bitDepth + 7) / 8;
+            bpp = 1;
+            lineFilter = Filter.NONE;
+        }
+        else
+        {
+            bitDepth = 8;
+            bpp = alpha ? 4 : 3;
+            lineLength = width * bpp;
+            lineFilter = getFilter();
+        }
+        line = new byte[lineLength];
+        previousLine = new byte[lineLength];
+        filtered = new byte[lineFilter == Filter.ADAPTIVE ? Filter.ADAPTIVE.ordinal() : 1][lineLength + 1];
+
+        out.write(new byte[] { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n' });
+
+        final byte[] header = new byte[13];
+        putInt(header, 0, width);
+        putInt(header, 4, height);
+        header[8] = (byte) bitDepth;
+        header[9] = (byte) (colors != null ? 3 : alpha ? 6 : 2); // color type
+        writeChunk("IHDR", header, header.length);
+
+        if (colors != null)
+        {
+            writePalette();
+        }
+
+        deflater = new Deflater(getCompressionLevel());
+        pixelData = new DeflaterOutputStream(new DataChunkStream(), deflater, CHUNK_SIZE);
+    }
+
+    /**
+     * Writes the next rows of the image
+     * @param pixels The packed ARGB pixels of the rows
+     * @param offset The index of the first pixel of the first row
+     * @param scanline The distance of the rows in the array, at least the width of the image
+     * @param rows The number of rows to write
+     * @throws IOException if the image could not be written
+     */
+    public void writeRows(final int[] pixels, final int offset, final int scanline, final int rows) throws IOException
+    {
+        if (nextRow + rows > height)
+        {
+            throw new IllegalArgumentException("Only " + (height - nextRow) + " rows are left");
+        }
+
+        for (int row = 0; row < rows; row++)
+        {
+            final int start = offset + row * scanline;
+            if (colors != null)
+            {
+                packIndices(pixels, start);
+            }
+            else
+            {
+                int p = 0;
+                for (int x = start, end = x + width; x < end; x++)
+                {
+                    final int argb = pixels[x];
+                    line[p++] = (byte) (argb >> 16);
+                    line[p++] = (byte) (argb >> 8);
+                    line[p++] = (byte) argb;
+                    if (alpha)
+                    {
+                        line[p++] = (byte) (argb >>> 24);
+                    }
+                }
+            }
+
+            pixelData.write(filterLine());
+
+            final byte[] swap = previousLine;
+            previousLine = line;
+            line = swap;
+        }
+
+        nextRow += rows;
+    }
+
+    /**
+     * Finishes the image and closes the stream
+     * @throws IOException if not all rows were written or the image could not be written
+     */
+    @Override
+    public void close() throws IOException
+    {
+        try
+        {
+            if (nextRow < height)
+            {
+                throw new IOException("Only " + nextRow + " of " + height + " rows were written");
+            }
+
+            pixelData.finish();
+            pixelData.flush();
+            writeChunk("IEND", new byte[0], 0);
+        }
+        finally
+        {
+            deflater.end();
+            out.close();
+        }
+    }
+
+    /**
+     * Writes the palette and, if there are transparent colors, their alpha values
+     */
+    private void writePalette() throws IOException
+    {
+        final int[] palette = colors.toArray();
+        final byte[] rgb = new byte[palette.length * 3];
+        final byte[] alphas = new byte[palette.length];
+        int transparent = 0;
+        for (int i = 0; i < palette.length; i++)
+        {
+            rgb[i * 3] = (byte) (palette[i] >> 16);
+            rgb[i * 3 + 1] = (byte) (palette[i] >> 8);
+            rgb[i * 3 + 2] = (byte) palette[i];
+            alphas[i] = (byte) (palette[i] >>> 24);
+            if (alphas[i] != (byte) 0xFF)
+            {
+                transparent = i + 1;
+            }
+        }
+
+        writeChunk("PLTE", rgb, rgb.length);
+
+        // colors after the last transparent one are opaque
+        if (transparent > 0)
+        {
+            writeChunk("tRNS", alphas, transparent);
+        }
+    }
+
+    /**
+     * Converts a row of pixels into palette indices, the leftmost pixel in the high bits of a byte
+     */
+    private void packIndices(final int[] pixels, final int start)
+    {
+        if (bitDepth == 8)
+        {
+            for (int x = 0; x < width; x++)
+            {
+                line[x] = (byte) indexOf(pixels[start + x]);
+            }
+            return;
+        }
+
+        Arrays.fill(line, (byte) 0);
+        final int pixelsPerByte = 8 / bitDepth;
+        for (int x = 0; x < width; x++)
+        {
+            final int shift = 8 - bitDepth * (x % pixelsPerByte + 1);
+            line[x / pixelsPerByte] |= indexOf(pixels[start + x]) << shift;
+        }
+    }
+
+    private int indexOf(final int argb)
+    {
+        final int index = colors.indexOf(argb);
+        if (index < 0)
+        {
+            throw new IllegalArgumentException(String.format("The color %08X is not in the palette", argb));
+        }
+
+        return index;
+    }
+
+    /**
+     * Filters the current scanline
+     * @return the filtered scanline with the filter type in front
+     */
+    private byte[] filterLine()
+    {
+        if (lineFilter != Filter.ADAPTIVE)
+        {
+            applyFilter(lineFilter, filtered[0]);
+            return filtered[0];
+        }
+
+        // the filter whose result is closest to zero compresses best
+        byte[] best = null;
+        long bestSum = Long.MAX_VALUE;
+        for (final Filter candidate : Filter.values())
+        {
+            if (candidate != Filter.ADAPTIVE)
+            {
+                final byte[] result = filtered[candidate.ordinal()];
+                applyFilter(candidate, result);
+
+                long sum = 0;
+                for (int i = 1; i < result.length && sum < bestSum; i++)
+                {
+                    sum += Math.abs(result[i]);
+                }
+                if (sum < bestSum)
+                {
+                    bestSum = sum;
+                    best = result;
+                }
+            }
+        }
+
+        return best;
+    }
+
+    /**
+     * Applies the given filter to the current scanline
+     * @param type The filter
+     * @param result The filtered scanline with the filter type in front
+     */
+    private void applyFilter(final Filter type, final byte[] result)
+    {
+        result[0] = (byte) type.ordinal();
+        final int length = line.length;
+        switch (type)
+        {
+        case SUB:
+            System.arraycopy(line, 0, result, 1, Math.min(bpp, length));
+            for (int i = bpp; i < length; i++)
+            {
+                result[i + 1] = (byte) (line[i] - line[i - bpp]);
+            }
+            break;
+
+        case UP:
+            for (int i = 0; i < length; i++)
+            {
+                result[i + 1] = (byte) (line[i] - previousLine[i]);
+            }
+            break;
+
+        case AVERAGE:
+            for (int i = 0; i < length; i++)
+            {
+                final int left = i >= bpp ? line[i - bpp] & 0xFF : 0;
+                result[i + 1] = (byte) (line[i] - ((left + (previousLine[i] & 0xFF)) >> 1));
+            }
+            break;
+
+        case PAETH:
+            for (int i = 0; i < length; i++)
+            {
+                final int left = i >= bpp ? line[i - bpp] & 0xFF : 0;
+                final int upperLeft = i >= bpp ? previousLine[i - bpp] & 0xFF : 0;
+                result[i + 1] = (byte) (line[i] - paeth(left, previousLine[i] & 0xFF, upperLeft));
+            }
+            break;
+
+        default:
+            System.arraycopy(line, 0, result, 1, length);
+            break;
+        }
+    }
+
+    /**
+     * Predicts a byte from its left, upper and upper left neighbor
+     */
+    private static int paeth(final int a, final int b, final int c)
+    {
+        final int p = a + b - c;
+        final int pa = Math.abs(p - a);
+        final int pb = Math.abs(p - b);
+        final int pc = Math.abs(p - c);
+        if (pa <= pb && pa <= pc)
+        {
+            return a;
+        }
+
+        return pb <= pc ? b : c;
+    }
+
+    /**
+     * Writes a chunk with its length, type and checksum
+     */
+    private void writeChunk(final String type, final byte[] data, final int length) throws IOException
+    {
+        final byte[] typeBytes = type.getBytes("US-ASCII");
+        final CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data, 0, length);
+
+        out.writeInt(length);
+        out.write(typeBytes);
+        out.write(data, 0, length);
+        out.writeInt((int) crc.getValue());
+    }
+
+    private static void putInt(final byte[] data, final int offset, final int value)
+    {
+        data[offset] = (byte) (value >>> 24);
+        data[offset + 1] = (byte) (value >>> 16);
+        data[offset + 2] = (byte) (value >>> 8);
+        data[offset + 3] = (byte) value;
+    }
+
+    /**
+     * Splits the compressed pixel data into IDAT chunks
+     */
+    private class DataChunkStream extends OutputStream
+    {
+        private final byte[] buffer = new byte[CHUNK_SIZE];
+
+        private int size;
+
+        @Override
+        public void write(final int b) throws IOException
+        {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException
+        {
+            for (int written = 0; written < len;)
+            {
+                final int count = Math.min(len - written, buffer.length - size);
+                System.arraycopy(b, off + written, buffer, size, count);
+                size += count;
+                written += count;
+
+                if (size == buffer.length)
+                {
+                    flush();
+                }
+            }
+        }
+
+        @Override
+        public void flush() throws IOException
+        {
+            if (size > 0)
+            {
+                writeChunk("IDAT", buffer, size);
+                size = 0;
+            }
+        }
+    }
+
+    /**
+     * The colors of a palette image and their indices, a small open addressing hash table
+     */
+    private static class ColorTable
+    {
+        // twice the size of the largest palette keeps the probe sequences short
+        private final int[] keys = new int[MAX_PALETTE_SIZE * 2];
+
+        private final int[] indices = new int[MAX_PALETTE_SIZE * 2];
+
+        private final int[] colors = new int[MAX_PALETTE_SIZE];
+
+        private int size;
+
+        private int lastColor;
+
+        private int lastIndex;
+
+        ColorTable()
+        {
+            Arrays.fill(indices, -1);
+        }
+
+        static ColorTable of(final int[] palette)
+        {
+            final ColorTable table = new ColorTable();
+            for (final int color : palette)
+            {
+                if (table.add(color) < 0)
+                {
+                    throw new IllegalArgumentException("A palette has at most " + MAX_PALETTE_SIZE + " colors");
+                }
+            }
+
+            return table;
+        }
+
+        /**
+         * Adds the color if it is not in the table yet
+         * @return the index of the color, -1 if the table is full
+         */
+        int add(final int color)
+        {
+            // most pixels have the color of their left neighbor
+            if (size > 0 && color == lastColor)
+            {
+                return lastIndex;
+            }
+
+            int slot = slot(color);
+            while (indices[slot] >= 0)
+            {
+                if (keys[slot] == color)
+                {
+                    lastColor = color;
+                    lastIndex = indices[slot];
+                    return lastIndex;
+                }
+                slot = (slot + 1) & (keys.length - 1);
+            }
+
+            if (size == MAX_PALETTE_SIZE)
+            {
+                return -1;
+            }
+
+            keys[slot] = color;
+            indices[slot] = size;
+            colors[size] = color;
+            lastColor = color;
+            lastIndex = size;
+            return size++;
+        }
+
+        /**
+         * Returns the index of the color, -1 if it is not in the table
+         */
+        int indexOf(final int color)
+        {
+            if (size > 0 && color == lastColor)
+            {
+                return lastIndex;
+            }
+
+            int slot = slot(color);
+            while (indices[slot] >= 0)
+            {
+                if (keys[slot] == color)
+                {
+                    lastColor = color;
+                    lastIndex = indices[slot];
+                    return lastIndex;
+                }
+                slot = (slot + 1) & (keys.length - 1);
+            }
+
+            return -1;
+        }
+
+        int size()
+        {
+            return size;
+        }
+
+        int[] toArray()
+        {
+            return Arrays.copyOf(colors, size);
+        }
+
+        private int slot(final int color)
+        {
+            return (color * 0x9E3779B9 >>> 23) & (keys.length - 1);
+        }
+    }
+}
@@ -0,0 +1,318 @@
+package com.xceptance.xlt.visualassertion.util;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Encodes and decodes images in the "Quite OK Image" format (QOI). QOI is lossless like PNG and about as small for
+ * screenshots, but much faster to decode, since it needs neither inflating nor unfiltering. Each pixel is stored as a
+ * run of the previous pixel, an index into the 64 recently seen colors, a small difference to the previous pixel or the
+ * full color. See https://qoiformat.org/qoi-specification.pdf
+ */
+public class QoiCodec
+{
+    /**
+     * The magic bytes every QOI image starts with
+     */
+    protected final static int MAGIC = 'q' << 24 | 'o' << 16 | 'i' << 8 | 'f';
+
+    private final static int OP_INDEX = 0x00;
+
+    private final static int OP_DIFF = 0x40;
+
+    private final static int OP_LUMA = 0x80;
+
+    private final static int OP_RUN = 0xC0;
+
+    private final static int OP_RGB = 0xFE;
+
+    private final static int OP_RGBA = 0xFF;
+
+    private final static int MASK_2 = 0xC0;
+
+    private final static int MAX_RUN = 62;
+
+    private final static byte[] END_MARKER = { 0, 0, 0, 0, 0, 0, 0, 1 };
+
+    /**
+     * Encodes the given pixels, the stream is closed afterwards
+     * @param pixels The packed ARGB pixels, row after row
+     * @param width The width of the image
+     * @param height The height of the image
+     * @param alpha true to store the alpha channel, false for opaque images
+     * @param stream The stream the image is written to
+     * @throws IOException if the stream could not be written
+     */
+    public static void write(final int[] pixels, final int width, final int height, final boolean alpha,
+                             final OutputStream stream) throws IOException
+    {
+        try (final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, 64 * 1024)))
+        {
+            out.writeInt(MAGIC);
+            out.writeInt(width);
+            out.writeInt(height);
+            out.writeByte(alpha ? 4 : 3);
+            out.writeByte(0); // sRGB with linear alpha
+
+            final int[] index = new int[64];
+            final int opaque = alpha ? 0 : 0xFF000000;
+            int previous = 0xFF000000;
+            int run = 0;
+
+            for (int i = 0, end = width * height; i < end; i++)
+            {
+                final int pixel = pixels[i] | opaque;
+                if (pixel == previous)
+                {
+                    run++;
+                    if (run == MAX_RUN || i == end - 1)
+                    {
+                        out.writeByte(OP_RUN | (run - 1));
+                        run = 0;
+                    }
+                    continue;
+                }
+
+                if (run > 0)
+                {
+                    out.writeByte(OP_RUN | (run - 1));
+                    run = 0;
+                }
+
+                final int hash = hash(pixel);
+                if (index[hash] == pixel)
+                {
+                    out.writeByte(OP_INDEX | hash);
+                }
+                else
+                {
+                    index[hash] = pixel;
+
+                    if ((pixel >>> 24) == (previous >>> 24))
+                    {
+                        final int dr = (byte) ((pixel >> 16) - (previous >> 16));
+                        final int dg = (byte) ((pixel >> 8) - (previous >> 8));
+                        final int db = (byte) (pixel - previous);
+                        final int drDg = dr - dg;
+                        final int dbDg = db - dg;
+
+                        if (dr >= -2 && dr <= 1 && dg >= -2 && dg <= 1 && db >= -2 && db <= 1)
+                        {
+                            out.writeByte(OP_DIFF | (dr + 2) << 4 | (dg + 2) << 2 | (db + 2));
+                        }
+                        else if (drDg >= -8 && drDg <= 7 && dg >= -32 && dg <= 31 && dbDg >= -8 && dbDg <= 7)
+                        {
+                            out.writeByte(OP_LUMA | (dg + 32));
+                            out.writeByte((drDg + 8) << 4 | (dbDg + 8));
+                        }
+                        else
+                        {
+                            out.writeByte(OP_RGB);
+                            out.writeByte(pixel >> 16);
+                            out.writeByte(pixel >> 8);
+                            out.writeByte(pixel);
+                        }
+                    }
+                    else
+                    {
+                        out.writeByte(OP_RGBA);
+                        out.writeByte(pixel >> 16);
+                        out.writeByte(pixel >> 8);
+                        out.writeByte(pixel);
+                        out.writeByte(pixel >>> 24);
+                    }
+                }
+
+                previous = pixel;
+            }
+
+            out.write(END_MARKER);
+        }
+    }
+
+    /**
+     * Returns the position of a color in the index of recently seen colors
+     */
+    private static int hash(final int argb)
+    {
+        return ((argb >> 16 & 0xFF) * 3 + (argb >> 8 & 0xFF) * 5 + (argb & 0xFF) * 7 + (argb >>> 24) * 11) & 63;
+    }
+
+    /**
+     * Decodes the pixels of a QOI image one after the other, so an image can be read row by row
+     */
+    protected static class Decoder
+    {
+        private final InputStream in;
+
+        private final byte[] buffer = new byte[64 * 1024];
+
+        private int position;
+
+        private int limit;
+
+        private final int width;
+
+        private final int height;
+
+        private final boolean alpha;
+
+        private final int[] index = new int[64];
+
+        private int pixel = 0xFF000000;
+
+        private int run;
+
+        /**
+         * Reads the header of the image
+         * @param in The stream of the image, positioned at the start of the image
+         * @throws IOException if the stream is not a QOI image
+         */
+        protected Decoder(final InputStream in) throws IOException
+        {
+            this.in = in;
+            if (readInt() != MAGIC)
+            {
+                throw new IOException("Not a QOI image");
+            }
+
+            this.width = readInt();
+            this.height = readInt();
+            final int channels = next();
+            next(); // color space
+            this.alpha = channels == 4;
+
+            if (width < 0 || height < 0 || (channels != 3 && channels != 4))
+            {
+                throw new IOException("Invalid QOI header");
+            }
+        }
+
+        protected int getWidth()
+        {
+            return width;
+        }
+
+        protected int getHeight()
+        {
+            return height;
+        }
+
+        protected boolean hasAlpha()
+        {
+            return alpha;
+        }
+
+        /**
+         * Decodes the next pixels
+         * @param target The array the packed ARGB pixels are written to
+         * @param offset The index of the first pixel
+         * @param count The number of pixels to decode
+         * @throws IOException if the image data ends too early
+         */
+        protected void decode(final int[] target, final int offset, final int count) throws IOException
+        {
+            for (int i = offset, end = offset + count; i < end; i++)
+            {
+                if (run > 0)
+                {
+                    run--;
+                    target[i] = pixel;
+                    continue;
+                }
+
+                final int b1 = next();
+                if (b1 == OP_RGB)
+                {
+                    pixel = (pixel & 0xFF000000) | next() << 16 | next() << 8 | next();
+                }
+                else if (b1 == OP_RGBA)
+                {
+                    final int rgb = next() << 16 | next() << 8 | next();
+                    pixel = next() << 24 | rgb;
+                }
+                else
+                {
+                    switch (b1 & MASK_2)
+                    {
+                    case OP_INDEX:
+                        pixel = index[b1];
+                        break;
+
+                    case OP_DIFF:
+                        pixel = withChannels(((b1 >> 4) & 3) - 2, ((b1 >> 2) & 3) - 2, (b1 & 3) - 2);
+                        break;
+
+                    case OP_LUMA:
+                        final int b2 = next();
+                        final int dg = (b1 & 0x3F) - 32;
+                        pixel = withChannels(dg - 8 + (b2 >> 4), dg, dg - 8 + (b2 & 0x0F));
+                        break;
+
+                    default:
+                        run = b1 & 0x3F;
+                        break;
+                    }
+                }
+
+                index[hash(pixel)] = pixel;
+                target[i] = pixel;
+            }
+        }
+
+        /**
+         * Returns the next byte of the image
+         */
+        private int next() throws IOException
+        {
+            if (position == limit)
+            {
+                limit = in.read(buffer, 0, buffer.length);
+                position = 0;
+                if (limit <= 0)
+                {
+                    limit = 0;
+                    throw new EOFException("The image data ends too early");
+                }
+            }
+
+            return buffer[position++] & 0xFF;
+        }
+
+        private int readInt() throws IOException
+        {
+            return next() << 24 | next() << 16 | next() << 8 | next();
+        }
+
+        /**
+         * Adds the given differences to the channels of the current pixel, wrapping around like bytes
+         */
+        private int withChannels(final int dr, final int dg, final int db)
+        {
+            final int r = ((pixel >> 16) + dr) & 0xFF;
+            final int g = ((pixel >> 8) + dg) & 0xFF;
+            final int b = (pixel + db) & 0xFF;
+            return (pixel & 0xFF000000) | r << 16 | g << 8 | b;
+        }
+    }
+
+    /**
+     * Decodes a whole QOI image
+     * @param stream The stream of the image, which is not closed but might be read beyond the end of the image
+     * @return the image, which shares its pixels with the packed image of the comparison
+     * @throws IOException if the stream is not a QOI image
+     */
+    protected static BufferedImage read(final InputStream stream) throws IOException
+    {
+        final Decoder decoder = new Decoder(stream);
+        final int[] pixels = new int[decoder.getWidth() * decoder.getHeight()];
+        decoder.decode(pixels, 0, pixels.length);
+
+        return new PackedImage(pixels, decoder.getWidth(), decoder.getHeight()).toBufferedImage(decoder.hasAlpha());
+    }
+}
@@ -0,0 +1,179 @@
+package com.xceptance.xlt.visualassertion.util;
+
+import java.awt.image.BufferedImage;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Stores images as uncompressed packed ARGB ints, so that a reference image is read by mapping its file into memory and
+ * copying the pixels in bulk, without any decoding at all. The files are about four bytes per pixel, so this trades
+ * disk space for speed. The format is a 16 byte header, the magic bytes "XLTR", the width, the height and flags, which
+ * are followed by the pixels row after row. All values are little endian.
+ */
+public class RawCodec
+{
+    /**
+     * The magic bytes every raw image starts with, read as little endian int
+     */
+    protected final static int MAGIC = 'X' | 'L' << 8 | 'T' << 16 | 'R' << 24;
+
+    /**
+     * The number of bytes in front of the pixels
+     */
+    protected final static int HEADER_SIZE = 16;
+
+    private final static int FLAG_ALPHA = 1;
+
+    /**
+     * Writes the given pixels, the stream is closed afterwards
+     * @param pixels The packed ARGB pixels, row after row
+     * @param width The width of the image
+     * @param height The height of the image
+     * @param alpha true if the pixels might be transparent, false for opaque images
+     * @param stream The stream the image is written to
+     * @throws IOException if the stream could not be written
+     */
+    public static void write(final int[] pixels, final int width, final int height, final boolean alpha,
+                             final OutputStream stream) throws IOException
+    {
+        try (final OutputStream out = stream)
+        {
+            final ByteBuffer buffer = ByteBuffer.allocate(64 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(MAGIC).putInt(width).putInt(height).putInt(alpha ? FLAG_ALPHA : 0);
+
+            final int opaque = alpha ? 0 : 0xFF000000;
+            for (int i = 0, end = width * height; i < end; i++)
+            {
+                if (buffer.remaining() < 4)
+                {
+                    out.write(buffer.array(), 0, buffer.position());
+                    buffer.clear();
+                }
+                buffer.putInt(pixels[i] | opaque);
+            }
+            out.write(buffer.array(), 0, buffer.position());
+        }
+    }
+
+    /**
+     * Gives access to the pixels of a raw image, which are read in bulk from a mapped file or a byte array
+     */
+    protected static class Reader
+    {
+        private final int width;
+
+        private final int height;
+
+        private final boolean alpha;
+
+        private final IntBuffer pixels;
+
+        /**
+         * Maps the given file into memory and reads its header
+         * @param file The raw image file
+         * @throws IOException if the file could not be read or is not a raw image
+         */
+        protected Reader(final File file) throws IOException
+        {
+            // the mapping stays valid after the channel is closed
+            try (final RandomAccessFile in = new RandomAccessFile(file, "r"))
+            {
+                final FileChannel channel = in.getChannel();
+                final IntBuffer buffer = open(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+                this.width = buffer.get(1);
+                this.height = buffer.get(2);
+                this.alpha = (buffer.get(3) & FLAG_ALPHA) != 0;
+                buffer.position(HEADER_SIZE / 4);
+                this.pixels = buffer.slice();
+            }
+            checkSize();
+        }
+
+        /**
+         * Reads the header of the given raw image
+         * @param data The raw image
+         * @throws IOException if the data is not a raw image
+         */
+        protected Reader(final byte[] data) throws IOException
+        {
+            final IntBuffer buffer = open(ByteBuffer.wrap(data));
+            this.width = buffer.get(1);
+            this.height = buffer.get(2);
+            this.alpha = (buffer.get(3) & FLAG_ALPHA) != 0;
+            buffer.position(HEADER_SIZE / 4);
+            this.pixels = buffer.slice();
+            checkSize();
+        }
+
+        private static IntBuffer open(final ByteBuffer data) throws IOException
+        {
+            if (data.remaining() < HEADER_SIZE || data.order(ByteOrder.LITTLE_ENDIAN).getInt(0) != MAGIC)
+            {
+                throw new IOException("Not a raw image");
+            }
+
+            return data.asIntBuffer();
+        }
+
+        private void checkSize() throws IOException
+        {
+            if (width < 0 || height < 0 || (long) width * height > pixels.remaining())
+            {
+                throw new IOException("Invalid raw image of " + width + "x" + height + " pixels");
+            }
+        }
+
+        protected int getWidth()
+        {
+            return width;
+        }
+
+        protected int getHeight()
+        {
+            return height;
+        }
+
+        protected boolean hasAlpha()
+        {
+            return alpha;
+        }
+
+        /**
+         * Copies the next pixels
+         * @param target The array the packed ARGB pixels are written to
+         * @param offset The index of the first pixel
+         * @param count The number of pixels to copy
+         * @throws IOException if the image data ends too early
+         */
+        protected void decode(final int[] target, final int offset, final int count) throws IOException
+        {
+            if (count > pixels.remaining())
+            {
+                throw new EOFException("The image data ends too early");
+            }
+            pixels.get(target, offset, count);
+        }
+    }
+
+    /**
+     * Reads a whole raw image from its mapped file
+     * @param file The raw image file
+     * @return the image, which shares its pixels with the packed image of the comparison
+     * @throws IOException if the file could not be read or is not a raw image
+     */
+    protected static BufferedImage read(final File file) throws IOException
+    {
+        final Reader reader = new Reader(file);
+        final int[] pixels = new int[reader.getWidth() * reader.getHeight()];
+        reader.decode(pixels, 0, pixels.length);
+
+        return new PackedImage(pixels, reader.getWidth(), reader.getHeight()).toBufferedImage(reader.hasAlpha());
+    }
+}
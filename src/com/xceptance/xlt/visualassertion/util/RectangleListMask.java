@@ -0,0 +1,505 @@
+package com.xceptance.xlt.visualassertion.util;
+
+import java.awt.Rectangle;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Mask made of rectangles, as they are created by the training of masks. The rectangles are kept as horizontal bands
+ * of rows, each with the sorted list of masked spans that all rows of the band have in common. The span of a pixel is
+ * found with two binary searches, so the cost of a mask depends on the number of its rectangles, not on the number of
+ * its pixels.
+ * <p>
+ * Rectangles that are added are merged with the existing ones before the next query, so that the bands and the
+ * rectangles stay unique whatever their order. A mask that is read by several threads must not be changed. Masks are
+ * stored as plain text, which can be reviewed in diffs:
+ *
+ * <pre>
+ * # visual assertion mask: size width height, then one rectangle per line: x y width height
+ * size 1280 4000
+ * 10 20 100 30
+ * 200 20 50 30
+ * </pre>
+ */
+public class RectangleListMask implements Mask
+{
+    private final static int[] NO_SPANS = new int[0];
+
+    private final static Comparator<Rectangle> BY_TOP = new Comparator<Rectangle>()
+    {
+        @Override
+        public int compare(final Rectangle r1, final Rectangle r2)
+        {
+            return Integer.compare(r1.y, r2.y);
+        }
+    };
+
+    private final int width;
+
+    private final int height;
+
+    // rectangles that are not merged into the bands yet
+    private final List<Rectangle> added = new ArrayList<>();
+
+    // band i covers the rows [bandTops[i], bandTops[i + 1]), the last entry is the height of the mask
+    private int[] bandTops;
+
+    // the masked spans of each band as sorted pairs of start (inclusive) and end (exclusive)
+    private int[][] bandSpans;
+
+    /**
+     * Creates a mask of the given size without any masked pixel
+     * @param width The width of the mask
+     * @param height The height of the mask
+     */
+    public RectangleListMask(final int width, final int height)
+    {
+        this.width = width;
+        this.height = height;
+        this.bandTops = new int[] { 0, height };
+        this.bandSpans = new int[][] { NO_SPANS };
+    }
+
+    /**
+     * Creates a mask of rectangles that masks the same pixels as the given mask. The rows are scanned span by span,
+     * neighboring rows with the same spans become one band.
+     *
+     * @param mask The mask
+     * @return the mask of rectangles
+     */
+    public static RectangleListMask fromMask(final Mask mask)
+    {
+        final RectangleListMask rectangles = new RectangleListMask(mask.getWidth(), mask.getHeight());
+
+        final List<Integer> tops = new ArrayList<>();
+        final List<int[]> spans = new ArrayList<>();
+        int[] previous = null;
+        for (int y = 0; y < mask.getHeight(); y++)
+        {
+            final int[] row = getSpans(mask, y);
+            if (!Arrays.equals(row, previous))
+            {
+                tops.add(y);
+                spans.add(row);
+                previous = row;
+            }
+        }
+
+        rectangles.setBands(tops, spans);
+        return rectangles;
+    }
+
+    /**
+     * Returns the width of the mask
+     * @return width in pixels
+     */
+    @Override
+    public int getWidth()
+    {
+        return width;
+    }
+
+    /**
+     * Returns the height of the mask
+     * @return height in pixels
+     */
+    @Override
+    public int getHeight()
+    {
+        return height;
+    }
+
+    /**
+     * Checks whether a pixel is masked
+     * @param x The x coordinate of the pixel
+     * @param y The y coordinate of the pixel
+     * @return true if the pixel is covered by a rectangle
+     */
+    @Override
+    public boolean get(final int x, final int y)
+    {
+        return nextSet(x, y) == x;
+    }
+
+    /**
+     * Returns the x coordinate of the next masked pixel in the given row, starting at fromX
+     * @param fromX The x coordinate to start the search at (inclusive)
+     * @param y The row to search in
+     * @return the x coordinate of the next masked pixel or the width of the mask if there is none
+     */
+    @Override
+    public int nextSet(final int fromX, final int y)
+    {
+        if (fromX >= width)
+        {
+            return width;
+        }
+
+        final int[] spans = getBandSpans(y);
+        final int span = findSpan(spans, fromX);
+
+        return span < spans.length ? Math.max(fromX, spans[span]) : width;
+    }
+
+    /**
+     * Returns the x coordinate of the next pixel in the given row, starting at fromX, that is not masked
+     * @param fromX The x coordinate to start the search at (inclusive)
+     * @param y The row to search in
+     * @return the x coordinate of the next pixel that is not masked or the width of the mask if there is none
+     */
+    @Override
+    public int nextClear(final int fromX, final int y)
+    {
+        if (fromX >= width)
+        {
+            return width;
+        }
+
+        final int[] spans = getBandSpans(y);
+        final int span = findSpan(spans, fromX);
+        if (span < spans.length && spans[span] <= fromX)
+        {
+            // the spans are merged, so the end of a span is never masked
+            return spans[span + 1];
+        }
+
+        return fromX;
+    }
+
+    /**
+     * Masks all pixels of a rectangle, the rectangle is clipped to the mask
+     * @param x The x coordinate of the upper left corner
+     * @param y The y coordinate of the upper left corner
+     * @param rectWidth The width of the rectangle
+     * @param rectHeight The height of the rectangle
+     */
+    @Override
+    public void fill(final int x, final int y, final int rectWidth, final int rectHeight)
+    {
+        final Rectangle rectangle = new Rectangle(width, height).intersection(new Rectangle(x, y, rectWidth, rectHeight));
+        if (!rectangle.isEmpty())
+        {
+            added.add(rectangle);
+        }
+    }
+
+    /**
+     * Creates a copy of the mask
+     * @return the copy
+     */
+    @Override
+    public RectangleListMask copy()
+    {
+        merge();
+
+        final RectangleListMask copy = new RectangleListMask(width, height);
+        copy.bandTops = bandTops;
+        copy.bandSpans = bandSpans;
+        return copy;
+    }
+
+    /**
+     * Returns the rectangles of the mask, sorted by their top and left edge. Rectangles of neighboring rows with the
+     * same spans are joined, so the list is the same for every set of rectangles that masks the same pixels.
+     *
+     * @return the rectangles
+     */
+    public List<Rectangle> getRectangles()
+    {
+        merge();
+        return getRectangles(bandTops, bandSpans);
+    }
+
+    /**
+     * Reads a mask from a file in the text format of rectangle masks
+     *
+     * @param file The mask file
+     * @return the mask
+     * @throws IOException if the file could not be read or is not a mask file
+     */
+    public static RectangleListMask read(final File file) throws IOException
+    {
+        RectangleListMask mask = null;
+        try (final BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8))
+        {
+            String line;
+            while ((line = reader.readLine()) != null)
+            {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#"))
+                {
+                    continue;
+                }
+
+                final String[] values = line.split("\\s+");
+                if (mask == null && values.length == 3 && values[0].equals("size"))
+                {
+                    mask = new RectangleListMask(Integer.parseInt(values[1]), Integer.parseInt(values[2]));
+                }
+                else if (mask != null && values.length == 4)
+                {
+                    mask.fill(Integer.parseInt(values[0]), Integer.parseInt(values[1]), Integer.parseInt(values[2]),
+                              Integer.parseInt(values[3]));
+                }
+                else
+                {
+                    throw new IOException("Invalid line in mask file " + file + ": " + line);
+                }
+            }
+        }
+        catch (final NumberFormatException e)
+        {
+            throw new IOException("Invalid number in mask file " + file, e);
+        }
+
+        if (mask == null)
+        {
+            throw new IOException("Not a mask file: " + file);
+        }
+
+        mask.merge();
+        return mask;
+    }
+
+    /**
+     * Writes the mask to a file in the text format of rectangle masks
+     * @param file The mask file
+     * @throws IOException if the file could not be written
+     */
+    @Override
+    public void write(final File file) throws IOException
+    {
+        final StringBuilder content = new StringBuilder();
+        content.append("# visual assertion mask: size width height, then one rectangle per line: x y width height\n");
+        content.append("size ").append(width).append(' ').append(height).append('\n');
+        for (final Rectangle rectangle : getRectangles())
+        {
+            content.append(rectangle.x).append(' ').append(rectangle.y).append(' ').append(rectangle.width).append(' ')
+                   .append(rectangle.height).append('\n');
+        }
+
+        Files.write(file.toPath(), content.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Returns the masked spans of the band that holds the given row
+     */
+    private int[] getBandSpans(final int y)
+    {
+        merge();
+
+        if (y < 0 || y >= height)
+        {
+            return NO_SPANS;
+        }
+
+        // the last band whose top is not below the row
+        int band = Arrays.binarySearch(bandTops, 0, bandTops.length - 1, y);
+        if (band < 0)
+        {
+            band = -band - 2;
+        }
+
+        return bandSpans[band];
+    }
+
+    /**
+     * Returns the index of the first span that ends behind the given x coordinate, the length of the spans if there
+     * is none
+     */
+    private static int findSpan(final int[] spans, final int x)
+    {
+        int low = 0;
+        int high = spans.length / 2;
+        while (low < high)
+        {
+            final int mid = (low + high) >>> 1;
+            if (spans[2 * mid + 1] <= x)
+            {
+                low = mid + 1;
+            }
+            else
+            {
+                high = mid;
+            }
+        }
+
+        return 2 * low;
+    }
+
+    /**
+     * Returns the masked spans of a row of the given mask
+     */
+    private static int[] getSpans(final Mask mask, final int y)
+    {
+        final List<Integer> spans = new ArrayList<>();
+        int from = mask.nextSet(0, y);
+        while (from < mask.getWidth())
+        {
+            final int to = mask.nextClear(from, y);
+            spans.add(from);
+            spans.add(to);
+            from = mask.nextSet(to, y);
+        }
+
+        return toArray(spans);
+    }
+
+    /**
+     * Merges the added rectangles into the bands. The rows are swept from top to bottom, at every top and bottom edge
+     * of a rectangle a new band starts with the merged spans of all rectangles that cover it.
+     */
+    private void merge()
+    {
+        if (added.isEmpty())
+        {
+            return;
+        }
+
+        final List<Rectangle> rectangles = getRectangles(bandTops, bandSpans);
+        rectangles.addAll(added);
+        added.clear();
+        Collections.sort(rectangles, BY_TOP);
+
+        // all rows at which a band might start
+        final int[] edges = new int[2 * rectangles.size() + 2];
+        int edgeCount = 0;
+        edges[edgeCount++] = 0;
+        edges[edgeCount++] = height;
+        for (final Rectangle rectangle : rectangles)
+        {
+            edges[edgeCount++] = rectangle.y;
+            edges[edgeCount++] = rectangle.y + rectangle.height;
+        }
+        Arrays.sort(edges, 0, edgeCount);
+
+        final List<Integer> tops = new ArrayList<>();
+        final List<int[]> spans = new ArrayList<>();
+        final List<Rectangle> active = new ArrayList<>();
+        int next = 0;
+        int[] previous = null;
+
+        for (int i = 0; i < edgeCount; i++)
+        {
+            final int top = edges[i];
+            if (top >= height || (i > 0 && top == edges[i - 1]))
+            {
+                continue;
+            }
+
+            // the rectangles that cover the rows from top on
+            for (int r = active.size() - 1; r >= 0; r--)
+            {
+                if (active.get(r).y + active.get(r).height <= top)
+                {
+                    active.remove(r);
+                }
+            }
+            while (next < rectangles.size() && rectangles.get(next).y <= top)
+            {
+                active.add(rectangles.get(next++));
+            }
+
+            final int[] band = mergeSpans(active);
+            if (!Arrays.equals(band, previous))
+            {
+                tops.add(top);
+                spans.add(band);
+                previous = band;
+            }
+        }
+
+        setBands(tops, spans);
+    }
+
+    /**
+     * Returns the sorted and merged horizontal spans of the given rectangles
+     */
+    private static int[] mergeSpans(final List<Rectangle> rectangles)
+    {
+        final List<Rectangle> sorted = new ArrayList<>(rectangles);
+        Collections.sort(sorted, new Comparator<Rectangle>()
+        {
+            @Override
+            public int compare(final Rectangle r1, final Rectangle r2)
+            {
+                return Integer.compare(r1.x, r2.x);
+            }
+        });
+
+        final List<Integer> spans = new ArrayList<>();
+        for (final Rectangle rectangle : sorted)
+        {
+            final int last = spans.size() - 1;
+            if (last > 0 && rectangle.x <= spans.get(last))
+            {
+                // overlapping or touching, extend the last span
+                spans.set(last, Math.max(spans.get(last), rectangle.x + rectangle.width));
+            }
+            else
+            {
+                spans.add(rectangle.x);
+                spans.add(rectangle.x + rectangle.width);
+            }
+        }
+
+        return toArray(spans);
+    }
+
+    /**
+     * Returns the rectangles of the given bands
+     */
+    private static List<Rectangle> getRectangles(final int[] tops, final int[][] spans)
+    {
+        final List<Rectangle> rectangles = new ArrayList<>();
+        for (int band = 0; band < spans.length; band++)
+        {
+            for (int i = 0; i < spans[band].length; i += 2)
+            {
+                rectangles.add(new Rectangle(spans[band][i], tops[band], spans[band][i + 1] - spans[band][i],
+                                             tops[band + 1] - tops[band]));
+            }
+        }
+
+        return rectangles;
+    }
+
+    /**
+     * Sets the bands, the tops have to start at 0 and have to be sorted
+     */
+    private void setBands(final List<Integer> tops, final List<int[]> spans)
+    {
+        if (tops.isEmpty())
+        {
+            tops.add(0);
+            spans.add(NO_SPANS);
+        }
+
+        bandTops = new int[tops.size() + 1];
+        for (int i = 0; i < tops.size(); i++)
+        {
+            bandTops[i] = tops.get(i);
+        }
+        bandTops[tops.size()] = height;
+        bandSpans = spans.toArray(new int[spans.size()][]);
+    }
+
+    private static int[] toArray(final List<Integer> values)
+    {
+        final int[] array = new int[values.size()];
+        for (int i = 0; i < array.length; i++)
+        {
+            array[i] = values.get(i);
+        }
+
+        return array;
+    }
+}
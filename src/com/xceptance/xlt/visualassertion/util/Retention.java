@@ -0,0 +1,52 @@
+package com.xceptance.xlt.visualassertion.util;
+
+import java.util.Random;
+
+/**
+ * Which screenshots are kept in the results. The screenshots of failed assertions are always kept, the retention only
+ * decides about the screenshots of passed assertions, which are the vast majority in a long load test.
+ */
+public enum Retention
+{
+    /**
+     * Every screenshot is kept
+     */
+    ALWAYS,
+
+    /**
+     * Only the screenshots of failed assertions are kept
+     */
+    FAILURES,
+
+    /**
+     * The screenshots of failed assertions and a random fraction of the passed ones are kept
+     */
+    SAMPLED;
+
+    /**
+     * Decides whether the screenshot of an assertion is kept
+     * @param passed Whether the assertion passed
+     * @param sampleRate The fraction of the screenshots of passed assertions that are kept with {@link #SAMPLED} [0-1]
+     * @param random The source of the sampling
+     * @return true if the screenshot is kept
+     */
+    public boolean keep(final boolean passed, final double sampleRate, final Random random)
+    {
+        if (!passed)
+        {
+            return true;
+        }
+
+        switch (this)
+        {
+        case FAILURES:
+            return false;
+
+        case SAMPLED:
+            return random.nextDouble() < sampleRate;
+
+        default:
+            return true;
+        }
+    }
+}
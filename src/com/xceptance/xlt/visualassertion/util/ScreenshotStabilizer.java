@@ -0,0 +1,120 @@
+package com.xceptance.xlt.visualassertion.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import org.openqa.selenium.OutputType;
+import org.openqa.selenium.TakesScreenshot;
+
+/**
+ * Waits until the page is stable instead of a fixed time. Screenshots are taken at short intervals, and as soon as two
+ * consecutive screenshots are the same the page is considered stable and the last screenshot is returned. The
+ * screenshots are compared by a CRC32 of their encoded bytes, so they are never decoded. If the page does not settle
+ * within the maximum waiting time, the last screenshot is returned anyway.
+ */
+public class ScreenshotStabilizer
+{
+    private final long interval;
+
+    private final long maxWait;
+
+    private int screenshots;
+
+    private boolean stable;
+
+    private long waitingTime;
+
+    /**
+     * Creates a stabilizer
+     * @param interval The time between two screenshots in milliseconds
+     * @param maxWait The maximum time to wait for the page to become stable in milliseconds
+     */
+    public ScreenshotStabilizer(final long interval, final long maxWait)
+    {
+        this.interval = interval;
+        this.maxWait = maxWait;
+    }
+
+    /**
+     * Takes screenshots until two consecutive ones are the same or the maximum waiting time is over
+     * @param driver The web driver that takes the screenshots
+     * @return the PNG encoded last screenshot
+     * @throws InterruptedException if the thread was interrupted while waiting for the next screenshot
+     */
+    public byte[] takeScreenshot(final TakesScreenshot driver) throws InterruptedException
+    {
+        final long start = System.nanoTime();
+        screenshots = 0;
+        stable = false;
+
+        byte[] screenshot = take(driver);
+        long hash = hash(screenshot);
+        try
+        {
+            while (true)
+            {
+                final long remaining = maxWait - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                if (remaining <= 0)
+                {
+                    return screenshot;
+                }
+                TimeUnit.MILLISECONDS.sleep(Math.min(interval, remaining));
+
+                final byte[] next = take(driver);
+                final long nextHash = hash(next);
+                stable = next.length == screenshot.length && nextHash == hash;
+                screenshot = next;
+                hash = nextHash;
+
+                if (stable)
+                {
+                    return screenshot;
+                }
+            }
+        }
+        finally
+        {
+            waitingTime = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Returns the number of screenshots taken by the last call of {@link #takeScreenshot(TakesScreenshot)}
+     * @return the number of screenshots
+     */
+    public int getScreenshots()
+    {
+        return screenshots;
+    }
+
+    /**
+     * Returns whether the page became stable during the last call of {@link #takeScreenshot(TakesScreenshot)}
+     * @return true if the last two screenshots were the same, false if the maximum waiting time was over
+     */
+    public boolean isStable()
+    {
+        return stable;
+    }
+
+    /**
+     * Returns the time the last call of {@link #takeScreenshot(TakesScreenshot)} took including all screenshots
+     * @return the waiting time in milliseconds
+     */
+    public long getWaitingTime()
+    {
+        return waitingTime;
+    }
+
+    private byte[] take(final TakesScreenshot driver)
+    {
+        screenshots++;
+        return driver.getScreenshotAs(OutputType.BYTES);
+    }
+
+    private static long hash(final byte[] data)
+    {
+        final CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length);
+        return crc.getValue();
+    }
+}
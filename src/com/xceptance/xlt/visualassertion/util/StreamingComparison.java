@@ -0,0 +1,572 @@
+package com.xceptance.xlt.visualassertion.util;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import com.xceptance.xlt.visualassertion.algorithm.ComparisonAlgorithm;
+import com.xceptance.xlt.visualassertion.algorithm.ComparisonType;
+
+/**
+ * Comparison of very tall images, such as screenshots of whole pages, that never holds the decoded images as a whole.
+ * The reference image and the compared image are decoded band by band with a {@link PngRowReader}, each band is
+ * compared with the same algorithms as in {@link ImageComparison} and its differences are added to the result before
+ * the next band is decoded. The memory for the pixels is proportional to the height of the bands, not to the height
+ * of the images.
+ * <p>
+ * The bands are laid out so that the result is the same as if the images were compared at once. For the fuzzy
+ * algorithm the bands are a multiple of the block size, for the sliding fuzzy algorithm each band is compared with
+ * the rows above and below it that its windows reach into. The differences are kept in a {@link DifferenceMap}, which
+ * only takes memory for the rows that have differences. The tiles are not pre-screened, because their signatures need
+ * the whole image.
+ * <p>
+ * The marked image and the difference image are written band by band as well, the images are decoded once more for
+ * them.
+ */
+public class StreamingComparison
+{
+    /**
+     * The default number of rows per band
+     */
+    public final static int BAND_HEIGHT = 512;
+
+    // the opaque grey levels of the difference image, so it is written as palette image
+    private final static int[] GREY_PALETTE = new int[256];
+    static
+    {
+        for (int i = 0; i < GREY_PALETTE.length; i++)
+        {
+            GREY_PALETTE[i] = 0xFF000000 | i << 16 | i << 8 | i;
+        }
+    }
+
+    private final File reference;
+
+    private final int referenceWidth;
+
+    private final int referenceHeight;
+
+    private int bandHeight = BAND_HEIGHT;
+
+    private boolean failFast = false;
+
+    private int maxDifferences = 0;
+
+    private double maxDifferencesPercentage = -1;
+
+    private byte[] lastCompareImage;
+
+    private DifferenceMap lastDifferences;
+
+    private boolean resized = false;
+
+    /**
+     * Creates a new streaming comparison that uses the given reference image, only the header of the image is read
+     * @param reference The file of the reference image for all comparison functions
+     * @throws IOException if the reference image could not be read
+     */
+    public StreamingComparison(final File reference) throws IOException
+    {
+        this.reference = reference;
+
+        try (final PngRowReader reader = new PngRowReader(reference))
+        {
+            this.referenceWidth = reader.getWidth();
+            this.referenceHeight = reader.getHeight();
+        }
+    }
+
+    /**
+     * Returns the width of the reference image
+     * @return width in pixels
+     */
+    public int getReferenceWidth()
+    {
+        return referenceWidth;
+    }
+
+    /**
+     * Returns the height of the reference image
+     * @return height in pixels
+     */
+    public int getReferenceHeight()
+    {
+        return referenceHeight;
+    }
+
+    /**
+     * Sets the number of rows that are decoded and compared at once. The default is {@link #BAND_HEIGHT}.
+     * @param bandHeight The number of rows per band
+     */
+    public void setBandHeight(final int bandHeight)
+    {
+        this.bandHeight = Math.max(1, bandHeight);
+    }
+
+    /**
+     * Sets whether the comparison stops as soon as the result is known, i.e. as soon as more differences than
+     * allowed were found. The remaining bands are not decoded at all then.
+     * @param failFast true to stop at the first disqualifying difference, false to find all differences
+     */
+    public void setFailFast(final boolean failFast)
+    {
+        this.failFast = failFast;
+    }
+
+    /**
+     * Sets the number of differences that are allowed in the whole image, after the algorithm has been applied.
+     * The default is 0, so any difference makes the images unequal.
+     * @param maxDifferences The number of different pixels that are tolerated
+     */
+    public void setMaxDifferences(final int maxDifferences)
+    {
+        this.maxDifferences = maxDifferences;
+        this.maxDifferencesPercentage = -1;
+    }
+
+    /**
+     * Sets the number of differences that are allowed in the whole image as percentage of the compared pixels.
+     * @param percentage The percentage of different pixels that is tolerated [0-100]
+     */
+    public void setMaxDifferencesPercentage(final double percentage)
+    {
+        this.maxDifferencesPercentage = percentage;
+    }
+
+    /**
+     * Checks whether two images can be considered equal as determined by the given algorithm. The images are
+     * compared band by band.
+     * @param compareImage The encoded image that is compared to the reference image
+     * @param mask The mask that sets the dynamic content areas, which are ignored in the comparison, null to compare
+     *             all pixels
+     * @param algorithm The algorithm with which the assertion is calculated
+     * @return true if the two images are calculated as equal, false if not
+     * @throws IOException if one of the images could not be decoded
+     */
+    public boolean isEqual(final byte[] compareImage, final Mask mask, final ComparisonAlgorithm algorithm)
+        throws IOException
+    {
+        try (final PngRowReader referenceRows = new PngRowReader(reference);
+             final PngRowReader compareRows = new PngRowReader(compareImage))
+        {
+            final int width = Math.max(referenceRows.getWidth(), compareRows.getWidth());
+            final int height = Math.max(referenceRows.getHeight(), compareRows.getHeight());
+
+            lastCompareImage = compareImage;
+            lastDifferences = new DifferenceMap(width, height);
+            resized = referenceRows.getWidth() != compareRows.getWidth()
+                      || referenceRows.getHeight() != compareRows.getHeight();
+
+            // the number of differences that are tolerated, in fail fast mode the comparison stops right after it
+            final int allowedDifferences = getAllowedDifferences(width * height);
+
+            // bands must not cut through a block, the windows of the sliding fuzzy algorithm reach into the next bands
+            final int rows = algorithm.getType() == ComparisonType.PIXELFUZZY
+                             ? roundUp(bandHeight, algorithm.getFuzzyBlockSize()) : bandHeight;
+            final int halo = algorithm.getType() == ComparisonType.SLIDINGFUZZY ? algorithm.getFuzzyBlockSize() / 2 : 0;
+
+            final Band referenceBand = new Band(referenceRows, width);
+            final Band compareBand = new Band(compareRows, width);
+
+            for (int top = 0; top < height; top += rows)
+            {
+                if (failFast && lastDifferences.size() > allowedDifferences)
+                {
+                    break;
+                }
+
+                final int bottom = Math.min(height, top + rows);
+                final int fromY = Math.max(0, top - halo);
+                final int toY = Math.min(height, bottom + halo);
+
+                final ImagePair images = new ImagePair(referenceBand.moveTo(fromY, toY), compareBand.moveTo(fromY, toY),
+                                                       mask == null ? null : new BandMask(mask, fromY));
+
+                // the rows of the halo are compared in two bands, so the limit can only be checked between the bands
+                final int limit = failFast && halo == 0 ? allowedDifferences - lastDifferences.size() : Integer.MAX_VALUE;
+                final DifferenceMap bandDifferences = compare(images, algorithm, limit);
+
+                for (int y = top; y < bottom; y++)
+                {
+                    for (int x = bandDifferences.nextDifference(0, y - fromY); x >= 0;
+                         x = bandDifferences.nextDifference(x + 1, y - fromY))
+                    {
+                        lastDifferences.add(x, y);
+                    }
+                }
+            }
+
+            return lastDifferences.size() <= allowedDifferences;
+        }
+    }
+
+    /**
+     * Returns the differences found by the last comparison
+     * @return the differences, null if nothing was compared yet
+     */
+    public DifferenceMap getDifferences()
+    {
+        return lastDifferences;
+    }
+
+    /**
+     * Writes a copy of the last compared image in which the found differences are highlighted in a different color
+     * scheme, see {@link ImageComparison#getMarkedImageWithAMarker(int, int)}
+     * @param file The file the PNG image is written to
+     * @param markingSizeX The size of the marking on the x axis
+     * @param markingSizeY The size of the marking of the y axis
+     * @throws IOException if the image could not be written
+     */
+    public void writeMarkedImageWithAMarker(final File file, final int markingSizeX, final int markingSizeY)
+        throws IOException
+    {
+        writeMarkedImage(file, true, markingSizeX, markingSizeY);
+    }
+
+    /**
+     * Writes a copy of the last compared image in which the found differences are marked with red boxes, see
+     * {@link ImageComparison#getMarkedImageWithBoxes(int, int)}
+     * @param file The file the PNG image is written to
+     * @param markingSizeX The size of the marking on the x axis
+     * @param markingSizeY The size of the marking of the y axis
+     * @throws IOException if the image could not be written
+     */
+    public void writeMarkedImageWithBoxes(final File file, final int markingSizeX, final int markingSizeY)
+        throws IOException
+    {
+        writeMarkedImage(file, false, markingSizeX, markingSizeY);
+    }
+
+    /**
+     * Writes an image in which only the found differences are displayed on a black background, see
+     * {@link ImageComparison#getDifferenceImage()}
+     * @param file The file the PNG image is written to
+     * @return true if the image was written, false if there are no differences
+     * @throws IOException if the image could not be written
+     */
+    public boolean writeDifferenceImage(final File file) throws IOException
+    {
+        if (lastDifferences.isEmpty())
+        {
+            return false;
+        }
+
+        final int width = lastDifferences.getWidth();
+        final int height = lastDifferences.getHeight();
+
+        try (final PngRowReader referenceRows = new PngRowReader(reference);
+             final PngRowReader compareRows = new PngRowReader(lastCompareImage);
+             final PngRowWriter writer = resized ? new PngRowWriter(file, width, height, true)
+                                                 : new PngRowWriter(file, width, height, GREY_PALETTE))
+        {
+            // the borders are drawn on an image of the type of the padded reference image, like in ImageComparison
+            final boolean alpha = referenceRows.hasAlpha() || referenceRows.getWidth() != width
+                                  || referenceRows.getHeight() != height;
+
+            final Band referenceBand = new Band(referenceRows, width);
+            final Band compareBand = new Band(compareRows, width);
+
+            for (int top = 0; top < height; top += bandHeight)
+            {
+                final int bottom = Math.min(height, top + bandHeight);
+                final PackedImage referencePixels = referenceBand.moveTo(top, bottom);
+                final PackedImage comparePixels = compareBand.moveTo(top, bottom);
+
+                // mark differences in greyscale
+                final int[] difference = new int[width * (bottom - top)];
+                Arrays.fill(difference, 0xFF000000);
+                for (int y = top; y < bottom; y++)
+                {
+                    for (int x = lastDifferences.nextDifference(0, y); x >= 0; x = lastDifferences.nextDifference(x + 1, y))
+                    {
+                        final int diffColor = ImageHelper.calculateGreyLevel(ImageHelper.calculatePixelRGBDistance(referencePixels.getRGB(x, y - top),
+                                                                                                                    comparePixels.getRGB(x, y - top)));
+                        difference[(y - top) * width + x] = 0xFF000000 | diffColor << 16 | diffColor << 8 | diffColor;
+                    }
+                }
+
+                // draw borders on the differences if compared images differed in size
+                if (resized)
+                {
+                    ImageHelper.markImageBorders(toImage(difference, width, bottom - top, alpha), 0, 0)
+                               .getRGB(0, 0, width, bottom - top, difference, 0, width);
+                }
+
+                writer.writeRows(difference, 0, width, bottom - top);
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Reads a mask image row by row into a binary mask, black pixels are masked
+     * @param maskImage The file of the mask image
+     * @return the mask
+     * @throws IOException if the mask image could not be read
+     */
+    public static BinaryMask readMask(final File maskImage) throws IOException
+    {
+        try (final PngRowReader reader = new PngRowReader(maskImage))
+        {
+            final int width = reader.getWidth();
+            final BinaryMask mask = new BinaryMask(width, reader.getHeight());
+            final int black = ImageHelper.BLACK.getRGB();
+            final int[] row = new int[width];
+
+            for (int y = 0; y < reader.getHeight(); y++)
+            {
+                reader.readRows(row, 0, width, 1);
+                for (int x = 0; x < width; x++)
+                {
+                    if (row[x] == black)
+                    {
+                        final int from = x;
+                        while (x < width && row[x] == black)
+                        {
+                            x++;
+                        }
+                        mask.set(from, x, y);
+                    }
+                }
+            }
+
+            return mask;
+        }
+    }
+
+    /**
+     * Writes the image of a mask row by row, masked pixels are black, all other pixels are transparent white
+     * @param mask The mask
+     * @param maskImage The file the PNG image is written to
+     * @throws IOException if the mask image could not be written
+     */
+    public static void writeMask(final Mask mask, final File maskImage) throws IOException
+    {
+        final int width = mask.getWidth();
+        final int black = ImageHelper.BLACK.getRGB();
+        final int transparent = ImageHelper.WHITE_TRANSPARENT.getRGB();
+        final int[] row = new int[width];
+
+        // a palette of the two colors, so the image is written with one bit per pixel
+        try (final PngRowWriter writer = new PngRowWriter(maskImage, width, mask.getHeight(), new int[] { black, transparent }))
+        {
+            for (int y = 0; y < mask.getHeight(); y++)
+            {
+                Arrays.fill(row, transparent);
+
+                int from = mask.nextSet(0, y);
+                while (from < width)
+                {
+                    final int to = mask.nextClear(from, y);
+                    Arrays.fill(row, from, to, black);
+                    from = mask.nextSet(to, y);
+                }
+
+                writer.writeRows(row, 0, width, 1);
+            }
+        }
+    }
+
+    /**
+     * Writes the marked image band by band. The bands of the boxes are aligned to the boxes, the bands of the marker
+     * are marked along with the rows above and below them that the markers of their differences reach into.
+     */
+    private void writeMarkedImage(final File file, final boolean marker, final int markingSizeX, final int markingSizeY)
+        throws IOException
+    {
+        final int width = lastDifferences.getWidth();
+        final int height = lastDifferences.getHeight();
+
+        final int rows = marker ? bandHeight : roundUp(bandHeight, markingSizeY);
+        final int halo = marker ? markingSizeY : 0;
+
+        try (final PngRowReader compareRows = new PngRowReader(lastCompareImage);
+             final PngRowWriter writer = new PngRowWriter(file, width, height, resized || compareRows.hasAlpha()))
+        {
+            final Band compareBand = new Band(compareRows, width);
+
+            for (int top = 0; top < height; top += rows)
+            {
+                final int bottom = Math.min(height, top + rows);
+                final int fromY = Math.max(0, top - halo);
+                final int toY = Math.min(height, bottom + halo);
+
+                // the differences of the band, relative to its first row
+                final DifferenceMap bandDifferences = new DifferenceMap(width, toY - fromY);
+                for (int y = fromY; y < toY; y++)
+                {
+                    for (int x = lastDifferences.nextDifference(0, y); x >= 0; x = lastDifferences.nextDifference(x + 1, y))
+                    {
+                        bandDifferences.add(x, y - fromY);
+                    }
+                }
+
+                final BufferedImage image = toImage(compareBand.moveTo(fromY, toY).getPixels(), width, toY - fromY, true);
+                final BufferedImage marked = marker
+                    ? ImageHelper.markDifferencesWithAMarker(image, bandDifferences, markingSizeX, markingSizeY)
+                    : ImageHelper.markDifferencesWithBoxes(image, bandDifferences, markingSizeX, markingSizeY);
+
+                final int[] pixels = marked.getRGB(0, top - fromY, width, bottom - top, null, 0, width);
+                writer.writeRows(pixels, 0, width, bottom - top);
+            }
+        }
+    }
+
+    /**
+     * Compares a band with the kernel of the given algorithm
+     */
+    private static DifferenceMap compare(final ImagePair images, final ComparisonAlgorithm algorithm, final int limit)
+    {
+        switch (algorithm.getType())
+        {
+        case COLORFUZZY:
+            return ImageHelper.colorFuzzyCompare(images, algorithm.getColorTolerance(), limit);
+
+        case PIXELFUZZY:
+            return ImageHelper.fuzzyCompare(images, algorithm.getColorTolerance(), algorithm.getPixelTolerance(),
+                                            algorithm.getFuzzyBlockSize(), limit);
+
+        case SLIDINGFUZZY:
+            return ImageHelper.slidingFuzzyCompare(images, algorithm.getColorTolerance(),
+                                                   algorithm.getPixelTolerance(), algorithm.getFuzzyBlockSize(), limit);
+
+        default:
+            return ImageHelper.compareImages(images, limit);
+        }
+    }
+
+    /**
+     * Calculates the number of differences that are tolerated for an image with the given number of pixels
+     * @param pixelCount The number of compared pixels
+     * @return the number of tolerated differences
+     */
+    private int getAllowedDifferences(final int pixelCount)
+    {
+        if (maxDifferencesPercentage >= 0)
+        {
+            return (int) Math.floor(pixelCount * maxDifferencesPercentage / 100);
+        }
+
+        return maxDifferences;
+    }
+
+    private static int roundUp(final int value, final int multiple)
+    {
+        return (value + multiple - 1) / multiple * multiple;
+    }
+
+    private static BufferedImage toImage(final int[] pixels, final int width, final int height, final boolean alpha)
+    {
+        final BufferedImage image = new BufferedImage(width, height, alpha ? BufferedImage.TYPE_INT_ARGB
+                                                                            : BufferedImage.TYPE_INT_RGB);
+        image.setRGB(0, 0, width, height, pixels, 0, width);
+        return image;
+    }
+
+    /**
+     * The rows of an image that are currently decoded. The band moves down the image, the rows that the next band
+     * shares with the current one are taken over, all other rows are decoded. The rows are as wide as the comparison,
+     * the pixels outside of the image are transparent black like the padding of an {@link ImagePair}.
+     */
+    private static class Band
+    {
+        private final PngRowReader reader;
+
+        private final int width;
+
+        private int[] pixels = new int[0];
+
+        private int fromY;
+
+        private int toY;
+
+        Band(final PngRowReader reader, final int width)
+        {
+            this.reader = reader;
+            this.width = width;
+        }
+
+        /**
+         * Moves the band to the given rows, which must not start above the current band
+         * @param newFromY First row of the band (inclusive)
+         * @param newToY Last row of the band (exclusive)
+         * @return the pixels of the band
+         */
+        PackedImage moveTo(final int newFromY, final int newToY) throws IOException
+        {
+            final int[] band = new int[width * (newToY - newFromY)];
+
+            // the rows both bands share were decoded already
+            final int sharedFrom = Math.max(fromY, newFromY);
+            final int sharedTo = Math.min(toY, newToY);
+            if (sharedFrom < sharedTo)
+            {
+                System.arraycopy(pixels, (sharedFrom - fromY) * width, band, (sharedFrom - newFromY) * width,
+                                 (sharedTo - sharedFrom) * width);
+            }
+
+            // rows below the image stay transparent black
+            final int readFrom = Math.min(reader.getHeight(), Math.max(newFromY, reader.getNextRow()));
+            final int readTo = Math.min(reader.getHeight(), newToY);
+            reader.skipRows(readFrom - reader.getNextRow());
+            if (readFrom < readTo)
+            {
+                reader.readRows(band, (readFrom - newFromY) * width, width, readTo - readFrom);
+            }
+
+            pixels = band;
+            fromY = newFromY;
+            toY = newToY;
+
+            return new PackedImage(band, width, newToY - newFromY);
+        }
+    }
+
+    /**
+     * Read-only view on the rows of a mask that belong to a band
+     */
+    private static class BandMask implements MaskView
+    {
+        private final Mask mask;
+
+        private final int offset;
+
+        BandMask(final Mask mask, final int offset)
+        {
+            this.mask = mask;
+            this.offset = offset;
+        }
+
+        @Override
+        public int getWidth()
+        {
+            return mask.getWidth();
+        }
+
+        @Override
+        public int getHeight()
+        {
+            return Math.max(0, mask.getHeight() - offset);
+        }
+
+        @Override
+        public boolean get(final int x, final int y)
+        {
+            return mask.get(x, y + offset);
+        }
+
+        @Override
+        public int nextSet(final int fromX, final int y)
+        {
+            return mask.nextSet(fromX, y + offset);
+        }
+
+        @Override
+        public int nextClear(final int fromX, final int y)
+        {
+            return mask.nextClear(fromX, y + offset);
+        }
+    }
+}
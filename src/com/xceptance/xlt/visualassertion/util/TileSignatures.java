@@ -0,0 +1,280 @@
+package com.xceptance.xlt.visualassertion.util;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import com.xceptance.xlt.visualassertion.algorithm.ComparisonAlgorithm;
+
+/**
+ * Small signatures of the square tiles of an image, which allow to find the tiles of two images that do not need a
+ * full comparison. Each tile has three signatures:
+ * <ul>
+ * <li>a hash of all pixel values, tiles with the same hash are considered identical</li>
+ * <li>an average hash, one bit per cell of an 8x8 grid over the tile, set if the cell is brighter than the tile</li>
+ * <li>a coarse color histogram with 4 levels per channel</li>
+ * </ul>
+ * The signatures of the reference images are calculated once per image and kept as long as the image is used.
+ */
+public class TileSignatures
+{
+    /**
+     * The side length of a tile, rounded up to the block size of the algorithm
+     */
+    protected final static int TILE_SIZE = 64;
+
+    // the cells per side of the grid of the average hash
+    private final static int GRID = 8;
+
+    // 4 levels for each of red, green and blue
+    private final static int BINS = 64;
+
+    private final static long FNV_PRIME = 0x100000001B3L;
+
+    private final static long FNV_OFFSET = 0xCBF29CE484222325L;
+
+    private static final Map<BufferedImage, TileSignatures> cache = new WeakHashMap<>();
+
+    private final int width;
+
+    private final int height;
+
+    private final int tileSize;
+
+    private final int tilesX;
+
+    private final int tilesY;
+
+    private final long[] contentHashes;
+
+    private final long[] averageHashes;
+
+    private final int[] histograms;
+
+    /**
+     * Calculates the signatures of all tiles of the given image
+     * @param image The image
+     * @param tileSize The side length of the tiles
+     */
+    public TileSignatures(final PackedImage image, final int tileSize)
+    {
+        this.width = image.getWidth();
+        this.height = image.getHeight();
+        this.tileSize = tileSize;
+        this.tilesX = (width + tileSize - 1) / tileSize;
+        this.tilesY = (height + tileSize - 1) / tileSize;
+
+        final int tiles = tilesX * tilesY;
+        contentHashes = new long[tiles];
+        averageHashes = new long[tiles];
+        histograms = new int[tiles * BINS];
+
+        final int[] pixels = image.getPixels();
+        final long[] cellSums = new long[tiles * GRID * GRID];
+        Arrays.fill(contentHashes, FNV_OFFSET);
+
+        for (int y = 0; y < height; y++)
+        {
+            final int tileY = y / tileSize;
+            final int tileHeight = getTileLength(tileY, height);
+            final int cellY = (y - tileY * tileSize) * GRID / tileHeight;
+            final int rowStart = y * width;
+
+            for (int x = 0; x < width; x++)
+            {
+                final int tileX = x / tileSize;
+                final int tile = tileY * tilesX + tileX;
+                final int cellX = (x - tileX * tileSize) * GRID / getTileLength(tileX, width);
+                final int rgb = pixels[rowStart + x];
+
+                final int r = (rgb >> 16) & 0xFF;
+                final int g = (rgb >> 8) & 0xFF;
+                final int b = rgb & 0xFF;
+
+                contentHashes[tile] = (contentHashes[tile] ^ rgb) * FNV_PRIME;
+                histograms[tile * BINS + ((r >> 6) << 4 | (g >> 6) << 2 | (b >> 6))]++;
+                cellSums[tile * GRID * GRID + cellY * GRID + cellX] += r + 2 * g + b;
+            }
+        }
+
+        for (int tile = 0; tile < tiles; tile++)
+        {
+            averageHashes[tile] = calculateAverageHash(cellSums, tile);
+        }
+    }
+
+    /**
+     * Returns the signatures of the given image. The signatures are calculated once per image and tile size and
+     * reused as long as the image is in use, e.g. for reference images that are held by the ImageCache.
+     *
+     * @param image The image
+     * @param pixels The packed pixels of the image
+     * @param tileSize The side length of the tiles
+     * @return the signatures of the image
+     */
+    protected static TileSignatures get(final BufferedImage image, final PackedImage pixels, final int tileSize)
+    {
+        synchronized (cache)
+        {
+            final TileSignatures signatures = cache.get(image);
+            if (signatures != null && signatures.tileSize == tileSize)
+            {
+                return signatures;
+            }
+        }
+
+        final TileSignatures signatures = new TileSignatures(pixels, tileSize);
+        synchronized (cache)
+        {
+            cache.put(image, signatures);
+        }
+
+        return signatures;
+    }
+
+    /**
+     * Calculates the tile size for the given alignment, e.g. the block size of the fuzzy comparison, so that a tile
+     * never cuts through a block
+     * @param alignment The number of pixels the tile size has to be a multiple of
+     * @return the tile size
+     */
+    protected static int calcTileSize(final int alignment)
+    {
+        final int a = Math.max(1, alignment);
+        return (TILE_SIZE + a - 1) / a * a;
+    }
+
+    /**
+     * Returns the side length of a tile
+     * @return the tile size in pixels
+     */
+    public int getTileSize()
+    {
+        return tileSize;
+    }
+
+    /**
+     * Returns the number of tiles per row
+     * @return the number of tiles on the x axis
+     */
+    public int getTilesX()
+    {
+        return tilesX;
+    }
+
+    /**
+     * Finds the tiles that do not need a full comparison with the given algorithm. Tiles with the same content hash
+     * are identical and never differ. For COLORFUZZY, tiles with the same average hash and histogram are skipped as
+     * well, for PIXELFUZZY also tiles whose histograms differ in no more pixels than the algorithm tolerates in a
+     * single block. That last check is a heuristic, small changes that keep the brightness structure and the colors of
+     * a tile may be missed. SLIDINGFUZZY only skips identical tiles.
+     *
+     * @param other The signatures of the compared image, which has to have the same size and tile size
+     * @param algorithm The algorithm of the comparison
+     * @return one flag per tile, row by row, which is true if the tile can be skipped
+     */
+    public boolean[] findSimilarTiles(final TileSignatures other, final ComparisonAlgorithm algorithm)
+    {
+        final boolean[] similar = new boolean[contentHashes.length];
+
+        for (int tileY = 0; tileY < tilesY; tileY++)
+        {
+            for (int tileX = 0; tileX < tilesX; tileX++)
+            {
+                final int tile = tileY * tilesX + tileX;
+                if (averageHashes[tile] != other.averageHashes[tile])
+                {
+                    continue;
+                }
+
+                final int differentPixels = getHistogramDistance(other, tile);
+
+                switch (algorithm.getType())
+                {
+                case EXACTMATCH:
+                    similar[tile] = contentHashes[tile] == other.contentHashes[tile] && differentPixels == 0;
+                    break;
+
+                case COLORFUZZY:
+                    similar[tile] = differentPixels == 0;
+                    break;
+
+                case PIXELFUZZY:
+                    // all changed pixels might be in the same block
+                    final int blockSize = algorithm.getFuzzyBlockSize();
+                    final int blockTolerance = (int) Math.floor(blockSize * blockSize * algorithm.getPixelTolerance());
+                    similar[tile] = differentPixels <= blockTolerance;
+                    break;
+
+                case SLIDINGFUZZY:
+                    // the windows overlap the neighboring tiles, so only identical tiles are skipped
+                    similar[tile] = contentHashes[tile] == other.contentHashes[tile] && differentPixels == 0;
+                    break;
+                }
+            }
+        }
+
+        return similar;
+    }
+
+    /**
+     * Calculates the number of pixels that have to change their histogram bin to turn one tile into the other
+     */
+    private int getHistogramDistance(final TileSignatures other, final int tile)
+    {
+        int distance = 0;
+        for (int i = tile * BINS; i < (tile + 1) * BINS; i++)
+        {
+            distance += Math.abs(histograms[i] - other.histograms[i]);
+        }
+
+        return distance / 2;
+    }
+
+    /**
+     * Sets one bit per cell of the tile that is brighter than the whole tile
+     */
+    private long calculateAverageHash(final long[] cellSums, final int tile)
+    {
+        final int tileX = tile % tilesX;
+        final int tileY = tile / tilesX;
+        final int tileWidth = getTileLength(tileX, width);
+        final int tileHeight = getTileLength(tileY, height);
+
+        // the number of pixels of each cell, cells of small tiles might be empty
+        final int[] cellCounts = new int[GRID * GRID];
+        long tileSum = 0;
+        for (int y = 0; y < tileHeight; y++)
+        {
+            for (int x = 0; x < tileWidth; x++)
+            {
+                cellCounts[(y * GRID / tileHeight) * GRID + x * GRID / tileWidth]++;
+            }
+        }
+        for (int cell = 0; cell < GRID * GRID; cell++)
+        {
+            tileSum += cellSums[tile * GRID * GRID + cell];
+        }
+
+        final long tilePixels = (long) tileWidth * tileHeight;
+        long hash = 0;
+        for (int cell = 0; cell < GRID * GRID; cell++)
+        {
+            if (cellCounts[cell] > 0 && cellSums[tile * GRID * GRID + cell] * tilePixels > tileSum * cellCounts[cell])
+            {
+                hash |= 1L << cell;
+            }
+        }
+
+        return hash;
+    }
+
+    /**
+     * Returns the length of the tile with the given index, the last tile of an axis might be shorter
+     */
+    private int getTileLength(final int index, final int imageSpan)
+    {
+        return Math.min(tileSize, imageSpan - index * tileSize);
+    }
+}
@@ -0,0 +1,168 @@
+package test.com.xceptance.xlt.visual.artifacts;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import test.com.xceptance.xlt.visual.ImageTest;
+
+import com.xceptance.xlt.visualassertion.util.ArtifactWriter;
+import com.xceptance.xlt.visualassertion.util.ArtifactWriter.Policy;
+
+/**
+ * Checks that the images written in the background are complete after the flush, whatever the policy
+ */
+public class TArtifactWriter extends ImageTest
+{
+    private final List<File> files = new ArrayList<>();
+
+    private BufferedImage image;
+
+    @Before
+    public void setup() throws IOException
+    {
+        image = new BufferedImage(300, 200, BufferedImage.TYPE_INT_ARGB);
+        for (int y = 0; y < image.getHeight(); y++)
+        {
+            for (int x = 0; x < image.getWidth(); x++)
+            {
+                image.setRGB(x, y, (x * 7 + y) << 8 | x ^ y | (x % 3 == 0 ? 0x80000000 : 0xFF000000));
+            }
+        }
+
+        for (int i = 0; i < 20; i++)
+        {
+            final File file = File.createTempFile("visualassertion", ".png");
+            file.delete();
+            files.add(file);
+        }
+    }
+
+    @After
+    public void cleanup()
+    {
+        ArtifactWriter.configure(0, 1, Policy.BLOCK);
+        for (final File file : files)
+        {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void synchronous() throws IOException
+    {
+        ArtifactWriter.configure(0, 1, Policy.BLOCK);
+        new ArtifactWriter().write(image, files.get(0));
+
+        Assert.assertTrue(imageEqual(image, load(files.get(0))));
+    }
+
+    @Test
+    public void block() throws IOException
+    {
+        ArtifactWriter.configure(1, 2, Policy.BLOCK);
+        writeAll();
+
+        for (final File file : files)
+        {
+            Assert.assertTrue(imageEqual(image, load(file)));
+        }
+    }
+
+    @Test
+    public void spill() throws IOException
+    {
+        ArtifactWriter.configure(1, 1, Policy.SPILL);
+        writeAll();
+
+        for (final File file : files)
+        {
+            Assert.assertTrue(imageEqual(image, load(file)));
+        }
+    }
+
+    @Test
+    public void drop() throws IOException
+    {
+        ArtifactWriter.configure(1, 1, Policy.DROP);
+        final ArtifactWriter writer = new ArtifactWriter();
+        int dropped = 0;
+        for (final File file : files)
+        {
+            if (!writer.write(image, file, true))
+            {
+                dropped++;
+            }
+        }
+        writer.flush();
+
+        int written = 0;
+        for (final File file : files)
+        {
+            if (file.exists())
+            {
+                Assert.assertTrue(imageEqual(image, load(file)));
+                written++;
+            }
+        }
+        Assert.assertEquals(files.size(), written + dropped);
+    }
+
+    @Test
+    public void dropOnlyDroppable() throws IOException
+    {
+        ArtifactWriter.configure(1, 1, Policy.DROP);
+        final ArtifactWriter writer = new ArtifactWriter();
+        for (final File file : files)
+        {
+            Assert.assertTrue(writer.write(image, file, false));
+        }
+        writer.flush();
+
+        for (final File file : files)
+        {
+            Assert.assertTrue(imageEqual(image, load(file)));
+        }
+    }
+
+    @Test
+    public void encodedImages() throws IOException
+    {
+        final ByteArrayOutputStream data = new ByteArrayOutputStream();
+        ImageIO.write(image, "PNG", data);
+
+        ArtifactWriter.configure(2, 1, Policy.SPILL);
+        final ArtifactWriter writer = new ArtifactWriter();
+        for (final File file : files)
+        {
+            writer.write(data.toByteArray(), file);
+        }
+        writer.flush();
+
+        for (final File file : files)
+        {
+            Assert.assertArrayEquals(data.toByteArray(), Files.readAllBytes(file.toPath()));
+        }
+    }
+
+    private void writeAll() throws IOException
+    {
+        final ArtifactWriter writer = new ArtifactWriter();
+        for (final File file : files)
+        {
+            writer.write(image, file);
+        }
+        writer.flush();
+    }
+}
@@ -0,0 +1,57 @@
+package test.com.xceptance.xlt.visual.artifacts;
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.xceptance.xlt.visualassertion.util.Retention;
+
+/**
+ * Checks which screenshots each retention keeps, the screenshots of failed assertions are always kept
+ */
+public class TRetention
+{
+    private static final int ASSERTIONS = 10000;
+
+    @Test
+    public void always()
+    {
+        Assert.assertEquals(ASSERTIONS, countKept(Retention.ALWAYS, true, 0));
+        Assert.assertEquals(ASSERTIONS, countKept(Retention.ALWAYS, false, 0));
+    }
+
+    @Test
+    public void failures()
+    {
+        Assert.assertEquals(0, countKept(Retention.FAILURES, true, 1));
+        Assert.assertEquals(ASSERTIONS, countKept(Retention.FAILURES, false, 0));
+    }
+
+    @Test
+    public void sampled()
+    {
+        // about a tenth of the passed assertions
+        final int kept = countKept(Retention.SAMPLED, true, 0.1);
+        Assert.assertTrue(String.valueOf(kept), kept > ASSERTIONS * 0.08 && kept < ASSERTIONS * 0.12);
+
+        Assert.assertEquals(0, countKept(Retention.SAMPLED, true, 0));
+        Assert.assertEquals(ASSERTIONS, countKept(Retention.SAMPLED, true, 1));
+        Assert.assertEquals(ASSERTIONS, countKept(Retention.SAMPLED, false, 0));
+    }
+
+    private int countKept(final Retention retention, final boolean passed, final double sampleRate)
+    {
+        final Random random = new Random(42);
+        int kept = 0;
+        for (int i = 0; i < ASSERTIONS; i++)
+        {
+            if (retention.keep(passed, sampleRate, random))
+            {
+                kept++;
+            }
+        }
+
+        return kept;
+    }
+}
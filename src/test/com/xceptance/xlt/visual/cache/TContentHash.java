@@ -0,0 +1,59 @@
+package test.com.xceptance.xlt.visual.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import test.com.xceptance.xlt.visual.ImageTest;
+
+import com.xceptance.xlt.visualassertion.util.ContentHash;
+
+public class TContentHash extends ImageTest
+{
+    private File file;
+
+    @Before
+    public void setup() throws IOException
+    {
+        file = File.createTempFile("visualassertion", ".png");
+    }
+
+    @After
+    public void cleanup()
+    {
+        ContentHash.invalidate(file);
+        file.delete();
+    }
+
+    @Test
+    public void sameContent() throws IOException
+    {
+        Files.write(file.toPath(), new byte[] { 1, 2, 3 });
+        Assert.assertTrue(ContentHash.matches(new byte[] { 1, 2, 3 }, file));
+    }
+
+    @Test
+    public void differentContent() throws IOException
+    {
+        Files.write(file.toPath(), new byte[] { 1, 2, 3 });
+        Assert.assertFalse(ContentHash.matches(new byte[] { 1, 2, 4 }, file));
+        Assert.assertFalse(ContentHash.matches(new byte[] { 1, 2 }, file));
+    }
+
+    @Test
+    public void fileChanged() throws IOException
+    {
+        Files.write(file.toPath(), new byte[] { 1, 2, 3 });
+        Assert.assertTrue(ContentHash.matches(new byte[] { 1, 2, 3 }, file));
+
+        Files.write(file.toPath(), new byte[] { 1, 2, 4 });
+        ContentHash.invalidate(file);
+        Assert.assertTrue(ContentHash.matches(new byte[] { 1, 2, 4 }, file));
+        Assert.assertFalse(ContentHash.matches(new byte[] { 1, 2, 3 }, file));
+    }
+}
@@ -0,0 +1,94 @@
+package test.com.xceptance.xlt.visual.cache;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import test.com.xceptance.xlt.visual.ImageTest;
+
+import com.xceptance.xlt.visualassertion.algorithm.ColorFuzzy;
+import com.xceptance.xlt.visualassertion.algorithm.ExactMatch;
+import com.xceptance.xlt.visualassertion.util.CompiledBaseline;
+import com.xceptance.xlt.visualassertion.util.ImageCache;
+
+public class TImageCache extends ImageTest
+{
+    private File file;
+
+    @Before
+    public void setup() throws IOException
+    {
+        file = File.createTempFile("visualassertion", ".png");
+        ImageCache.clear();
+        ImageCache.setMaxSize(1024 * 1024);
+    }
+
+    @After
+    public void cleanup()
+    {
+        ImageCache.clear();
+        ImageCache.setMaxSize(0);
+        file.delete();
+    }
+
+    @Test
+    public void cached() throws IOException
+    {
+        write(10, 10);
+
+        final BufferedImage image = ImageCache.read(file);
+        Assert.assertSame(image, ImageCache.read(file));
+        Assert.assertEquals(10 * 10 * 4, ImageCache.getSize());
+    }
+
+    @Test
+    public void fileChanged() throws IOException
+    {
+        write(10, 10);
+        final BufferedImage image = ImageCache.read(file);
+
+        write(20, 10);
+        final BufferedImage changed = ImageCache.read(file);
+        Assert.assertNotSame(image, changed);
+        Assert.assertEquals(20, changed.getWidth());
+        Assert.assertEquals(20 * 10 * 4, ImageCache.getSize());
+    }
+
+    @Test
+    public void evicted() throws IOException
+    {
+        write(10, 10);
+        final BufferedImage image = ImageCache.read(file);
+
+        ImageCache.setMaxSize(100);
+        Assert.assertEquals(0, ImageCache.getSize());
+        Assert.assertNotSame(image, ImageCache.read(file));
+        Assert.assertEquals(0, ImageCache.getSize());
+    }
+
+    @Test
+    public void baseline() throws IOException
+    {
+        write(10, 10);
+
+        final CompiledBaseline baseline = ImageCache.readBaseline(file, null, new ExactMatch(), false);
+        Assert.assertSame(baseline, ImageCache.readBaseline(file, null, new ExactMatch(), false));
+        Assert.assertNotSame(baseline, ImageCache.readBaseline(file, null, new ColorFuzzy(0.1), false));
+
+        // the baseline is compiled anew when its image was written
+        ImageCache.invalidate(file);
+        Assert.assertNotSame(baseline, ImageCache.readBaseline(file, null, new ExactMatch(), false));
+    }
+
+    private void write(final int width, final int height) throws IOException
+    {
+        ImageIO.write(new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB), "PNG", file);
+    }
+}
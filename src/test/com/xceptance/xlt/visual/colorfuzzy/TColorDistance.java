@@ -0,0 +1,131 @@
+package test.com.xceptance.xlt.visual.colorfuzzy;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import test.com.xceptance.xlt.visual.ImageTest;
+
+import com.xceptance.xlt.visualassertion.algorithm.ColorFuzzy;
+import com.xceptance.xlt.visualassertion.util.ImageComparison;
+import com.xceptance.xlt.visualassertion.util.MaskImage;
+
+/**
+ * Checks that the integer color distance gives exactly the same results as the former floating point calculation,
+ * especially for tolerances that are exactly at, right above or right below the difference of two colors.
+ */
+public class TColorDistance extends ImageTest
+{
+    // the color of the reference image, marked pixels are pure red or green and can't be mistaken for it
+    private static final Color BASE = new Color(0, 0, 128);
+
+    /**
+     * Test the default tolerances
+     */
+    @Test
+    public void defaultTolerances()
+    {
+        assertSameAsDouble(0.0);
+        assertSameAsDouble(0.1);
+        assertSameAsDouble(0.5);
+        assertSameAsDouble(1.0);
+    }
+
+    /**
+     * Test tolerances that are exactly the difference of some of the colors and the closest values around it
+     */
+    @Test
+    public void boundaries()
+    {
+        final int[][] offsets =
+            {
+                { 1, 0 }, { 0, 1 }, { 3, 4 }, { 10, 0 }, { 36, 36 }, { 100, 50 }, { 255, 255 }
+            };
+
+        for (final int[] offset : offsets)
+        {
+            final double tolerance = doubleDifference(BASE.getRGB(), createColor(offset[0], offset[1]));
+
+            assertSameAsDouble(tolerance);
+            assertSameAsDouble(Math.nextUp(tolerance));
+            assertSameAsDouble(Math.nextAfter(tolerance, Double.NEGATIVE_INFINITY));
+        }
+    }
+
+    /**
+     * Compares a plain image with a gradient of all red and green offsets and checks every pixel against the floating
+     * point calculation, both whether it is different and its grey level in the difference image.
+     *
+     * @param colorTolerance the tolerance to check
+     */
+    private void assertSameAsDouble(final double colorTolerance)
+    {
+        final BufferedImage reference = new BufferedImage(256, 256, BufferedImage.TYPE_INT_RGB);
+        final BufferedImage gradient = new BufferedImage(256, 256, BufferedImage.TYPE_INT_RGB);
+        for (int x = 0; x < 256; x++)
+        {
+            for (int y = 0; y < 256; y++)
+            {
+                reference.setRGB(x, y, BASE.getRGB());
+                gradient.setRGB(x, y, createColor(x, y));
+            }
+        }
+
+        final ImageComparison comparison = new ImageComparison(reference);
+        final boolean equal = comparison.isEqual(gradient, new MaskImage(reference), new ColorFuzzy(colorTolerance));
+        final BufferedImage marked = comparison.getMarkedImageWithBoxes(1, 1);
+        final BufferedImage difference = equal ? null : comparison.getDifferenceImage();
+
+        boolean anyDifference = false;
+        for (int x = 0; x < 256; x++)
+        {
+            for (int y = 0; y < 256; y++)
+            {
+                final double expectedDifference = doubleDifference(reference.getRGB(x, y), gradient.getRGB(x, y));
+                final boolean expected = expectedDifference > colorTolerance;
+                anyDifference |= expected;
+
+                final String pixel = "tolerance " + colorTolerance + ", pixel " + x + "/" + y;
+                Assert.assertEquals(pixel, expected, marked.getRGB(x, y) != gradient.getRGB(x, y));
+                if (expected)
+                {
+                    Assert.assertEquals(pixel, Math.round(255 * expectedDifference), difference.getRGB(x, y) & 0xFF);
+                }
+            }
+        }
+
+        Assert.assertEquals(!anyDifference, equal);
+    }
+
+    private int createColor(final int redOffset, final int greenOffset)
+    {
+        return new Color(BASE.getRed() + redOffset, BASE.getGreen() + greenOffset, BASE.getBlue()).getRGB();
+    }
+
+    /**
+     * The floating point color difference the integer calculation replaced
+     */
+    private double doubleDifference(final int rgb1, final int rgb2)
+    {
+        final double MAX = 721.2489168102785;
+
+        final int r1 = (rgb1 >> 16) & 0xFF;
+        final int g1 = (rgb1 >> 8) & 0xFF;
+        final int b1 = rgb1 & 0xFF;
+        final int r2 = (rgb2 >> 16) & 0xFF;
+        final int g2 = (rgb2 >> 8) & 0xFF;
+        final int b2 = rgb2 & 0xFF;
+        final int rDiff = r1 - r2;
+        final int gDiff = g1 - g2;
+        final int bDiff = b1 - b2;
+
+        final int rLevel = (r1 + r2) / 2;
+        final double rWeight = 2 + rLevel / 256;
+        final double gWeight = 4.0;
+        final double bWeight = 2 + ((255 - rLevel) / 256);
+
+        return Math.sqrt(rWeight * rDiff * rDiff + gWeight * gDiff * gDiff + bWeight * bDiff * bDiff) / MAX;
+    }
+}
@@ -0,0 +1,97 @@
+package test.com.xceptance.xlt.visual.exact;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import test.com.xceptance.xlt.visual.ImageTest;
+
+import com.xceptance.xlt.visualassertion.algorithm.ExactMatch;
+import com.xceptance.xlt.visualassertion.algorithm.PixelFuzzy;
+import com.xceptance.xlt.visualassertion.util.BinaryMask;
+import com.xceptance.xlt.visualassertion.util.CompiledBaseline;
+import com.xceptance.xlt.visualassertion.util.ComparisonResult;
+import com.xceptance.xlt.visualassertion.util.ImageComparison;
+
+/**
+ * Checks that one compiled baseline can be used by several threads at once
+ */
+public class TCompiledBaseline extends ImageTest
+{
+    @Test
+    public void concurrentComparisons() throws Exception
+    {
+        final BufferedImage reference = createPage(-1);
+        final BinaryMask mask = new BinaryMask(reference.getWidth(), reference.getHeight());
+        mask.fill(0, 0, 50, 50);
+
+        final CompiledBaseline baseline = new CompiledBaseline(reference, mask, new PixelFuzzy(0.1, 0.1, 5), true);
+
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try
+        {
+            final List<Future<ComparisonResult>> results = new ArrayList<>();
+            for (int i = 0; i < 16; i++)
+            {
+                final int changedRow = i * 20;
+                results.add(executor.submit(new Callable<ComparisonResult>()
+                {
+                    @Override
+                    public ComparisonResult call()
+                    {
+                        return baseline.compare(createPage(changedRow));
+                    }
+                }));
+            }
+
+            for (int i = 0; i < results.size(); i++)
+            {
+                final BufferedImage compareImage = createPage(i * 20);
+                final ImageComparison comparison = new ImageComparison(reference);
+                final boolean expected = comparison.isEqual(compareImage, mask, new PixelFuzzy(0.1, 0.1, 5));
+
+                final ComparisonResult result = results.get(i).get();
+                Assert.assertEquals(expected, result.isEqual());
+                Assert.assertTrue(imageEqual(comparison.getMarkedImageWithBoxes(1, 1), result.getMarkedImageWithBoxes(1, 1)));
+            }
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void maskIsCopied()
+    {
+        final BufferedImage reference = createPage(-1);
+        final BinaryMask mask = new BinaryMask(reference.getWidth(), reference.getHeight());
+        final CompiledBaseline baseline = new CompiledBaseline(reference, mask, new ExactMatch(), false);
+
+        // masking the change afterwards does not affect the baseline
+        mask.fill(0, 100, reference.getWidth(), 1);
+        Assert.assertFalse(baseline.compare(createPage(100)).isEqual());
+    }
+
+    private BufferedImage createPage(final int changedRow)
+    {
+        final BufferedImage page = new BufferedImage(200, 400, BufferedImage.TYPE_INT_RGB);
+        for (int x = 0; x < page.getWidth(); x++)
+        {
+            for (int y = 0; y < page.getHeight(); y++)
+            {
+                page.setRGB(x, y, y == changedRow ? Color.RED.getRGB() : (x / 10) * 0x010203 + (y / 20) * 0x030201);
+            }
+        }
+
+        return page;
+    }
+}
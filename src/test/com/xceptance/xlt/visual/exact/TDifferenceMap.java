@@ -0,0 +1,191 @@
+package test.com.xceptance.xlt.visual.exact;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.xceptance.xlt.visualassertion.util.DifferenceMap;
+
+/**
+ * Checks adding, counting and walking the differences, also across the 64 bit words of the rows, and merging the
+ * maps of bands of rows
+ */
+public class TDifferenceMap
+{
+    private static final int WIDTH = 200;
+
+    private static final int HEIGHT = 300;
+
+    @Test
+    public void add()
+    {
+        final DifferenceMap differences = new DifferenceMap(WIDTH, HEIGHT);
+        Assert.assertTrue(differences.isEmpty());
+        Assert.assertEquals(0, differences.size());
+
+        differences.add(0, 0);
+        differences.add(WIDTH - 1, HEIGHT - 1);
+        differences.add(63, 10);
+        differences.add(64, 10);
+
+        // the same pixel twice
+        differences.add(64, 10);
+
+        Assert.assertFalse(differences.isEmpty());
+        Assert.assertEquals(4, differences.size());
+        Assert.assertTrue(differences.contains(0, 0));
+        Assert.assertTrue(differences.contains(WIDTH - 1, HEIGHT - 1));
+        Assert.assertTrue(differences.contains(63, 10));
+        Assert.assertTrue(differences.contains(64, 10));
+        Assert.assertFalse(differences.contains(65, 10));
+        Assert.assertFalse(differences.contains(64, 11));
+    }
+
+    @Test
+    public void nextDifferenceAcrossWords()
+    {
+        final DifferenceMap differences = new DifferenceMap(WIDTH, HEIGHT);
+        for (final int x : new int[] { 62, 63, 64, 65, 127, 128, WIDTH - 1 })
+        {
+            differences.add(x, 5);
+        }
+
+        Assert.assertEquals(62, differences.nextDifference(0, 5));
+        Assert.assertEquals(63, differences.nextDifference(63, 5));
+        Assert.assertEquals(64, differences.nextDifference(64, 5));
+        Assert.assertEquals(127, differences.nextDifference(66, 5));
+        Assert.assertEquals(128, differences.nextDifference(128, 5));
+        Assert.assertEquals(WIDTH - 1, differences.nextDifference(129, 5));
+        Assert.assertEquals(-1, differences.nextDifference(WIDTH, 5));
+
+        // rows without differences
+        Assert.assertEquals(-1, differences.nextDifference(0, 4));
+        Assert.assertEquals(-1, differences.nextDifference(0, 6));
+    }
+
+    @Test
+    public void nextNonDifferenceAcrossWords()
+    {
+        final DifferenceMap differences = new DifferenceMap(WIDTH, HEIGHT);
+
+        // a run over the word boundary at 64 and one over the boundary at 128 up to the end of the row
+        for (int x = 60; x < 70; x++)
+        {
+            differences.add(x, 7);
+        }
+        for (int x = 120; x < WIDTH; x++)
+        {
+            differences.add(x, 7);
+        }
+
+        Assert.assertEquals(0, differences.nextNonDifference(0, 7));
+        Assert.assertEquals(70, differences.nextNonDifference(60, 7));
+        Assert.assertEquals(70, differences.nextNonDifference(64, 7));
+        Assert.assertEquals(WIDTH, differences.nextNonDifference(120, 7));
+        Assert.assertEquals(WIDTH, differences.nextNonDifference(128, 7));
+
+        // a row without differences
+        Assert.assertEquals(64, differences.nextNonDifference(64, 8));
+
+        // walking the runs finds all differences
+        int count = 0;
+        int x = differences.nextDifference(0, 7);
+        while (x >= 0)
+        {
+            final int end = differences.nextNonDifference(x, 7);
+            count += end - x;
+            x = differences.nextDifference(end, 7);
+        }
+        Assert.assertEquals(differences.size(), count);
+    }
+
+    @Test
+    public void addAllBands()
+    {
+        final Band parent = new Band(WIDTH, HEIGHT, Integer.MAX_VALUE);
+        final DifferenceMap[] bands = { parent.band(0, 100), parent.band(100, 200), parent.band(200, HEIGHT) };
+
+        // the last row of a band, the first row of the next one and a row that is already set in the parent
+        bands[0].add(1, 0);
+        bands[0].add(64, 99);
+        bands[1].add(63, 100);
+        bands[1].add(64, 150);
+        bands[1].add(65, 150);
+        bands[2].add(WIDTH - 1, HEIGHT - 1);
+        parent.add(64, 150);
+        parent.add(10, 250);
+
+        // the differences outside of a band are not covered by it
+        Assert.assertFalse(bands[1].contains(64, 99));
+        Assert.assertEquals(-1, bands[1].nextDifference(0, 99));
+
+        for (final DifferenceMap band : bands)
+        {
+            parent.merge(band);
+        }
+
+        Assert.assertEquals(7, parent.size());
+        for (final int[] point : new int[][] { { 1, 0 }, { 64, 99 }, { 63, 100 }, { 64, 150 }, { 65, 150 },
+                                               { WIDTH - 1, HEIGHT - 1 }, { 10, 250 } })
+        {
+            Assert.assertTrue(point[0] + "," + point[1], parent.contains(point[0], point[1]));
+        }
+        Assert.assertEquals(64, parent.nextDifference(0, 150));
+        Assert.assertEquals(66, parent.nextNonDifference(64, 150));
+    }
+
+    @Test
+    public void limitSharedByBands()
+    {
+        final Band parent = new Band(WIDTH, HEIGHT, 3);
+        final DifferenceMap top = parent.band(0, 150);
+        final DifferenceMap bottom = parent.band(150, HEIGHT);
+
+        top.add(0, 0);
+        top.add(1, 0);
+        bottom.add(0, 150);
+        Assert.assertFalse(top.isLimitExceeded());
+
+        // the same pixel again is not counted
+        bottom.add(0, 150);
+        Assert.assertFalse(bottom.isLimitExceeded());
+
+        bottom.add(1, 150);
+        Assert.assertTrue(top.isLimitExceeded());
+        Assert.assertTrue(bottom.isLimitExceeded());
+        Assert.assertTrue(parent.isLimitExceeded());
+
+        // without a limit it is never exceeded
+        final DifferenceMap unlimited = new DifferenceMap(WIDTH, HEIGHT);
+        for (int x = 0; x < WIDTH; x++)
+        {
+            unlimited.add(x, 0);
+        }
+        Assert.assertFalse(unlimited.isLimitExceeded());
+    }
+
+    /**
+     * Gives access to the bands of a map
+     */
+    private static class Band extends DifferenceMap
+    {
+        Band(final int width, final int height, final int limit)
+        {
+            super(width, height, limit);
+        }
+
+        Band(final DifferenceMap parent, final int fromY, final int toY)
+        {
+            super(parent, fromY, toY);
+        }
+
+        DifferenceMap band(final int fromY, final int toY)
+        {
+            return new Band(this, fromY, toY);
+        }
+
+        void merge(final DifferenceMap band)
+        {
+            addAll(band);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package test.com.xceptance.xlt.visual.exact;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import test.com.xceptance.xlt.visual.ImageTest;
+
+import com.xceptance.xlt.visualassertion.algorithm.ExactMatch;
+import com.xceptance.xlt.visualassertion.util.ImageComparison;
+import com.xceptance.xlt.visualassertion.util.MaskImage;
+
+/**
+ * Checks masks that do not have the size of the compared images
+ */
+public class TMaskedMatch extends ImageTest
+{
+    private static final BufferedImage REFERENCE = createImage(20, 20);
+
+    /**
+     * The mask covers the difference and the area the reference image is missing
+     */
+    @Test
+    public void maskCoversPadding()
+    {
+        final BufferedImage compareImage = createImage(25, 20);
+        compareImage.setRGB(3, 3, Color.RED.getRGB());
+
+        final BufferedImage mask = new BufferedImage(25, 20, BufferedImage.TYPE_INT_ARGB);
+        fill(mask, 3, 3, 1, 1);
+        fill(mask, 20, 0, 5, 20);
+
+        final ImageComparison comparison = new ImageComparison(REFERENCE);
+        Assert.assertTrue(comparison.isEqual(compareImage, new MaskImage(REFERENCE, mask), new ExactMatch()));
+    }
+
+    /**
+     * The mask only covers the difference, the area the reference image is missing is still different
+     */
+    @Test
+    public void maskSmallerThanImages()
+    {
+        final BufferedImage compareImage = createImage(25, 20);
+        compareImage.setRGB(3, 3, Color.RED.getRGB());
+
+        final BufferedImage mask = new BufferedImage(10, 10, BufferedImage.TYPE_INT_ARGB);
+        fill(mask, 3, 3, 1, 1);
+
+        final ImageComparison comparison = new ImageComparison(REFERENCE);
+        Assert.assertFalse(comparison.isEqual(compareImage, new MaskImage(REFERENCE, mask), new ExactMatch()));
+
+        final BufferedImage marked = comparison.getMarkedImageWithBoxes(1, 1);
+        Assert.assertEquals(25, marked.getWidth());
+        Assert.assertEquals(20, marked.getHeight());
+        for (int x = 0; x < 25; x++)
+        {
+            for (int y = 0; y < 20; y++)
+            {
+                Assert.assertEquals("pixel " + x + "/" + y, x >= 20, marked.getRGB(x, y) != compareImage.getRGB(x, y));
+            }
+        }
+
+        // the reference keeps its size for the next comparison
+        Assert.assertTrue(comparison.isEqual(createImage(20, 20), new MaskImage(REFERENCE), new ExactMatch()));
+    }
+
+    private static BufferedImage createImage(final int width, final int height)
+    {
+        final BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        final Graphics2D g = image.createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, width, height);
+        g.dispose();
+
+        return image;
+    }
+
+    private static void fill(final BufferedImage mask, final int x, final int y, final int width, final int height)
+    {
+        final Graphics2D g = mask.createGraphics();
+        g.setColor(Color.BLACK);
+        g.fillRect(x, y, width, height);
+        g.dispose();
+    }
+}
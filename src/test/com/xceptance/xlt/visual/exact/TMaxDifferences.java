@@ -0,0 +1,100 @@
+package test.com.xceptance.xlt.visual.exact;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import test.com.xceptance.xlt.visual.ImageTest;
+
+import com.xceptance.xlt.visualassertion.algorithm.ExactMatch;
+import com.xceptance.xlt.visualassertion.util.ComparisonResult;
+import com.xceptance.xlt.visualassertion.util.ImageComparison;
+
+/**
+ * Checks the number of tolerated differences, absolute and as percentage, and that fail fast stops the comparison
+ * early
+ */
+public class TMaxDifferences extends ImageTest
+{
+    // 5000 pixels
+    private static final int WIDTH = 100;
+
+    private static final int HEIGHT = 50;
+
+    private final BufferedImage reference = createImage(0);
+
+    @Test
+    public void absolute()
+    {
+        final ImageComparison comparison = new ImageComparison(reference);
+        comparison.setMaxDifferences(7);
+
+        Assert.assertTrue(comparison.isEqual(createImage(7), (BufferedImage) null, new ExactMatch()));
+        Assert.assertEquals(7, comparison.getLastResult().getDifferences().size());
+
+        Assert.assertFalse(comparison.isEqual(createImage(8), (BufferedImage) null, new ExactMatch()));
+        Assert.assertEquals(8, comparison.getLastResult().getDifferences().size());
+    }
+
+    @Test
+    public void percentage()
+    {
+        final ImageComparison comparison = new ImageComparison(reference);
+
+        // 0.15% of 5000 pixels are 7.5 pixels, which is rounded down
+        comparison.setMaxDifferencesPercentage(0.15);
+        Assert.assertTrue(comparison.isEqual(createImage(7), (BufferedImage) null, new ExactMatch()));
+        Assert.assertFalse(comparison.isEqual(createImage(8), (BufferedImage) null, new ExactMatch()));
+
+        // less than one pixel tolerates no difference at all
+        comparison.setMaxDifferencesPercentage(0.01);
+        Assert.assertTrue(comparison.isEqual(createImage(0), (BufferedImage) null, new ExactMatch()));
+        Assert.assertFalse(comparison.isEqual(createImage(1), (BufferedImage) null, new ExactMatch()));
+    }
+
+    @Test
+    public void failFast()
+    {
+        final BufferedImage compareImage = createImage(1000);
+        final ImageComparison comparison = new ImageComparison(reference);
+        comparison.setMaxDifferences(5);
+
+        Assert.assertFalse(comparison.isEqual(compareImage, (BufferedImage) null, new ExactMatch()));
+        ComparisonResult result = comparison.getLastResult();
+        Assert.assertTrue(result.isComplete());
+        Assert.assertEquals(1000, result.getDifferences().size());
+
+        comparison.setFailFast(true);
+        Assert.assertFalse(comparison.isEqual(compareImage, (BufferedImage) null, new ExactMatch()));
+        result = comparison.getLastResult();
+        Assert.assertFalse(result.isComplete());
+        Assert.assertTrue(result.getDifferences().size() > 5);
+        Assert.assertTrue(result.getDifferences().size() < 1000);
+
+        // within the budget the comparison runs to the end
+        Assert.assertTrue(comparison.isEqual(createImage(5), (BufferedImage) null, new ExactMatch()));
+        Assert.assertTrue(comparison.getLastResult().isComplete());
+    }
+
+    /**
+     * Creates a white image with the given number of black pixels, row by row from the top left corner
+     */
+    private BufferedImage createImage(final int differences)
+    {
+        final BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+        final Graphics2D g = image.createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, WIDTH, HEIGHT);
+        g.dispose();
+
+        for (int i = 0; i < differences; i++)
+        {
+            image.setRGB(i % WIDTH, i / WIDTH, Color.BLACK.getRGB());
+        }
+
+        return image;
+    }
+}
@@ -0,0 +1,115 @@
+package test.com.xceptance.xlt.visual.exact;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.xceptance.xlt.visualassertion.util.PackedImage;
+
+/**
+ * Checks that the pixels are read directly from the raster exactly as BufferedImage.getRGB returns them
+ */
+public class TPackedImage
+{
+    private static final int WIDTH = 67;
+
+    private static final int HEIGHT = 41;
+
+    @Test
+    public void intArgb()
+    {
+        assertPixels(createImage(BufferedImage.TYPE_INT_ARGB));
+    }
+
+    @Test
+    public void intRgb()
+    {
+        assertPixels(createImage(BufferedImage.TYPE_INT_RGB));
+    }
+
+    @Test
+    public void intRgbWithAlphaBits()
+    {
+        // the unused alpha bits of RGB data are set in some pixels only, which must not show up in the pixel values
+        final BufferedImage image = createImage(BufferedImage.TYPE_INT_RGB);
+        final int[] data = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        for (int i = 0; i < data.length; i += 3)
+        {
+            data[i] |= (i % 256) << 24;
+        }
+        assertPixels(image);
+
+        // all alpha bits set, e.g. images read from QOI or raw files
+        for (int i = 0; i < data.length; i++)
+        {
+            data[i] |= 0xFF000000;
+        }
+        assertPixels(image);
+    }
+
+    @Test
+    public void threeByteBgr()
+    {
+        assertPixels(createImage(BufferedImage.TYPE_3BYTE_BGR));
+    }
+
+    @Test
+    public void fourByteAbgr()
+    {
+        assertPixels(createImage(BufferedImage.TYPE_4BYTE_ABGR));
+    }
+
+    @Test
+    public void otherTypes()
+    {
+        assertPixels(createImage(BufferedImage.TYPE_INT_ARGB_PRE));
+        assertPixels(createImage(BufferedImage.TYPE_INT_BGR));
+        assertPixels(createImage(BufferedImage.TYPE_USHORT_565_RGB));
+    }
+
+    @Test
+    public void subimage()
+    {
+        for (final int type : new int[] { BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_INT_RGB,
+                                          BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_4BYTE_ABGR })
+        {
+            // offset in both directions and narrower than the scanline
+            assertPixels(createImage(type).getSubimage(5, 3, WIDTH - 12, HEIGHT - 7));
+
+            // whole rows only
+            assertPixels(createImage(type).getSubimage(0, 9, WIDTH, HEIGHT - 9));
+        }
+    }
+
+    private void assertPixels(final BufferedImage image)
+    {
+        final int width = image.getWidth();
+        final int height = image.getHeight();
+        final PackedImage packed = new PackedImage(image);
+
+        Assert.assertEquals(width, packed.getWidth());
+        Assert.assertEquals(height, packed.getHeight());
+        Assert.assertArrayEquals(image.getRGB(0, 0, width, height, null, 0, width), packed.getPixels());
+    }
+
+    /**
+     * Creates an image of the given type with random pixels, including fully and partly transparent ones
+     */
+    private BufferedImage createImage(final int type)
+    {
+        final Random random = new Random(type);
+        final BufferedImage image = new BufferedImage(WIDTH, HEIGHT, type);
+        for (int y = 0; y < HEIGHT; y++)
+        {
+            for (int x = 0; x < WIDTH; x++)
+            {
+                image.setRGB(x, y, random.nextInt());
+            }
+        }
+
+        return image;
+    }
+}
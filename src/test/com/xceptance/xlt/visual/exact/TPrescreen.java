@@ -0,0 +1,138 @@
+package test.com.xceptance.xlt.visual.exact;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import test.com.xceptance.xlt.visual.ImageTest;
+
+import com.xceptance.xlt.visualassertion.algorithm.ColorFuzzy;
+import com.xceptance.xlt.visualassertion.algorithm.ComparisonAlgorithm;
+import com.xceptance.xlt.visualassertion.algorithm.ExactMatch;
+import com.xceptance.xlt.visualassertion.algorithm.PixelFuzzy;
+import com.xceptance.xlt.visualassertion.algorithm.SlidingFuzzy;
+import com.xceptance.xlt.visualassertion.util.ImageComparison;
+import com.xceptance.xlt.visualassertion.util.MaskImage;
+
+/**
+ * Checks that the pre-screening of tiles does not change the result of the comparison
+ */
+public class TPrescreen extends ImageTest
+{
+    @Test
+    public void sameResultAsFullComparison()
+    {
+        final BufferedImage reference = createPage();
+        final BufferedImage compareImage = createPage();
+
+        // a changed banner somewhere on the page
+        for (int x = 100; x < 180; x++)
+        {
+            compareImage.setRGB(x, 1000, Color.RED.getRGB());
+        }
+
+        final ImageComparison full = new ImageComparison(reference);
+        Assert.assertFalse(full.isEqual(compareImage, new MaskImage(reference), new ExactMatch()));
+
+        final ImageComparison prescreened = new ImageComparison(reference);
+        prescreened.setPrescreen(true);
+        Assert.assertFalse(prescreened.isEqual(compareImage, new MaskImage(reference), new ExactMatch()));
+
+        final BufferedImage expected = full.getMarkedImageWithBoxes(1, 1);
+        final BufferedImage marked = prescreened.getMarkedImageWithBoxes(1, 1);
+        for (int x = 0; x < reference.getWidth(); x++)
+        {
+            for (int y = 0; y < reference.getHeight(); y++)
+            {
+                Assert.assertEquals(expected.getRGB(x, y), marked.getRGB(x, y));
+            }
+        }
+
+        // the signatures of the reference are reused
+        Assert.assertTrue(prescreened.isEqual(createPage(), new MaskImage(reference), new ExactMatch()));
+    }
+
+    @Test
+    public void fuzzySameResultAsFullComparison()
+    {
+        final BufferedImage reference = createPage();
+        final BufferedImage compareImage = createPage();
+
+        // a changed icon of 12x12 pixels
+        for (int x = 100; x < 112; x++)
+        {
+            for (int y = 1000; y < 1012; y++)
+            {
+                compareImage.setRGB(x, y, Color.RED.getRGB());
+            }
+        }
+
+        for (final ComparisonAlgorithm algorithm : new ComparisonAlgorithm[] { new ColorFuzzy(0.1),
+                                                                               new PixelFuzzy(0.2, 0.1, 10),
+                                                                               new SlidingFuzzy(0.2, 0.1, 10) })
+        {
+            assertSameResult(reference, compareImage, algorithm, false);
+            assertSameResult(reference, createPage(), algorithm, true);
+        }
+    }
+
+    @Test
+    public void changedBlockWithSameBrightness()
+    {
+        final BufferedImage reference = new BufferedImage(64, 64, BufferedImage.TYPE_INT_RGB);
+        final BufferedImage compareImage = new BufferedImage(64, 64, BufferedImage.TYPE_INT_RGB);
+        for (int x = 0; x < 64; x++)
+        {
+            for (int y = 0; y < 64; y++)
+            {
+                reference.setRGB(x, y, 0x808080);
+                compareImage.setRGB(x, y, 0x808080);
+            }
+        }
+
+        // one block of the fuzzy comparison in another color of the same brightness, so the tile keeps its average
+        // hash, but the whole block differs
+        for (int x = 20; x < 30; x++)
+        {
+            for (int y = 20; y < 30; y++)
+            {
+                compareImage.setRGB(x, y, new Color(200, 128, 56).getRGB());
+            }
+        }
+
+        assertSameResult(reference, compareImage, new PixelFuzzy(0.2, 0.1, 10), false);
+        assertSameResult(reference, compareImage, new SlidingFuzzy(0.2, 0.1, 10), false);
+    }
+
+    /**
+     * Compares the images with and without pre-screening and checks that both find the expected result
+     */
+    private void assertSameResult(final BufferedImage reference, final BufferedImage compareImage,
+                                  final ComparisonAlgorithm algorithm, final boolean equal)
+    {
+        final ImageComparison full = new ImageComparison(reference);
+        Assert.assertEquals(algorithm.getType().toString(), equal,
+                            full.isEqual(compareImage, new MaskImage(reference), algorithm));
+
+        final ImageComparison prescreened = new ImageComparison(reference);
+        prescreened.setPrescreen(true);
+        Assert.assertEquals(algorithm.getType().toString(), equal,
+                            prescreened.isEqual(compareImage, new MaskImage(reference), algorithm));
+    }
+
+    private BufferedImage createPage()
+    {
+        final BufferedImage page = new BufferedImage(300, 2000, BufferedImage.TYPE_INT_RGB);
+        for (int x = 0; x < page.getWidth(); x++)
+        {
+            for (int y = 0; y < page.getHeight(); y++)
+            {
+                page.setRGB(x, y, (x / 10) * 0x010203 + (y / 20) * 0x030201);
+            }
+        }
+
+        return page;
+    }
+}
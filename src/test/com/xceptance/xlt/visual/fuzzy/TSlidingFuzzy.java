@@ -0,0 +1,97 @@
+package test.com.xceptance.xlt.visual.fuzzy;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import test.com.xceptance.xlt.visual.ImageTest;
+
+import com.xceptance.xlt.visualassertion.algorithm.PixelFuzzy;
+import com.xceptance.xlt.visualassertion.algorithm.SlidingFuzzy;
+import com.xceptance.xlt.visualassertion.util.ImageComparison;
+import com.xceptance.xlt.visualassertion.util.MaskImage;
+
+/**
+ * Checks the blocks at the borders of the image and differences that lie on the border between two blocks
+ */
+public class TSlidingFuzzy extends ImageTest
+{
+    /**
+     * The image is not a multiple of the block size, the smaller block in the bottom right corner is compared as well
+     */
+    @Test
+    public void remainderBlock()
+    {
+        final BufferedImage reference = createImage(15, 15);
+        final BufferedImage compareImage = createImage(15, 15);
+        for (int i = 10; i < 15; i++)
+        {
+            compareImage.setRGB(i, i, Color.BLACK.getRGB());
+        }
+
+        Assert.assertFalse(new ImageComparison(reference).isEqual(compareImage, new MaskImage(reference),
+                                                                  new PixelFuzzy(0.1, 0.1, 10)));
+    }
+
+    /**
+     * A cluster of differences that is split by the border of two blocks is tolerated by the grid, but not by the
+     * sliding window
+     */
+    @Test
+    public void differencesOnBlockBorder()
+    {
+        final BufferedImage reference = createImage(20, 10);
+        final BufferedImage compareImage = createImage(20, 10);
+        for (int x = 8; x < 12; x++)
+        {
+            for (int y = 0; y < 4; y++)
+            {
+                compareImage.setRGB(x, y, Color.BLACK.getRGB());
+            }
+        }
+
+        Assert.assertTrue(new ImageComparison(reference).isEqual(compareImage, new MaskImage(reference),
+                                                                 new PixelFuzzy(0.1, 0.1, 10)));
+
+        final ImageComparison sliding = new ImageComparison(reference);
+        Assert.assertFalse(sliding.isEqual(compareImage, new MaskImage(reference), new SlidingFuzzy(0.1, 0.1, 10)));
+
+        // only the differing pixels are marked
+        final BufferedImage marked = sliding.getMarkedImageWithBoxes(1, 1);
+        for (int x = 0; x < 20; x++)
+        {
+            for (int y = 0; y < 10; y++)
+            {
+                Assert.assertEquals(x >= 8 && x < 12 && y < 4, marked.getRGB(x, y) != compareImage.getRGB(x, y));
+            }
+        }
+    }
+
+    /**
+     * A single difference is tolerated by the sliding window
+     */
+    @Test
+    public void singleDifference()
+    {
+        final BufferedImage reference = createImage(20, 10);
+        final BufferedImage compareImage = createImage(20, 10);
+        compareImage.setRGB(10, 5, Color.BLACK.getRGB());
+
+        Assert.assertTrue(new ImageComparison(reference).isEqual(compareImage, new MaskImage(reference),
+                                                                 new SlidingFuzzy(0.1, 0.1, 10)));
+    }
+
+    private BufferedImage createImage(final int width, final int height)
+    {
+        final BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        final Graphics2D g = image.createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, width, height);
+        g.dispose();
+
+        return image;
+    }
+}
@@ -0,0 +1,126 @@
+package test.com.xceptance.xlt.visual.jfr;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.xceptance.xlt.visualassertion.algorithm.ColorFuzzy;
+import com.xceptance.xlt.visualassertion.jfr.Events;
+import com.xceptance.xlt.visualassertion.util.BinaryMask;
+import com.xceptance.xlt.visualassertion.util.CompiledBaseline;
+
+/**
+ * Checks that the flight recorder events are recorded with their values and the context of the assertion
+ */
+public class TEvents
+{
+    @Test
+    public void kernel() throws IOException
+    {
+        final BufferedImage reference = new BufferedImage(30, 20, BufferedImage.TYPE_INT_RGB);
+        final BufferedImage screenshot = new BufferedImage(30, 20, BufferedImage.TYPE_INT_RGB);
+        screenshot.setRGB(3, 4, 0xFFFFFF);
+
+        final List<RecordedEvent> events = record(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                new CompiledBaseline(reference, null, new ColorFuzzy(0.1), false).compare(screenshot);
+            }
+        });
+
+        final RecordedEvent event = find(events, "com.xceptance.xlt.visualassertion.Kernel");
+        Assert.assertEquals("COLORFUZZY", event.getString("kernel"));
+        Assert.assertEquals(30, event.getInt("width"));
+        Assert.assertEquals(20, event.getInt("height"));
+        Assert.assertEquals(0.1, event.getDouble("colorTolerance"), 0);
+        Assert.assertEquals(1, event.getInt("differences"));
+        Assert.assertEquals("TCheckout", event.getString("testCase"));
+        Assert.assertEquals("Checkout", event.getString("action"));
+    }
+
+    @Test
+    public void morphology() throws IOException
+    {
+        final List<RecordedEvent> events = record(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                new BinaryMask(50, 40).close(5, 3, 10);
+            }
+        });
+
+        final RecordedEvent event = find(events, "com.xceptance.xlt.visualassertion.Morphology");
+        Assert.assertEquals("close", event.getString("operation"));
+        Assert.assertEquals(5, event.getInt("structureElementWidth"));
+        Assert.assertEquals(3, event.getInt("structureElementHeight"));
+        Assert.assertEquals(10, event.getInt("scale"));
+    }
+
+    @Test
+    public void onlyWhileRecording()
+    {
+        Assert.assertNull(Events.kernel());
+
+        try (final Recording recording = new Recording())
+        {
+            recording.start();
+            Assert.assertNotNull(Events.kernel());
+            recording.stop();
+            Assert.assertNull(Events.kernel());
+        }
+    }
+
+    private List<RecordedEvent> record(final Runnable assertion) throws IOException
+    {
+        final Path file = Files.createTempFile("visualassertion", ".jfr");
+        try (final Recording recording = new Recording())
+        {
+            recording.start();
+            Events.setContext("TCheckout", "Checkout", "baseline/001-Checkout.png");
+            try
+            {
+                assertion.run();
+            }
+            finally
+            {
+                Events.clearContext();
+            }
+            recording.stop();
+            recording.dump(file);
+
+            return RecordingFile.readAllEvents(file);
+        }
+        finally
+        {
+            Files.delete(file);
+        }
+    }
+
+    private RecordedEvent find(final List<RecordedEvent> events, final String name)
+    {
+        final List<RecordedEvent> found = new ArrayList<>();
+        for (final RecordedEvent event : events)
+        {
+            if (event.getEventType().getName().equals(name))
+            {
+                found.add(event);
+            }
+        }
+
+        Assert.assertEquals(1, found.size());
+        return found.get(0);
+    }
+}
@@ -0,0 +1,111 @@
+package test.com.xceptance.xlt.visual.mask;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import test.com.xceptance.xlt.visual.ImageTest;
+
+import com.xceptance.xlt.visualassertion.util.BinaryMask;
+import com.xceptance.xlt.visualassertion.util.MaskImage;
+
+/**
+ * Checks the morphology of the binary mask and the close of mask images
+ */
+public class TCloseMask extends ImageTest
+{
+    private final static int BLACK = Color.BLACK.getRGB();
+
+    @Test
+    public void dilateAndErode()
+    {
+        final BinaryMask mask = new BinaryMask(200, 50);
+        mask.set(100, 20);
+
+        final BinaryMask dilated = mask.dilate(5, 3);
+        for (int x = 0; x < 200; x++)
+        {
+            for (int y = 0; y < 50; y++)
+            {
+                Assert.assertEquals(x >= 98 && x <= 102 && y >= 19 && y <= 21, dilated.get(x, y));
+            }
+        }
+
+        // the structure element shrinks the dilated area back to the single pixel
+        final BinaryMask eroded = dilated.erode(5, 3);
+        Assert.assertEquals(100, eroded.nextSet(0, 20));
+        Assert.assertEquals(101, eroded.nextClear(100, 20));
+        Assert.assertEquals(200, eroded.nextSet(0, 19));
+    }
+
+    @Test
+    public void erodeIgnoresBorder()
+    {
+        final BinaryMask mask = new BinaryMask(70, 10);
+        for (int y = 0; y < 10; y++)
+        {
+            mask.set(0, 70, y);
+        }
+
+        final BinaryMask eroded = mask.erode(101, 101);
+        Assert.assertEquals(70, eroded.nextClear(0, 0));
+        Assert.assertEquals(70, eroded.nextClear(0, 9));
+    }
+
+    @Test
+    public void closeFullResolution()
+    {
+        final BufferedImage image = createMask(100, 100);
+        final Graphics2D g = image.createGraphics();
+        g.setColor(Color.BLACK);
+        g.fillRect(10, 10, 20, 20);
+        g.fillRect(34, 10, 20, 20);
+        g.dispose();
+
+        final MaskImage mask = new MaskImage(image, image);
+        mask.closeMask(5, 5, 1);
+        final BufferedImage closed = mask.getMask();
+
+        // the gap of 4 pixels is closed, nothing else changed
+        for (int x = 0; x < 100; x++)
+        {
+            for (int y = 0; y < 100; y++)
+            {
+                Assert.assertEquals(x >= 10 && x < 54 && y >= 10 && y < 30, closed.getRGB(x, y) == BLACK);
+            }
+        }
+    }
+
+    @Test
+    public void closeKeepsBorderBlocks()
+    {
+        // 105 pixels in blocks of 10, the last block is 5 pixels wide
+        final BufferedImage image = createMask(105, 105);
+        image.setRGB(103, 103, BLACK);
+
+        final MaskImage mask = new MaskImage(image, image);
+        mask.closeMask(3, 3, 10);
+        final BufferedImage closed = mask.getMask();
+
+        Assert.assertEquals(BLACK, closed.getRGB(100, 100));
+        Assert.assertEquals(BLACK, closed.getRGB(104, 104));
+        Assert.assertFalse(closed.getRGB(99, 99) == BLACK);
+    }
+
+    private BufferedImage createMask(final int width, final int height)
+    {
+        final BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        for (int x = 0; x < width; x++)
+        {
+            for (int y = 0; y < height; y++)
+            {
+                image.setRGB(x, y, 0x00FFFFFF);
+            }
+        }
+
+        return image;
+    }
+}
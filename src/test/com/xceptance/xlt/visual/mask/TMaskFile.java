@@ -0,0 +1,94 @@
+package test.com.xceptance.xlt.visual.mask;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import test.com.xceptance.xlt.visual.ImageTest;
+
+import com.xceptance.xlt.visualassertion.algorithm.ExactMatch;
+import com.xceptance.xlt.visualassertion.util.BinaryMask;
+import com.xceptance.xlt.visualassertion.util.ImageComparison;
+import com.xceptance.xlt.visualassertion.util.MaskImage;
+
+/**
+ * Checks the binary mask format and the compatibility with mask images
+ */
+public class TMaskFile extends ImageTest
+{
+    private File file;
+
+    @Before
+    public void setup() throws IOException
+    {
+        file = File.createTempFile("visualassertion", ".mask");
+    }
+
+    @After
+    public void cleanup()
+    {
+        file.delete();
+    }
+
+    @Test
+    public void writeAndRead() throws IOException
+    {
+        final BinaryMask mask = new BinaryMask(130, 7);
+        mask.fill(60, 2, 10, 3);
+        mask.set(129, 6);
+        mask.write(file);
+
+        // header and two longs per row
+        Assert.assertEquals(16 + 130 / 64 * 8 * 7 + 8 * 7, file.length());
+
+        final BinaryMask read = BinaryMask.read(file);
+        Assert.assertEquals(130, read.getWidth());
+        Assert.assertEquals(7, read.getHeight());
+        for (int x = 0; x < 130; x++)
+        {
+            for (int y = 0; y < 7; y++)
+            {
+                Assert.assertEquals(mask.get(x, y), read.get(x, y));
+            }
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void notAMask() throws IOException
+    {
+        Files.write(file.toPath(), new byte[] { 'P', 'N', 'G', 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0 });
+        BinaryMask.read(file);
+    }
+
+    @Test
+    public void maskImageCompatible()
+    {
+        final BufferedImage image = new BufferedImage(20, 20, BufferedImage.TYPE_INT_ARGB);
+        image.setRGB(3, 4, Color.BLACK.getRGB());
+        image.setRGB(5, 6, Color.RED.getRGB());
+
+        final BufferedImage reference = new BufferedImage(20, 20, BufferedImage.TYPE_INT_RGB);
+        final BufferedImage exported = new MaskImage(reference, image).getMask();
+        for (int x = 0; x < 20; x++)
+        {
+            for (int y = 0; y < 20; y++)
+            {
+                Assert.assertEquals(x == 3 && y == 4, exported.getRGB(x, y) == Color.BLACK.getRGB());
+            }
+        }
+
+        // only black pixels are masked
+        final BufferedImage compareImage = new BufferedImage(20, 20, BufferedImage.TYPE_INT_RGB);
+        compareImage.setRGB(3, 4, Color.WHITE.getRGB());
+        Assert.assertTrue(new ImageComparison(reference).isEqual(compareImage, image, new ExactMatch()));
+        compareImage.setRGB(5, 6, Color.WHITE.getRGB());
+        Assert.assertFalse(new ImageComparison(reference).isEqual(compareImage, image, new ExactMatch()));
+    }
+}
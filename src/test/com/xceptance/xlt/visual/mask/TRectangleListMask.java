@@ -0,0 +1,107 @@
+package test.com.xceptance.xlt.visual.mask;
+
+import java.awt.Color;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import test.com.xceptance.xlt.visual.ImageTest;
+
+import com.xceptance.xlt.visualassertion.algorithm.ExactMatch;
+import com.xceptance.xlt.visualassertion.util.BinaryMask;
+import com.xceptance.xlt.visualassertion.util.ImageComparison;
+import com.xceptance.xlt.visualassertion.util.Mask;
+import com.xceptance.xlt.visualassertion.util.MaskImage;
+import com.xceptance.xlt.visualassertion.util.RectangleListMask;
+import com.xceptance.xlt.visualassertion.util.RectangleMask;
+
+/**
+ * Checks the mask made of rectangles
+ */
+public class TRectangleListMask extends ImageTest
+{
+    @Test
+    public void spans()
+    {
+        final RectangleListMask mask = new RectangleListMask(100, 50);
+        mask.fill(10, 10, 20, 10);
+        mask.fill(25, 15, 20, 10);
+
+        // the overlapping rectangles are one span in the rows they share
+        Assert.assertEquals(10, mask.nextSet(0, 15));
+        Assert.assertEquals(45, mask.nextClear(10, 15));
+        Assert.assertEquals(30, mask.nextClear(10, 12));
+        Assert.assertEquals(100, mask.nextSet(30, 12));
+        Assert.assertEquals(25, mask.nextSet(0, 22));
+        Assert.assertFalse(mask.get(9, 15));
+        Assert.assertTrue(mask.get(44, 24));
+        Assert.assertFalse(mask.get(44, 25));
+
+        Assert.assertEquals(Arrays.asList(new Rectangle(10, 10, 20, 5), new Rectangle(10, 15, 35, 5),
+                                          new Rectangle(25, 20, 20, 5)), mask.getRectangles());
+    }
+
+    @Test
+    public void sameAsBinaryMask()
+    {
+        final BinaryMask binary = new BinaryMask(200, 20);
+        binary.fill(-5, 3, 70, 4);
+        binary.fill(150, 0, 80, 30);
+        binary.set(100, 10);
+
+        final RectangleListMask rectangles = RectangleListMask.fromMask(binary);
+        for (int y = 0; y < 20; y++)
+        {
+            for (int x = 0; x < 200; x++)
+            {
+                Assert.assertEquals(binary.get(x, y), rectangles.get(x, y));
+                Assert.assertEquals(binary.nextSet(x, y), rectangles.nextSet(x, y));
+                Assert.assertEquals(binary.nextClear(x, y), rectangles.nextClear(x, y));
+            }
+        }
+    }
+
+    @Test
+    public void writeAndRead() throws IOException
+    {
+        final RectangleListMask mask = new RectangleListMask(1280, 4000);
+        mask.fill(200, 20, 50, 30);
+        mask.fill(10, 20, 100, 30);
+
+        final File file = File.createTempFile("visualassertion", ".rects");
+        try
+        {
+            mask.write(file);
+
+            final Mask read = Mask.read(file);
+            Assert.assertTrue(read instanceof RectangleListMask);
+            Assert.assertEquals(1280, read.getWidth());
+            Assert.assertEquals(4000, read.getHeight());
+            Assert.assertEquals(mask.getRectangles(), ((RectangleListMask) read).getRectangles());
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void trainAndCompare()
+    {
+        final BufferedImage reference = new BufferedImage(50, 50, BufferedImage.TYPE_INT_RGB);
+        final BufferedImage compareImage = new BufferedImage(50, 50, BufferedImage.TYPE_INT_RGB);
+        compareImage.setRGB(20, 20, Color.WHITE.getRGB());
+
+        final MaskImage mask = new MaskImage(reference, new RectangleListMask(50, 50));
+        Assert.assertFalse(new ImageComparison(reference).isEqual(compareImage, mask, new ExactMatch()));
+
+        mask.train(compareImage, new ExactMatch(), new RectangleMask(5, 5));
+        Assert.assertTrue(new ImageComparison(reference).isEqual(compareImage, mask, new ExactMatch()));
+        Assert.assertEquals(Color.BLACK.getRGB(), mask.getMask().getRGB(18, 18));
+    }
+}
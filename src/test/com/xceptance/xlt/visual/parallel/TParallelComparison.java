@@ -0,0 +1,218 @@
+package test.com.xceptance.xlt.visual.parallel;
+
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import test.com.xceptance.xlt.visual.ImageTest;
+
+import com.xceptance.xlt.visualassertion.algorithm.ColorFuzzy;
+import com.xceptance.xlt.visualassertion.algorithm.ComparisonAlgorithm;
+import com.xceptance.xlt.visualassertion.algorithm.ExactMatch;
+import com.xceptance.xlt.visualassertion.algorithm.PixelFuzzy;
+import com.xceptance.xlt.visualassertion.algorithm.SlidingFuzzy;
+import com.xceptance.xlt.visualassertion.util.BinaryMask;
+import com.xceptance.xlt.visualassertion.util.ComparisonResult;
+import com.xceptance.xlt.visualassertion.util.CompiledBaseline;
+import com.xceptance.xlt.visualassertion.util.DifferenceMap;
+import com.xceptance.xlt.visualassertion.util.ParallelComparison;
+
+/**
+ * Checks that comparing the images in bands in parallel finds exactly the differences of the comparison in the
+ * calling thread
+ */
+public class TParallelComparison extends ImageTest
+{
+    private static final int THREADS = 4;
+
+    private static final int WIDTH = 301;
+
+    // taller than the minimum band height times the number of bands, and not a multiple of the block size
+    private static final int HEIGHT = 1237;
+
+    // doesn't divide the band height before it is aligned to the blocks
+    private static final int BLOCK_SIZE = 7;
+
+    private static final ComparisonAlgorithm[] ALGORITHMS = { new ExactMatch(), new ColorFuzzy(0.1),
+                                                              new PixelFuzzy(0.2, 0.1, BLOCK_SIZE),
+                                                              new SlidingFuzzy(0.2, 0.1, BLOCK_SIZE) };
+
+    @After
+    public void resetParallelism()
+    {
+        Pool.setSize(1);
+    }
+
+    @Test
+    public void bands()
+    {
+        Assert.assertTrue(HEIGHT > Pool.minBandHeight() * THREADS * Pool.bandsPerThread());
+        Assert.assertTrue(Pool.bandHeight(HEIGHT, THREADS, BLOCK_SIZE) < HEIGHT);
+        Assert.assertEquals(0, Pool.bandHeight(HEIGHT, THREADS, BLOCK_SIZE) % BLOCK_SIZE);
+        Assert.assertTrue(((HEIGHT + THREADS * Pool.bandsPerThread() - 1) / (THREADS * Pool.bandsPerThread()))
+                          % BLOCK_SIZE != 0);
+    }
+
+    @Test
+    public void sameDifferences()
+    {
+        final BufferedImage reference = createImage(0);
+        final BufferedImage compareImage = createImage(1);
+        final BinaryMask mask = new BinaryMask(WIDTH, HEIGHT);
+        mask.fill(20, 300, 100, 200);
+
+        for (final ComparisonAlgorithm algorithm : ALGORITHMS)
+        {
+            final CompiledBaseline baseline = new CompiledBaseline(reference, mask, algorithm, false);
+
+            Pool.setSize(1);
+            final ComparisonResult expected = baseline.compare(compareImage);
+            Assert.assertFalse(expected.getDifferences().isEmpty());
+
+            Pool.setSize(THREADS);
+            final ComparisonResult actual = baseline.compare(compareImage);
+
+            Assert.assertEquals(expected.isEqual(), actual.isEqual());
+            assertSameDifferences(expected.getDifferences(), actual.getDifferences());
+        }
+    }
+
+    @Test
+    public void limitSharedByBands()
+    {
+        final BufferedImage reference = createImage(0);
+        final BufferedImage compareImage = createImage(1);
+
+        for (final ComparisonAlgorithm algorithm : ALGORITHMS)
+        {
+            final CompiledBaseline baseline = new CompiledBaseline(reference, null, algorithm, false);
+            for (final int threads : new int[] { 1, THREADS })
+            {
+                Pool.setSize(threads);
+                final ComparisonResult result = baseline.compare(compareImage, 10, -1, true);
+
+                Assert.assertFalse(result.isEqual());
+                Assert.assertFalse(result.isComplete());
+                Assert.assertTrue(result.getDifferences().isLimitExceeded());
+                Assert.assertTrue(result.getDifferences().size() > 10);
+            }
+
+            // without fail fast all bands are compared
+            final ComparisonResult complete = baseline.compare(compareImage, 10, -1, false);
+            Pool.setSize(1);
+            assertSameDifferences(baseline.compare(compareImage).getDifferences(), complete.getDifferences());
+        }
+    }
+
+    @Test
+    public void parallelismChangedDuringComparison() throws InterruptedException
+    {
+        final BufferedImage reference = createImage(0);
+        final BufferedImage compareImage = createImage(1);
+        final CompiledBaseline baseline = new CompiledBaseline(reference, null, ALGORITHMS[2], false);
+        final DifferenceMap expected = baseline.compare(compareImage).getDifferences();
+
+        // replaces the pool all the time, so comparisons run into a pool that was shut down
+        final Thread changer = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                int threads = 2;
+                while (!isInterrupted())
+                {
+                    Pool.setSize(threads);
+                    threads = threads == 2 ? 3 : 2;
+                }
+            }
+        };
+        changer.start();
+        try
+        {
+            for (int i = 0; i < 50; i++)
+            {
+                assertSameDifferences(expected, baseline.compare(compareImage).getDifferences());
+            }
+        }
+        finally
+        {
+            changer.interrupt();
+            changer.join();
+        }
+    }
+
+    private void assertSameDifferences(final DifferenceMap expected, final DifferenceMap actual)
+    {
+        Assert.assertEquals(expected.size(), actual.size());
+        for (int y = 0; y < expected.getHeight(); y++)
+        {
+            for (int x = expected.nextDifference(0, y); x >= 0; x = expected.nextDifference(x + 1, y))
+            {
+                Assert.assertTrue("Missing difference at " + x + "," + y, actual.contains(x, y));
+            }
+        }
+    }
+
+    /**
+     * Creates a noisy image, the changed image differs in small spots and patches all over the image, also at the
+     * borders of the bands, and slightly in color everywhere
+     */
+    private BufferedImage createImage(final int change)
+    {
+        final Random random = new Random(42);
+        final BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < HEIGHT; y++)
+        {
+            for (int x = 0; x < WIDTH; x++)
+            {
+                int rgb = random.nextInt(0x1000000);
+                if (change > 0)
+                {
+                    // a patch of 12x12 pixels every 80 rows, which the fuzzy algorithms find as well
+                    final int patchX = (y + 6) / 80 * 37 % (WIDTH - 12);
+                    if ((x * 31 + y * 17) % 97 < 3 || y % 70 == 0 && x % 5 == 0
+                        || (y + 6) % 80 < 12 && x >= patchX && x < patchX + 12)
+                    {
+                        rgb ^= 0xFFFFFF;
+                    }
+                    else if ((x + y) % 3 == 0)
+                    {
+                        rgb ^= 0x010101;
+                    }
+                }
+                image.setRGB(x, y, rgb);
+            }
+        }
+
+        return image;
+    }
+
+    /**
+     * Gives access to the pool size and the band sizes of the parallel comparison
+     */
+    private static class Pool extends ParallelComparison
+    {
+        static void setSize(final int threads)
+        {
+            setPoolSize(threads);
+        }
+
+        static int bandHeight(final int height, final int threads, final int rowAlignment)
+        {
+            return calcBandHeight(height, threads, rowAlignment);
+        }
+
+        static int minBandHeight()
+        {
+            return MIN_BAND_HEIGHT;
+        }
+
+        static int bandsPerThread()
+        {
+            return BANDS_PER_THREAD;
+        }
+    }
+}
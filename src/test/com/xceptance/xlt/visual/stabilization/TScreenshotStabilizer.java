@@ -0,0 +1,76 @@
+package test.com.xceptance.xlt.visual.stabilization;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openqa.selenium.OutputType;
+import org.openqa.selenium.TakesScreenshot;
+
+import com.xceptance.xlt.visualassertion.util.ScreenshotStabilizer;
+
+/**
+ * Checks that screenshots are taken until two consecutive ones are the same or the maximum waiting time is over
+ */
+public class TScreenshotStabilizer
+{
+    @Test
+    public void stableAtOnce() throws InterruptedException
+    {
+        final ScreenshotStabilizer stabilizer = new ScreenshotStabilizer(10, 1000);
+        final byte[] screenshot = stabilizer.takeScreenshot(new Screenshots(new byte[] { 1 }, new byte[] { 1 }));
+
+        Assert.assertArrayEquals(new byte[] { 1 }, screenshot);
+        Assert.assertTrue(stabilizer.isStable());
+        Assert.assertEquals(2, stabilizer.getScreenshots());
+        Assert.assertTrue(stabilizer.getWaitingTime() < 1000);
+    }
+
+    @Test
+    public void stableAfterAnimation() throws InterruptedException
+    {
+        final ScreenshotStabilizer stabilizer = new ScreenshotStabilizer(10, 1000);
+        final byte[] screenshot = stabilizer.takeScreenshot(new Screenshots(new byte[] { 1 }, new byte[] { 2 },
+                                                                            new byte[] { 3, 4 }, new byte[] { 3, 4 }));
+
+        Assert.assertArrayEquals(new byte[] { 3, 4 }, screenshot);
+        Assert.assertTrue(stabilizer.isStable());
+        Assert.assertEquals(4, stabilizer.getScreenshots());
+    }
+
+    @Test
+    public void neverStable() throws InterruptedException
+    {
+        final ScreenshotStabilizer stabilizer = new ScreenshotStabilizer(20, 100);
+        final Screenshots driver = new Screenshots();
+        final byte[] screenshot = stabilizer.takeScreenshot(driver);
+
+        Assert.assertFalse(stabilizer.isStable());
+        Assert.assertEquals(driver.count, stabilizer.getScreenshots());
+        Assert.assertArrayEquals(new byte[] { (byte) driver.count }, screenshot);
+        Assert.assertTrue(stabilizer.getWaitingTime() >= 100);
+    }
+
+    /**
+     * Returns the given screenshots one after the other and the last one from then on, or a new screenshot every
+     * time if none are given
+     */
+    private static class Screenshots implements TakesScreenshot
+    {
+        private final byte[][] screenshots;
+
+        private int count;
+
+        Screenshots(final byte[]... screenshots)
+        {
+            this.screenshots = screenshots;
+        }
+
+        @Override
+        public <X> X getScreenshotAs(final OutputType<X> outputType)
+        {
+            count++;
+            final byte[] screenshot = screenshots.length == 0 ? new byte[] { (byte) count }
+                                                              : screenshots[Math.min(count, screenshots.length) - 1];
+            return outputType.convertFromPngBytes(screenshot);
+        }
+    }
+}
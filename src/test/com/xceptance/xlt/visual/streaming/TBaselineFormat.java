@@ -0,0 +1,202 @@
+package test.com.xceptance.xlt.visual.streaming;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import test.com.xceptance.xlt.visual.ImageTest;
+
+import com.xceptance.xlt.visualassertion.util.BaselineConverter;
+import com.xceptance.xlt.visualassertion.util.BaselineFormat;
+import com.xceptance.xlt.visualassertion.util.PngRowReader;
+
+/**
+ * Checks that reference images keep their pixels in all formats and that they can be read row by row
+ */
+public class TBaselineFormat extends ImageTest
+{
+    private File directory;
+
+    @Before
+    public void setup() throws IOException
+    {
+        directory = Files.createTempDirectory("visualassertion").toFile();
+    }
+
+    @After
+    public void cleanup()
+    {
+        final File[] files = new File(directory, "baseline").listFiles();
+        if (files != null)
+        {
+            for (final File file : files)
+            {
+                file.delete();
+            }
+        }
+        new File(directory, "baseline").delete();
+        directory.delete();
+    }
+
+    @Test
+    public void opaque() throws IOException
+    {
+        for (final BaselineFormat format : BaselineFormat.values())
+        {
+            assertWritten(format, createImage(false, 61, 37));
+        }
+    }
+
+    @Test
+    public void alpha() throws IOException
+    {
+        for (final BaselineFormat format : BaselineFormat.values())
+        {
+            assertWritten(format, createImage(true, 61, 37));
+        }
+    }
+
+    @Test
+    public void convert() throws IOException
+    {
+        final File baseline = new File(directory, "baseline");
+        baseline.mkdirs();
+        final BufferedImage image = createImage(false, 40, 30);
+        ImageIO.write(image, "PNG", new File(baseline, "001-Action.png"));
+
+        for (final BaselineFormat format : new BaselineFormat[] { BaselineFormat.QOI, BaselineFormat.RAW, BaselineFormat.PNG })
+        {
+            final List<File> converted = BaselineConverter.convert(directory, format, false);
+            Assert.assertEquals(1, converted.size());
+            Assert.assertEquals(new File(baseline, "001-Action." + format.getExtension()), converted.get(0));
+            Assert.assertEquals(1, baseline.listFiles().length);
+            assertPixels(image, BaselineFormat.read(converted.get(0)));
+        }
+
+        // the images in the target format are left as they are
+        Assert.assertTrue(BaselineConverter.convert(directory, BaselineFormat.PNG, false).isEmpty());
+    }
+
+    @Test
+    public void referenceAfterConversion() throws IOException
+    {
+        final File baseline = new File(directory, "baseline");
+        baseline.mkdirs();
+        final BufferedImage image = createImage(false, 40, 30);
+        ImageIO.write(image, "PNG", new File(baseline, "001-Action.png"));
+
+        // no reference image yet, a new one is created in the configured format
+        Assert.assertEquals(new File(baseline, "002-Action.qoi"),
+                            BaselineFormat.findReference(baseline, "002-Action", BaselineFormat.QOI));
+
+        // converted to QOI, but PNG is still configured
+        BaselineConverter.convert(directory, BaselineFormat.QOI, false);
+        File reference = BaselineFormat.findReference(baseline, "001-Action", BaselineFormat.PNG);
+        Assert.assertEquals(new File(baseline, "001-Action.qoi"), reference);
+        assertPixels(image, BaselineFormat.read(reference));
+
+        // converted to raw, but QOI is still configured
+        BaselineConverter.convert(directory, BaselineFormat.RAW, false);
+        reference = BaselineFormat.findReference(baseline, "001-Action", BaselineFormat.QOI);
+        Assert.assertEquals(new File(baseline, "001-Action.raw"), reference);
+        assertPixels(image, BaselineFormat.read(reference));
+
+        // the configured format is preferred if both exist
+        BaselineConverter.convert(directory, BaselineFormat.PNG, true);
+        Assert.assertEquals(new File(baseline, "001-Action.png"),
+                            BaselineFormat.findReference(baseline, "001-Action", BaselineFormat.PNG));
+        Assert.assertEquals(new File(baseline, "001-Action.raw"),
+                            BaselineFormat.findReference(baseline, "001-Action", BaselineFormat.RAW));
+    }
+
+    private void assertWritten(final BaselineFormat format, final BufferedImage image) throws IOException
+    {
+        final File file = new File(directory, "image." + format.getExtension());
+        format.write(image, file);
+
+        final BufferedImage read = BaselineFormat.read(file);
+        assertPixels(image, read);
+        Assert.assertEquals(image.getColorModel().hasAlpha(), read.getColorModel().hasAlpha());
+
+        final int width = image.getWidth();
+        final int height = image.getHeight();
+        final int[] rows = new int[width * height];
+        try (final PngRowReader reader = new PngRowReader(file))
+        {
+            Assert.assertEquals(width, reader.getWidth());
+            Assert.assertEquals(height, reader.getHeight());
+
+            // rows one by one and in bands
+            reader.readRows(rows, 0, width, 1);
+            reader.skipRows(1);
+            reader.readRows(rows, 2 * width, width, height - 2);
+        }
+        try (final PngRowReader reader = new PngRowReader(Files.readAllBytes(file.toPath())))
+        {
+            reader.skipRows(1);
+            reader.readRows(rows, width, width, 1);
+        }
+        Assert.assertArrayEquals(image.getRGB(0, 0, width, height, null, 0, width), rows);
+
+        // only PNG images are measured by their header
+        Assert.assertEquals(format == BaselineFormat.PNG ? width * height : -1,
+                            PngRowReader.getPixelCount(Files.readAllBytes(file.toPath())));
+
+        file.delete();
+    }
+
+    private void assertPixels(final BufferedImage expected, final BufferedImage actual)
+    {
+        final int width = expected.getWidth();
+        final int height = expected.getHeight();
+        Assert.assertEquals(width, actual.getWidth());
+        Assert.assertEquals(height, actual.getHeight());
+        Assert.assertArrayEquals(expected.getRGB(0, 0, width, height, null, 0, width),
+                                 actual.getRGB(0, 0, width, height, null, 0, width));
+    }
+
+    /**
+     * Creates an image with runs, gradients, repeated colors and noise, which uses all operations of the QOI encoder
+     */
+    private BufferedImage createImage(final boolean alpha, final int width, final int height)
+    {
+        final Random random = new Random(width);
+        final BufferedImage image = new BufferedImage(width, height, alpha ? BufferedImage.TYPE_INT_ARGB
+                                                                           : BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y++)
+        {
+            for (int x = 0; x < width; x++)
+            {
+                final int argb;
+                switch (y % 4)
+                {
+                case 0:
+                    argb = 0xFFFFFFFF;
+                    break;
+                case 1:
+                    argb = 0xFF000000 | (x * 3) << 16 | (x * 2) << 8 | x;
+                    break;
+                case 2:
+                    argb = x % 2 == 0 ? 0xFF336699 : 0xFF996633;
+                    break;
+                default:
+                    argb = random.nextInt() | (alpha ? 0 : 0xFF000000);
+                    break;
+                }
+                image.setRGB(x, y, argb);
+            }
+        }
+
+        return image;
+    }
+}
@@ -0,0 +1,109 @@
+package test.com.xceptance.xlt.visual.streaming;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import test.com.xceptance.xlt.visual.ImageTest;
+
+import com.xceptance.xlt.visualassertion.util.PngRowReader;
+import com.xceptance.xlt.visualassertion.util.PngRowWriter;
+import com.xceptance.xlt.visualassertion.util.PngRowWriter.Filter;
+
+/**
+ * Checks that the written images keep their pixels for all filters and palette sizes
+ */
+public class TPngRowWriter extends ImageTest
+{
+    @After
+    public void cleanup()
+    {
+        PngRowWriter.configure(-1, Filter.SUB);
+    }
+
+    @Test
+    public void filters() throws IOException
+    {
+        final BufferedImage image = createImage(1 << 24, 37, 29);
+        for (final Filter filter : Filter.values())
+        {
+            PngRowWriter.configure(1, filter);
+            assertWritten(image);
+        }
+    }
+
+    @Test
+    public void palettes() throws IOException
+    {
+        // 1, 2, 4 and 8 bit palettes and one color too many for a palette
+        for (final int colors : new int[] { 2, 3, 16, 17, 256, 257 })
+        {
+            for (final int width : new int[] { 1, 7, 8, 9 })
+            {
+                assertWritten(createImage(colors, width, 5));
+            }
+        }
+    }
+
+    @Test
+    public void paletteIsSmaller() throws IOException
+    {
+        final BufferedImage mask = createImage(2, 200, 200);
+        final ByteArrayOutputStream palette = new ByteArrayOutputStream();
+        PngRowWriter.write(mask, palette);
+
+        final ByteArrayOutputStream rgba = new ByteArrayOutputStream();
+        ImageIO.write(mask, "PNG", rgba);
+
+        Assert.assertTrue(palette.size() < rgba.size());
+    }
+
+    private void assertWritten(final BufferedImage image) throws IOException
+    {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PngRowWriter.write(image, out);
+
+        final int width = image.getWidth();
+        final int height = image.getHeight();
+        final int[] expected = image.getRGB(0, 0, width, height, null, 0, width);
+
+        final BufferedImage read = ImageIO.read(new ByteArrayInputStream(out.toByteArray()));
+        Assert.assertArrayEquals(expected, read.getRGB(0, 0, width, height, null, 0, width));
+
+        final int[] rows = new int[width * height];
+        try (final PngRowReader reader = new PngRowReader(out.toByteArray()))
+        {
+            reader.readRows(rows, 0, width, height);
+        }
+        Assert.assertArrayEquals(expected, rows);
+    }
+
+    private BufferedImage createImage(final int colors, final int width, final int height)
+    {
+        final Random random = new Random(colors);
+        final int[] palette = new int[Math.min(colors, 1024)];
+        for (int i = 0; i < palette.length; i++)
+        {
+            palette[i] = random.nextInt() | (i % 3 == 0 ? 0 : 0xFF000000);
+        }
+
+        final BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        for (int y = 0; y < height; y++)
+        {
+            for (int x = 0; x < width; x++)
+            {
+                image.setRGB(x, y, colors > palette.length ? random.nextInt() : palette[(x * 7 + y * 3) % palette.length]);
+            }
+        }
+
+        return image;
+    }
+}
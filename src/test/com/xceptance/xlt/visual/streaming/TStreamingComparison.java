@@ -0,0 +1,189 @@
+package test.com.xceptance.xlt.visual.streaming;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import test.com.xceptance.xlt.visual.ImageTest;
+
+import com.xceptance.xlt.visualassertion.algorithm.ColorFuzzy;
+import com.xceptance.xlt.visualassertion.algorithm.ComparisonAlgorithm;
+import com.xceptance.xlt.visualassertion.algorithm.ExactMatch;
+import com.xceptance.xlt.visualassertion.algorithm.PixelFuzzy;
+import com.xceptance.xlt.visualassertion.algorithm.SlidingFuzzy;
+import com.xceptance.xlt.visualassertion.util.BinaryMask;
+import com.xceptance.xlt.visualassertion.util.ImageComparison;
+import com.xceptance.xlt.visualassertion.util.PngRowReader;
+import com.xceptance.xlt.visualassertion.util.StreamingComparison;
+
+/**
+ * Checks that the band by band comparison finds the same differences as the comparison of the whole images
+ */
+public class TStreamingComparison extends ImageTest
+{
+    private File referenceFile;
+
+    private File outputFile;
+
+    private BufferedImage reference;
+
+    private BufferedImage compareImage;
+
+    @Before
+    public void setup() throws IOException
+    {
+        final Random random = new Random(42);
+
+        reference = new BufferedImage(120, 301, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < reference.getHeight(); y++)
+        {
+            for (int x = 0; x < reference.getWidth(); x++)
+            {
+                reference.setRGB(x, y, (x / 7 * 30) << 16 | (y / 11 * 7) << 8 | ((x + y) & 0xFF));
+            }
+        }
+
+        // spots of changed pixels, some of them across the borders of the bands
+        compareImage = new BufferedImage(reference.getWidth(), reference.getHeight(), BufferedImage.TYPE_INT_RGB);
+        compareImage.getGraphics().drawImage(reference, 0, 0, null);
+        for (int i = 0; i < 30; i++)
+        {
+            final int spotX = random.nextInt(110);
+            final int spotY = random.nextInt(290);
+            for (int y = spotY; y < spotY + 10; y++)
+            {
+                for (int x = spotX; x < spotX + 10; x++)
+                {
+                    if (random.nextBoolean())
+                    {
+                        compareImage.setRGB(x, y, random.nextInt() | 0xFF000000);
+                    }
+                }
+            }
+        }
+
+        referenceFile = File.createTempFile("visualassertion", ".png");
+        outputFile = File.createTempFile("visualassertion", ".png");
+        ImageIO.write(reference, "PNG", referenceFile);
+    }
+
+    @After
+    public void cleanup()
+    {
+        referenceFile.delete();
+        outputFile.delete();
+    }
+
+    @Test
+    public void readRows() throws IOException
+    {
+        final BufferedImage indexed = new BufferedImage(50, 20, BufferedImage.TYPE_BYTE_INDEXED);
+        indexed.getGraphics().drawImage(compareImage, 0, 0, null);
+
+        for (final BufferedImage image : new BufferedImage[] { compareImage, indexed })
+        {
+            try (final PngRowReader reader = new PngRowReader(encode(image)))
+            {
+                final int width = image.getWidth();
+                final int[] row = new int[width];
+                for (int y = 0; y < image.getHeight(); y++)
+                {
+                    reader.readRows(row, 0, width, 1);
+                    Assert.assertArrayEquals(image.getRGB(0, y, width, 1, null, 0, width), row);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void sameAsImageComparison() throws IOException
+    {
+        final BinaryMask mask = new BinaryMask(reference.getWidth(), reference.getHeight());
+        mask.fill(30, 90, 40, 40);
+
+        final ComparisonAlgorithm[] algorithms = { new ExactMatch(), new ColorFuzzy(0.1), new PixelFuzzy(0.2, 0.1, 10),
+                                                   new SlidingFuzzy(0.2, 0.1, 7) };
+        for (final ComparisonAlgorithm algorithm : algorithms)
+        {
+            final ImageComparison comparison = new ImageComparison(reference);
+            Assert.assertFalse(comparison.isEqual(compareImage, mask, algorithm));
+            final BufferedImage expected = comparison.getMarkedImageWithBoxes(1, 1);
+
+            final StreamingComparison streaming = new StreamingComparison(referenceFile);
+            streaming.setBandHeight(16);
+            Assert.assertFalse(streaming.isEqual(encode(compareImage), mask, algorithm));
+            streaming.writeMarkedImageWithBoxes(outputFile, 1, 1);
+
+            Assert.assertTrue(imageEqual(expected, load(outputFile)));
+        }
+    }
+
+    @Test
+    public void markedImages() throws IOException
+    {
+        final ImageComparison comparison = new ImageComparison(reference);
+        comparison.isEqual(compareImage, (BufferedImage) null, new ExactMatch());
+
+        final StreamingComparison streaming = new StreamingComparison(referenceFile);
+        streaming.setBandHeight(25);
+        streaming.isEqual(encode(compareImage), null, new ExactMatch());
+
+        streaming.writeMarkedImageWithBoxes(outputFile, 10, 10);
+        Assert.assertTrue(imageEqual(comparison.getMarkedImageWithBoxes(10, 10), load(outputFile)));
+
+        streaming.writeMarkedImageWithAMarker(outputFile, 10, 10);
+        Assert.assertTrue(imageEqual(comparison.getMarkedImageWithAMarker(10, 10), load(outputFile)));
+
+        streaming.writeDifferenceImage(outputFile);
+        Assert.assertTrue(imageEqual(comparison.getDifferenceImage(), load(outputFile)));
+    }
+
+    @Test
+    public void failFast() throws IOException
+    {
+        final StreamingComparison streaming = new StreamingComparison(referenceFile);
+        streaming.setBandHeight(10);
+        streaming.setFailFast(true);
+        streaming.setMaxDifferences(5);
+
+        Assert.assertFalse(streaming.isEqual(encode(compareImage), null, new ExactMatch()));
+        Assert.assertTrue(streaming.getDifferences().size() < 100);
+    }
+
+    @Test
+    public void maskImage() throws IOException
+    {
+        final BinaryMask mask = new BinaryMask(70, 30);
+        mask.fill(5, 5, 20, 10);
+        mask.set(69, 29);
+
+        StreamingComparison.writeMask(mask, outputFile);
+        Assert.assertEquals(Color.BLACK.getRGB(), load(outputFile).getRGB(5, 5));
+
+        final BinaryMask read = StreamingComparison.readMask(outputFile);
+        for (int y = 0; y < 30; y++)
+        {
+            for (int x = 0; x < 70; x++)
+            {
+                Assert.assertEquals(mask.get(x, y), read.get(x, y));
+            }
+        }
+    }
+
+    private static byte[] encode(final BufferedImage image) throws IOException
+    {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "PNG", out);
+        return out.toByteArray();
+    }
+}
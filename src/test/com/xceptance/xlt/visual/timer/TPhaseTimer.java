@@ -0,0 +1,96 @@
+package test.com.xceptance.xlt.visual.timer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.xceptance.xlt.api.engine.CustomData;
+import com.xceptance.xlt.api.engine.CustomValue;
+import com.xceptance.xlt.api.engine.Data;
+import com.xceptance.xlt.api.engine.DataManager;
+import com.xceptance.xlt.visualassertion.util.PhaseTimer;
+
+/**
+ * Checks that every phase is reported once with the time since the previous phase
+ */
+public class TPhaseTimer
+{
+    @Test
+    public void phases() throws InterruptedException
+    {
+        final RecordingTimer timer = new RecordingTimer();
+
+        Thread.sleep(50);
+        timer.record("Wait");
+        timer.record("Compare");
+        timer.value("Differences", 42);
+
+        Assert.assertEquals(3, timer.records.size());
+
+        final CustomData wait = (CustomData) timer.records.get(0);
+        Assert.assertEquals("VisualAssertion.Wait", wait.getName());
+        Assert.assertTrue(wait.getRunTime() >= 50);
+
+        final CustomData compare = (CustomData) timer.records.get(1);
+        Assert.assertEquals("VisualAssertion.Compare", compare.getName());
+        Assert.assertTrue(compare.getRunTime() < wait.getRunTime());
+
+        final CustomValue differences = (CustomValue) timer.records.get(2);
+        Assert.assertEquals("VisualAssertion.Differences", differences.getName());
+        Assert.assertEquals(42, differences.getValue(), 0);
+    }
+
+    @Test
+    public void restart() throws InterruptedException
+    {
+        final RecordingTimer timer = new RecordingTimer();
+
+        // the time before the restart is not part of the first phase, but the time of the second phase is
+        Thread.sleep(50);
+        timer.restart();
+        timer.record("Compare");
+        Thread.sleep(50);
+        timer.record("Train");
+
+        final long compare = ((CustomData) timer.records.get(0)).getRunTime();
+        final long train = ((CustomData) timer.records.get(1)).getRunTime();
+        Assert.assertTrue(train >= 50);
+        Assert.assertTrue(compare < train);
+    }
+
+    @Test
+    public void disabled()
+    {
+        final RecordingTimer timer = new RecordingTimer(null);
+        timer.record("Wait");
+        timer.value("Differences", 42);
+
+        Assert.assertTrue(timer.records.isEmpty());
+    }
+
+    private static class RecordingTimer extends PhaseTimer
+    {
+        private final List<Data> records = new ArrayList<>();
+
+        RecordingTimer()
+        {
+            super("VisualAssertion.");
+        }
+
+        /**
+         * Creates a timer that reports to the given data manager, which disables it if null
+         */
+        RecordingTimer(final DataManager dataManager)
+        {
+            super("VisualAssertion.", dataManager);
+        }
+
+        @Override
+        protected void log(final Data data)
+        {
+            records.add(data);
+        }
+    }
+}